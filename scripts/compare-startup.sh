@@ -0,0 +1,125 @@
+#!/usr/bin/env bash
+#
+#  Copyright (C) 2022 Starfire Aviation, LLC
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#       http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+# Compares cold start of the JVM jar and the native executable.
+#
+# Each build is started RUNS times. Startup is the wall time from launch until /health/ready first
+# answers 200, i.e. until a new pod would take traffic. RSS is read from /proc when the service is
+# ready and again after WARMUP requests to /health/ready. Linux only.
+#
+# Build both first:
+#   ./mvnw -Pnative -DskipTests package
+#
+# Environment:
+#   JAR        JVM build        (default target/email-0.0.1-exec.jar)
+#   NATIVE     native build     (default target/email)
+#   RUNS       starts per build (default 5)
+#   WARMUP     requests after ready before the second RSS reading (default 200)
+#   PORT       port to listen on (default 18080)
+#   JAVA_OPTS  JVM options, e.g. "-Xmx512m -XX:ActiveProcessorCount=1" to match the helm limits
+#   APP_ARGS   extra arguments for both builds, e.g. --email.enabled=false
+
+set -euo pipefail
+
+JAR=${JAR:-target/email-0.0.1-exec.jar}
+NATIVE=${NATIVE:-target/email}
+RUNS=${RUNS:-5}
+WARMUP=${WARMUP:-200}
+PORT=${PORT:-18080}
+JAVA_OPTS=${JAVA_OPTS:-}
+APP_ARGS=${APP_ARGS:-}
+TIMEOUT_SECONDS=60
+
+READY_URL="http://localhost:${PORT}/health/ready"
+
+now_millis() {
+    echo $(( $(date +%s%N) / 1000000 ))
+}
+
+rss_kb() {
+    awk '/^VmRSS:/ { print $2 }' "/proc/$1/status"
+}
+
+median() {
+    sort -n | awk '{ v[NR] = $1 }
+        END { if (NR % 2) print v[(NR + 1) / 2]; else print int((v[NR / 2] + v[NR / 2 + 1]) / 2) }'
+}
+
+# Starts one build, waits until it is ready and prints "startup_ms ready_rss_kb warm_rss_kb".
+measure() {
+    local start pid ready code i
+    start=$(now_millis)
+    # shellcheck disable=SC2086
+    "$@" --server.port="${PORT}" ${APP_ARGS} > "${LOG}" 2>&1 &
+    pid=$!
+    while true; do
+        code=$(curl -s -o /dev/null -w '%{http_code}' "${READY_URL}" || true)
+        if [ "${code}" = "200" ]; then
+            break
+        fi
+        if ! kill -0 "${pid}" 2> /dev/null; then
+            echo "exited before becoming ready; see ${LOG}" >&2
+            return 1
+        fi
+        if [ $(( $(now_millis) - start )) -gt $(( TIMEOUT_SECONDS * 1000 )) ]; then
+            kill "${pid}"
+            echo "not ready after ${TIMEOUT_SECONDS}s; see ${LOG}" >&2
+            return 1
+        fi
+        sleep 0.01
+    done
+    ready=$(( $(now_millis) - start ))
+    local ready_rss
+    ready_rss=$(rss_kb "${pid}")
+    for (( i = 0; i < WARMUP; i++ )); do
+        curl -s -o /dev/null "${READY_URL}"
+    done
+    echo "${ready} ${ready_rss} $(rss_kb "${pid}")"
+    kill "${pid}"
+    wait "${pid}" 2> /dev/null || true
+}
+
+# Runs one build RUNS times and prints a summary line.
+compare() {
+    local name=$1
+    shift
+    local results=()
+    local r
+    for (( r = 0; r < RUNS; r++ )); do
+        results+=("$(measure "$@")")
+    done
+    local startup ready warm
+    startup=$(printf '%s\n' "${results[@]}" | awk '{ print $1 }' | median)
+    ready=$(printf '%s\n' "${results[@]}" | awk '{ print $2 }' | median)
+    warm=$(printf '%s\n' "${results[@]}" | awk '{ print $3 }' | median)
+    printf '%-8s %12s %14s %14s\n' "${name}" "${startup}" "$(( ready / 1024 ))" "$(( warm / 1024 ))"
+}
+
+for f in "${JAR}" "${NATIVE}"; do
+    if [ ! -e "${f}" ]; then
+        echo "${f} not found; build with ./mvnw -Pnative -DskipTests package" >&2
+        exit 1
+    fi
+done
+
+LOG=$(mktemp)
+trap 'rm -f "${LOG}"' EXIT
+
+echo "median of ${RUNS} starts; RSS after ready and after ${WARMUP} requests"
+printf '%-8s %12s %14s %14s\n' build startup_ms ready_rss_mb warm_rss_mb
+# shellcheck disable=SC2086
+compare jvm java ${JAVA_OPTS} -jar "${JAR}"
+compare native "${NATIVE}"
@@ -0,0 +1,494 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.build;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * TemplateModelGenerator.
+ *
+ * <p>Run by Maven in generate-sources, through the single-file source launcher, with the FreeMarker jar on the
+ * class path. Every .ftl in the template directory is parsed, so a syntax error fails the build. For each
+ * {@code <name>_subject.ftl}/{@code <name>_body.ftl} pair it collects the top level variables the two templates
+ * reference and writes a model class with one String field per variable, filled from the getter of the same name on
+ * {@code ModelValues}. A template referencing a variable nothing provides therefore fails to compile rather than
+ * failing when a message is sent. Models are equal when all their fields are, which is what renders are cached by.
+ * {@code TemplateModels} gets a constant per pair and a factory.</p>
+ *
+ * <p>Variables are found by scanning interpolations and directive expressions: an identifier counts unless it
+ * follows a dot or a built-in's question mark, is an operator keyword, or was bound by #assign, #local, #list or a
+ * macro or function parameter.</p>
+ *
+ * <p>Usage: {@code TemplateModelGenerator <template directory> <output source directory>}</p>
+ */
+public final class TemplateModelGenerator {
+
+    /**
+     * Package the model classes are generated into.
+     */
+    private static final String PACKAGE = "com.starfireaviation.email.template.model";
+
+    /**
+     * Subject template suffix.
+     */
+    private static final String SUBJECT_SUFFIX = "_subject.ftl";
+
+    /**
+     * Body template suffix.
+     */
+    private static final String BODY_SUFFIX = "_body.ftl";
+
+    /**
+     * Identifiers that are operators or literals rather than variables.
+     */
+    private static final Set<String> KEYWORDS = Set.of("true", "false", "gt", "gte", "lt", "lte", "as", "in", "using");
+
+    /**
+     * Directives whose first word is a name being bound rather than an expression.
+     */
+    private static final Set<String> BINDING_DIRECTIVES = Set.of("assign", "local", "global");
+
+    /**
+     * Directives that declare parameters.
+     */
+    private static final Set<String> DECLARING_DIRECTIVES = Set.of("macro", "function");
+
+    /**
+     * Java keywords a variable name cannot be turned into a field for.
+     */
+    private static final Set<String> JAVA_KEYWORDS = Set.of("abstract", "assert", "boolean", "break", "byte", "case",
+            "catch", "char", "class", "const", "continue", "default", "do", "double", "else", "enum", "extends",
+            "final", "finally", "float", "for", "goto", "if", "implements", "import", "instanceof", "int",
+            "interface", "long", "native", "new", "package", "private", "protected", "public", "return", "short",
+            "static", "strictfp", "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try",
+            "void", "volatile", "while", "values", "key");
+
+    /**
+     * TemplateModelGenerator.
+     */
+    private TemplateModelGenerator() {
+    }
+
+    /**
+     * Generates the model classes.
+     *
+     * @param args template directory, output source directory
+     * @throws IOException when a template cannot be read or a source file written
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("usage: TemplateModelGenerator <template dir> <output source dir>");
+        }
+        final Path templates = Paths.get(args[0]);
+        final Path output = Paths.get(args[1]).resolve(PACKAGE.replace('.', '/'));
+        final Configuration config = new Configuration(Configuration.VERSION_2_3_31);
+        final Map<String, Set<String>> variablesByFile = new TreeMap<>();
+        final List<Path> files;
+        try (Stream<Path> paths = Files.list(templates)) {
+            files = paths.filter(path -> path.getFileName().toString().endsWith(".ftl")).sorted()
+                    .collect(Collectors.toList());
+        }
+        final List<String> errors = new ArrayList<>();
+        for (Path file : files) {
+            final String name = file.getFileName().toString();
+            final String source = Files.readString(file, StandardCharsets.UTF_8);
+            try {
+                new Template(name, source, config);
+            } catch (IOException e) {
+                errors.add(name + ": " + e.getMessage());
+                continue;
+            }
+            variablesByFile.put(name, variables(source));
+        }
+        final Map<String, Set<String>> pairs = new TreeMap<>();
+        for (Map.Entry<String, Set<String>> entry : variablesByFile.entrySet()) {
+            final String name = entry.getKey();
+            if (!name.endsWith(SUBJECT_SUFFIX)) {
+                continue;
+            }
+            final String prefix = name.substring(0, name.length() - SUBJECT_SUFFIX.length());
+            final Set<String> body = variablesByFile.get(prefix + BODY_SUFFIX);
+            if (body == null) {
+                errors.add(name + ": no " + prefix + BODY_SUFFIX);
+                continue;
+            }
+            final Set<String> variables = new TreeSet<>(entry.getValue());
+            variables.addAll(body);
+            for (String variable : variables) {
+                if (JAVA_KEYWORDS.contains(variable) || variable.indexOf('$') >= 0 || variable.indexOf('@') >= 0) {
+                    errors.add(prefix + ": variable " + variable + " cannot be a model field");
+                }
+            }
+            pairs.put(prefix, variables);
+        }
+        for (String name : variablesByFile.keySet()) {
+            if (name.endsWith(BODY_SUFFIX)
+                    && !pairs.containsKey(name.substring(0, name.length() - BODY_SUFFIX.length()))) {
+                errors.add(name + ": no matching " + SUBJECT_SUFFIX);
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("templates failed to check:\n  " + String.join("\n  ", errors));
+        }
+        Files.createDirectories(output);
+        for (Map.Entry<String, Set<String>> pair : pairs.entrySet()) {
+            write(output.resolve(className(pair.getKey()) + ".java"), modelClass(pair.getKey(), pair.getValue()));
+        }
+        write(output.resolve("TemplateModels.java"), factoryClass(pairs.keySet()));
+        System.out.println("TemplateModelGenerator: " + pairs.size() + " template models in " + output);
+    }
+
+    /**
+     * Top level variables a template references.
+     *
+     * @param source template source
+     * @return variable names
+     */
+    static Set<String> variables(final String source) {
+        final Set<String> found = new TreeSet<>();
+        final Set<String> bound = new HashSet<>();
+        int i = 0;
+        while (i < source.length()) {
+            if (source.startsWith("<#--", i) || source.startsWith("[#--", i)) {
+                final int end = source.indexOf("--", i + 4);
+                if (end < 0) {
+                    break;
+                }
+                i = end + 3;
+            } else if (source.startsWith("${", i) || source.startsWith("#{", i)) {
+                final int end = expressionEnd(source, i + 2, '}');
+                scan(source.substring(i + 2, end), found, bound);
+                i = end + 1;
+            } else if (source.startsWith("<#", i) || source.startsWith("[#", i)) {
+                final char close;
+                if (source.charAt(i) == '<') {
+                    close = '>';
+                } else {
+                    close = ']';
+                }
+                final int end = expressionEnd(source, i + 2, close);
+                directive(source.substring(i + 2, end), found, bound);
+                i = end + 1;
+            } else {
+                i++;
+            }
+        }
+        found.removeAll(bound);
+        return found;
+    }
+
+    /**
+     * Collects the variables of a directive's expression and the names it binds.
+     *
+     * @param text  directive without its delimiters
+     * @param found variables found so far
+     * @param bound names bound so far
+     */
+    private static void directive(final String text, final Set<String> found, final Set<String> bound) {
+        final String trimmed = text.strip();
+        int nameEnd = 0;
+        while (nameEnd < trimmed.length() && Character.isLetter(trimmed.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        final String name = trimmed.substring(0, nameEnd);
+        final String rest = trimmed.substring(nameEnd);
+        if (BINDING_DIRECTIVES.contains(name)) {
+            for (String assignment : rest.split("(?<![=!<>])=(?!=)")) {
+                final String[] words = assignment.strip().split("\\s+");
+                bound.add(words[words.length - 1]);
+            }
+            final int equals = rest.indexOf('=');
+            if (equals >= 0) {
+                scan(rest.substring(equals + 1), found, bound);
+            }
+        } else if (DECLARING_DIRECTIVES.contains(name)) {
+            bound.addAll(Arrays.asList(rest.replaceAll("[=(),].*?(\\s|$)", " ").strip().split("\\s+")));
+        } else if ("list".equals(name) || "items".equals(name)) {
+            final int as = rest.lastIndexOf(" as ");
+            if (as >= 0) {
+                for (String loopVariable : rest.substring(as + 4).split(",")) {
+                    bound.add(loopVariable.strip());
+                }
+                scan(rest.substring(0, as), found, bound);
+            }
+        } else {
+            scan(rest, found, bound);
+        }
+    }
+
+    /**
+     * Collects the top level identifiers of an expression.
+     *
+     * @param expression expression
+     * @param found      variables found so far
+     * @param bound      names bound so far
+     */
+    private static void scan(final String expression, final Set<String> found, final Set<String> bound) {
+        char previous = ' ';
+        int i = 0;
+        while (i < expression.length()) {
+            final char c = expression.charAt(i);
+            if (c == '"' || c == '\'') {
+                i = stringEnd(expression, i) + 1;
+                previous = c;
+            } else if (Character.isJavaIdentifierStart(c) || c == '@') {
+                final int start = i;
+                while (i < expression.length()
+                        && (Character.isJavaIdentifierPart(expression.charAt(i)) || expression.charAt(i) == '@')) {
+                    i++;
+                }
+                final String identifier = expression.substring(start, i);
+                if (previous != '.' && previous != '?' && !KEYWORDS.contains(identifier)
+                        && !bound.contains(identifier)) {
+                    found.add(identifier);
+                }
+                previous = 'a';
+            } else {
+                if (!Character.isWhitespace(c)) {
+                    previous = c;
+                }
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Position of the delimiter closing an expression, skipping strings and nested brackets.
+     *
+     * @param source template source
+     * @param from   first position of the expression
+     * @param close  closing delimiter
+     * @return position of the delimiter, or the end of the source
+     */
+    private static int expressionEnd(final String source, final int from, final char close) {
+        int depth = 0;
+        int i = from;
+        while (i < source.length()) {
+            final char c = source.charAt(i);
+            if (c == '"' || c == '\'') {
+                i = stringEnd(source, i);
+            } else if (c == '(' || c == '[' || c == '{') {
+                depth++;
+            } else if (depth > 0 && (c == ')' || c == ']' || c == '}')) {
+                depth--;
+            } else if (depth == 0 && c == close) {
+                return i;
+            }
+            i++;
+        }
+        return source.length();
+    }
+
+    /**
+     * Position of the quote closing a string literal.
+     *
+     * @param text  text
+     * @param start position of the opening quote
+     * @return position of the closing quote, or the end of the text
+     */
+    private static int stringEnd(final String text, final int start) {
+        final char quote = text.charAt(start);
+        final boolean raw = start > 0 && text.charAt(start - 1) == 'r';
+        int i = start + 1;
+        while (i < text.length() && text.charAt(i) != quote) {
+            if (text.charAt(i) == '\\' && !raw) {
+                i++;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Model class name for a template pair, e.g. GsEventRsvpModel for gs_event_rsvp.
+     *
+     * @param prefix template name without the suffix
+     * @return class name
+     */
+    static String className(final String prefix) {
+        final StringBuilder name = new StringBuilder();
+        for (String part : prefix.split("[^A-Za-z0-9]+")) {
+            if (!part.isEmpty()) {
+                name.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+            }
+        }
+        return name.append("Model").toString();
+    }
+
+    /**
+     * Constant name for a template pair, e.g. GS_EVENT_RSVP.
+     *
+     * @param prefix template name without the suffix
+     * @return constant name
+     */
+    private static String constantName(final String prefix) {
+        return prefix.replaceAll("[^A-Za-z0-9]+", "_").toUpperCase();
+    }
+
+    /**
+     * Getter name for a variable.
+     *
+     * @param variable variable
+     * @return getter name
+     */
+    private static String getter(final String variable) {
+        return "get" + Character.toUpperCase(variable.charAt(0)) + variable.substring(1);
+    }
+
+    /**
+     * Source of one template pair's model.
+     *
+     * @param prefix    template name without the suffix
+     * @param variables variables the pair references
+     * @return source
+     */
+    private static String modelClass(final String prefix, final Set<String> variables) {
+        final String className = className(prefix);
+        final StringBuilder out = new StringBuilder(header());
+        out.append("package ").append(PACKAGE).append(";\n\n");
+        out.append("import freemarker.template.TemplateModel;\n\n");
+        out.append("import java.util.Objects;\n\n");
+        out.append("/**\n * Model of ").append(prefix).append(SUBJECT_SUFFIX).append(" and ").append(prefix)
+                .append(BODY_SUFFIX).append(".\n */\n");
+        out.append("public final class ").append(className).append(" implements TypedModel {\n");
+        for (String variable : variables) {
+            out.append("\n    /**\n     * ${").append(variable).append("}.\n     */\n");
+            out.append("    private final String ").append(variable).append(";\n");
+        }
+        out.append("\n    /**\n     * Copies the values the templates reference.\n     *\n");
+        out.append("     * @param values ModelValues\n     */\n");
+        out.append("    public ").append(className).append("(final ModelValues values) {\n");
+        for (String variable : variables) {
+            out.append("        ").append(variable).append(" = values.").append(getter(variable)).append("();\n");
+        }
+        out.append("    }\n");
+        for (String variable : variables) {
+            out.append("\n    /**\n     * ${").append(variable).append("}.\n     *\n     * @return value\n     */\n");
+            out.append("    public String ").append(getter(variable)).append("() {\n");
+            out.append("        return ").append(variable).append(";\n    }\n");
+        }
+        out.append("\n    /**\n     * {@inheritDoc}\n     */\n    @Override\n");
+        out.append("    public TemplateModel get(final String key) {\n");
+        out.append("        switch (key) {\n");
+        for (String variable : variables) {
+            out.append("            case \"").append(variable).append("\":\n");
+            out.append("                return ModelValues.scalar(").append(variable).append(");\n");
+        }
+        out.append("            default:\n                return null;\n        }\n    }\n");
+        out.append("\n    /**\n     * {@inheritDoc}\n     */\n    @Override\n");
+        out.append("    public boolean isEmpty() {\n        return false;\n    }\n");
+        out.append("\n    /**\n     * {@inheritDoc}\n     */\n    @Override\n");
+        out.append("    public boolean equals(final Object other) {\n");
+        out.append("        if (this == other) {\n            return true;\n        }\n");
+        out.append("        if (!(other instanceof ").append(className).append(")) {\n");
+        out.append("            return false;\n        }\n");
+        out.append("        final ").append(className).append(" that = (").append(className).append(") other;\n");
+        out.append("        return ");
+        if (variables.isEmpty()) {
+            out.append("true");
+        }
+        out.append(variables.stream().map(variable -> "Objects.equals(" + variable + ", that." + variable + ")")
+                .collect(Collectors.joining("\n                && ")));
+        out.append(";\n    }\n");
+        out.append("\n    /**\n     * {@inheritDoc}\n     */\n    @Override\n");
+        out.append("    public int hashCode() {\n        int hash = 1;\n");
+        for (String variable : variables) {
+            out.append("        hash = 31 * hash + Objects.hashCode(").append(variable).append(");\n");
+        }
+        out.append("        return hash;\n    }\n\n}\n");
+        return out.toString();
+    }
+
+    /**
+     * Source of the factory.
+     *
+     * @param prefixes template names without the suffix
+     * @return source
+     */
+    private static String factoryClass(final Set<String> prefixes) {
+        final StringBuilder out = new StringBuilder(header());
+        out.append("package ").append(PACKAGE).append(";\n\n");
+        out.append("import java.util.Set;\n\n");
+        out.append("/**\n * Names of the built-in template pairs and their typed models.\n */\n");
+        out.append("public final class TemplateModels {\n");
+        for (String prefix : prefixes) {
+            out.append("\n    /**\n     * ").append(prefix).append(SUBJECT_SUFFIX).append(" and ").append(prefix)
+                    .append(BODY_SUFFIX).append(".\n     */\n");
+            out.append("    public static final String ").append(constantName(prefix)).append(" = \"")
+                    .append(prefix).append("\";\n");
+        }
+        out.append("\n    /**\n     * Every built-in template pair.\n     */\n");
+        out.append("    public static final Set<String> NAMES = Set.of(\n");
+        out.append(prefixes.stream().map(prefix -> "            " + constantName(prefix))
+                .collect(Collectors.joining(",\n")));
+        out.append(");\n");
+        out.append("\n    /**\n     * TemplateModels.\n     */\n    private TemplateModels() {\n    }\n");
+        out.append("\n    /**\n     * Typed model of a built-in template pair.\n     *\n");
+        out.append("     * @param name   template name without the _subject.ftl/_body.ftl suffix\n");
+        out.append("     * @param values ModelValues\n");
+        out.append("     * @return model holding only what the pair references, null for other names\n     */\n");
+        out.append("    public static TypedModel create(final String name, final ModelValues values) {\n");
+        out.append("        switch (name) {\n");
+        for (String prefix : prefixes) {
+            out.append("            case ").append(constantName(prefix)).append(":\n");
+            out.append("                return new ").append(className(prefix)).append("(values);\n");
+        }
+        out.append("            default:\n                return null;\n        }\n    }\n\n}\n");
+        return out.toString();
+    }
+
+    /**
+     * Header of every generated file.
+     *
+     * @return header
+     */
+    private static String header() {
+        return "// Generated by TemplateModelGenerator from src/main/resources/templates; do not edit.\n\n";
+    }
+
+    /**
+     * Writes a file unless it already has the given content, so unchanged sources are not recompiled.
+     *
+     * @param file   file
+     * @param source content
+     * @throws IOException when the file cannot be written
+     */
+    private static void write(final Path file, final String source) throws IOException {
+        if (Files.exists(file) && Files.readString(file, StandardCharsets.UTF_8).equals(source)) {
+            return;
+        }
+        Files.writeString(file, source, StandardCharsets.UTF_8);
+    }
+
+}
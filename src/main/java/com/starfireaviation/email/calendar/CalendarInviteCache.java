@@ -0,0 +1,381 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.calendar;
+
+import com.starfireaviation.email.transport.Attachment;
+import com.starfireaviation.model.Address;
+import com.starfireaviation.model.Event;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CalendarInviteCache.
+ *
+ * <p>Builds the iCalendar (.ics) invite attached to event mails. An invite is generated and base64 encoded once per
+ * version of an event, where the version is the title, start time, location and last update it was built from, and
+ * the same {@link Attachment} is shared by every recipient's message until the event changes. The cache holds a
+ * bounded number of events.</p>
+ *
+ * <p>DTSTAMP and SEQUENCE come from the event's last update rather than the time the invite is built, so every
+ * replica produces the same bytes for the same version and calendar clients see the sequence rise with each edit.
+ * An event without an update time gets sequence 0 and its start as stamp.</p>
+ */
+public class CalendarInviteCache {
+
+    /**
+     * Attachment file name.
+     */
+    private static final String FILENAME = "invite.ics";
+
+    /**
+     * Attachment content type. PUBLISH, since one invite is shared by all recipients and names no attendees.
+     */
+    private static final String CONTENT_TYPE = "text/calendar; charset=UTF-8; method=PUBLISH";
+
+    /**
+     * Line break required by RFC 5545.
+     */
+    private static final String CRLF = "\r\n";
+
+    /**
+     * Longest content line in octets before it must be folded.
+     */
+    private static final int MAX_LINE_OCTETS = 75;
+
+    /**
+     * Seconds per minute, the unit of SEQUENCE.
+     */
+    private static final long SECONDS_PER_MINUTE = 60L;
+
+    /**
+     * UTC date-time format.
+     */
+    private static final DateTimeFormatter UTC_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    /**
+     * Invites by event id.
+     */
+    private final Map<Long, Cached> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Most events cached.
+     */
+    private final int maxCached;
+
+    /**
+     * Zone event start times are given in.
+     */
+    private final ZoneId eventZone;
+
+    /**
+     * Length of an event.
+     */
+    private final Duration eventDuration;
+
+    /**
+     * Domain part of invite UIDs.
+     */
+    private final String uidDomain;
+
+    /**
+     * Invites generated.
+     */
+    private final LongAdder generated = new LongAdder();
+
+    /**
+     * CalendarInviteCache.
+     *
+     * @param cacheLimit most events cached
+     * @param zone       zone event start times are given in
+     * @param duration   length of an event
+     * @param domain     domain part of invite UIDs
+     */
+    public CalendarInviteCache(final int cacheLimit,
+                               final ZoneId zone,
+                               final Duration duration,
+                               final String domain) {
+        maxCached = cacheLimit;
+        eventZone = zone;
+        eventDuration = duration;
+        uidDomain = domain;
+    }
+
+    /**
+     * Invite for an event.
+     *
+     * @param event Event
+     * @return Attachment, null when the event has no id or start time
+     */
+    public Attachment invite(final Event event) {
+        return invite(event.getId(), event.getTitle(), event.getStartTime(), location(event.getAddress()),
+                event.getUpdatedAt());
+    }
+
+    /**
+     * Invite for an event.
+     *
+     * @param eventId  event id
+     * @param title    title
+     * @param start    start time in the event zone
+     * @param location location, may be null
+     * @param updated  time the event was last updated upstream, in the event zone; may be null
+     * @return Attachment, null when the event has no id or start time
+     */
+    public Attachment invite(final Long eventId,
+                             final String title,
+                             final LocalDateTime start,
+                             final String location,
+                             final LocalDateTime updated) {
+        if (eventId == null || start == null) {
+            return null;
+        }
+        final List<Object> version = Arrays.asList(title, start, location, updated);
+        final Cached current = cache.get(eventId);
+        if (current != null && current.getVersion().equals(version)) {
+            return current.getInvite();
+        }
+        final Cached next = cache.compute(eventId, (id, existing) -> {
+            if (existing != null && existing.getVersion().equals(version)) {
+                return existing;
+            }
+            generated.increment();
+            return new Cached(version, encode(build(id, title, start, location, updated)));
+        });
+        evict(eventId);
+        return next.getInvite();
+    }
+
+    /**
+     * Number of events cached.
+     *
+     * @return count
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Invites generated since startup.
+     *
+     * @return count
+     */
+    public long getGenerated() {
+        return generated.sum();
+    }
+
+    /**
+     * Builds the iCalendar text.
+     *
+     * @param eventId  event id
+     * @param title    title
+     * @param start    start time in the event zone
+     * @param location location, may be null
+     * @param updated  last update in the event zone, may be null
+     * @return iCalendar text
+     */
+    private String build(final Long eventId,
+                         final String title,
+                         final LocalDateTime start,
+                         final String location,
+                         final LocalDateTime updated) {
+        final Instant begins = start.atZone(eventZone).toInstant();
+        Instant stamp = begins;
+        long sequence = 0L;
+        if (updated != null) {
+            stamp = updated.atZone(eventZone).toInstant();
+            sequence = stamp.getEpochSecond() / SECONDS_PER_MINUTE;
+        }
+        final StringBuilder ics = new StringBuilder();
+        line(ics, "BEGIN:VCALENDAR");
+        line(ics, "VERSION:2.0");
+        line(ics, "PRODID:-//Starfire Aviation//Email//EN");
+        line(ics, "CALSCALE:GREGORIAN");
+        line(ics, "METHOD:PUBLISH");
+        line(ics, "BEGIN:VEVENT");
+        line(ics, "UID:event-" + eventId + "@" + uidDomain);
+        // Minutes of the last update: rises with every edit and fits the 32-bit integer clients expect
+        line(ics, "SEQUENCE:" + sequence);
+        line(ics, "DTSTAMP:" + UTC_FORMAT.format(stamp));
+        line(ics, "DTSTART:" + UTC_FORMAT.format(begins));
+        line(ics, "DTEND:" + UTC_FORMAT.format(begins.plus(eventDuration)));
+        line(ics, "SUMMARY:" + escape(title));
+        if (location != null) {
+            line(ics, "LOCATION:" + escape(location));
+        }
+        line(ics, "END:VEVENT");
+        line(ics, "END:VCALENDAR");
+        return ics.toString();
+    }
+
+    /**
+     * Base64 encodes an invite.
+     *
+     * @param ics iCalendar text
+     * @return Attachment
+     */
+    private static Attachment encode(final String ics) {
+        final byte[] raw = ics.getBytes(StandardCharsets.UTF_8);
+        return new Attachment(
+                FILENAME,
+                CONTENT_TYPE,
+                Base64.getEncoder().encode(raw),
+                Base64.getMimeEncoder().encode(raw));
+    }
+
+    /**
+     * Appends a content line, folding it at 75 octets without splitting a character.
+     *
+     * @param ics  iCalendar text so far
+     * @param line content line
+     */
+    private static void line(final StringBuilder ics, final String line) {
+        int octets = 0;
+        int i = 0;
+        while (i < line.length()) {
+            final int codePoint = line.codePointAt(i);
+            final int width = Character.toString(codePoint).getBytes(StandardCharsets.UTF_8).length;
+            if (octets + width > MAX_LINE_OCTETS) {
+                ics.append(CRLF).append(' ');
+                octets = 1;
+            }
+            ics.appendCodePoint(codePoint);
+            octets += width;
+            i += Character.charCount(codePoint);
+        }
+        ics.append(CRLF);
+    }
+
+    /**
+     * Escapes a TEXT value.
+     *
+     * @param text text, may be null
+     * @return escaped text
+     */
+    private static String escape(final String text) {
+        if (text == null) {
+            return "";
+        }
+        final StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '\\' || c == ';' || c == ',') {
+                escaped.append('\\').append(c);
+            } else if (c == '\n') {
+                escaped.append("\\n");
+            } else if (c != '\r') {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * One-line location from an address.
+     *
+     * @param address Address, may be null
+     * @return location, null when there is no address
+     */
+    private static String location(final Address address) {
+        if (address == null) {
+            return null;
+        }
+        final StringBuilder location = new StringBuilder();
+        if (address.getAddressLine1() != null) {
+            location.append(address.getAddressLine1()).append(", ");
+        }
+        if (address.getAddressLine2() != null) {
+            location.append(address.getAddressLine2()).append(", ");
+        }
+        location.append(address.getCity()).append(", ").append(address.getState()).append(' ')
+                .append(address.getZipCode());
+        return location.toString();
+    }
+
+    /**
+     * Keeps the cache within its limit.
+     *
+     * @param keep event id just cached
+     */
+    private void evict(final Long keep) {
+        final Iterator<Long> ids = cache.keySet().iterator();
+        while (cache.size() > maxCached && ids.hasNext()) {
+            if (!ids.next().equals(keep)) {
+                ids.remove();
+            }
+        }
+    }
+
+    /**
+     * Cached invite.
+     */
+    private static final class Cached {
+
+        /**
+         * Event fields the invite was built from.
+         */
+        private final List<Object> version;
+
+        /**
+         * Invite.
+         */
+        private final Attachment invite;
+
+        /**
+         * Cached.
+         *
+         * @param aVersion event fields the invite was built from
+         * @param anInvite invite
+         */
+        Cached(final List<Object> aVersion, final Attachment anInvite) {
+            version = aVersion;
+            invite = anInvite;
+        }
+
+        /**
+         * Event fields the invite was built from.
+         *
+         * @return fields
+         */
+        List<Object> getVersion() {
+            return version;
+        }
+
+        /**
+         * Invite.
+         *
+         * @return Attachment
+         */
+        Attachment getInvite() {
+            return invite;
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ConsistentHashRing.
+ *
+ * <p>Places each member on the ring at many virtual points, so keys spread evenly and a membership change only
+ * moves the keys of the member that joined or left.</p>
+ */
+public final class ConsistentHashRing {
+
+    /**
+     * Virtual points per member.
+     */
+    private static final int VIRTUAL_NODES = 128;
+
+    /**
+     * FNV-1a offset basis.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /**
+     * FNV-1a prime.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Mix multiplier one.
+     */
+    private static final long MIX_ONE = 0xff51afd7ed558ccdL;
+
+    /**
+     * Mix multiplier two.
+     */
+    private static final long MIX_TWO = 0xc4ceb9fe1a85ec53L;
+
+    /**
+     * Mix shift.
+     */
+    private static final int MIX_SHIFT = 33;
+
+    /**
+     * Byte mask.
+     */
+    private static final int BYTE_MASK = 0xff;
+
+    /**
+     * Ring position to member.
+     */
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * ConsistentHashRing.
+     *
+     * @param members member IDs
+     */
+    public ConsistentHashRing(final Collection<String> members) {
+        for (String member : members) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    /**
+     * Member owning a key.
+     *
+     * @param key key
+     * @return member ID, null if the ring is empty
+     */
+    public String owner(final long key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        final Map.Entry<Long, String> entry = ring.ceilingEntry(mix(key));
+        if (entry == null) {
+            return ring.firstEntry().getValue();
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * Hashes a string onto the ring.
+     *
+     * @param value value
+     * @return ring position
+     */
+    static long hash(final String value) {
+        long hash = FNV_OFFSET;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & BYTE_MASK;
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Spreads a 64 bit value over the ring (MurmurHash3 finalizer).
+     *
+     * @param value value
+     * @return ring position
+     */
+    static long mix(final long value) {
+        long h = value;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX_ONE;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX_TWO;
+        h ^= h >>> MIX_SHIFT;
+        return h;
+    }
+
+}
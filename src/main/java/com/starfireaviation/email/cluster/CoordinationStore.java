@@ -0,0 +1,53 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.cluster;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Shared store of member leases.
+ */
+public interface CoordinationStore {
+
+    /**
+     * Creates or extends a member's lease.
+     *
+     * @param memberId        member ID
+     * @param expiresAtMillis lease expiry, epoch milliseconds
+     * @throws IOException when the store cannot be written
+     */
+    void renew(String memberId, long expiresAtMillis) throws IOException;
+
+    /**
+     * Gives up a member's lease.
+     *
+     * @param memberId member ID
+     * @throws IOException when the store cannot be written
+     */
+    void release(String memberId) throws IOException;
+
+    /**
+     * Members whose lease has not expired.
+     *
+     * @param nowMillis current time, epoch milliseconds
+     * @return member IDs
+     * @throws IOException when the store cannot be read
+     */
+    Set<String> liveMembers(long nowMillis) throws IOException;
+
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.cluster;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * FileCoordinationStore.
+ *
+ * <p>One {@code <member>.lease} file per member in a shared directory, holding the lease expiry. Leases are written
+ * to a temporary file and atomically renamed into place, so readers never see a partial write. Long expired leases
+ * are deleted as members are listed.</p>
+ */
+public class FileCoordinationStore implements CoordinationStore {
+
+    /**
+     * Lease file suffix.
+     */
+    private static final String LEASE_SUFFIX = ".lease";
+
+    /**
+     * How many lease lengths an expired lease is kept before it is deleted.
+     */
+    private static final int STALE_LEASES = 10;
+
+    /**
+     * Shared directory.
+     */
+    private final Path directory;
+
+    /**
+     * Lease length, used to decide when an expired lease is stale.
+     */
+    private final long leaseMillis;
+
+    /**
+     * FileCoordinationStore.
+     *
+     * @param dir    shared directory
+     * @param lease  lease length in milliseconds
+     * @throws IOException when the directory cannot be created
+     */
+    public FileCoordinationStore(final Path dir, final long lease) throws IOException {
+        directory = Files.createDirectories(dir);
+        leaseMillis = lease;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void renew(final String memberId, final long expiresAtMillis) throws IOException {
+        final Path temp = Files.createTempFile(directory, memberId, ".tmp");
+        Files.write(temp, Long.toString(expiresAtMillis).getBytes(StandardCharsets.US_ASCII));
+        Files.move(temp, leaseFile(memberId), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release(final String memberId) throws IOException {
+        Files.deleteIfExists(leaseFile(memberId));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> liveMembers(final long nowMillis) throws IOException {
+        final Set<String> members = new HashSet<>();
+        try (DirectoryStream<Path> leases = Files.newDirectoryStream(directory, "*" + LEASE_SUFFIX)) {
+            for (Path lease : leases) {
+                final String name = lease.getFileName().toString();
+                final long expiresAt;
+                try {
+                    expiresAt = Long.parseLong(new String(Files.readAllBytes(lease), StandardCharsets.US_ASCII));
+                } catch (NoSuchFileException | NumberFormatException e) {
+                    continue;
+                }
+                if (expiresAt > nowMillis) {
+                    members.add(name.substring(0, name.length() - LEASE_SUFFIX.length()));
+                } else if (nowMillis - expiresAt > STALE_LEASES * leaseMillis) {
+                    Files.deleteIfExists(lease);
+                }
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Lease file of a member.
+     *
+     * @param memberId member ID
+     * @return Path
+     */
+    private Path leaseFile(final String memberId) {
+        return directory.resolve(memberId + LEASE_SUFFIX);
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.cluster;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * PartitionInbox.
+ *
+ * <p>Work handed to whichever member owns a partition, kept in the shared cluster directory as one file per item
+ * under {@code <dir>/<partition>/}. Items are written to a temporary file and atomically renamed into place, and
+ * named so they sort in the order they were handed over.</p>
+ *
+ * <p>A member takes an item by renaming it to a claimed name of its own before reading it, so two members never
+ * take the same item while ownership is moving, and deletes it once it has been accepted. An item whose claim is
+ * older than the claim timeout, left by a member that died while taking it, is put back for the owner to take
+ * again. Items survive restarts of both the member that handed them over and the member that takes them.</p>
+ */
+public class PartitionInbox {
+
+    /**
+     * Suffix of an item waiting to be taken.
+     */
+    private static final String ITEM_SUFFIX = ".item";
+
+    /**
+     * Suffix of an item being taken.
+     */
+    private static final String CLAIMED_SUFFIX = ".claimed";
+
+    /**
+     * Shared directory.
+     */
+    private final Path directory;
+
+    /**
+     * This member's ID.
+     */
+    private final String memberId;
+
+    /**
+     * How long a claim is honoured before the item is put back.
+     */
+    private final long claimTimeoutMillis;
+
+    /**
+     * Orders items handed over within the same millisecond.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * PartitionInbox.
+     *
+     * @param dir          shared directory
+     * @param member       this member's ID
+     * @param claimTimeout how long a claim is honoured before the item is put back, in milliseconds
+     * @throws IOException when the directory cannot be created
+     */
+    public PartitionInbox(final Path dir, final String member, final long claimTimeout) throws IOException {
+        directory = Files.createDirectories(dir);
+        memberId = member;
+        claimTimeoutMillis = claimTimeout;
+    }
+
+    /**
+     * Hands an item to the owner of a partition.
+     *
+     * @param partition partition
+     * @param item      item
+     * @throws IOException when the item cannot be written
+     */
+    public void put(final int partition, final byte[] item) throws IOException {
+        final Path folder = Files.createDirectories(folder(partition));
+        final Path temp = Files.createTempFile(folder, memberId, ".tmp");
+        Files.write(temp, item);
+        final String name = String.format("%013d-%s-%d%s",
+                System.currentTimeMillis(), memberId, sequence.incrementAndGet(), ITEM_SUFFIX);
+        Files.move(temp, folder.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Takes the items waiting for a partition, oldest first, until one is not accepted; that item is put back.
+     *
+     * @param partition partition
+     * @param consumer  returns false when it cannot accept an item right now
+     * @return number of items taken
+     * @throws IOException when the directory cannot be read
+     */
+    public int take(final int partition, final Predicate<byte[]> consumer) throws IOException {
+        final Path folder = folder(partition);
+        if (!Files.isDirectory(folder)) {
+            return 0;
+        }
+        final List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+            for (Path entry : entries) {
+                final String name = entry.getFileName().toString();
+                if (name.endsWith(ITEM_SUFFIX)) {
+                    names.add(name);
+                } else if (name.endsWith(CLAIMED_SUFFIX)) {
+                    reclaimIfStale(entry, names);
+                }
+            }
+        }
+        Collections.sort(names);
+        int taken = 0;
+        for (String name : names) {
+            final Path claimed = folder.resolve(name + "." + memberId + CLAIMED_SUFFIX);
+            try {
+                Files.move(folder.resolve(name), claimed, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                continue;
+            }
+            Files.setLastModifiedTime(claimed, FileTime.fromMillis(System.currentTimeMillis()));
+            if (!consumer.test(Files.readAllBytes(claimed))) {
+                Files.move(claimed, folder.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+                break;
+            }
+            Files.delete(claimed);
+            taken++;
+        }
+        return taken;
+    }
+
+    /**
+     * Puts an item back if its claim has timed out.
+     *
+     * @param claimed claimed item
+     * @param names   receives the item's name if it was put back
+     * @throws IOException when the item cannot be read or moved
+     */
+    private void reclaimIfStale(final Path claimed, final List<String> names) throws IOException {
+        final String name = claimed.getFileName().toString();
+        final int end = name.indexOf(ITEM_SUFFIX);
+        if (end < 0) {
+            return;
+        }
+        final String item = name.substring(0, end + ITEM_SUFFIX.length());
+        try {
+            final long age = System.currentTimeMillis() - Files.getLastModifiedTime(claimed).toMillis();
+            if (age < claimTimeoutMillis) {
+                return;
+            }
+            Files.move(claimed, claimed.resolveSibling(item), StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            return;
+        }
+        names.add(item);
+    }
+
+    /**
+     * Folder of a partition.
+     *
+     * @param partition partition
+     * @return Path
+     */
+    private Path folder(final int partition) {
+        return directory.resolve(Integer.toString(partition));
+    }
+
+}
@@ -0,0 +1,370 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * PartitionManager.
+ *
+ * <p>Splits user IDs into a fixed number of partitions and assigns each partition to one live member through a
+ * {@link ConsistentHashRing}, so deferred work keyed by user (reminders, retries) is handled by exactly one replica.
+ * Members hold a lease in a shared {@link CoordinationStore} and renew it every third of the lease length; a member
+ * that stops renewing drops out of everyone's ring once its lease expires, and its partitions move to the
+ * survivors.</p>
+ *
+ * <p>Ownership is guarded from both sides so a partition is never held by two members at once: a member stops
+ * claiming partitions a safety margin before its own lease runs out, and a partition gained in a rebalance is only
+ * claimed after the hand-off delay, by which time its previous owner has seen the new membership and let go.</p>
+ *
+ * <p>Without a store the manager runs single-node and owns every partition.</p>
+ */
+@Slf4j
+public class PartitionManager {
+
+    /**
+     * Renewals per lease.
+     */
+    private static final int RENEWALS_PER_LEASE = 3;
+
+    /**
+     * Fraction of the lease kept as a safety margin against clock skew and slow renewals.
+     */
+    private static final int SAFETY_FRACTION = 5;
+
+    /**
+     * This member's ID.
+     */
+    private final String memberId;
+
+    /**
+     * Shared lease store, null when running single-node.
+     */
+    private final CoordinationStore store;
+
+    /**
+     * Lease length in milliseconds.
+     */
+    private final long leaseMillis;
+
+    /**
+     * Number of partitions.
+     */
+    private final int partitionCount;
+
+    /**
+     * Clock, shared with the other members through the store.
+     */
+    private final Clock clock;
+
+    /**
+     * Called with the owned partitions after each rebalance.
+     */
+    private final List<Consumer<Set<Integer>>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Current assignment.
+     */
+    private volatile Assignment assignment;
+
+    /**
+     * When this member's lease expires, epoch milliseconds.
+     */
+    private volatile long leaseExpiresAt;
+
+    /**
+     * Lease renewal scheduler.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * PartitionManager.
+     *
+     * @param id         this member's ID
+     * @param aStore     shared lease store, null to run single-node
+     * @param lease      lease length in milliseconds
+     * @param partitions number of partitions
+     * @param aClock     Clock
+     */
+    public PartitionManager(final String id,
+                            final CoordinationStore aStore,
+                            final long lease,
+                            final int partitions,
+                            final Clock aClock) {
+        memberId = id;
+        store = aStore;
+        leaseMillis = lease;
+        partitionCount = partitions;
+        clock = aClock;
+        if (aStore == null) {
+            assignment = new Assignment(Collections.singleton(id), partitions, id, Long.MIN_VALUE, null);
+            leaseExpiresAt = Long.MAX_VALUE;
+        } else {
+            assignment = new Assignment(Collections.emptySet(), partitions, id, Long.MIN_VALUE, null);
+        }
+    }
+
+    /**
+     * Takes a lease and keeps renewing it.
+     */
+    public void start() {
+        if (store == null) {
+            return;
+        }
+        refresh();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "email-cluster-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long period = renewalMillis();
+        scheduler.scheduleWithFixedDelay(this::refresh, period, period, TimeUnit.MILLISECONDS);
+        log.info(String.format("start() member [%s] joined with %d partitions owned",
+                memberId, ownedPartitions().size()));
+    }
+
+    /**
+     * Stops renewing and gives the lease up, so the other members take over without waiting for it to expire.
+     */
+    public void shutdown() {
+        if (store == null) {
+            return;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        leaseExpiresAt = Long.MIN_VALUE;
+        try {
+            store.release(memberId);
+        } catch (IOException e) {
+            log.warn(String.format("shutdown() unable to release lease of [%s]: %s", memberId, e.getMessage()));
+        }
+    }
+
+    /**
+     * Renews this member's lease and rebalances if membership changed.
+     */
+    public void refresh() {
+        final long now = clock.millis();
+        final Set<String> members;
+        try {
+            store.renew(memberId, now + leaseMillis);
+            leaseExpiresAt = now + leaseMillis;
+            members = new HashSet<>(store.liveMembers(now));
+        } catch (IOException e) {
+            log.warn(String.format("refresh() lease not renewed for [%s]: %s", memberId, e.getMessage()));
+            return;
+        }
+        members.add(memberId);
+        final Assignment current = assignment;
+        if (members.equals(current.getMembers())) {
+            return;
+        }
+        final Assignment next = new Assignment(members, partitionCount, memberId, now + handoffMillis(), current);
+        assignment = next;
+        log.info(String.format("refresh() members %s; member [%s] owns %d of %d partitions",
+                next.getMembers(), memberId, next.getOwned().size(), partitionCount));
+        for (Consumer<Set<Integer>> listener : listeners) {
+            listener.accept(next.getOwned());
+        }
+    }
+
+    /**
+     * Whether this member should handle work for a key, such as a user ID.
+     *
+     * @param key key
+     * @return true if the key's partition is owned here
+     */
+    public boolean owns(final long key) {
+        return ownsPartition(partition(key));
+    }
+
+    /**
+     * Whether this member currently owns a partition.
+     *
+     * @param partition partition
+     * @return true if owned and the lease is safely valid
+     */
+    public boolean ownsPartition(final int partition) {
+        final long now = clock.millis();
+        if (now >= leaseExpiresAt - leaseMillis / SAFETY_FRACTION) {
+            return false;
+        }
+        return assignment.owns(partition, now);
+    }
+
+    /**
+     * Partition of a key.
+     *
+     * @param key key
+     * @return partition
+     */
+    public int partition(final long key) {
+        return (int) Long.remainderUnsigned(ConsistentHashRing.mix(key), partitionCount);
+    }
+
+    /**
+     * Partitions assigned to this member, including any still waiting out their hand-off delay.
+     *
+     * @return partitions
+     */
+    public Set<Integer> ownedPartitions() {
+        return assignment.getOwned();
+    }
+
+    /**
+     * Live members as of the last refresh.
+     *
+     * @return member IDs
+     */
+    public Set<String> getMembers() {
+        return assignment.getMembers();
+    }
+
+    /**
+     * This member's ID.
+     *
+     * @return member ID
+     */
+    public String getMemberId() {
+        return memberId;
+    }
+
+    /**
+     * Registers a rebalance listener.
+     *
+     * @param listener called with the owned partitions after each rebalance
+     */
+    public void addListener(final Consumer<Set<Integer>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Interval between lease renewals.
+     *
+     * @return milliseconds
+     */
+    private long renewalMillis() {
+        return leaseMillis / RENEWALS_PER_LEASE;
+    }
+
+    /**
+     * How long a newly gained partition waits for its previous owner to notice the rebalance.
+     *
+     * @return milliseconds
+     */
+    private long handoffMillis() {
+        return 2 * renewalMillis();
+    }
+
+    /**
+     * Partition owners for one membership.
+     */
+    private static final class Assignment {
+
+        /**
+         * Live members.
+         */
+        private final Set<String> members;
+
+        /**
+         * Partitions owned by this member.
+         */
+        private final Set<Integer> owned;
+
+        /**
+         * Per partition, when this member may start claiming it, epoch milliseconds.
+         */
+        private final long[] claimableAt;
+
+        /**
+         * Assignment.
+         *
+         * @param liveMembers live members
+         * @param partitions  number of partitions
+         * @param self        this member's ID
+         * @param handoffAt   when newly gained partitions may be claimed
+         * @param previous    previous assignment, null if none
+         */
+        Assignment(final Set<String> liveMembers,
+                   final int partitions,
+                   final String self,
+                   final long handoffAt,
+                   final Assignment previous) {
+            members = Collections.unmodifiableSet(new TreeSet<>(liveMembers));
+            final ConsistentHashRing ring = new ConsistentHashRing(members);
+            final Set<Integer> mine = new TreeSet<>();
+            claimableAt = new long[partitions];
+            Arrays.fill(claimableAt, Long.MAX_VALUE);
+            for (int p = 0; p < partitions; p++) {
+                if (self.equals(ring.owner(p))) {
+                    mine.add(p);
+                    if (previous != null && previous.getOwned().contains(p)) {
+                        claimableAt[p] = previous.claimableAt[p];
+                    } else {
+                        claimableAt[p] = handoffAt;
+                    }
+                }
+            }
+            owned = Collections.unmodifiableSet(mine);
+        }
+
+        /**
+         * Live members.
+         *
+         * @return member IDs
+         */
+        Set<String> getMembers() {
+            return members;
+        }
+
+        /**
+         * Partitions owned by this member.
+         *
+         * @return partitions
+         */
+        Set<Integer> getOwned() {
+            return owned;
+        }
+
+        /**
+         * Whether a partition is owned and past its hand-off delay.
+         *
+         * @param partition partition
+         * @param now       current time
+         * @return true if claimable
+         */
+        boolean owns(final int partition, final long now) {
+            return now >= claimableAt[partition];
+        }
+    }
+
+}
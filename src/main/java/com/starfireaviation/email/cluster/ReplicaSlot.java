@@ -0,0 +1,293 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReplicaSlot.
+ *
+ * <p>A small number, 1 to {@value #MAX_SLOT}, that a replica holds exclusively while it runs. It names the files on
+ * the shared cluster volume that the replica is the only writer of, and prefixes the IDs it hands out, so any
+ * replica can tell which files to read for an ID another one issued. A replica that starts takes the lowest slot that
+ * is free or whose lease has expired, and with it the files of the replica that held it before, so the number of
+ * files stays bounded by the most replicas that ever ran at once.</p>
+ *
+ * <p>A slot is the file {@code <n>.slot} in a shared directory, holding its member and lease expiry. It is claimed by
+ * hard-linking a prepared file into place, which fails if the slot is taken, and an expired slot is first moved
+ * aside by a rename only one claimant can win; both are atomic on NFS. The lease is renewed every third of its
+ * length, and given up on shutdown so a successor can take the slot at once.</p>
+ *
+ * <p>Without a directory the replica runs single-node in slot 0.</p>
+ */
+@Slf4j
+public class ReplicaSlot {
+
+    /**
+     * Highest slot; slots fit in a byte.
+     */
+    public static final int MAX_SLOT = 255;
+
+    /**
+     * Slot file suffix.
+     */
+    private static final String SLOT_SUFFIX = ".slot";
+
+    /**
+     * Renewals per lease.
+     */
+    private static final int RENEWALS_PER_LEASE = 3;
+
+    /**
+     * Shared directory, null when single-node.
+     */
+    private final Path directory;
+
+    /**
+     * This member's ID.
+     */
+    private final String memberId;
+
+    /**
+     * Lease length.
+     */
+    private final long leaseMillis;
+
+    /**
+     * Clock.
+     */
+    private final Clock clock;
+
+    /**
+     * Slot held, 0 when single-node.
+     */
+    private volatile int slot;
+
+    /**
+     * Lease renewal scheduler.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Claims a slot, or takes slot 0 without a directory.
+     *
+     * @param dir    shared directory, null to run single-node
+     * @param member this member's ID
+     * @param lease  lease length in milliseconds
+     * @param aClock Clock
+     * @throws IOException when the directory cannot be written or every slot is held
+     */
+    public ReplicaSlot(final Path dir, final String member, final long lease, final Clock aClock) throws IOException {
+        memberId = member;
+        leaseMillis = lease;
+        clock = aClock;
+        if (dir == null) {
+            directory = null;
+            return;
+        }
+        directory = Files.createDirectories(dir);
+        for (int candidate = 1; candidate <= MAX_SLOT && slot == 0; candidate++) {
+            if (claim(candidate)) {
+                slot = candidate;
+            }
+        }
+        if (slot == 0) {
+            throw new IOException("every replica slot in " + dir + " is held");
+        }
+        log.info(String.format("ReplicaSlot() member [%s] holds slot %d", memberId, slot));
+    }
+
+    /**
+     * Keeps renewing the lease.
+     */
+    public void start() {
+        if (directory == null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "email-replica-slot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long period = leaseMillis / RENEWALS_PER_LEASE;
+        scheduler.scheduleWithFixedDelay(this::renew, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops renewing and gives the slot up.
+     */
+    public void shutdown() {
+        if (directory == null) {
+            return;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        try {
+            if (memberId.equals(holder(slotFile(slot)))) {
+                Files.deleteIfExists(slotFile(slot));
+            }
+        } catch (IOException e) {
+            log.warn(String.format("shutdown() unable to release slot %d: %s", slot, e.getMessage()));
+        }
+    }
+
+    /**
+     * Slot held.
+     *
+     * @return 1 to {@value #MAX_SLOT}, 0 when single-node
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Extends the lease, unless another member has taken the slot over.
+     */
+    void renew() {
+        final Path file = slotFile(slot);
+        try {
+            final String holder = holder(file);
+            if (!memberId.equals(holder)) {
+                log.error(String.format("renew() slot %d taken over by [%s]; its files now have two writers",
+                        slot, holder));
+                return;
+            }
+            final Path temp = write();
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn(String.format("renew() slot %d lease not renewed: %s", slot, e.getMessage()));
+        }
+    }
+
+    /**
+     * Tries to take a slot.
+     *
+     * @param candidate slot
+     * @return true if taken
+     * @throws IOException when the directory cannot be written
+     */
+    private boolean claim(final int candidate) throws IOException {
+        final Path file = slotFile(candidate);
+        if (Files.exists(file)) {
+            if (expiry(file) > clock.millis()) {
+                return false;
+            }
+            final Path aside = directory.resolve(candidate + "." + memberId + ".expired");
+            try {
+                Files.move(file, aside, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+            final boolean stillExpired = expiry(aside) <= clock.millis();
+            if (!stillExpired) {
+                try {
+                    Files.createLink(file, aside);
+                } catch (FileAlreadyExistsException e) {
+                    log.warn(String.format("claim() slot %d renewed while being taken over", candidate));
+                }
+            }
+            Files.deleteIfExists(aside);
+            if (!stillExpired) {
+                return false;
+            }
+            log.info(String.format("claim() slot %d lease expired; taking it over", candidate));
+        }
+        final Path temp = write();
+        try {
+            Files.createLink(file, temp);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes this member's lease to a temporary file.
+     *
+     * @return Path
+     * @throws IOException when the directory cannot be written
+     */
+    private Path write() throws IOException {
+        final Path temp = Files.createTempFile(directory, memberId, ".tmp");
+        Files.write(temp, (memberId + " " + (clock.millis() + leaseMillis)).getBytes(StandardCharsets.UTF_8));
+        return temp;
+    }
+
+    /**
+     * Lease expiry in a slot file.
+     *
+     * @param file slot file
+     * @return epoch milliseconds; 0 if the file is gone, Long.MAX_VALUE if it is being written
+     * @throws IOException when the file cannot be read
+     */
+    private static long expiry(final Path file) throws IOException {
+        final String content;
+        try {
+            content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(content.substring(content.lastIndexOf(' ') + 1));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Member in a slot file.
+     *
+     * @param file slot file
+     * @return member ID, null if the file is gone
+     * @throws IOException when the file cannot be read
+     */
+    private static String holder(final Path file) throws IOException {
+        final String content;
+        try {
+            content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return content.substring(0, Math.max(0, content.lastIndexOf(' ')));
+    }
+
+    /**
+     * File of a slot.
+     *
+     * @param number slot
+     * @return Path
+     */
+    private Path slotFile(final int number) {
+        return directory.resolve(number + SLOT_SUFFIX);
+    }
+
+}
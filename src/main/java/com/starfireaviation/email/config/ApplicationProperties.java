@@ -16,9 +16,21 @@
 
 package com.starfireaviation.email.config;
 
+import com.starfireaviation.email.service.MessageType;
+import com.starfireaviation.email.tenant.TenantProperties;
+import com.starfireaviation.email.transport.ProviderProperties;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 @Data
 @ConfigurationProperties("email")
 public class ApplicationProperties {
@@ -33,9 +45,349 @@ public class ApplicationProperties {
      */
     private String sendGridApiKey;
 
+    /**
+     * SendGrid API base URL; point at a local stand-in for load tests.
+     */
+    private String sendGridBaseUrl = CommonConstants.SENDGRID_BASE_URL;
+
     /**
      * Email enabled.
      */
     private boolean enabled;
 
+    /**
+     * Number of worker threads draining the dispatch queue.
+     */
+    private int dispatchThreads = CommonConstants.DEFAULT_DISPATCH_THREADS;
+
+    /**
+     * Time to wait for room in the dispatch queue before rejecting a message.
+     */
+    private long enqueueTimeoutMillis = CommonConstants.DEFAULT_ENQUEUE_TIMEOUT_MILLIS;
+
+    /**
+     * Per organization sender identity, API key, rate limit and template overrides. Bound once at startup; use
+     * organizationsFile for organizations that change while running.
+     */
+    private Map<String, TenantProperties> organizations = new HashMap<>();
+
+    /**
+     * YAML or properties file of email.organizations.* re-read on every tenant refresh, in place of the
+     * organizations above. Unset to use those.
+     */
+    private String organizationsFile;
+
+    /**
+     * Seconds between reloads of organization configuration.
+     */
+    private long tenantRefreshSeconds = CommonConstants.DEFAULT_TENANT_REFRESH_SECONDS;
+
+    /**
+     * Directory of templates overriding the bundled ones, watched and reloaded on change. Unset to disable.
+     */
+    private String templateDirectory;
+
+    /**
+     * Base URL of the service users, events and questions are fetched from. Unset to disable lookups.
+     */
+    private String upstreamBaseUrl;
+
+    /**
+     * Upstream request timeout, also the longest a send waits for an entity.
+     */
+    private long upstreamTimeoutMillis = CommonConstants.DEFAULT_UPSTREAM_TIMEOUT_MILLIS;
+
+    /**
+     * Largest batch of ids fetched from upstream in one request.
+     */
+    private int entityBatchSize = CommonConstants.DEFAULT_ENTITY_BATCH_SIZE;
+
+    /**
+     * Time a partial batch of ids waits for more before being fetched.
+     */
+    private long entityBatchWindowMillis = CommonConstants.DEFAULT_ENTITY_BATCH_WINDOW_MILLIS;
+
+    /**
+     * Time fetched users, events and questions are cached.
+     */
+    private long entityCacheTtlSeconds = CommonConstants.DEFAULT_ENTITY_CACHE_TTL_SECONDS;
+
+    /**
+     * Number of users, events and questions cached per kind.
+     */
+    private int entityCacheSize = CommonConstants.DEFAULT_ENTITY_CACHE_SIZE;
+
+    /**
+     * Directory shared by all replicas holding their cluster leases. Unset to run single-node.
+     */
+    private String clusterDirectory;
+
+    /**
+     * This replica's cluster member ID. Defaults to the host name.
+     */
+    private String clusterMemberId;
+
+    /**
+     * Cluster lease length; a replica that stops renewing loses its partitions this long after its last renewal.
+     */
+    private long clusterLeaseMillis = CommonConstants.DEFAULT_CLUSTER_LEASE_MILLIS;
+
+    /**
+     * Queue depth above which the replica reports itself not ready, so traffic goes to other replicas.
+     */
+    private int readyQueueHighWater = CommonConstants.DEFAULT_READY_QUEUE_HIGH_WATER;
+
+    /**
+     * Age of the oldest queued message above which the replica reports itself not ready.
+     */
+    private long readyBacklogAgeSeconds = CommonConstants.DEFAULT_READY_BACKLOG_AGE_SECONDS;
+
+    /**
+     * Time without a worker finishing a dispatch, while there is work, above which the replica reports itself not
+     * live, i.e. its workers are stuck.
+     */
+    private long liveStallSeconds = CommonConstants.DEFAULT_LIVE_STALL_SECONDS;
+
+    /**
+     * Send attempts per message, the first included, when no provider accepts it but one may later.
+     */
+    private int sendRetryAttempts = CommonConstants.DEFAULT_SEND_RETRY_ATTEMPTS;
+
+    /**
+     * Wait before the first retry of a failed send; doubled for each retry after, up to five minutes.
+     */
+    private long sendRetryBackoffMillis = CommonConstants.DEFAULT_SEND_RETRY_BACKOFF_MILLIS;
+
+    /**
+     * Consecutive send failures that open a provider's circuit breaker.
+     */
+    private int transportFailureThreshold = CommonConstants.DEFAULT_TRANSPORT_FAILURE_THRESHOLD;
+
+    /**
+     * Time an open circuit breaker waits before letting a probe send through to its provider.
+     */
+    private long transportRetryMillis = CommonConstants.DEFAULT_TRANSPORT_RETRY_MILLIS;
+
+    /**
+     * Mail providers by name, sent through in proportion to their weight and health. When empty, SendGrid at
+     * sendGridBaseUrl is the only provider.
+     */
+    private Map<String, ProviderProperties> providers = new LinkedHashMap<>();
+
+    /**
+     * Suppression list file; should be on a persistent volume. Unset to keep the list in a temporary file. With a
+     * cluster directory the list is rebuilt from the journals there, so the file need not outlive the replica.
+     */
+    private String suppressionFile;
+
+    /**
+     * Time between reads of the other replicas' suppression journals.
+     */
+    private long suppressionSyncMillis = CommonConstants.DEFAULT_SUPPRESSION_SYNC_MILLIS;
+
+    /**
+     * Slots of a newly created suppression list file; it doubles as it fills.
+     */
+    private int suppressionInitialSlots = CommonConstants.DEFAULT_SUPPRESSION_SLOTS;
+
+    /**
+     * Number of events whose calendar invites are cached.
+     */
+    private int calendarCacheSize = CommonConstants.DEFAULT_CALENDAR_CACHE_SIZE;
+
+    /**
+     * Length of an event, for calendar invites.
+     */
+    private long eventDurationMinutes = CommonConstants.DEFAULT_EVENT_DURATION_MINUTES;
+
+    /**
+     * Zone event start times are given in.
+     */
+    private String eventTimeZone = CommonConstants.DEFAULT_EVENT_TIME_ZONE;
+
+    /**
+     * Time zone of recipients whose own is unknown.
+     */
+    private String defaultTimeZone = CommonConstants.DEFAULT_EVENT_TIME_ZONE;
+
+    /**
+     * Locale of recipients whose own is unknown, as a BCP 47 language tag.
+     */
+    private String defaultLocale = CommonConstants.DEFAULT_LOCALE;
+
+    /**
+     * Locales whose formatters are built for every time zone at startup.
+     */
+    private List<String> formatterLocales = new ArrayList<>(List.of(CommonConstants.DEFAULT_LOCALE));
+
+    /**
+     * Local time recipients' quiet hours start; set equal to the end to turn quiet hours off.
+     */
+    private String quietHoursStart = CommonConstants.DEFAULT_QUIET_HOURS_START;
+
+    /**
+     * Local time recipients' quiet hours end.
+     */
+    private String quietHoursEnd = CommonConstants.DEFAULT_QUIET_HOURS_END;
+
+    /**
+     * Window after quiet hours over which held messages are spread.
+     */
+    private long quietHoursSpreadMinutes = CommonConstants.DEFAULT_QUIET_HOURS_SPREAD_MINUTES;
+
+    /**
+     * Rate messages held through quiet hours are released at.
+     */
+    private double quietHoursReleasePerSecond = CommonConstants.DEFAULT_QUIET_HOURS_RELEASE_PER_SECOND;
+
+    /**
+     * Starting limit of sends in flight per provider.
+     */
+    private int sendConcurrencyInitial = CommonConstants.DEFAULT_SEND_CONCURRENCY_INITIAL;
+
+    /**
+     * Lowest limit of sends in flight per provider.
+     */
+    private int sendConcurrencyMin = CommonConstants.DEFAULT_SEND_CONCURRENCY_MIN;
+
+    /**
+     * Highest limit of sends in flight per provider.
+     */
+    private int sendConcurrencyMax = CommonConstants.DEFAULT_SEND_CONCURRENCY_MAX;
+
+    /**
+     * Shortest window the send concurrency limit is adjusted over.
+     */
+    private long sendConcurrencyWindowMillis = CommonConstants.DEFAULT_SEND_CONCURRENCY_WINDOW_MILLIS;
+
+    /**
+     * Most questions whose answers are tallied at once.
+     */
+    private int quizTallyMaxQuestions = CommonConstants.DEFAULT_QUIZ_TALLY_MAX_QUESTIONS;
+
+    /**
+     * Time without a reply after which a question is the first to be dropped when the tally is full.
+     */
+    private long quizTallyIdleMinutes = CommonConstants.DEFAULT_QUIZ_TALLY_IDLE_MINUTES;
+
+    /**
+     * Address replies go to, plus-addressed with a correlation token. Unset to use the organization's from address.
+     */
+    private String replyAddress;
+
+    /**
+     * Base64 public key of the SendGrid Signed Event Webhook. Unset to reject every delivery event callback.
+     */
+    private String eventWebhookPublicKey;
+
+    /**
+     * Shared secret Inbound Parse callbacks carry as their basic auth password. Unset to reject every inbound reply.
+     */
+    private String inboundWebhookSecret;
+
+    /**
+     * Largest difference between a signed event timestamp and now.
+     */
+    private long eventWebhookToleranceSeconds = CommonConstants.DEFAULT_EVENT_WEBHOOK_TOLERANCE_SECONDS;
+
+    /**
+     * Reply correlation file; should be on a persistent volume. Unset to keep it in a temporary file. Ignored with a
+     * cluster directory, where each replica keeps its file.
+     */
+    private String correlationFile;
+
+    /**
+     * Key reply tokens are signed with. Unset to use a key generated with the correlation file; required with a
+     * cluster directory, so every replica verifies the tokens the others sign.
+     */
+    private String correlationSecret;
+
+    /**
+     * Number of reply correlations kept in memory.
+     */
+    private int correlationMemorySlots = CommonConstants.DEFAULT_CORRELATION_MEMORY_SLOTS;
+
+    /**
+     * Number of reply correlations kept in a newly created correlation file.
+     */
+    private int correlationFileSlots = CommonConstants.DEFAULT_CORRELATION_FILE_SLOTS;
+
+    /**
+     * Window frequency caps are counted over.
+     */
+    private long frequencyCapWindowMinutes = CommonConstants.DEFAULT_FREQUENCY_CAP_WINDOW_MINUTES;
+
+    /**
+     * Number of buckets the frequency cap window is split into; a message stops counting up to one bucket early.
+     */
+    private int frequencyCapBuckets = CommonConstants.DEFAULT_FREQUENCY_CAP_BUCKETS;
+
+    /**
+     * Most messages per user within the frequency cap window, 0 for no limit.
+     */
+    private int frequencyCapPerUser = CommonConstants.DEFAULT_FREQUENCY_CAP_PER_USER;
+
+    /**
+     * Most messages of a type per user within the frequency cap window; types not listed are only held to the
+     * per-user cap.
+     */
+    private Map<MessageType, Integer> frequencyCaps = new EnumMap<>(Map.of(
+            MessageType.EVENT_RSVP, CommonConstants.DEFAULT_FREQUENCY_CAP_EVENT_REMINDERS,
+            MessageType.EVENT_UPCOMING, CommonConstants.DEFAULT_FREQUENCY_CAP_EVENT_REMINDERS,
+            MessageType.EVENT_LAST_MIN_REGISTRATION, CommonConstants.DEFAULT_FREQUENCY_CAP_EVENT_REMINDERS));
+
+    /**
+     * Message types never counted against frequency caps, because the recipient is waiting on them.
+     */
+    private Set<MessageType> frequencyCapExempt = EnumSet.of(
+            MessageType.PASSWORD_RESET,
+            MessageType.USER_SETTINGS_VERIFIED,
+            MessageType.USER_SETTINGS_CHANGE,
+            MessageType.RESEND_USER_SETTINGS_CHANGE,
+            MessageType.USER_DELETE,
+            MessageType.QUESTION_ASKED);
+
+    /**
+     * File sent messages are kept in for resends; kept across restarts. Unset to use a temporary file. Ignored with
+     * a cluster directory, where each replica keeps its file there.
+     */
+    private String sentStoreFile;
+
+    /**
+     * Bytes of sent messages kept in memory for resends.
+     */
+    private long sentStoreMemoryBytes = CommonConstants.DEFAULT_SENT_STORE_MEMORY_BYTES;
+
+    /**
+     * Bytes of compressed sent messages kept in the spill file, 0 to keep them in memory only.
+     */
+    private long sentStoreFileBytes = CommonConstants.DEFAULT_SENT_STORE_FILE_BYTES;
+
+    /**
+     * Base URL of the ground school application that links in messages (RSVP, register, answer, verify) point at.
+     */
+    private String hostApp;
+
+    /**
+     * Base URL of the ground school site users sign in to.
+     */
+    private String hostUi = CommonConstants.DEFAULT_HOST_UI;
+
+    /**
+     * Most renders shared between messages with identical template values, including keys seen only once; 0 to
+     * render every message.
+     */
+    private int renderCacheEntries = CommonConstants.DEFAULT_RENDER_CACHE_ENTRIES;
+
+    /**
+     * Bytes of renders shared between messages with identical template values.
+     */
+    private long renderCacheBytes = CommonConstants.DEFAULT_RENDER_CACHE_BYTES;
+
+    /**
+     * Whether to track render buffers and log any garbage collected without being returned to the pool, with
+     * where they were taken. Costs a stack trace per message; for tests and diagnosing leaks.
+     */
+    private boolean renderBufferLeakDetection;
+
 }
@@ -27,4 +27,290 @@ public class CommonConstants {
      * Maximium Queue Size.
      */
     public static final int MAX_QUEUE_SIZE = 10000;
+
+    /**
+     * Default number of dispatch worker threads; sends in flight are bounded by each provider's adaptive limit, so
+     * this only needs to be large enough not to be the bottleneck.
+     */
+    public static final int DEFAULT_DISPATCH_THREADS = 64;
+
+    /**
+     * Default time to wait for room in the dispatch queue before rejecting a message.
+     */
+    public static final long DEFAULT_ENQUEUE_TIMEOUT_MILLIS = 1000L;
+
+    /**
+     * Most bytes held by idle render buffers kept for reuse.
+     */
+    public static final long RENDER_BUFFER_POOL_BYTES = 8L << 20;
+
+    /**
+     * Capacity of the smallest render buffer size class in bytes.
+     */
+    public static final int RENDER_BUFFER_CAPACITY = 8 * 1024;
+
+    /**
+     * Largest render buffer in bytes returned to the pool, the capacity of the largest size class.
+     */
+    public static final int RENDER_BUFFER_MAX_RETAINED = 256 * 1024;
+
+    /**
+     * Default seconds between reloads of organization configuration.
+     */
+    public static final long DEFAULT_TENANT_REFRESH_SECONDS = 60L;
+
+    /**
+     * Default upstream request timeout.
+     */
+    public static final long DEFAULT_UPSTREAM_TIMEOUT_MILLIS = 2000L;
+
+    /**
+     * Default largest batch of ids fetched from upstream in one request.
+     */
+    public static final int DEFAULT_ENTITY_BATCH_SIZE = 100;
+
+    /**
+     * Default time a partial batch of ids waits for more before being fetched.
+     */
+    public static final long DEFAULT_ENTITY_BATCH_WINDOW_MILLIS = 5L;
+
+    /**
+     * Default time fetched users, events and questions are cached.
+     */
+    public static final long DEFAULT_ENTITY_CACHE_TTL_SECONDS = 300L;
+
+    /**
+     * Default number of users, events and questions cached per kind.
+     */
+    public static final int DEFAULT_ENTITY_CACHE_SIZE = 50000;
+
+    /**
+     * Number of partitions user IDs are split into across replicas.
+     */
+    public static final int PARTITION_COUNT = 256;
+
+    /**
+     * Default cluster lease length.
+     */
+    public static final long DEFAULT_CLUSTER_LEASE_MILLIS = 15000L;
+
+    /**
+     * Directory, under the cluster directory, of the inboxes messages are handed over through.
+     */
+    public static final String CLUSTER_INBOX_DIRECTORY = "inbox";
+
+    /**
+     * Directory, under the cluster directory, of the replica slot leases.
+     */
+    public static final String CLUSTER_SLOT_DIRECTORY = "slots";
+
+    /**
+     * Directory, under the cluster directory, of the suppression journals.
+     */
+    public static final String CLUSTER_SUPPRESSION_DIRECTORY = "suppressions";
+
+    /**
+     * Directory, under the cluster directory, of the reply correlation files.
+     */
+    public static final String CLUSTER_CORRELATION_DIRECTORY = "correlations";
+
+    /**
+     * Directory, under the cluster directory, of the sent message files.
+     */
+    public static final String CLUSTER_SENT_DIRECTORY = "sent";
+
+    /**
+     * Default time between reads of the other replicas' suppression journals.
+     */
+    public static final long DEFAULT_SUPPRESSION_SYNC_MILLIS = 5000L;
+
+    /**
+     * Default queue depth above which a replica reports itself not ready.
+     */
+    public static final int DEFAULT_READY_QUEUE_HIGH_WATER = 8000;
+
+    /**
+     * Default backlog age above which a replica reports itself not ready.
+     */
+    public static final long DEFAULT_READY_BACKLOG_AGE_SECONDS = 300L;
+
+    /**
+     * Default time without worker progress above which a replica reports itself not live.
+     */
+    public static final long DEFAULT_LIVE_STALL_SECONDS = 300L;
+
+    /**
+     * Default largest difference between a signed event timestamp and now.
+     */
+    public static final long DEFAULT_EVENT_WEBHOOK_TOLERANCE_SECONDS = 600L;
+
+    /**
+     * Default send attempts per message.
+     */
+    public static final int DEFAULT_SEND_RETRY_ATTEMPTS = 6;
+
+    /**
+     * Default wait before the first retry of a failed send.
+     */
+    public static final long DEFAULT_SEND_RETRY_BACKOFF_MILLIS = 5000L;
+
+    /**
+     * Default consecutive send failures that open a provider's circuit breaker.
+     */
+    public static final int DEFAULT_TRANSPORT_FAILURE_THRESHOLD = 5;
+
+    /**
+     * Default time an open circuit breaker waits before probing its provider.
+     */
+    public static final long DEFAULT_TRANSPORT_RETRY_MILLIS = 30000L;
+
+    /**
+     * SendGrid API base URL.
+     */
+    public static final String SENDGRID_BASE_URL = "https://api.sendgrid.com";
+
+    /**
+     * Default SMTP port.
+     */
+    public static final int SMTP_PORT = 25;
+
+    /**
+     * Default provider connect, read and write timeout.
+     */
+    public static final long DEFAULT_TRANSPORT_TIMEOUT_MILLIS = 10000L;
+
+    /**
+     * Default slots of a new suppression list file (8 MB, room for about 780k addresses before it grows).
+     */
+    public static final int DEFAULT_SUPPRESSION_SLOTS = 1 << 20;
+
+    /**
+     * Default number of events whose calendar invites are cached.
+     */
+    public static final int DEFAULT_CALENDAR_CACHE_SIZE = 1024;
+
+    /**
+     * Default length of an event, for calendar invites.
+     */
+    public static final long DEFAULT_EVENT_DURATION_MINUTES = 120L;
+
+    /**
+     * Default zone event start times are given in.
+     */
+    public static final String DEFAULT_EVENT_TIME_ZONE = "America/New_York";
+
+    /**
+     * Domain part of calendar invite UIDs.
+     */
+    public static final String CALENDAR_UID_DOMAIN = "starfireaviation.com";
+
+    /**
+     * Default locale of recipients, as a BCP 47 language tag.
+     */
+    public static final String DEFAULT_LOCALE = "en-US";
+
+    /**
+     * Default local time recipients' quiet hours start.
+     */
+    public static final String DEFAULT_QUIET_HOURS_START = "21:00";
+
+    /**
+     * Default local time recipients' quiet hours end.
+     */
+    public static final String DEFAULT_QUIET_HOURS_END = "08:00";
+
+    /**
+     * Default window after quiet hours over which held messages are spread.
+     */
+    public static final long DEFAULT_QUIET_HOURS_SPREAD_MINUTES = 30L;
+
+    /**
+     * Default rate messages held through quiet hours are released at.
+     */
+    public static final double DEFAULT_QUIET_HOURS_RELEASE_PER_SECOND = 20d;
+
+    /**
+     * Default starting limit of sends in flight per provider.
+     */
+    public static final int DEFAULT_SEND_CONCURRENCY_INITIAL = 8;
+
+    /**
+     * Default lowest limit of sends in flight per provider.
+     */
+    public static final int DEFAULT_SEND_CONCURRENCY_MIN = 1;
+
+    /**
+     * Default highest limit of sends in flight per provider.
+     */
+    public static final int DEFAULT_SEND_CONCURRENCY_MAX = 64;
+
+    /**
+     * Default shortest window the send concurrency limit is adjusted over.
+     */
+    public static final long DEFAULT_SEND_CONCURRENCY_WINDOW_MILLIS = 1000L;
+
+    /**
+     * Default most questions whose answers are tallied at once.
+     */
+    public static final int DEFAULT_QUIZ_TALLY_MAX_QUESTIONS = 10_000;
+
+    /**
+     * Default time without a reply after which a question is the first to be dropped from a full tally.
+     */
+    public static final long DEFAULT_QUIZ_TALLY_IDLE_MINUTES = 240L;
+
+    /**
+     * Default number of reply correlations kept in memory.
+     */
+    public static final int DEFAULT_CORRELATION_MEMORY_SLOTS = 1 << 16;
+
+    /**
+     * Default number of reply correlations kept in the correlation file (32 MB).
+     */
+    public static final int DEFAULT_CORRELATION_FILE_SLOTS = 1 << 20;
+
+    /**
+     * Default frequency cap window.
+     */
+    public static final long DEFAULT_FREQUENCY_CAP_WINDOW_MINUTES = 24 * 60L;
+
+    /**
+     * Default number of buckets the frequency cap window is split into.
+     */
+    public static final int DEFAULT_FREQUENCY_CAP_BUCKETS = 24;
+
+    /**
+     * Default most messages per user within the frequency cap window.
+     */
+    public static final int DEFAULT_FREQUENCY_CAP_PER_USER = 50;
+
+    /**
+     * Default most event reminders of one kind per user within the frequency cap window.
+     */
+    public static final int DEFAULT_FREQUENCY_CAP_EVENT_REMINDERS = 3;
+
+    /**
+     * Default bytes of sent messages kept in memory for resends.
+     */
+    public static final long DEFAULT_SENT_STORE_MEMORY_BYTES = 16L << 20;
+
+    /**
+     * Default bytes of compressed sent messages kept in the spill file.
+     */
+    public static final long DEFAULT_SENT_STORE_FILE_BYTES = 256L << 20;
+
+    /**
+     * Default base URL of the ground school site.
+     */
+    public static final String DEFAULT_HOST_UI = "https://groundschool.starfireaviation.com";
+
+    /**
+     * Default most renders cached, including keys seen once.
+     */
+    public static final int DEFAULT_RENDER_CACHE_ENTRIES = 20_000;
+
+    /**
+     * Default bytes of cached renders.
+     */
+    public static final long DEFAULT_RENDER_CACHE_BYTES = 32L << 20;
 }
@@ -16,11 +16,75 @@
 
 package com.starfireaviation.email.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.starfireaviation.email.calendar.CalendarInviteCache;
+import com.starfireaviation.email.cluster.FileCoordinationStore;
+import com.starfireaviation.email.cluster.PartitionInbox;
+import com.starfireaviation.email.cluster.PartitionManager;
+import com.starfireaviation.email.cluster.ReplicaSlot;
+import com.starfireaviation.email.correlation.CorrelationIndex;
+import com.starfireaviation.email.correlation.ReplyCorrelator;
+import com.starfireaviation.email.correlation.TokenSigner;
+import com.starfireaviation.email.frequency.FrequencyCap;
+import com.starfireaviation.email.frequency.SlidingWindowCounter;
+import com.starfireaviation.email.quiz.AnswerTally;
+import com.starfireaviation.email.resolver.ResolvingEntityLookup;
+import com.starfireaviation.email.resolver.UpstreamClient;
+import com.starfireaviation.email.schedule.QuietHours;
+import com.starfireaviation.email.schedule.QuietHoursScheduler;
+import com.starfireaviation.email.sent.SentMessageStore;
+import com.starfireaviation.email.service.EntityLookup;
+import com.starfireaviation.email.service.MessageDispatcher;
+import com.starfireaviation.email.service.MessageHandoff;
 import com.starfireaviation.email.service.MessageService;
+import com.starfireaviation.email.service.MessageType;
+import com.starfireaviation.email.service.StubEntityLookup;
+import com.starfireaviation.email.suppression.SuppressionJournal;
+import com.starfireaviation.email.suppression.SuppressionList;
+import com.starfireaviation.email.template.RenderBufferPool;
+import com.starfireaviation.email.template.RenderCache;
+import com.starfireaviation.email.template.TemplateRegistry;
+import com.starfireaviation.email.template.TemplateRenderer;
+import com.starfireaviation.email.tenant.FileTenantConfigSource;
+import com.starfireaviation.email.tenant.SendRateLimiter;
+import com.starfireaviation.email.tenant.TenantConfigCache;
+import com.starfireaviation.email.tenant.TenantConfigSource;
+import com.starfireaviation.email.transport.AdaptiveConcurrencyLimiter;
+import com.starfireaviation.email.transport.LimitedTransport;
+import com.starfireaviation.email.transport.MailRouter;
+import com.starfireaviation.email.transport.MailTransport;
+import com.starfireaviation.email.transport.ProviderProperties;
+import com.starfireaviation.email.transport.SendGridTransport;
+import com.starfireaviation.email.transport.SmtpTransport;
+import com.starfireaviation.email.util.FormatterCache;
+import com.starfireaviation.email.util.TemplateUtil;
+import com.starfireaviation.email.webhook.WebhookAuthenticator;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
 @Configuration
 @EnableConfigurationProperties({
         ApplicationProperties.class,
@@ -28,16 +92,583 @@ import org.springframework.context.annotation.Configuration;
 public class ServiceConfig {
 
     /**
-     * MessageService.
+     * Milliseconds per second.
+     */
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    /**
+     * TemplateRegistry.
+     *
+     * @param config        Freemarker configuration
+     * @param aProps        ApplicationProperties
+     * @param meterRegistry MeterRegistry
+     * @return TemplateRegistry
+     */
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public TemplateRegistry templateRegistry(final freemarker.template.Configuration config,
+                                             final ApplicationProperties aProps,
+                                             final MeterRegistry meterRegistry) {
+        return new TemplateRegistry(config, aProps.getTemplateDirectory(), meterRegistry);
+    }
+
+    /**
+     * TemplateRenderer.
+     *
+     * @param registry      TemplateRegistry
+     * @param aProps        ApplicationProperties
+     * @param meterRegistry MeterRegistry
+     * @return TemplateRenderer
+     */
+    @Bean(initMethod = "init")
+    public TemplateRenderer templateRenderer(final TemplateRegistry registry,
+                                             final ApplicationProperties aProps,
+                                             final MeterRegistry meterRegistry) {
+        RenderCache cache = null;
+        if (aProps.getRenderCacheEntries() > 0) {
+            cache = new RenderCache(aProps.getRenderCacheEntries(), aProps.getRenderCacheBytes());
+            meterRegistry.gauge("email.render.cache.entries", cache, RenderCache::size);
+            meterRegistry.gauge("email.render.cache.bytes", cache, RenderCache::getBytes);
+            FunctionCounter.builder("email.render.cache.lookups", cache, RenderCache::getHits)
+                    .tag("outcome", "hit").register(meterRegistry);
+            FunctionCounter.builder("email.render.cache.lookups", cache, RenderCache::getMisses)
+                    .tag("outcome", "miss").register(meterRegistry);
+        }
+        final RenderBufferPool pool = new RenderBufferPool(
+                CommonConstants.RENDER_BUFFER_CAPACITY,
+                CommonConstants.RENDER_BUFFER_MAX_RETAINED,
+                CommonConstants.RENDER_BUFFER_POOL_BYTES,
+                aProps.isRenderBufferLeakDetection());
+        meterRegistry.gauge("email.render.buffers.outstanding", pool, RenderBufferPool::getOutstanding);
+        meterRegistry.gauge("email.render.buffers.pooled.bytes", pool, RenderBufferPool::getPooledBytes);
+        FunctionCounter.builder("email.render.buffers.leaked", pool, RenderBufferPool::getLeaked)
+                .register(meterRegistry);
+        return new TemplateRenderer(registry, pool, cache);
+    }
+
+    /**
+     * TenantConfigCache; reloads email.organizations-file when set, otherwise serves the organizations bound at
+     * startup.
+     *
+     * @param aProps ApplicationProperties
+     * @return TenantConfigCache
+     */
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public TenantConfigCache tenantConfigCache(final ApplicationProperties aProps) {
+        final TenantConfigSource source;
+        if (aProps.getOrganizationsFile() == null || aProps.getOrganizationsFile().isEmpty()) {
+            source = aProps::getOrganizations;
+        } else {
+            source = new FileTenantConfigSource(Paths.get(aProps.getOrganizationsFile()));
+        }
+        return new TenantConfigCache(source, aProps, aProps.getTenantRefreshSeconds());
+    }
+
+    /**
+     * EntityLookup; resolves from upstream when email.upstream-base-url is set.
+     *
+     * @param aProps ApplicationProperties
+     * @param mapper ObjectMapper
+     * @return EntityLookup
+     */
+    @Bean
+    public EntityLookup entityLookup(final ApplicationProperties aProps, final ObjectMapper mapper) {
+        if (aProps.getUpstreamBaseUrl() == null) {
+            return new StubEntityLookup();
+        }
+        return new ResolvingEntityLookup(
+                new UpstreamClient(aProps.getUpstreamBaseUrl(), aProps.getUpstreamTimeoutMillis(), mapper),
+                aProps);
+    }
+
+    /**
+     * MailRouter over the configured providers, or SendGrid alone when none are configured, each behind an adaptive
+     * concurrency limit.
+     *
+     * @param aProps        ApplicationProperties
+     * @param meterRegistry MeterRegistry
+     * @return MailRouter
+     */
+    @Bean
+    public MailRouter mailRouter(final ApplicationProperties aProps, final MeterRegistry meterRegistry) {
+        final MailRouter router = new MailRouter(
+                aProps.getTransportFailureThreshold(),
+                aProps.getTransportRetryMillis(),
+                meterRegistry);
+        if (aProps.getProviders().isEmpty()) {
+            final ProviderProperties sendGrid = new ProviderProperties();
+            sendGrid.setBaseUrl(aProps.getSendGridBaseUrl());
+            return router.addProvider(
+                    limited(transport("sendgrid", sendGrid), aProps, meterRegistry),
+                    sendGrid.getWeight());
+        }
+        for (Map.Entry<String, ProviderProperties> provider : aProps.getProviders().entrySet()) {
+            router.addProvider(
+                    limited(transport(provider.getKey(), provider.getValue()), aProps, meterRegistry),
+                    provider.getValue().getWeight());
+        }
+        return router;
+    }
+
+    /**
+     * SuppressionList; shared through journals in the cluster directory when one is set.
+     *
+     * @param aProps        ApplicationProperties
+     * @param slot          ReplicaSlot
+     * @param meterRegistry MeterRegistry
+     * @return SuppressionList
+     * @throws IOException when the suppression list file or journal cannot be opened
+     */
+    @Bean(destroyMethod = "close")
+    public SuppressionList suppressionList(final ApplicationProperties aProps,
+                                           final ReplicaSlot slot,
+                                           final MeterRegistry meterRegistry) throws IOException {
+        SuppressionJournal journal = null;
+        if (aProps.getClusterDirectory() != null) {
+            journal = new SuppressionJournal(
+                    Paths.get(aProps.getClusterDirectory(), CommonConstants.CLUSTER_SUPPRESSION_DIRECTORY),
+                    slot.getSlot());
+        }
+        final Path file;
+        if (aProps.getSuppressionFile() == null) {
+            file = Files.createTempFile("email-suppressions", ".bin");
+            Files.delete(file);
+            file.toFile().deleteOnExit();
+            if (journal == null) {
+                log.warn(String.format("suppressionList() email.suppression-file not set; [%s] is lost on restart",
+                        file));
+            }
+        } else {
+            file = Paths.get(aProps.getSuppressionFile());
+        }
+        final SuppressionList list = new SuppressionList(file, aProps.getSuppressionInitialSlots(), journal);
+        list.follow(aProps.getSuppressionSyncMillis());
+        meterRegistry.gauge("email.suppression.size", list, SuppressionList::size);
+        FunctionCounter.builder("email.suppression.hits", list, SuppressionList::getHits).register(meterRegistry);
+        return list;
+    }
+
+    /**
+     * CorrelationIndex; one file per replica in the cluster directory when one is set.
+     *
+     * @param aProps        ApplicationProperties
+     * @param slot          ReplicaSlot
+     * @param meterRegistry MeterRegistry
+     * @return CorrelationIndex
+     * @throws IOException when the correlation file cannot be opened
+     */
+    @Bean(destroyMethod = "close")
+    public CorrelationIndex correlationIndex(final ApplicationProperties aProps,
+                                             final ReplicaSlot slot,
+                                             final MeterRegistry meterRegistry) throws IOException {
+        final CorrelationIndex index;
+        if (aProps.getClusterDirectory() != null) {
+            index = new CorrelationIndex(
+                    Paths.get(aProps.getClusterDirectory(), CommonConstants.CLUSTER_CORRELATION_DIRECTORY),
+                    slot.getSlot(),
+                    aProps.getCorrelationMemorySlots(),
+                    aProps.getCorrelationFileSlots());
+        } else {
+            final Path file;
+            if (aProps.getCorrelationFile() == null) {
+                file = Files.createTempFile("email-correlations", ".bin");
+                Files.delete(file);
+                file.toFile().deleteOnExit();
+                log.warn(String.format("correlationIndex() email.correlation-file not set; [%s] is lost on restart",
+                        file));
+            } else {
+                file = Paths.get(aProps.getCorrelationFile());
+            }
+            index = new CorrelationIndex(
+                    file,
+                    aProps.getCorrelationMemorySlots(),
+                    aProps.getCorrelationFileSlots());
+        }
+        FunctionCounter.builder("email.correlation.lookups", index, CorrelationIndex::getMemoryHits)
+                .tag("tier", "memory").register(meterRegistry);
+        FunctionCounter.builder("email.correlation.lookups", index, CorrelationIndex::getFileHits)
+                .tag("tier", "file").register(meterRegistry);
+        FunctionCounter.builder("email.correlation.lookups", index, CorrelationIndex::getMisses)
+                .tag("tier", "miss").register(meterRegistry);
+        return index;
+    }
+
+    /**
+     * ReplyCorrelator.
+     *
+     * @param aProps        ApplicationProperties
+     * @param index         CorrelationIndex
+     * @param meterRegistry MeterRegistry
+     * @return ReplyCorrelator
+     * @throws IllegalStateException when a cluster directory is set without email.correlation-secret, since each
+     *                               replica's file would otherwise sign with its own key
+     */
+    @Bean
+    public ReplyCorrelator replyCorrelator(final ApplicationProperties aProps,
+                                           final CorrelationIndex index,
+                                           final MeterRegistry meterRegistry) {
+        if (aProps.getClusterDirectory() != null && aProps.getCorrelationSecret() == null) {
+            throw new IllegalStateException("email.correlation-secret must be set when email.cluster-directory is; "
+                    + "replies to mail sent by one replica would not verify on the others");
+        }
+        byte[] secret = index.getKey();
+        if (aProps.getCorrelationSecret() != null) {
+            secret = aProps.getCorrelationSecret().getBytes(StandardCharsets.UTF_8);
+        }
+        final ReplyCorrelator correlator = new ReplyCorrelator(index, new TokenSigner(secret));
+        FunctionCounter.builder("email.correlation.rejected", correlator, ReplyCorrelator::getRejected)
+                .register(meterRegistry);
+        return correlator;
+    }
+
+    /**
+     * SentMessageStore; one file per replica in the cluster directory when one is set.
+     *
+     * @param aProps        ApplicationProperties
+     * @param slot          ReplicaSlot
+     * @param meterRegistry MeterRegistry
+     * @return SentMessageStore
+     * @throws IOException when the sent message file cannot be opened
+     */
+    @Bean(destroyMethod = "close")
+    public SentMessageStore sentMessageStore(final ApplicationProperties aProps,
+                                             final ReplicaSlot slot,
+                                             final MeterRegistry meterRegistry) throws IOException {
+        final SentMessageStore store;
+        if (aProps.getClusterDirectory() != null) {
+            store = new SentMessageStore(
+                    Paths.get(aProps.getClusterDirectory(), CommonConstants.CLUSTER_SENT_DIRECTORY),
+                    slot.getSlot(),
+                    aProps.getSentStoreMemoryBytes(),
+                    aProps.getSentStoreFileBytes());
+        } else {
+            final Path file;
+            if (aProps.getSentStoreFile() == null) {
+                file = Files.createTempFile("email-sent", ".bin");
+                file.toFile().deleteOnExit();
+            } else {
+                file = Paths.get(aProps.getSentStoreFile());
+            }
+            store = new SentMessageStore(file, aProps.getSentStoreMemoryBytes(), aProps.getSentStoreFileBytes());
+        }
+        meterRegistry.gauge("email.sent.stored", store, SentMessageStore::size);
+        meterRegistry.gauge("email.sent.memory.bytes", store, SentMessageStore::getMemoryBytes);
+        FunctionCounter.builder("email.sent.lookups", store, SentMessageStore::getMemoryHits)
+                .tag("tier", "memory").register(meterRegistry);
+        FunctionCounter.builder("email.sent.lookups", store, SentMessageStore::getFileHits)
+                .tag("tier", "file").register(meterRegistry);
+        FunctionCounter.builder("email.sent.lookups", store, SentMessageStore::getMisses)
+                .tag("tier", "miss").register(meterRegistry);
+        return store;
+    }
+
+    /**
+     * CalendarInviteCache.
+     *
+     * @param aProps        ApplicationProperties
+     * @param meterRegistry MeterRegistry
+     * @return CalendarInviteCache
+     */
+    @Bean
+    public CalendarInviteCache calendarInviteCache(final ApplicationProperties aProps,
+                                                   final MeterRegistry meterRegistry) {
+        final CalendarInviteCache invites = new CalendarInviteCache(
+                aProps.getCalendarCacheSize(),
+                ZoneId.of(aProps.getEventTimeZone()),
+                Duration.ofMinutes(aProps.getEventDurationMinutes()),
+                CommonConstants.CALENDAR_UID_DOMAIN);
+        meterRegistry.gauge("email.calendar.invites.cached", invites, CalendarInviteCache::size);
+        FunctionCounter.builder("email.calendar.invites.generated", invites, CalendarInviteCache::getGenerated)
+                .register(meterRegistry);
+        return invites;
+    }
+
+    /**
+     * AnswerTally.
+     *
+     * @param aProps        ApplicationProperties
+     * @param meterRegistry MeterRegistry
+     * @return AnswerTally
+     */
+    @Bean
+    public AnswerTally answerTally(final ApplicationProperties aProps, final MeterRegistry meterRegistry) {
+        final AnswerTally tally = new AnswerTally(
+                aProps.getQuizTallyMaxQuestions(),
+                TimeUnit.MINUTES.toMillis(aProps.getQuizTallyIdleMinutes()),
+                Clock.systemUTC());
+        meterRegistry.gauge("email.quiz.questions", tally, AnswerTally::size);
+        FunctionCounter.builder("email.quiz.answers", tally, AnswerTally::getRecorded).register(meterRegistry);
+        FunctionCounter.builder("email.quiz.questions.evicted", tally, AnswerTally::getEvicted)
+                .register(meterRegistry);
+        return tally;
+    }
+
+    /**
+     * WebhookAuthenticator.
      *
      * @param aProps ApplicationProperties
-     * @param config Freemarker configuration
+     * @return WebhookAuthenticator
+     */
+    @Bean
+    public WebhookAuthenticator webhookAuthenticator(final ApplicationProperties aProps) {
+        return new WebhookAuthenticator(
+                aProps.getEventWebhookPublicKey(),
+                aProps.getInboundWebhookSecret(),
+                aProps.getEventWebhookToleranceSeconds(),
+                Clock.systemUTC());
+    }
+
+    /**
+     * FormatterCache, warmed for every time zone in the configured locales.
+     *
+     * @param aProps        ApplicationProperties
+     * @param meterRegistry MeterRegistry
+     * @return FormatterCache
+     */
+    @Bean
+    public FormatterCache formatterCache(final ApplicationProperties aProps, final MeterRegistry meterRegistry) {
+        final FormatterCache formatters = new FormatterCache(
+                ZoneId.of(aProps.getDefaultTimeZone()),
+                Locale.forLanguageTag(aProps.getDefaultLocale()),
+                ZoneId.of(aProps.getEventTimeZone()),
+                TemplateUtil.PATTERNS);
+        formatters.warm(aProps.getFormatterLocales());
+        meterRegistry.gauge("email.formatters.cached", formatters, FormatterCache::size);
+        return formatters;
+    }
+
+    /**
+     * MessageService.
+     *
+     * @param aProps       ApplicationProperties
+     * @param renderer     TemplateRenderer
+     * @param tenants      TenantConfigCache
+     * @param lookup       EntityLookup
+     * @param router       MailRouter
+     * @param suppressions SuppressionList
+     * @param invites      CalendarInviteCache
+     * @param formatters   FormatterCache
+     * @param correlator   ReplyCorrelator
+     * @param sent         SentMessageStore
      * @return MessageService
      */
     @Bean
     public MessageService messageService(final ApplicationProperties aProps,
-                                         final freemarker.template.Configuration config) {
-        return new MessageService(aProps, config);
+                                         final TemplateRenderer renderer,
+                                         final TenantConfigCache tenants,
+                                         final EntityLookup lookup,
+                                         final MailRouter router,
+                                         final SuppressionList suppressions,
+                                         final CalendarInviteCache invites,
+                                         final FormatterCache formatters,
+                                         final ReplyCorrelator correlator,
+                                         final SentMessageStore sent) {
+        return new MessageService(
+                aProps, renderer, tenants, lookup, router, suppressions, invites, formatters, correlator, sent);
+    }
+
+    /**
+     * MessageDispatcher. Its backlog age is the signal the horizontal pod autoscaler scales on. With a cluster
+     * directory, messages are handed to the replica that owns their recipient through per-partition inboxes kept
+     * beside the leases.
+     *
+     * @param service       MessageService
+     * @param aProps        ApplicationProperties
+     * @param partitions    PartitionManager
+     * @param mapper        ObjectMapper
+     * @param meterRegistry MeterRegistry
+     * @return MessageDispatcher
+     * @throws IOException when the inbox directory cannot be created
+     */
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public MessageDispatcher messageDispatcher(final MessageService service,
+                                               final ApplicationProperties aProps,
+                                               final PartitionManager partitions,
+                                               final ObjectMapper mapper,
+                                               final MeterRegistry meterRegistry) throws IOException {
+        MessageHandoff handoff = null;
+        if (aProps.getClusterDirectory() != null) {
+            handoff = new MessageHandoff(
+                    partitions,
+                    new PartitionInbox(
+                            Paths.get(aProps.getClusterDirectory(), CommonConstants.CLUSTER_INBOX_DIRECTORY),
+                            partitions.getMemberId(),
+                            aProps.getClusterLeaseMillis()),
+                    mapper);
+            FunctionCounter.builder("email.cluster.handoff", handoff, MessageHandoff::getHandedOver)
+                    .tag("direction", "out").register(meterRegistry);
+            FunctionCounter.builder("email.cluster.handoff", handoff, MessageHandoff::getTakenOver)
+                    .tag("direction", "in").register(meterRegistry);
+        }
+        final MessageDispatcher dispatcher = new MessageDispatcher(
+                service,
+                aProps.getDispatchThreads(),
+                CommonConstants.MAX_QUEUE_SIZE,
+                aProps.getEnqueueTimeoutMillis(),
+                new QuietHours(
+                        LocalTime.parse(aProps.getQuietHoursStart()),
+                        LocalTime.parse(aProps.getQuietHoursEnd()),
+                        Duration.ofMinutes(aProps.getQuietHoursSpreadMinutes())),
+                new SendRateLimiter(aProps.getQuietHoursReleasePerSecond()),
+                frequencyCap(aProps, meterRegistry),
+                aProps.getFrequencyCapExempt(),
+                aProps.getSendRetryAttempts(),
+                aProps.getSendRetryBackoffMillis(),
+                handoff);
+        Gauge.builder("email.dispatch.backlog.age",
+                        dispatcher,
+                        current -> current.getBacklogAgeMillis() / MILLIS_PER_SECOND)
+                .baseUnit("seconds")
+                .description("Time the oldest queued message has been waiting")
+                .register(meterRegistry);
+        meterRegistry.gauge("email.dispatch.inflight", dispatcher, MessageDispatcher::getInFlight);
+        meterRegistry.gauge("email.dispatch.queue.depth", dispatcher, MessageDispatcher::getQueueDepth);
+        final QuietHoursScheduler<?> quietHours = dispatcher.getQuietHoursScheduler();
+        meterRegistry.gauge("email.quiethours.held", quietHours, QuietHoursScheduler::getHeld);
+        FunctionCounter.builder("email.quiethours.deferred", quietHours, QuietHoursScheduler::getDeferred)
+                .register(meterRegistry);
+        FunctionCounter.builder("email.quiethours.released", quietHours, QuietHoursScheduler::getReleased)
+                .register(meterRegistry);
+        FunctionCounter.builder("email.dispatch.retries", dispatcher, MessageDispatcher::getRetried)
+                .tag("outcome", "retried").register(meterRegistry);
+        FunctionCounter.builder("email.dispatch.retries", dispatcher, MessageDispatcher::getRetriesExhausted)
+                .tag("outcome", "exhausted").register(meterRegistry);
+        FunctionCounter.builder("email.frequency.capped", dispatcher, MessageDispatcher::getCapDropped)
+                .tag("outcome", "dropped").register(meterRegistry);
+        FunctionCounter.builder("email.frequency.capped", dispatcher, MessageDispatcher::getCapDeferred)
+                .tag("outcome", "deferred").register(meterRegistry);
+        return dispatcher;
+    }
+
+    /**
+     * Per-user frequency caps.
+     *
+     * @param aProps        ApplicationProperties
+     * @param meterRegistry MeterRegistry
+     * @return FrequencyCap
+     */
+    private static FrequencyCap<MessageType> frequencyCap(final ApplicationProperties aProps,
+                                                          final MeterRegistry meterRegistry) {
+        final FrequencyCap<MessageType> cap = new FrequencyCap<>(
+                new SlidingWindowCounter(
+                        Duration.ofMinutes(aProps.getFrequencyCapWindowMinutes()),
+                        aProps.getFrequencyCapBuckets()),
+                aProps.getFrequencyCapPerUser(),
+                aProps.getFrequencyCaps(),
+                MessageType.class,
+                Clock.systemUTC());
+        meterRegistry.gauge("email.frequency.counters", cap, FrequencyCap::size);
+        return cap;
+    }
+
+    /**
+     * PartitionManager; coordinates with other replicas when email.cluster-directory is set.
+     *
+     * @param aProps        ApplicationProperties
+     * @param meterRegistry MeterRegistry
+     * @return PartitionManager
+     * @throws IOException when the cluster directory cannot be created
+     */
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public PartitionManager partitionManager(final ApplicationProperties aProps,
+                                             final MeterRegistry meterRegistry) throws IOException {
+        String memberId = aProps.getClusterMemberId();
+        if (memberId == null) {
+            memberId = System.getenv("HOSTNAME");
+        }
+        if (memberId == null) {
+            memberId = UUID.randomUUID().toString();
+        }
+        FileCoordinationStore store = null;
+        if (aProps.getClusterDirectory() != null) {
+            store = new FileCoordinationStore(
+                    Paths.get(aProps.getClusterDirectory()),
+                    aProps.getClusterLeaseMillis());
+        }
+        final PartitionManager manager = new PartitionManager(
+                memberId,
+                store,
+                aProps.getClusterLeaseMillis(),
+                CommonConstants.PARTITION_COUNT,
+                Clock.systemUTC());
+        meterRegistry.gauge("email.cluster.members", manager, current -> current.getMembers().size());
+        meterRegistry.gauge("email.cluster.partitions.owned", manager, current -> current.ownedPartitions().size());
+        return manager;
+    }
+
+    /**
+     * ReplicaSlot; the number naming the files this replica writes in the cluster directory, 0 when single-node.
+     *
+     * @param aProps     ApplicationProperties
+     * @param partitions PartitionManager, for the member ID
+     * @return ReplicaSlot
+     * @throws IOException when no slot can be claimed
+     */
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public ReplicaSlot replicaSlot(final ApplicationProperties aProps,
+                                   final PartitionManager partitions) throws IOException {
+        Path directory = null;
+        if (aProps.getClusterDirectory() != null) {
+            directory = Paths.get(aProps.getClusterDirectory(), CommonConstants.CLUSTER_SLOT_DIRECTORY);
+        }
+        return new ReplicaSlot(directory, partitions.getMemberId(), aProps.getClusterLeaseMillis(), Clock.systemUTC());
+    }
+
+    /**
+     * Puts a provider behind an adaptive concurrency limit and registers the limit's metrics.
+     *
+     * @param transport     provider
+     * @param aProps        ApplicationProperties
+     * @param meterRegistry MeterRegistry
+     * @return LimitedTransport
+     */
+    private static LimitedTransport limited(final MailTransport transport,
+                                            final ApplicationProperties aProps,
+                                            final MeterRegistry meterRegistry) {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                aProps.getSendConcurrencyInitial(),
+                aProps.getSendConcurrencyMin(),
+                aProps.getSendConcurrencyMax(),
+                aProps.getSendConcurrencyWindowMillis());
+        final Tags tags = Tags.of("provider", transport.getName());
+        meterRegistry.gauge("email.transport.concurrency.limit", tags, limiter, AdaptiveConcurrencyLimiter::getLimit);
+        meterRegistry.gauge("email.transport.concurrency.inflight", tags, limiter,
+                AdaptiveConcurrencyLimiter::getInFlight);
+        meterRegistry.gauge("email.transport.rtt.current", tags, limiter,
+                AdaptiveConcurrencyLimiter::getShortRttMillis);
+        meterRegistry.gauge("email.transport.rtt.noload", tags, limiter,
+                AdaptiveConcurrencyLimiter::getNoLoadRttMillis);
+        return new LimitedTransport(transport, limiter);
+    }
+
+    /**
+     * Builds the transport for one provider.
+     *
+     * @param name     provider name
+     * @param provider ProviderProperties
+     * @return MailTransport
+     */
+    private static MailTransport transport(final String name, final ProviderProperties provider) {
+        if (provider.getType() == ProviderProperties.Type.SENDGRID) {
+            return new SendGridTransport(
+                    name,
+                    provider.getBaseUrl(),
+                    provider.getTimeoutMillis(),
+                    provider.isCompress());
+        }
+        final JavaMailSenderImpl sender = new JavaMailSenderImpl();
+        sender.setHost(provider.getHost());
+        sender.setPort(provider.getPort());
+        sender.setUsername(provider.getUsername());
+        sender.setPassword(provider.getPassword());
+        final Properties mailProperties = new Properties();
+        final String timeout = Long.toString(provider.getTimeoutMillis());
+        mailProperties.setProperty("mail.smtp.connectiontimeout", timeout);
+        mailProperties.setProperty("mail.smtp.timeout", timeout);
+        mailProperties.setProperty("mail.smtp.writetimeout", timeout);
+        mailProperties.setProperty("mail.smtp.auth", Boolean.toString(provider.getUsername() != null));
+        mailProperties.setProperty("mail.smtp.starttls.enable", Boolean.toString(provider.isStartTls()));
+        sender.setJavaMailProperties(mailProperties);
+        return new SmtpTransport(name, sender);
     }
 
 }
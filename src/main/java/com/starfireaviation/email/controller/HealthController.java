@@ -16,16 +16,75 @@
 
 package com.starfireaviation.email.controller;
 
+import com.starfireaviation.email.config.ApplicationProperties;
+import com.starfireaviation.email.service.MessageDispatcher;
+import com.starfireaviation.email.template.TemplateRegistry;
+import com.starfireaviation.email.transport.MailRouter;
+import com.starfireaviation.email.transport.TransportHealth;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 @RestController
 @RequestMapping("/health")
 public class HealthController {
 
+    /**
+     * Status of a passing check.
+     */
+    private static final String UP = "UP";
+
+    /**
+     * Status of a failing check.
+     */
+    private static final String DOWN = "DOWN";
+
+    /**
+     * TemplateRegistry.
+     */
+    private final TemplateRegistry templateRegistry;
+
+    /**
+     * MessageDispatcher.
+     */
+    private final MessageDispatcher messageDispatcher;
+
+    /**
+     * MailRouter.
+     */
+    private final MailRouter mailRouter;
+
+    /**
+     * ApplicationProperties.
+     */
+    private final ApplicationProperties applicationProperties;
+
+    /**
+     * HealthController.
+     *
+     * @param registry   TemplateRegistry
+     * @param dispatcher MessageDispatcher
+     * @param router     MailRouter
+     * @param aProps     ApplicationProperties
+     */
+    public HealthController(final TemplateRegistry registry,
+                            final MessageDispatcher dispatcher,
+                            final MailRouter router,
+                            final ApplicationProperties aProps) {
+        templateRegistry = registry;
+        messageDispatcher = dispatcher;
+        mailRouter = router;
+        applicationProperties = aProps;
+    }
+
     /**
      * Endpoint to test application.
      *
@@ -35,4 +94,82 @@ public class HealthController {
     public String health() {
         return "OK";
     }
+
+    /**
+     * Liveness: the dispatcher is running and its workers are making progress, i.e. one has finished a dispatch
+     * within the stall limit whenever there is work. A slow or failing transport does not fail liveness, since its
+     * sends still finish and a restart would not fix it; a growing backlog is left to readiness and the autoscaler.
+     *
+     * @return 200 when live, 503 otherwise
+     */
+    @GetMapping("/live")
+    public ResponseEntity<Map<String, Object>> live() {
+        final long stalledMillis = messageDispatcher.getStalledMillis();
+        final boolean live = messageDispatcher.isRunning()
+                && stalledMillis < TimeUnit.SECONDS.toMillis(applicationProperties.getLiveStallSeconds());
+        final Map<String, Object> body = new LinkedHashMap<>();
+        body.put("dispatcher", status(messageDispatcher.isRunning()));
+        body.put("stalledMillis", stalledMillis);
+        return respond(live, body);
+    }
+
+    /**
+     * Readiness: templates are loaded, at least one provider's circuit is not open, and the queue is below its
+     * high-water mark with its oldest message younger than the backlog age limit.
+     *
+     * @return 200 when ready, 503 otherwise
+     */
+    @GetMapping("/ready")
+    public ResponseEntity<Map<String, Object>> ready() {
+        final boolean templates = templateRegistry.isLoaded();
+        final TransportHealth transport = mailRouter.getHealth();
+        final int queueDepth = messageDispatcher.getQueueDepth();
+        final long backlogAgeMillis = messageDispatcher.getBacklogAgeMillis();
+        final boolean queue = queueDepth < applicationProperties.getReadyQueueHighWater()
+                && backlogAgeMillis < TimeUnit.SECONDS.toMillis(applicationProperties.getReadyBacklogAgeSeconds());
+        final Map<String, Object> body = new LinkedHashMap<>();
+        body.put("templates", status(templates));
+        body.put("transport", transport);
+        body.put("providers", mailRouter.getCircuitStates());
+        body.put("queue", status(queue));
+        body.put("queueDepth", queueDepth);
+        body.put("backlogAgeMillis", backlogAgeMillis);
+        body.put("inFlight", messageDispatcher.getInFlight());
+        final boolean ready = templates && transport != TransportHealth.DOWN && queue;
+        if (!ready) {
+            log.warn(String.format("ready() not ready: %s", body));
+        }
+        return respond(ready, body);
+    }
+
+    /**
+     * Check status.
+     *
+     * @param passing whether the check passes
+     * @return UP or DOWN
+     */
+    private static String status(final boolean passing) {
+        if (passing) {
+            return UP;
+        }
+        return DOWN;
+    }
+
+    /**
+     * Builds a probe response.
+     *
+     * @param healthy whether the probe passes
+     * @param details check details
+     * @return ResponseEntity
+     */
+    private static ResponseEntity<Map<String, Object>> respond(final boolean healthy,
+                                                               final Map<String, Object> details) {
+        final Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", status(healthy));
+        body.putAll(details);
+        if (healthy) {
+            return ResponseEntity.ok(body);
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(body);
+    }
 }
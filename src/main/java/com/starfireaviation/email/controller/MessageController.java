@@ -0,0 +1,389 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.starfireaviation.email.config.CommonConstants;
+import com.starfireaviation.email.service.MessageDispatcher;
+import com.starfireaviation.email.service.MessageService;
+import com.starfireaviation.email.service.MessageType;
+import com.starfireaviation.email.service.ResendResult;
+import com.starfireaviation.email.service.SubmitResult;
+import com.starfireaviation.model.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+@Slf4j
+@RestController
+@RequestMapping("/messages")
+public class MessageController {
+
+    /**
+     * Number of results written between flushes of the response.
+     */
+    private static final int FLUSH_INTERVAL = 100;
+
+    /**
+     * Result status for a queued message.
+     */
+    private static final String ACCEPTED = "ACCEPTED";
+
+    /**
+     * Result status for a message turned away because the queue stayed full.
+     */
+    private static final String REJECTED = "REJECTED";
+
+    /**
+     * Result status for a message that could not be parsed.
+     */
+    private static final String INVALID = "INVALID";
+
+    /**
+     * MessageDispatcher.
+     */
+    private final MessageDispatcher messageDispatcher;
+
+    /**
+     * MessageService.
+     */
+    private final MessageService messageService;
+
+    /**
+     * ObjectMapper.
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * MessageController.
+     *
+     * @param dispatcher MessageDispatcher
+     * @param service    MessageService
+     * @param mapper     ObjectMapper
+     */
+    public MessageController(final MessageDispatcher dispatcher,
+                             final MessageService service,
+                             final ObjectMapper mapper) {
+        messageDispatcher = dispatcher;
+        messageService = service;
+        objectMapper = mapper;
+    }
+
+    /**
+     * Queues many messages of one type.
+     *
+     * <p>The body is either a JSON array or newline delimited JSON of Message objects. Messages are read one at a
+     * time and handed to the dispatcher as they are parsed, and one NDJSON result line is streamed back per message
+     * in the same order, so neither side has to hold the whole batch in memory. When the dispatch queue is full the
+     * request thread waits, which stops reading the request body and slows the caller down. An accepted message's
+     * result carries the ID it can later be resent by, as a string since it does not fit a JavaScript number.</p>
+     *
+     * <p>A message that cannot be read is answered INVALID and the rest are still processed. The one exception is
+     * malformed JSON syntax inside an array, after which the array cannot be followed any further; the remainder of
+     * the request is answered with a single INVALID line. NDJSON is read a line at a time, so a broken line only
+     * affects itself.</p>
+     *
+     * @param type         MessageType
+     * @param organization organization the messages are sent for
+     * @param request      HttpServletRequest
+     * @param response     HttpServletResponse
+     * @throws IOException when the request or response stream fails
+     */
+    @PostMapping(path = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public void bulk(@RequestParam("type") final MessageType type,
+                     @RequestParam(name = "organization", defaultValue = CommonConstants.DEFAULT_ORGANIZATION)
+                     final String organization,
+                     final HttpServletRequest request,
+                     final HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        final ObjectReader reader = objectMapper.readerFor(Message.class);
+        final long count;
+        try (JsonGenerator out = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            out.setRootValueSeparator(new SerializedString("\n"));
+            if (isNdjson(request.getContentType())) {
+                count = readLines(reader, request, out, type, organization);
+            } else {
+                count = readArray(reader, request, out, type, organization);
+            }
+            out.writeRaw('\n');
+        }
+        log.info(String.format("bulk() type [%s]; %d messages processed", type, count));
+    }
+
+    /**
+     * Sends a recently sent message again, as it was, without rendering it. The ID is the one returned when the
+     * message was queued; any replica sharing the cluster directory can resend it.
+     *
+     * @param messageId message ID
+     * @return 202 when resent, 404 when the message is not held, 409 when the recipient is suppressed, 502 when the
+     * provider refused it and 503 when it could not be sent right now
+     */
+    @PostMapping("/{messageId}/resend")
+    public ResponseEntity<Void> resend(@PathVariable("messageId") final long messageId) {
+        final ResendResult result = messageService.resend(messageId);
+        final HttpStatus status;
+        if (result == ResendResult.RESENT) {
+            status = HttpStatus.ACCEPTED;
+        } else if (result == ResendResult.NOT_HELD) {
+            status = HttpStatus.NOT_FOUND;
+        } else if (result == ResendResult.SUPPRESSED) {
+            status = HttpStatus.CONFLICT;
+        } else if (result == ResendResult.REFUSED) {
+            status = HttpStatus.BAD_GATEWAY;
+        } else {
+            status = HttpStatus.SERVICE_UNAVAILABLE;
+        }
+        return ResponseEntity.status(status).build();
+    }
+
+    /**
+     * Reads newline delimited JSON a line at a time.
+     *
+     * @param reader       Message reader
+     * @param request      HttpServletRequest
+     * @param out          JsonGenerator
+     * @param type         MessageType
+     * @param organization organization
+     * @return number of messages read
+     * @throws IOException when the request or response stream fails
+     */
+    private long readLines(final ObjectReader reader,
+                           final HttpServletRequest request,
+                           final JsonGenerator out,
+                           final MessageType type,
+                           final String organization) throws IOException {
+        final BufferedReader lines =
+                new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+        long index = 0;
+        boolean more = true;
+        String line = lines.readLine();
+        while (more && line != null) {
+            if (!line.isBlank()) {
+                Message message = null;
+                String problem = null;
+                try {
+                    message = reader.readValue(line);
+                } catch (JsonProcessingException e) {
+                    problem = e.getOriginalMessage();
+                }
+                more = handle(out, index, type, message, problem, organization);
+                index++;
+                flushPeriodically(out, index);
+            }
+            line = lines.readLine();
+        }
+        return index;
+    }
+
+    /**
+     * Reads a JSON array, or a sequence of JSON values, one value at a time.
+     *
+     * @param reader       Message reader
+     * @param request      HttpServletRequest
+     * @param out          JsonGenerator
+     * @param type         MessageType
+     * @param organization organization
+     * @return number of messages read
+     * @throws IOException when the request or response stream fails
+     */
+    private long readArray(final ObjectReader reader,
+                           final HttpServletRequest request,
+                           final JsonGenerator out,
+                           final MessageType type,
+                           final String organization) throws IOException {
+        long index = 0;
+        try (MappingIterator<Message> messages = reader.readValues(request.getInputStream())) {
+            boolean more = true;
+            while (more) {
+                Message message = null;
+                String problem = null;
+                boolean read = true;
+                try {
+                    read = messages.hasNextValue();
+                    if (read) {
+                        message = messages.nextValue();
+                    }
+                } catch (JsonParseException e) {
+                    writeResult(out, index, INVALID, e.getOriginalMessage());
+                    index++;
+                    read = false;
+                } catch (JsonProcessingException e) {
+                    problem = e.getOriginalMessage();
+                }
+                if (read) {
+                    more = handle(out, index, type, message, problem, organization);
+                    index++;
+                    flushPeriodically(out, index);
+                } else {
+                    more = false;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Submits a message that was read, or answers INVALID for one that could not be.
+     *
+     * @param out          JsonGenerator
+     * @param index        position of the message in the request
+     * @param type         MessageType
+     * @param message      Message, null when it could not be read
+     * @param problem      why the message could not be read, null if it was or it was JSON null
+     * @param organization organization
+     * @return false if the request should stop being processed
+     * @throws IOException when the response stream fails
+     */
+    private boolean handle(final JsonGenerator out,
+                           final long index,
+                           final MessageType type,
+                           final Message message,
+                           final String problem,
+                           final String organization) throws IOException {
+        if (problem != null) {
+            writeResult(out, index, INVALID, problem);
+            return true;
+        }
+        if (message == null) {
+            writeResult(out, index, INVALID, "null message");
+            return true;
+        }
+        return submit(out, index, type, message, organization);
+    }
+
+    /**
+     * Hands one message to the dispatcher and writes its result.
+     *
+     * @param out          JsonGenerator
+     * @param index        position of the message in the request
+     * @param type         MessageType
+     * @param message      Message
+     * @param organization organization
+     * @return false if the request should stop being processed
+     * @throws IOException when the response stream fails
+     */
+    private boolean submit(final JsonGenerator out,
+                           final long index,
+                           final MessageType type,
+                           final Message message,
+                           final String organization) throws IOException {
+        try {
+            final long messageId = messageService.newMessageId();
+            final SubmitResult result = messageDispatcher.submit(type, message, organization, messageId);
+            if (result == SubmitResult.ACCEPTED) {
+                writeResult(out, index, ACCEPTED, null, messageId);
+            } else if (result == SubmitResult.SHUTTING_DOWN) {
+                writeResult(out, index, REJECTED, "shutting down");
+            } else {
+                writeResult(out, index, REJECTED, "dispatch queue full");
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeResult(out, index, REJECTED, "interrupted");
+            return false;
+        }
+    }
+
+    /**
+     * Whether a request body is newline delimited JSON.
+     *
+     * @param contentType request content type, may be null
+     * @return true for application/x-ndjson
+     */
+    private static boolean isNdjson(final String contentType) {
+        return contentType != null
+                && MediaType.APPLICATION_NDJSON.isCompatibleWith(MediaType.parseMediaType(contentType));
+    }
+
+    /**
+     * Flushes the response every so many results, so the caller sees progress.
+     *
+     * @param out   JsonGenerator
+     * @param count results written so far
+     * @throws IOException when the response stream fails
+     */
+    private static void flushPeriodically(final JsonGenerator out, final long count) throws IOException {
+        if (count % FLUSH_INTERVAL == 0) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes one NDJSON result line.
+     *
+     * @param out    JsonGenerator
+     * @param index  position of the message in the request
+     * @param status result status
+     * @param reason reason, may be null
+     * @throws IOException when the response stream fails
+     */
+    private static void writeResult(final JsonGenerator out,
+                                    final long index,
+                                    final String status,
+                                    final String reason) throws IOException {
+        writeResult(out, index, status, reason, 0L);
+    }
+
+    /**
+     * Writes one NDJSON result line.
+     *
+     * @param out       JsonGenerator
+     * @param index     position of the message in the request
+     * @param status    result status
+     * @param reason    reason, may be null
+     * @param messageId ID the message can be resent by, 0 for none
+     * @throws IOException when the response stream fails
+     */
+    private static void writeResult(final JsonGenerator out,
+                                    final long index,
+                                    final String status,
+                                    final String reason,
+                                    final long messageId) throws IOException {
+        out.writeStartObject();
+        out.writeNumberField("index", index);
+        out.writeStringField("status", status);
+        if (messageId != 0L) {
+            out.writeStringField("id", Long.toString(messageId));
+        }
+        if (reason != null) {
+            out.writeStringField("reason", reason);
+        }
+        out.writeEndObject();
+    }
+
+}
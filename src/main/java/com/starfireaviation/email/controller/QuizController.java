@@ -0,0 +1,82 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.controller;
+
+import com.starfireaviation.email.quiz.AnswerTally;
+import com.starfireaviation.model.ResponseOption;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Live answer distributions for instructors. Reads never block replies being counted.
+ */
+@RestController
+@RequestMapping("/quiz")
+public class QuizController {
+
+    /**
+     * AnswerTally.
+     */
+    private final AnswerTally answerTally;
+
+    /**
+     * QuizController.
+     *
+     * @param tally AnswerTally
+     */
+    public QuizController(final AnswerTally tally) {
+        answerTally = tally;
+    }
+
+    /**
+     * Answer counts for every question being tallied.
+     *
+     * @return count per answer by question id
+     */
+    @GetMapping("/tally")
+    public Map<Long, Map<ResponseOption, Long>> tally() {
+        return answerTally.snapshot();
+    }
+
+    /**
+     * Answer counts for one question.
+     *
+     * @param questionId question id
+     * @return count per answer
+     */
+    @GetMapping("/{questionId}/tally")
+    public Map<ResponseOption, Long> tally(@PathVariable("questionId") final long questionId) {
+        return answerTally.snapshot(questionId);
+    }
+
+    /**
+     * Stops tallying a question.
+     *
+     * @param questionId question id
+     * @return final count per answer
+     */
+    @DeleteMapping("/{questionId}/tally")
+    public Map<ResponseOption, Long> clear(@PathVariable("questionId") final long questionId) {
+        return answerTally.clear(questionId);
+    }
+
+}
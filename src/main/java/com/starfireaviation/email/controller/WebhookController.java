@@ -0,0 +1,233 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.controller;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.starfireaviation.email.correlation.Correlation;
+import com.starfireaviation.email.correlation.ReplyCorrelator;
+import com.starfireaviation.email.exception.InvalidPayloadException;
+import com.starfireaviation.email.exception.UnauthorizedException;
+import com.starfireaviation.email.quiz.AnswerTally;
+import com.starfireaviation.email.suppression.SuppressionList;
+import com.starfireaviation.email.util.ResponseParser;
+import com.starfireaviation.email.webhook.WebhookAuthenticator;
+import com.starfireaviation.model.ResponseOption;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Endpoints the mail provider calls back: inbound replies and delivery events. Both feed the suppression list, and
+ * replies to a question also feed the answer tally. Every callback must authenticate through the
+ * {@link WebhookAuthenticator}; anything else is rejected with 401 before it is read.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/webhooks")
+public class WebhookController {
+
+    /**
+     * Delivery events that suppress the recipient.
+     */
+    private static final Set<String> SUPPRESSING_EVENTS = Set.of(
+            "bounce",
+            "spamreport",
+            "unsubscribe",
+            "group_unsubscribe");
+
+    /**
+     * Signed Event Webhook signature header.
+     */
+    private static final String SIGNATURE_HEADER = "X-Twilio-Email-Event-Webhook-Signature";
+
+    /**
+     * Signed Event Webhook timestamp header.
+     */
+    private static final String TIMESTAMP_HEADER = "X-Twilio-Email-Event-Webhook-Timestamp";
+
+    /**
+     * Largest event batch accepted.
+     */
+    private static final int MAX_EVENT_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * SuppressionList.
+     */
+    private final SuppressionList suppressionList;
+
+    /**
+     * ObjectMapper.
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * AnswerTally.
+     */
+    private final AnswerTally answerTally;
+
+    /**
+     * ReplyCorrelator.
+     */
+    private final ReplyCorrelator replyCorrelator;
+
+    /**
+     * WebhookAuthenticator.
+     */
+    private final WebhookAuthenticator webhookAuthenticator;
+
+    /**
+     * WebhookController.
+     *
+     * @param suppressions  SuppressionList
+     * @param mapper        ObjectMapper
+     * @param tally         AnswerTally
+     * @param correlator    ReplyCorrelator
+     * @param authenticator WebhookAuthenticator
+     */
+    public WebhookController(final SuppressionList suppressions,
+                             final ObjectMapper mapper,
+                             final AnswerTally tally,
+                             final ReplyCorrelator correlator,
+                             final WebhookAuthenticator authenticator) {
+        suppressionList = suppressions;
+        objectMapper = mapper;
+        answerTally = tally;
+        replyCorrelator = correlator;
+        webhookAuthenticator = authenticator;
+    }
+
+    /**
+     * Inbound reply (SendGrid Inbound Parse), authenticated by the shared secret in its basic credentials. A reply
+     * whose first non-blank line is STOP suppresses the sender; an answer to a question is added to that question's
+     * tally. The question is only ever taken from the signed correlation token in the address the reply was sent to,
+     * so a reply without a valid token is not counted.
+     *
+     * @param authorization Authorization header
+     * @param from          sender, may include a display name
+     * @param to            recipients, one of which may carry a correlation token
+     * @param text          plain text body
+     * @return the parsed response option
+     * @throws IOException           when the suppression list cannot be updated
+     * @throws UnauthorizedException when the request does not carry the shared secret
+     */
+    @PostMapping(path = "/inbound",
+            consumes = {MediaType.MULTIPART_FORM_DATA_VALUE, MediaType.APPLICATION_FORM_URLENCODED_VALUE})
+    public Map<String, ResponseOption> inbound(
+            @RequestHeader(name = HttpHeaders.AUTHORIZATION, required = false) final String authorization,
+            @RequestParam("from") final String from,
+            @RequestParam(name = "to", required = false) final String to,
+            @RequestParam(name = "text", defaultValue = "") final String text)
+            throws IOException, UnauthorizedException {
+        if (!webhookAuthenticator.verifyInbound(authorization)) {
+            log.warn("inbound() rejected a request without the shared secret");
+            throw new UnauthorizedException("inbound webhook secret missing or wrong");
+        }
+        final ResponseOption response = ResponseParser.determineResponse(firstLine(text));
+        final Correlation correlation = replyCorrelator.resolve(to);
+        Long answered = null;
+        if (correlation != null) {
+            log.info(String.format("inbound() [%s] replied %s; %s",
+                    SuppressionList.normalize(from), response, correlation));
+            answered = correlation.getQuestionId();
+        }
+        if (response == ResponseOption.STOP && suppressionList.add(from)) {
+            log.info(String.format("inbound() [%s] replied STOP; suppressed", SuppressionList.normalize(from)));
+        } else if (answered != null) {
+            answerTally.record(answered, response);
+        }
+        return Collections.singletonMap("response", response);
+    }
+
+    /**
+     * Delivery events (SendGrid Signed Event Webhook), a JSON array read one event at a time once its signature is
+     * verified. Bounces, spam reports and unsubscribes suppress the recipient.
+     *
+     * @param request HttpServletRequest
+     * @return number of addresses newly suppressed
+     * @throws IOException             when the body cannot be read or the suppression list cannot be updated
+     * @throws UnauthorizedException   when the request is not signed by the provider
+     * @throws InvalidPayloadException when the batch is too large
+     */
+    @PostMapping(path = "/events", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Integer> events(final HttpServletRequest request)
+            throws IOException, UnauthorizedException, InvalidPayloadException {
+        final byte[] payload = request.getInputStream().readNBytes(MAX_EVENT_BYTES + 1);
+        if (payload.length > MAX_EVENT_BYTES) {
+            throw new InvalidPayloadException(String.format("event batch over %d bytes", MAX_EVENT_BYTES));
+        }
+        if (!webhookAuthenticator.verifyEvents(
+                request.getHeader(SIGNATURE_HEADER), request.getHeader(TIMESTAMP_HEADER), payload)) {
+            log.warn("events() rejected an unsigned or stale request");
+            throw new UnauthorizedException("event webhook signature missing, invalid or stale");
+        }
+        int suppressed = 0;
+        try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return Collections.singletonMap("suppressed", 0);
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                String email = null;
+                String event = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("email".equals(field)) {
+                        email = parser.getValueAsString();
+                    } else if ("event".equals(field)) {
+                        event = parser.getValueAsString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if (email != null && SUPPRESSING_EVENTS.contains(event) && suppressionList.add(email)) {
+                    suppressed++;
+                    log.info(String.format("events() [%s] %s; suppressed", SuppressionList.normalize(email), event));
+                }
+            }
+        }
+        return Collections.singletonMap("suppressed", suppressed);
+    }
+
+    /**
+     * First non-blank line of a reply, i.e. the part above any quoted original.
+     *
+     * @param text reply text
+     * @return trimmed line, empty if none
+     */
+    private static String firstLine(final String text) {
+        for (String line : text.split("\\R")) {
+            if (!line.isBlank()) {
+                return line.trim();
+            }
+        }
+        return "";
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.correlation;
+
+/**
+ * What an outgoing message was about: the user it went to and the event or question it asked about.
+ */
+public final class Correlation {
+
+    /**
+     * User ID.
+     */
+    private final Long userId;
+
+    /**
+     * Event ID, may be null.
+     */
+    private final Long eventId;
+
+    /**
+     * Question ID, may be null.
+     */
+    private final Long questionId;
+
+    /**
+     * Correlation.
+     *
+     * @param user     user ID
+     * @param event    event ID, may be null
+     * @param question question ID, may be null
+     */
+    public Correlation(final Long user, final Long event, final Long question) {
+        userId = user;
+        eventId = event;
+        questionId = question;
+    }
+
+    /**
+     * User ID.
+     *
+     * @return user ID
+     */
+    public Long getUserId() {
+        return userId;
+    }
+
+    /**
+     * Event ID.
+     *
+     * @return event ID, null if the message was not about an event
+     */
+    public Long getEventId() {
+        return eventId;
+    }
+
+    /**
+     * Question ID.
+     *
+     * @return question ID, null if the message was not about a question
+     */
+    public Long getQuestionId() {
+        return questionId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("user [%s]; event [%s]; question [%s]", userId, eventId, questionId);
+    }
+
+}
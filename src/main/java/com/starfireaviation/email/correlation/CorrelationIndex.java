@@ -0,0 +1,664 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.correlation;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CorrelationIndex.
+ *
+ * <p>Maps the IDs handed out in reply tokens back to what each message was about. IDs are issued in sequence, so
+ * both tiers are rings addressed by the low bits of the ID and every lookup is one slot read. The most recent
+ * correlations sit in an in-memory ring that is read without locking; when a newer ID takes a slot, the entry it
+ * displaces is written to the same position of a much larger ring in a memory-mapped file. A lookup checks the
+ * memory slot first, then the file slot, and only accepts an entry whose stored ID matches, so an ID that has been
+ * overwritten in both tiers resolves to nothing rather than to someone else's message.</p>
+ *
+ * <p>The file also holds the signing key, used when none is configured, and a reservation of the next block of
+ * IDs, so IDs are never reused across restarts. Entries still in memory are written out on close; a crash loses
+ * only those.</p>
+ *
+ * <p>Shared between replicas, each replica writes its own file, {@code <slot>.bin} in a directory on the shared
+ * cluster volume, and its IDs carry its slot in their top bits. Correlations are then written through to the file as
+ * they are recorded, and the file is forced out at most a second later, so a reply reaching any replica resolves by
+ * reading one record of the file its ID names.</p>
+ *
+ * <p>File layout: a {@value #HEADER_BYTES} byte header (magic, version, log2 of the slot count, next unreserved ID,
+ * key) followed by {@value #RECORD_BYTES} byte records (ID, user, event, question).</p>
+ */
+@Slf4j
+public class CorrelationIndex {
+
+    /**
+     * File magic, "CORL".
+     */
+    private static final int MAGIC = 0x434f524c;
+
+    /**
+     * File format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Header length.
+     */
+    private static final int HEADER_BYTES = 64;
+
+    /**
+     * Offset of log2 of the slot count.
+     */
+    private static final int SLOTS_LOG2_OFFSET = 8;
+
+    /**
+     * Offset of the first ID not yet reserved.
+     */
+    private static final int RESERVED_OFFSET = 16;
+
+    /**
+     * Offset of the signing key.
+     */
+    private static final int KEY_OFFSET = 24;
+
+    /**
+     * Signing key length.
+     */
+    private static final int KEY_BYTES = 32;
+
+    /**
+     * Record length.
+     */
+    private static final int RECORD_BYTES = 4 * Long.BYTES;
+
+    /**
+     * Most file slots, keeping the mapping under 2 GB.
+     */
+    private static final int MAX_SLOTS_LOG2 = 25;
+
+    /**
+     * IDs reserved in the file header at a time.
+     */
+    private static final long RESERVE_BLOCK = 4096L;
+
+    /**
+     * Stored in place of a null ID.
+     */
+    private static final long NONE = Long.MIN_VALUE;
+
+    /**
+     * Bits of an ID below the slot.
+     */
+    public static final int SEQUENCE_BITS = 40;
+
+    /**
+     * Longest a correlation written through to a shared file waits to be forced out.
+     */
+    private static final long FORCE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    /**
+     * File suffix in a shared directory.
+     */
+    private static final String FILE_SUFFIX = ".bin";
+
+    /**
+     * Shared directory holding the files of every slot, null when the index is local.
+     */
+    private final Path directory;
+
+    /**
+     * This replica's slot, 0 when the index is local.
+     */
+    private final int slot;
+
+    /**
+     * Files of other slots, opened for reading as their IDs are looked up.
+     */
+    private final Map<Integer, Peer> peers = new ConcurrentHashMap<>();
+
+    /**
+     * Recent correlations.
+     */
+    private final AtomicReferenceArray<Entry> memory;
+
+    /**
+     * Memory slot count minus one.
+     */
+    private final int memoryMask;
+
+    /**
+     * Open file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Mapping of the whole file.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * File slot count minus one.
+     */
+    private final int fileMask;
+
+    /**
+     * Lookups answered from memory.
+     */
+    private final LongAdder memoryHits = new LongAdder();
+
+    /**
+     * Lookups answered from the file.
+     */
+    private final LongAdder fileHits = new LongAdder();
+
+    /**
+     * Lookups of IDs no longer held.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Next ID to issue.
+     */
+    private long nextId;
+
+    /**
+     * First ID not covered by the reservation in the file header.
+     */
+    private long reservedId;
+
+    /**
+     * When the file was last forced out.
+     */
+    private long forcedNanos = System.nanoTime();
+
+    /**
+     * Opens a local index, creating the file if it does not exist.
+     *
+     * @param path        backing file
+     * @param memorySlots correlations kept in memory, rounded up to a power of two
+     * @param fileSlots   slots of a new file, rounded up to a power of two
+     * @throws IOException when the file cannot be opened or is not a correlation index
+     */
+    public CorrelationIndex(final Path path, final int memorySlots, final int fileSlots) throws IOException {
+        this(path, null, 0, memorySlots, fileSlots);
+    }
+
+    /**
+     * Opens this replica's file in a directory shared by all replicas, creating it if it does not exist.
+     *
+     * @param dir         shared directory
+     * @param aSlot       this replica's slot, 1 to 255
+     * @param memorySlots correlations kept in memory, rounded up to a power of two
+     * @param fileSlots   slots of a new file, rounded up to a power of two
+     * @throws IOException when the file cannot be opened or is not a correlation index
+     */
+    public CorrelationIndex(final Path dir, final int aSlot, final int memorySlots, final int fileSlots)
+            throws IOException {
+        this(Files.createDirectories(dir).resolve(aSlot + FILE_SUFFIX), dir, aSlot, memorySlots, fileSlots);
+    }
+
+    /**
+     * Opens the index, creating the file if it does not exist.
+     *
+     * @param path        backing file
+     * @param dir         shared directory, null when local
+     * @param aSlot       this replica's slot, 0 when local
+     * @param memorySlots correlations kept in memory, rounded up to a power of two
+     * @param fileSlots   slots of a new file, rounded up to a power of two
+     * @throws IOException when the file cannot be opened or is not a correlation index
+     */
+    private CorrelationIndex(final Path path,
+                             final Path dir,
+                             final int aSlot,
+                             final int memorySlots,
+                             final int fileSlots) throws IOException {
+        directory = dir;
+        slot = aSlot;
+        final int memoryLog2 = log2(memorySlots);
+        memory = new AtomicReferenceArray<>(1 << memoryLog2);
+        memoryMask = (1 << memoryLog2) - 1;
+        final int fileLog2;
+        if (Files.exists(path)) {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            fileLog2 = buffer.getInt(SLOTS_LOG2_OFFSET);
+            if (buffer.getInt(0) != MAGIC
+                    || buffer.getInt(Integer.BYTES) != VERSION
+                    || fileLog2 < 1 || fileLog2 > MAX_SLOTS_LOG2
+                    || channel.size() != HEADER_BYTES + ((long) RECORD_BYTES << fileLog2)) {
+                channel.close();
+                throw new IOException(path + " is not a version " + VERSION + " correlation index");
+            }
+        } else {
+            fileLog2 = Math.min(log2(fileSlots), MAX_SLOTS_LOG2);
+            channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + ((long) RECORD_BYTES << fileLog2));
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(Integer.BYTES, VERSION);
+            buffer.putInt(SLOTS_LOG2_OFFSET, fileLog2);
+            buffer.putLong(RESERVED_OFFSET, 1L);
+            final byte[] key = new byte[KEY_BYTES];
+            new SecureRandom().nextBytes(key);
+            for (int i = 0; i < KEY_BYTES; i++) {
+                buffer.put(KEY_OFFSET + i, key[i]);
+            }
+        }
+        fileMask = (1 << fileLog2) - 1;
+        nextId = buffer.getLong(RESERVED_OFFSET);
+        reservedId = nextId;
+        log.info(String.format("CorrelationIndex() [%s] %d memory slots, %d file slots, next ID %d in slot %d",
+                path, memoryMask + 1, fileMask + 1, nextId, slot));
+    }
+
+    /**
+     * Records a correlation.
+     *
+     * @param correlation Correlation
+     * @return ID to put in the reply token
+     */
+    public synchronized long put(final Correlation correlation) {
+        final long id = ((long) slot << SEQUENCE_BITS) | nextId;
+        nextId++;
+        if (nextId > reservedId) {
+            reservedId = nextId + RESERVE_BLOCK;
+            buffer.putLong(RESERVED_OFFSET, reservedId);
+        }
+        final Entry entry = new Entry(id, correlation);
+        final Entry displaced = memory.getAndSet((int) id & memoryMask, entry);
+        if (directory != null) {
+            write(entry);
+            final long now = System.nanoTime();
+            if (now - forcedNanos > FORCE_INTERVAL_NANOS) {
+                buffer.force();
+                forcedNanos = now;
+            }
+        } else if (displaced != null) {
+            write(displaced);
+        }
+        return id;
+    }
+
+    /**
+     * Looks a correlation up.
+     *
+     * @param id ID from a reply token
+     * @return Correlation, null if the ID was never issued or has since been overwritten
+     */
+    public Correlation get(final long id) {
+        if (id <= 0) {
+            misses.increment();
+            return null;
+        }
+        final int owner = (int) (id >>> SEQUENCE_BITS);
+        if (owner != slot) {
+            return readPeer(owner, id);
+        }
+        final Entry recent = memory.get((int) id & memoryMask);
+        if (recent != null && recent.getId() == id) {
+            memoryHits.increment();
+            return recent.getCorrelation();
+        }
+        final Correlation spilled = read(id);
+        if (spilled == null) {
+            misses.increment();
+        } else {
+            fileHits.increment();
+        }
+        return spilled;
+    }
+
+    /**
+     * Signing key generated with the file.
+     *
+     * @return key
+     */
+    public synchronized byte[] getKey() {
+        final byte[] key = new byte[KEY_BYTES];
+        for (int i = 0; i < KEY_BYTES; i++) {
+            key[i] = buffer.get(KEY_OFFSET + i);
+        }
+        return key;
+    }
+
+    /**
+     * Correlations kept in memory.
+     *
+     * @return slot count
+     */
+    public int memorySlots() {
+        return memoryMask + 1;
+    }
+
+    /**
+     * Correlations kept in the file.
+     *
+     * @return slot count
+     */
+    public int fileSlots() {
+        return fileMask + 1;
+    }
+
+    /**
+     * Lookups answered from memory.
+     *
+     * @return count
+     */
+    public long getMemoryHits() {
+        return memoryHits.sum();
+    }
+
+    /**
+     * Lookups answered from the file.
+     *
+     * @return count
+     */
+    public long getFileHits() {
+        return fileHits.sum();
+    }
+
+    /**
+     * Lookups of IDs no longer held.
+     *
+     * @return count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Writes the entries still in memory to the file, flushes it and closes it.
+     */
+    public synchronized void close() {
+        for (int memorySlot = 0; memorySlot <= memoryMask; memorySlot++) {
+            final Entry entry = memory.get(memorySlot);
+            if (entry != null) {
+                write(entry);
+            }
+        }
+        buffer.force();
+        try {
+            channel.close();
+            for (Peer peer : peers.values()) {
+                peer.getChannel().close();
+            }
+        } catch (IOException e) {
+            log.warn(String.format("close() %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Writes an entry to its file slot. Callers hold the lock.
+     *
+     * @param entry Entry
+     */
+    private void write(final Entry entry) {
+        final int offset = offset(entry.getId());
+        final Correlation correlation = entry.getCorrelation();
+        buffer.putLong(offset, entry.getId());
+        buffer.putLong(offset + Long.BYTES, orNone(correlation.getUserId()));
+        buffer.putLong(offset + 2 * Long.BYTES, orNone(correlation.getEventId()));
+        buffer.putLong(offset + RECORD_BYTES - Long.BYTES, orNone(correlation.getQuestionId()));
+    }
+
+    /**
+     * Reads an ID's file slot. Takes the lock, so a lookup that just missed an entry being moved out of memory waits
+     * for it to land.
+     *
+     * @param id ID
+     * @return Correlation, null if the slot holds another ID
+     */
+    private synchronized Correlation read(final long id) {
+        final int offset = offset(id);
+        if (buffer.getLong(offset) != id) {
+            return null;
+        }
+        return new Correlation(
+                orNull(buffer.getLong(offset + Long.BYTES)),
+                orNull(buffer.getLong(offset + 2 * Long.BYTES)),
+                orNull(buffer.getLong(offset + RECORD_BYTES - Long.BYTES)));
+    }
+
+    /**
+     * Reads an ID's record from the file of the replica that issued it.
+     *
+     * @param owner slot that issued the ID
+     * @param id    ID
+     * @return Correlation, null if the index is local, the file does not exist or its slot holds another ID
+     */
+    private Correlation readPeer(final int owner, final long id) {
+        Correlation correlation = null;
+        if (directory != null) {
+            try {
+                correlation = peer(owner).read(id);
+            } catch (NoSuchFileException e) {
+                correlation = null;
+            } catch (IOException e) {
+                log.warn(String.format("readPeer() slot %d unreadable: %s", owner, e.getMessage()));
+            }
+        }
+        if (correlation == null) {
+            misses.increment();
+        } else {
+            fileHits.increment();
+        }
+        return correlation;
+    }
+
+    /**
+     * Another slot's file, opened for reading on first use.
+     *
+     * @param owner slot
+     * @return Peer
+     * @throws IOException when the file cannot be opened or is not a correlation index
+     */
+    private Peer peer(final int owner) throws IOException {
+        Peer peer = peers.get(owner);
+        if (peer == null) {
+            final Path path = directory.resolve(owner + FILE_SUFFIX);
+            final FileChannel peerChannel = FileChannel.open(path, StandardOpenOption.READ);
+            final ByteBuffer header = ByteBuffer.allocate(SLOTS_LOG2_OFFSET + Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            int read = 0;
+            while (header.hasRemaining() && read >= 0) {
+                read = peerChannel.read(header, header.position());
+            }
+            final int peerLog2 = header.getInt(SLOTS_LOG2_OFFSET);
+            if (header.hasRemaining() || header.getInt(0) != MAGIC
+                    || header.getInt(Integer.BYTES) != VERSION || peerLog2 < 1 || peerLog2 > MAX_SLOTS_LOG2) {
+                peerChannel.close();
+                throw new IOException(path + " is not a version " + VERSION + " correlation index");
+            }
+            peer = new Peer(peerChannel, (1 << peerLog2) - 1);
+            final Peer raced = peers.putIfAbsent(owner, peer);
+            if (raced != null) {
+                peerChannel.close();
+                peer = raced;
+            }
+        }
+        return peer;
+    }
+
+    /**
+     * File offset of an ID's record.
+     *
+     * @param id ID
+     * @return offset
+     */
+    private int offset(final long id) {
+        return HEADER_BYTES + ((int) id & fileMask) * RECORD_BYTES;
+    }
+
+    /**
+     * Smallest power of two at least the given count.
+     *
+     * @param count count
+     * @return log2 of the power of two, at least 1
+     */
+    private static int log2(final int count) {
+        return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(count - 1));
+    }
+
+    /**
+     * Stored form of a nullable ID.
+     *
+     * @param value ID, may be null
+     * @return value, NONE for null
+     */
+    private static long orNone(final Long value) {
+        if (value == null) {
+            return NONE;
+        }
+        return value;
+    }
+
+    /**
+     * Nullable ID from its stored form.
+     *
+     * @param value stored value
+     * @return value, null for NONE
+     */
+    private static Long orNull(final long value) {
+        if (value == NONE) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Another slot's file, read with positional reads rather than a mapping so each lookup sees what its writer has
+     * forced out.
+     */
+    private static final class Peer {
+
+        /**
+         * Open file.
+         */
+        private final FileChannel channel;
+
+        /**
+         * File slot count minus one.
+         */
+        private final int mask;
+
+        /**
+         * Peer.
+         *
+         * @param aChannel open file
+         * @param aMask    file slot count minus one
+         */
+        Peer(final FileChannel aChannel, final int aMask) {
+            channel = aChannel;
+            mask = aMask;
+        }
+
+        /**
+         * Open file.
+         *
+         * @return FileChannel
+         */
+        FileChannel getChannel() {
+            return channel;
+        }
+
+        /**
+         * Reads an ID's record.
+         *
+         * @param id ID
+         * @return Correlation, null if the slot holds another ID
+         * @throws IOException when the file cannot be read
+         */
+        Correlation read(final long id) throws IOException {
+            final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            final long position = HEADER_BYTES + (long) ((int) id & mask) * RECORD_BYTES;
+            int read = 0;
+            while (record.hasRemaining() && read >= 0) {
+                read = channel.read(record, position + record.position());
+            }
+            if (record.hasRemaining() || record.getLong(0) != id) {
+                return null;
+            }
+            return new Correlation(
+                    orNull(record.getLong(Long.BYTES)),
+                    orNull(record.getLong(2 * Long.BYTES)),
+                    orNull(record.getLong(RECORD_BYTES - Long.BYTES)));
+        }
+    }
+
+    /**
+     * A correlation and its ID.
+     */
+    private static final class Entry {
+
+        /**
+         * ID.
+         */
+        private final long id;
+
+        /**
+         * Correlation.
+         */
+        private final Correlation correlation;
+
+        /**
+         * Entry.
+         *
+         * @param anId         ID
+         * @param aCorrelation Correlation
+         */
+        Entry(final long anId, final Correlation aCorrelation) {
+            id = anId;
+            correlation = aCorrelation;
+        }
+
+        /**
+         * ID.
+         *
+         * @return ID
+         */
+        long getId() {
+            return id;
+        }
+
+        /**
+         * Correlation.
+         *
+         * @return Correlation
+         */
+        Correlation getCorrelation() {
+            return correlation;
+        }
+    }
+
+}
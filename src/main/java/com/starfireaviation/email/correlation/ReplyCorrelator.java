@@ -0,0 +1,114 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.correlation;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ReplyCorrelator.
+ *
+ * <p>Plus-addresses the reply-to of outgoing messages with a signed token, e.g.
+ * {@code ground+abcdefghijklmnopqr@example.com}, and turns the recipient of an inbound reply back into the user,
+ * event and question it answers without asking upstream.</p>
+ */
+public class ReplyCorrelator {
+
+    /**
+     * Separates the mailbox from the token in the local part.
+     */
+    private static final char SEPARATOR = '+';
+
+    /**
+     * CorrelationIndex.
+     */
+    private final CorrelationIndex correlationIndex;
+
+    /**
+     * TokenSigner.
+     */
+    private final TokenSigner tokenSigner;
+
+    /**
+     * Tokens that failed verification.
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * ReplyCorrelator.
+     *
+     * @param index  CorrelationIndex
+     * @param signer TokenSigner
+     */
+    public ReplyCorrelator(final CorrelationIndex index, final TokenSigner signer) {
+        correlationIndex = index;
+        tokenSigner = signer;
+    }
+
+    /**
+     * Reply-to address carrying a token for a correlation.
+     *
+     * @param address     address replies go to, e.g. the from address
+     * @param correlation what the message is about
+     * @return plus-addressed reply-to, null if the address cannot carry a token
+     */
+    public String replyTo(final String address, final Correlation correlation) {
+        if (address == null) {
+            return null;
+        }
+        final int at = address.lastIndexOf('@');
+        if (at <= 0) {
+            return null;
+        }
+        final String token = tokenSigner.sign(correlationIndex.put(correlation));
+        return address.substring(0, at) + SEPARATOR + token + address.substring(at);
+    }
+
+    /**
+     * Finds the correlation of an inbound reply.
+     *
+     * @param recipients recipient header of the reply, one or more addresses, display names allowed
+     * @return Correlation, null if no recipient carries a valid token that is still held
+     */
+    public Correlation resolve(final String recipients) {
+        if (recipients == null) {
+            return null;
+        }
+        int plus = recipients.indexOf(SEPARATOR);
+        while (plus >= 0) {
+            final int end = plus + 1 + TokenSigner.TOKEN_LENGTH;
+            if (end < recipients.length() && recipients.charAt(end) == '@') {
+                final long id = tokenSigner.verify(recipients.substring(plus + 1, end));
+                if (id > 0) {
+                    return correlationIndex.get(id);
+                }
+                rejected.increment();
+            }
+            plus = recipients.indexOf(SEPARATOR, plus + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Tokens that failed verification, i.e. were mistyped or forged.
+     *
+     * @return count
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.correlation;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * TokenSigner.
+ *
+ * <p>Turns a correlation ID into a short token that can travel in the local part of an address and back. The token
+ * is the ID in {@value #ID_BYTES} bytes followed by the first {@value #MAC_BYTES} bytes of its HMAC-SHA256, written
+ * as {@value #TOKEN_LENGTH} lowercase base32 characters, so it survives mail systems that fold the case of
+ * addresses. A reply can only name an ID this service handed out; guessing a valid token takes about 2^39
+ * tries.</p>
+ */
+public class TokenSigner {
+
+    /**
+     * Bytes of the ID in a token.
+     */
+    static final int ID_BYTES = 6;
+
+    /**
+     * Bytes of the MAC in a token.
+     */
+    static final int MAC_BYTES = 5;
+
+    /**
+     * Bits written per character.
+     */
+    private static final int BITS_PER_CHAR = 5;
+
+    /**
+     * Characters in a token.
+     */
+    static final int TOKEN_LENGTH = ((ID_BYTES + MAC_BYTES) * Byte.SIZE + BITS_PER_CHAR - 1) / BITS_PER_CHAR;
+
+    /**
+     * Largest ID that fits in a token.
+     */
+    static final long MAX_ID = (1L << (ID_BYTES * Byte.SIZE)) - 1;
+
+    /**
+     * Base32 alphabet, RFC 4648 in lowercase.
+     */
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz234567";
+
+    /**
+     * Mask of one character's bits.
+     */
+    private static final int CHAR_MASK = (1 << BITS_PER_CHAR) - 1;
+
+    /**
+     * Mask of one byte.
+     */
+    private static final int BYTE_MASK = 0xff;
+
+    /**
+     * MAC algorithm.
+     */
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * Signing key.
+     */
+    private final SecretKeySpec key;
+
+    /**
+     * MACs are not thread safe, so each thread keeps its own.
+     */
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+    /**
+     * TokenSigner.
+     *
+     * @param secret signing key
+     */
+    public TokenSigner(final byte[] secret) {
+        key = new SecretKeySpec(secret, ALGORITHM);
+        newMac();
+    }
+
+    /**
+     * Signs an ID.
+     *
+     * @param id ID, 1 to 2^48 - 1
+     * @return token
+     */
+    public String sign(final long id) {
+        if (id <= 0 || id > MAX_ID) {
+            throw new IllegalArgumentException(String.format("sign() ID %d out of range", id));
+        }
+        final byte[] bytes = new byte[ID_BYTES + MAC_BYTES];
+        for (int i = 0; i < ID_BYTES; i++) {
+            bytes[i] = (byte) (id >>> ((ID_BYTES - 1 - i) * Byte.SIZE));
+        }
+        System.arraycopy(mac(bytes), 0, bytes, ID_BYTES, MAC_BYTES);
+        return encode(bytes);
+    }
+
+    /**
+     * Checks a token and recovers its ID.
+     *
+     * @param token token, in any case
+     * @return ID, -1 if the token is malformed or was not signed with this key
+     */
+    public long verify(final String token) {
+        if (token == null || token.length() != TOKEN_LENGTH) {
+            return -1L;
+        }
+        final byte[] bytes = decode(token);
+        if (bytes == null) {
+            return -1L;
+        }
+        final byte[] expected = Arrays.copyOf(mac(bytes), MAC_BYTES);
+        if (!MessageDigest.isEqual(expected, Arrays.copyOfRange(bytes, ID_BYTES, ID_BYTES + MAC_BYTES))) {
+            return -1L;
+        }
+        long id = 0L;
+        for (int i = 0; i < ID_BYTES; i++) {
+            id = (id << Byte.SIZE) | (bytes[i] & BYTE_MASK);
+        }
+        return id;
+    }
+
+    /**
+     * MAC of a token's ID bytes.
+     *
+     * @param bytes token bytes, ID first
+     * @return full MAC
+     */
+    private byte[] mac(final byte[] bytes) {
+        final Mac mac = macs.get();
+        mac.update(bytes, 0, ID_BYTES);
+        return mac.doFinal();
+    }
+
+    /**
+     * New keyed MAC.
+     *
+     * @return Mac
+     */
+    private Mac newMac() {
+        try {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Base32 without padding.
+     *
+     * @param bytes bytes
+     * @return lowercase characters
+     */
+    private static String encode(final byte[] bytes) {
+        final StringBuilder out = new StringBuilder(TOKEN_LENGTH);
+        int buffer = 0;
+        int bits = 0;
+        for (byte b : bytes) {
+            buffer = (buffer << Byte.SIZE) | (b & BYTE_MASK);
+            bits += Byte.SIZE;
+            while (bits >= BITS_PER_CHAR) {
+                bits -= BITS_PER_CHAR;
+                out.append(ALPHABET.charAt((buffer >>> bits) & CHAR_MASK));
+            }
+        }
+        if (bits > 0) {
+            out.append(ALPHABET.charAt((buffer << (BITS_PER_CHAR - bits)) & CHAR_MASK));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Reverses {@link #encode(byte[])} for a token.
+     *
+     * @param token characters, in any case
+     * @return token bytes, null if a character is outside the alphabet
+     */
+    private static byte[] decode(final String token) {
+        final byte[] bytes = new byte[ID_BYTES + MAC_BYTES];
+        int buffer = 0;
+        int bits = 0;
+        int index = 0;
+        for (int i = 0; i < token.length(); i++) {
+            final int value = ALPHABET.indexOf(Character.toLowerCase(token.charAt(i)));
+            if (value < 0) {
+                return null;
+            }
+            buffer = (buffer << BITS_PER_CHAR) | value;
+            bits += BITS_PER_CHAR;
+            if (bits >= Byte.SIZE && index < bytes.length) {
+                bits -= Byte.SIZE;
+                bytes[index] = (byte) (buffer >>> bits);
+                index++;
+            }
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.exception;
+
+/**
+ * TransportException.
+ */
+public class TransportException extends RuntimeException {
+
+    /**
+     * Default SerialVersionUID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Whether the message itself was refused, so no provider will accept it.
+     */
+    private final boolean permanent;
+
+    /**
+     * Initializes an instance of <code>TransportException</code> with the
+     * default data.
+     *
+     * @param message      message
+     * @param isPermanent  whether the message itself was refused
+     */
+    public TransportException(final String message, final boolean isPermanent) {
+        super(message);
+        permanent = isPermanent;
+    }
+
+    /**
+     * Initializes an instance of <code>TransportException</code> with the
+     * default data.
+     *
+     * @param message      message
+     * @param cause        cause
+     * @param isPermanent  whether the message itself was refused
+     */
+    public TransportException(final String message, final Throwable cause, final boolean isPermanent) {
+        super(message, cause);
+        permanent = isPermanent;
+    }
+
+    /**
+     * Whether the message itself was refused (e.g. an invalid address), as opposed to the provider failing.
+     * Permanent failures are not retried on another provider and do not count against the provider's health.
+     *
+     * @return true if permanent
+     */
+    public boolean isPermanent() {
+        return permanent;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.exception;
+
+/**
+ * UpstreamException.
+ */
+public class UpstreamException extends RuntimeException {
+
+    /**
+     * Default SerialVersionUID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Initializes an instance of <code>UpstreamException</code> with the
+     * default data.
+     *
+     * @param message message
+     */
+    public UpstreamException(final String message) {
+        super(message);
+    }
+
+    /**
+     * Initializes an instance of <code>UpstreamException</code> with the
+     * default data.
+     *
+     * @param message message
+     * @param cause   cause
+     */
+    public UpstreamException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
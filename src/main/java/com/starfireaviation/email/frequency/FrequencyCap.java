@@ -0,0 +1,195 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.frequency;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * FrequencyCap.
+ *
+ * <p>Limits how many messages a user gets within a sliding window, both in total and per kind of message, e.g. at
+ * most three event reminders a day. Both limits are counted in one {@link SlidingWindowCounter}, keyed by the user
+ * ID with the kind folded into the low bits.</p>
+ *
+ * @param <K> kind of message
+ */
+public class FrequencyCap<K extends Enum<K>> {
+
+    /**
+     * Low key bits holding the kind; 0 is the user's total.
+     */
+    private static final int KIND_BITS = 6;
+
+    /**
+     * Counter.
+     */
+    private final SlidingWindowCounter counter;
+
+    /**
+     * Most messages per user within the window, 0 for no limit.
+     */
+    private final int perUser;
+
+    /**
+     * Most messages of a kind per user within the window.
+     */
+    private final Map<K, Integer> perKind;
+
+    /**
+     * Clock.
+     */
+    private final Clock clock;
+
+    /**
+     * FrequencyCap.
+     *
+     * @param windowCounter counts messages over the window
+     * @param userLimit     most messages per user within the window, 0 for no limit
+     * @param kindLimits    most messages of a kind per user within the window; kinds not listed are not limited
+     * @param kindType      kind of message
+     * @param aClock        Clock
+     */
+    public FrequencyCap(final SlidingWindowCounter windowCounter,
+                        final int userLimit,
+                        final Map<K, Integer> kindLimits,
+                        final Class<K> kindType,
+                        final Clock aClock) {
+        counter = windowCounter;
+        perUser = userLimit;
+        perKind = new EnumMap<>(kindType);
+        kindLimits.forEach((kind, limit) -> {
+            if (limit != null && limit > 0) {
+                perKind.put(kind, limit);
+            }
+        });
+        clock = aClock;
+    }
+
+    /**
+     * Counts a message for a user unless that would take them over a cap.
+     *
+     * @param kind   kind of message
+     * @param userId user ID
+     * @return true if the message may be sent
+     */
+    public boolean tryAcquire(final K kind, final long userId) {
+        return reserve(kind, userId) >= 0;
+    }
+
+    /**
+     * Counts a message for a user unless that would take them over a cap, so that the count can be given back with
+     * {@link #release(Enum, long, long)} if the message is not sent after all.
+     *
+     * @param kind   kind of message
+     * @param userId user ID
+     * @return time the message was counted at, -1 if it may not be sent
+     */
+    public long reserve(final K kind, final long userId) {
+        final long now = clock.millis();
+        final Integer kindLimit = perKind.get(kind);
+        if (kindLimit != null && !counter.tryAcquire(kindKey(kind, userId), kindLimit, now)) {
+            return -1L;
+        }
+        if (perUser > 0 && !counter.tryAcquire(userKey(userId), perUser, now)) {
+            if (kindLimit != null) {
+                counter.release(kindKey(kind, userId), now);
+            }
+            return -1L;
+        }
+        return now;
+    }
+
+    /**
+     * Gives back a message counted by {@link #reserve(Enum, long)} that was not sent.
+     *
+     * @param kind             kind of message
+     * @param userId           user ID
+     * @param reservedAtMillis time the message was counted at
+     */
+    public void release(final K kind, final long userId, final long reservedAtMillis) {
+        final long now = clock.millis();
+        if (perKind.containsKey(kind)) {
+            counter.release(kindKey(kind, userId), reservedAtMillis, now);
+        }
+        if (perUser > 0) {
+            counter.release(userKey(userId), reservedAtMillis, now);
+        }
+    }
+
+    /**
+     * Earliest time a user refused by {@link #tryAcquire(Enum, long)} may get a message of a kind.
+     *
+     * @param kind   kind of message
+     * @param userId user ID
+     * @return time the capped windows next have room, now if they already do
+     */
+    public Instant roomAt(final K kind, final long userId) {
+        final long now = clock.millis();
+        long at = now;
+        final Integer kindLimit = perKind.get(kind);
+        if (kindLimit != null && counter.count(kindKey(kind, userId), now) >= kindLimit) {
+            at = Math.max(at, counter.nextExpiryMillis(kindKey(kind, userId), now));
+        }
+        if (perUser > 0 && counter.count(userKey(userId), now) >= perUser) {
+            at = Math.max(at, counter.nextExpiryMillis(userKey(userId), now));
+        }
+        return Instant.ofEpochMilli(at);
+    }
+
+    /**
+     * Whether any cap is configured.
+     *
+     * @return true if some messages are capped
+     */
+    public boolean isEnabled() {
+        return perUser > 0 || !perKind.isEmpty();
+    }
+
+    /**
+     * Number of counters held.
+     *
+     * @return count
+     */
+    public int size() {
+        return counter.size();
+    }
+
+    /**
+     * Key of a user's total.
+     *
+     * @param userId user ID
+     * @return key
+     */
+    private static long userKey(final long userId) {
+        return userId << KIND_BITS;
+    }
+
+    /**
+     * Key of a user's count of one kind.
+     *
+     * @param kind   kind of message
+     * @param userId user ID
+     * @return key
+     */
+    private long kindKey(final K kind, final long userId) {
+        return userKey(userId) | (kind.ordinal() + 1);
+    }
+
+}
@@ -0,0 +1,432 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.frequency;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * SlidingWindowCounter.
+ *
+ * <p>Counts events per long key over a sliding window, e.g. mails per user per day. The window is split into a
+ * ring of equal buckets and each key owns one slice of a shared {@code int[]}, so a key costs one long, one int per
+ * bucket and a few bookkeeping fields, and no objects at all. Buckets that slide out of the window are cleared
+ * lazily when their key is next touched, and keys whose whole window has expired are dropped when the table is
+ * rebuilt. Counts are exact to the bucket: an event stops counting somewhere between one bucket width short of a
+ * full window and a full window after it happened.</p>
+ *
+ * <p>Keys are spread over independently locked segments, each an open-addressing table with linear probing, so
+ * threads counting for different users rarely wait on each other.</p>
+ */
+public class SlidingWindowCounter {
+
+    /**
+     * Number of segments; a power of two.
+     */
+    private static final int SEGMENTS = 16;
+
+    /**
+     * Initial keys per segment; a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Load factor numerator.
+     */
+    private static final int LOAD_NUMERATOR = 3;
+
+    /**
+     * Load factor denominator.
+     */
+    private static final int LOAD_DENOMINATOR = 4;
+
+    /**
+     * Mix multiplier.
+     */
+    private static final long MIX = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Mix shift.
+     */
+    private static final int MIX_SHIFT = 32;
+
+    /**
+     * Buckets per window.
+     */
+    private final int buckets;
+
+    /**
+     * Width of a bucket.
+     */
+    private final long bucketMillis;
+
+    /**
+     * Segments.
+     */
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * SlidingWindowCounter.
+     *
+     * @param window      window length
+     * @param bucketCount buckets the window is split into
+     */
+    public SlidingWindowCounter(final Duration window, final int bucketCount) {
+        buckets = bucketCount;
+        bucketMillis = Math.max(1L, window.toMillis() / bucketCount);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Counts an event unless the key has already reached the limit within the window.
+     *
+     * @param key       key
+     * @param limit     most events allowed within the window
+     * @param nowMillis current time
+     * @return true if the event was counted
+     */
+    public boolean tryAcquire(final long key, final int limit, final long nowMillis) {
+        return segment(key).tryAcquire(key, limit, nowMillis / bucketMillis);
+    }
+
+    /**
+     * Takes back an event counted in the current bucket, e.g. when a second limit turned the send away.
+     *
+     * @param key       key
+     * @param nowMillis current time
+     */
+    public void release(final long key, final long nowMillis) {
+        release(key, nowMillis, nowMillis);
+    }
+
+    /**
+     * Takes back an event counted earlier, if it is still within the window.
+     *
+     * @param key             key
+     * @param countedAtMillis time the event was counted
+     * @param nowMillis       current time
+     */
+    public void release(final long key, final long countedAtMillis, final long nowMillis) {
+        segment(key).release(key, countedAtMillis / bucketMillis, nowMillis / bucketMillis);
+    }
+
+    /**
+     * Events within the window.
+     *
+     * @param key       key
+     * @param nowMillis current time
+     * @return count
+     */
+    public int count(final long key, final long nowMillis) {
+        return segment(key).count(key, nowMillis / bucketMillis);
+    }
+
+    /**
+     * When the oldest event in the key's window slides out of it.
+     *
+     * @param key       key
+     * @param nowMillis current time
+     * @return time in milliseconds, nowMillis if the window is empty
+     */
+    public long nextExpiryMillis(final long key, final long nowMillis) {
+        final long oldest = segment(key).oldestBucket(key, nowMillis / bucketMillis);
+        if (oldest < 0) {
+            return nowMillis;
+        }
+        return (oldest + buckets) * bucketMillis;
+    }
+
+    /**
+     * Number of keys tracked, including some whose window has expired but that have not been dropped yet.
+     *
+     * @return count
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Segment of a key.
+     *
+     * @param key key
+     * @return Segment
+     */
+    private Segment segment(final long key) {
+        return segments[(int) (mix(key) >>> MIX_SHIFT) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Spreads a key's bits.
+     *
+     * @param key key
+     * @return hash
+     */
+    private static long mix(final long key) {
+        final long hash = key * MIX;
+        return hash ^ (hash >>> MIX_SHIFT);
+    }
+
+    /**
+     * One locked open-addressing table.
+     */
+    private final class Segment {
+
+        /**
+         * Keys.
+         */
+        private long[] keys = new long[INITIAL_CAPACITY];
+
+        /**
+         * Whether a slot holds a key.
+         */
+        private boolean[] used = new boolean[INITIAL_CAPACITY];
+
+        /**
+         * Newest bucket each key has been advanced to.
+         */
+        private long[] newest = new long[INITIAL_CAPACITY];
+
+        /**
+         * Events in each key's window.
+         */
+        private int[] totals = new int[INITIAL_CAPACITY];
+
+        /**
+         * Bucket counts, {@code buckets} per slot.
+         */
+        private int[] counts = new int[INITIAL_CAPACITY * buckets];
+
+        /**
+         * Keys held.
+         */
+        private int size;
+
+        /**
+         * Counts an event unless the key is at its limit.
+         *
+         * @param key    key
+         * @param limit  limit
+         * @param bucket current bucket
+         * @return true if counted
+         */
+        synchronized boolean tryAcquire(final long key, final int limit, final long bucket) {
+            int slot = find(key);
+            if (slot < 0) {
+                if (limit <= 0) {
+                    return false;
+                }
+                slot = insert(key, bucket);
+            }
+            advance(slot, bucket);
+            if (totals[slot] >= limit) {
+                return false;
+            }
+            counts[slot * buckets + (int) (bucket % buckets)]++;
+            totals[slot]++;
+            return true;
+        }
+
+        /**
+         * Takes back an event in the bucket it was counted in, unless that has left the window.
+         *
+         * @param key     key
+         * @param counted bucket the event was counted in
+         * @param bucket  current bucket
+         */
+        synchronized void release(final long key, final long counted, final long bucket) {
+            final int slot = find(key);
+            if (slot < 0) {
+                return;
+            }
+            advance(slot, bucket);
+            if (counted > bucket || counted <= bucket - buckets) {
+                return;
+            }
+            final int index = slot * buckets + (int) (counted % buckets);
+            if (counts[index] > 0) {
+                counts[index]--;
+                totals[slot]--;
+            }
+        }
+
+        /**
+         * Events in a key's window.
+         *
+         * @param key    key
+         * @param bucket current bucket
+         * @return count
+         */
+        synchronized int count(final long key, final long bucket) {
+            final int slot = find(key);
+            if (slot < 0) {
+                return 0;
+            }
+            advance(slot, bucket);
+            return totals[slot];
+        }
+
+        /**
+         * Oldest bucket in a key's window holding an event.
+         *
+         * @param key    key
+         * @param bucket current bucket
+         * @return bucket, -1 if the window is empty
+         */
+        synchronized long oldestBucket(final long key, final long bucket) {
+            final int slot = find(key);
+            if (slot < 0) {
+                return -1L;
+            }
+            advance(slot, bucket);
+            for (long b = bucket - buckets + 1; b <= bucket; b++) {
+                if (b >= 0 && counts[slot * buckets + (int) (b % buckets)] > 0) {
+                    return b;
+                }
+            }
+            return -1L;
+        }
+
+        /**
+         * Keys held.
+         *
+         * @return count
+         */
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Clears the buckets that have slid out of a key's window since it was last touched.
+         *
+         * @param slot   slot
+         * @param bucket current bucket
+         */
+        private void advance(final int slot, final long bucket) {
+            final long from = newest[slot];
+            if (bucket <= from) {
+                return;
+            }
+            final int base = slot * buckets;
+            if (bucket - from >= buckets) {
+                Arrays.fill(counts, base, base + buckets, 0);
+                totals[slot] = 0;
+            } else {
+                for (long b = from + 1; b <= bucket; b++) {
+                    final int index = base + (int) (b % buckets);
+                    totals[slot] -= counts[index];
+                    counts[index] = 0;
+                }
+            }
+            newest[slot] = bucket;
+        }
+
+        /**
+         * Slot of a key.
+         *
+         * @param key key
+         * @return slot, -1 if absent
+         */
+        private int find(final long key) {
+            final int mask = keys.length - 1;
+            int slot = (int) mix(key) & mask;
+            while (used[slot]) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Adds a key known to be absent, rebuilding the table first if it is too full.
+         *
+         * @param key    key
+         * @param bucket current bucket
+         * @return slot
+         */
+        private int insert(final long key, final long bucket) {
+            if ((size + 1) * LOAD_DENOMINATOR > keys.length * LOAD_NUMERATOR) {
+                rebuild(bucket);
+            }
+            final int mask = keys.length - 1;
+            int slot = (int) mix(key) & mask;
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            newest[slot] = bucket;
+            totals[slot] = 0;
+            Arrays.fill(counts, slot * buckets, (slot + 1) * buckets, 0);
+            size++;
+            return slot;
+        }
+
+        /**
+         * Drops keys whose window has expired and doubles the table if it is still more than half full.
+         *
+         * @param bucket current bucket
+         */
+        private void rebuild(final long bucket) {
+            int live = 0;
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (used[slot] && bucket - newest[slot] < buckets) {
+                    live++;
+                }
+            }
+            int capacity = keys.length;
+            if ((live + 1) * 2 > capacity) {
+                capacity *= 2;
+            }
+            final long[] oldKeys = keys;
+            final boolean[] oldUsed = used;
+            final long[] oldNewest = newest;
+            final int[] oldTotals = totals;
+            final int[] oldCounts = counts;
+            keys = new long[capacity];
+            used = new boolean[capacity];
+            newest = new long[capacity];
+            totals = new int[capacity];
+            counts = new int[capacity * buckets];
+            size = 0;
+            final int mask = capacity - 1;
+            for (int old = 0; old < oldKeys.length; old++) {
+                if (!oldUsed[old] || bucket - oldNewest[old] >= buckets) {
+                    continue;
+                }
+                int slot = (int) mix(oldKeys[old]) & mask;
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                used[slot] = true;
+                keys[slot] = oldKeys[old];
+                newest[slot] = oldNewest[old];
+                totals[slot] = oldTotals[old];
+                System.arraycopy(oldCounts, old * buckets, counts, slot * buckets, buckets);
+                size++;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Parsing the response in an inbound message.
+ */
+@Name("com.starfireaviation.email.InboundParse")
+@Label("Inbound Parse")
+@Category({"Email", "Message"})
+@Description("Matching the text of a reply against the known responses")
+@StackTrace(false)
+public final class InboundParseEvent extends Event {
+
+    /**
+     * Length of the text parsed, in characters.
+     */
+    @Label("Length")
+    private long length;
+
+    /**
+     * Response found.
+     */
+    @Label("Outcome")
+    private String outcome;
+
+    /**
+     * Commits the event, if recording, with its fields.
+     *
+     * @param characters length of the text parsed
+     * @param anOutcome  response found
+     */
+    public void finish(final long characters, final String anOutcome) {
+        end();
+        if (shouldCommit()) {
+            length = characters;
+            outcome = anOutcome;
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Building the model a template pair is rendered with.
+ */
+@Name("com.starfireaviation.email.ModelBuild")
+@Label("Model Build")
+@Category({"Email", "Message"})
+@Description("Building the model of a subject and body template pair")
+@StackTrace(false)
+public final class ModelBuildEvent extends Event {
+
+    /**
+     * Template name without the _subject.ftl/_body.ftl suffix.
+     */
+    @Label("Template")
+    private String template;
+
+    /**
+     * Whether the generated typed model was used rather than the full map.
+     */
+    @Label("Typed")
+    private boolean typed;
+
+    /**
+     * Commits the event, if recording, with its fields.
+     *
+     * @param aTemplate template name without the suffix
+     * @param isTyped   whether the generated typed model was used
+     */
+    public void finish(final String aTemplate, final boolean isTyped) {
+        end();
+        if (shouldCommit()) {
+            template = aTemplate;
+            typed = isTyped;
+            commit();
+        }
+    }
+
+}
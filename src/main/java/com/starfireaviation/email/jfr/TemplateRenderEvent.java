@@ -0,0 +1,73 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Rendering one template.
+ */
+@Name("com.starfireaviation.email.TemplateRender")
+@Label("Template Render")
+@Category({"Email", "Message"})
+@Description("Rendering a subject or body template")
+@StackTrace(false)
+public final class TemplateRenderEvent extends Event {
+
+    /**
+     * Template name.
+     */
+    @Label("Template")
+    private String template;
+
+    /**
+     * Rendered size, HTML and plain text together for a body.
+     */
+    @Label("Size")
+    @DataAmount
+    private long size;
+
+    /**
+     * Outcome.
+     */
+    @Label("Outcome")
+    private String outcome;
+
+    /**
+     * Commits the event, if recording, with its fields.
+     *
+     * @param aTemplate template name
+     * @param bytes     rendered size
+     * @param anOutcome outcome
+     */
+    public void finish(final String aTemplate, final long bytes, final String anOutcome) {
+        end();
+        if (shouldCommit()) {
+            template = aTemplate;
+            size = bytes;
+            outcome = anOutcome;
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Handing one message to the mail transport.
+ */
+@Name("com.starfireaviation.email.TransportCall")
+@Label("Transport Call")
+@Category({"Email", "Message"})
+@Description("Handing a message to the mail provider, including retries and failover")
+@StackTrace(false)
+public final class TransportCallEvent extends Event {
+
+    /**
+     * Message type, or resend for a stored message sent again.
+     */
+    @Label("Message Type")
+    private String messageType;
+
+    /**
+     * HTML and plain text size.
+     */
+    @Label("Size")
+    @DataAmount
+    private long size;
+
+    /**
+     * Number of attachments.
+     */
+    @Label("Attachments")
+    private int attachments;
+
+    /**
+     * Outcome.
+     */
+    @Label("Outcome")
+    private String outcome;
+
+    /**
+     * Commits the event, if recording, with its fields.
+     *
+     * @param aType         message type
+     * @param bytes         HTML and plain text size
+     * @param anAttachments number of attachments
+     * @param anOutcome     outcome
+     */
+    public void finish(final String aType, final long bytes, final int anAttachments, final String anOutcome) {
+        end();
+        if (shouldCommit()) {
+            messageType = aType;
+            size = bytes;
+            attachments = anAttachments;
+            outcome = anOutcome;
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,314 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.quiz;
+
+import com.starfireaviation.model.ResponseOption;
+
+import java.time.Clock;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AnswerTally.
+ *
+ * <p>Live count of the A, B, C, D and SKIP replies to each question. Every question gets one {@link LongAdder} per
+ * answer, so replies arriving on many threads at once update separate cells instead of fighting over one counter,
+ * and recording a reply never takes a lock once its question has been seen. Snapshots sum the adders without
+ * stopping ingestion; a snapshot taken during a burst may miss replies recorded while it was being read, but never
+ * counts one twice.</p>
+ *
+ * <p>The tally holds a bounded number of questions. When a reply to a new question arrives with the tally full,
+ * questions that have had no reply for the idle timeout are dropped, and if none has, the one whose last reply is
+ * oldest, so a burst of questions never locks out the ones asked after it.</p>
+ */
+public class AnswerTally {
+
+    /**
+     * Answers that are tallied, in the order they are reported.
+     */
+    public static final List<ResponseOption> ANSWERS = List.of(
+            ResponseOption.A,
+            ResponseOption.B,
+            ResponseOption.C,
+            ResponseOption.D,
+            ResponseOption.SKIP);
+
+    /**
+     * Counters by question id.
+     */
+    private final Map<Long, Question> questions = new ConcurrentHashMap<>();
+
+    /**
+     * Most questions tallied at once; the least recently answered makes way for a new one.
+     */
+    private final int maxQuestions;
+
+    /**
+     * Time without a reply after which a question may be dropped first, 0 to only drop the least recently answered.
+     */
+    private final long idleMillis;
+
+    /**
+     * Clock.
+     */
+    private final Clock clock;
+
+    /**
+     * Replies counted.
+     */
+    private final LongAdder recorded = new LongAdder();
+
+    /**
+     * Questions dropped to make way for new ones.
+     */
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * AnswerTally that drops the least recently answered question when full.
+     *
+     * @param questionLimit most questions tallied at once
+     */
+    public AnswerTally(final int questionLimit) {
+        this(questionLimit, 0L, Clock.systemUTC());
+    }
+
+    /**
+     * AnswerTally.
+     *
+     * @param questionLimit most questions tallied at once
+     * @param idleTimeout   milliseconds without a reply after which a question is dropped first, 0 for none
+     * @param aClock        Clock
+     */
+    public AnswerTally(final int questionLimit, final long idleTimeout, final Clock aClock) {
+        maxQuestions = questionLimit;
+        idleMillis = idleTimeout;
+        clock = aClock;
+    }
+
+    /**
+     * Counts a reply.
+     *
+     * @param questionId question id
+     * @param answer     parsed reply
+     * @return true if the reply was counted, false if it is not an answer
+     */
+    public boolean record(final long questionId, final ResponseOption answer) {
+        final int index = index(answer);
+        if (index < 0) {
+            return false;
+        }
+        final long now = clock.millis();
+        Question question = questions.get(questionId);
+        if (question == null) {
+            question = admit(questionId, now);
+        }
+        question.getCounters()[index].increment();
+        question.answered(now);
+        recorded.increment();
+        return true;
+    }
+
+    /**
+     * Answer counts for one question.
+     *
+     * @param questionId question id
+     * @return count per answer, all zero for a question with no replies
+     */
+    public Map<ResponseOption, Long> snapshot(final long questionId) {
+        return read(questions.get(questionId));
+    }
+
+    /**
+     * Answer counts for every question being tallied.
+     *
+     * @return count per answer by question id
+     */
+    public Map<Long, Map<ResponseOption, Long>> snapshot() {
+        final Map<Long, Map<ResponseOption, Long>> snapshot = new TreeMap<>();
+        questions.forEach((questionId, question) -> snapshot.put(questionId, read(question)));
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Stops tallying a question, e.g. once its session is over.
+     *
+     * @param questionId question id
+     * @return final count per answer
+     */
+    public Map<ResponseOption, Long> clear(final long questionId) {
+        return read(questions.remove(questionId));
+    }
+
+    /**
+     * Number of questions being tallied.
+     *
+     * @return count
+     */
+    public int size() {
+        return questions.size();
+    }
+
+    /**
+     * Replies counted.
+     *
+     * @return count
+     */
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    /**
+     * Questions dropped to make way for new ones.
+     *
+     * @return count
+     */
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * Starts tallying a question, first dropping idle questions and then the least recently answered one if the
+     * tally is full. Serialized so concurrent new questions cannot push the tally past its limit.
+     *
+     * @param questionId question id
+     * @param now        current time, epoch milliseconds
+     * @return the question's counters
+     */
+    private synchronized Question admit(final long questionId, final long now) {
+        final Question existing = questions.get(questionId);
+        if (existing != null) {
+            return existing;
+        }
+        if (questions.size() >= maxQuestions && idleMillis > 0) {
+            questions.entrySet().removeIf(entry -> {
+                final boolean idle = now - entry.getValue().getAnsweredMillis() > idleMillis;
+                if (idle) {
+                    evicted.increment();
+                }
+                return idle;
+            });
+        }
+        while (questions.size() >= maxQuestions && !questions.isEmpty()) {
+            Map.Entry<Long, Question> oldest = null;
+            for (Map.Entry<Long, Question> entry : questions.entrySet()) {
+                if (oldest == null || entry.getValue().getAnsweredMillis() < oldest.getValue().getAnsweredMillis()) {
+                    oldest = entry;
+                }
+            }
+            questions.remove(oldest.getKey());
+            evicted.increment();
+        }
+        final Question question = new Question(now);
+        questions.put(questionId, question);
+        return question;
+    }
+
+    /**
+     * Position of an answer in a question's counters.
+     *
+     * @param answer parsed reply
+     * @return index, -1 if the reply is not tallied
+     */
+    private static int index(final ResponseOption answer) {
+        if (answer == null) {
+            return -1;
+        }
+        return ANSWERS.indexOf(answer);
+    }
+
+    /**
+     * Sums a question's counters.
+     *
+     * @param question Question, null for a question with no replies
+     * @return count per answer
+     */
+    private static Map<ResponseOption, Long> read(final Question question) {
+        final Map<ResponseOption, Long> counts = new EnumMap<>(ResponseOption.class);
+        for (int i = 0; i < ANSWERS.size(); i++) {
+            long count = 0L;
+            if (question != null) {
+                count = question.getCounters()[i].sum();
+            }
+            counts.put(ANSWERS.get(i), count);
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * One question's counters and the time of its last reply.
+     */
+    private static final class Question {
+
+        /**
+         * One counter per answer.
+         */
+        private final LongAdder[] counters = new LongAdder[ANSWERS.size()];
+
+        /**
+         * Time of the last reply, epoch milliseconds.
+         */
+        private volatile long answeredMillis;
+
+        /**
+         * Question.
+         *
+         * @param now time of the first reply
+         */
+        Question(final long now) {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = new LongAdder();
+            }
+            answeredMillis = now;
+        }
+
+        /**
+         * One counter per answer.
+         *
+         * @return counters
+         */
+        LongAdder[] getCounters() {
+            return counters;
+        }
+
+        /**
+         * Time of the last reply.
+         *
+         * @return epoch milliseconds
+         */
+        long getAnsweredMillis() {
+            return answeredMillis;
+        }
+
+        /**
+         * Notes a reply. Skips the write when the time has not moved, so a burst on one question does not keep
+         * invalidating the field in every core's cache.
+         *
+         * @param now current time, epoch milliseconds
+         */
+        void answered(final long now) {
+            if (now > answeredMillis) {
+                answeredMillis = now;
+            }
+        }
+    }
+
+}
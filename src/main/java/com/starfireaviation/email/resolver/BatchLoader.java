@@ -0,0 +1,301 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.resolver;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * BatchLoader.
+ *
+ * <p>DataLoader style loader. A key is answered from a TTL cache when possible; otherwise concurrent loads of the
+ * same key share one future, and distinct keys are collected into a batch that is fetched with one call once it is
+ * full or the batch window has passed, whichever comes first.</p>
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class BatchLoader<K, V> {
+
+    /**
+     * Fetches many keys at once; keys missing from the result resolve to null.
+     */
+    private final Function<List<K>, Map<K, V>> batchFunction;
+
+    /**
+     * Largest batch.
+     */
+    private final int maxBatchSize;
+
+    /**
+     * How long a partial batch waits for more keys.
+     */
+    private final long batchWindowMillis;
+
+    /**
+     * How long fetched values are cached.
+     */
+    private final long ttlNanos;
+
+    /**
+     * Most values cached.
+     */
+    private final int maxCached;
+
+    /**
+     * Schedules flushes of partial batches.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Runs batch fetches.
+     */
+    private final Executor fetchExecutor;
+
+    /**
+     * Cached values.
+     */
+    private final Map<K, Cached<V>> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Loads waiting on a fetch.
+     */
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Guards the pending batch.
+     */
+    private final Object batchLock = new Object();
+
+    /**
+     * Keys waiting to be fetched.
+     */
+    private List<K> pending = new ArrayList<>();
+
+    /**
+     * Whether a flush of the pending batch is scheduled.
+     */
+    private boolean flushScheduled;
+
+    /**
+     * BatchLoader.
+     *
+     * @param fetch      fetches many keys at once
+     * @param batchSize  largest batch
+     * @param window     milliseconds a partial batch waits for more keys
+     * @param ttlMillis  milliseconds fetched values are cached
+     * @param cacheLimit most values cached
+     * @param timer      schedules flushes of partial batches
+     * @param executor   runs batch fetches
+     */
+    public BatchLoader(final Function<List<K>, Map<K, V>> fetch,
+                       final int batchSize,
+                       final long window,
+                       final long ttlMillis,
+                       final int cacheLimit,
+                       final ScheduledExecutorService timer,
+                       final Executor executor) {
+        batchFunction = fetch;
+        maxBatchSize = batchSize;
+        batchWindowMillis = window;
+        ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        maxCached = cacheLimit;
+        scheduler = timer;
+        fetchExecutor = executor;
+    }
+
+    /**
+     * Loads a value.
+     *
+     * @param key key
+     * @return future value, null when the key does not exist upstream
+     */
+    public CompletableFuture<V> load(final K key) {
+        final Cached<V> cached = cache.get(key);
+        if (cached != null && cached.isFresh(System.nanoTime())) {
+            return CompletableFuture.completedFuture(cached.getValue());
+        }
+        final CompletableFuture<V> created = new CompletableFuture<>();
+        final CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        enqueue(key);
+        return created;
+    }
+
+    /**
+     * Drops a cached value, e.g. after an upstream change.
+     *
+     * @param key key
+     */
+    public void invalidate(final K key) {
+        cache.remove(key);
+    }
+
+    /**
+     * Number of cached values.
+     *
+     * @return count
+     */
+    public int cachedCount() {
+        return cache.size();
+    }
+
+    /**
+     * Adds a key to the pending batch.
+     *
+     * @param key key
+     */
+    private void enqueue(final K key) {
+        List<K> full = null;
+        synchronized (batchLock) {
+            pending.add(key);
+            if (pending.size() >= maxBatchSize) {
+                full = pending;
+                pending = new ArrayList<>();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                scheduler.schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            final List<K> batch = full;
+            fetchExecutor.execute(() -> fetch(batch));
+        }
+    }
+
+    /**
+     * Sends whatever is pending once the batch window has passed.
+     */
+    private void flush() {
+        final List<K> batch;
+        synchronized (batchLock) {
+            flushScheduled = false;
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        if (!batch.isEmpty()) {
+            fetchExecutor.execute(() -> fetch(batch));
+        }
+    }
+
+    /**
+     * Fetches one batch and completes its loads.
+     *
+     * @param keys keys
+     */
+    private void fetch(final List<K> keys) {
+        final Map<K, V> results;
+        try {
+            results = batchFunction.apply(keys);
+        } catch (RuntimeException e) {
+            for (K key : keys) {
+                final CompletableFuture<V> future = inFlight.remove(key);
+                if (future != null) {
+                    future.completeExceptionally(e);
+                }
+            }
+            return;
+        }
+        final long expiresAt = System.nanoTime() + ttlNanos;
+        for (K key : keys) {
+            final V value = results.get(key);
+            if (value != null) {
+                cache.put(key, new Cached<>(value, expiresAt));
+            }
+            final CompletableFuture<V> future = inFlight.remove(key);
+            if (future != null) {
+                future.complete(value);
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Keeps the cache within its limit, dropping expired values first.
+     */
+    private void evict() {
+        if (cache.size() <= maxCached) {
+            return;
+        }
+        final long now = System.nanoTime();
+        cache.values().removeIf(cached -> !cached.isFresh(now));
+        final Iterator<K> keys = cache.keySet().iterator();
+        while (cache.size() > maxCached && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    /**
+     * Cached value.
+     *
+     * @param <V> value type
+     */
+    private static final class Cached<V> {
+
+        /**
+         * Value.
+         */
+        private final V value;
+
+        /**
+         * Expiry time.
+         */
+        private final long expiresAtNanos;
+
+        /**
+         * Cached.
+         *
+         * @param aValue    value
+         * @param expiresAt expiry time
+         */
+        Cached(final V aValue, final long expiresAt) {
+            value = aValue;
+            expiresAtNanos = expiresAt;
+        }
+
+        /**
+         * Value.
+         *
+         * @return value
+         */
+        V getValue() {
+            return value;
+        }
+
+        /**
+         * Whether the value has not expired.
+         *
+         * @param now current time
+         * @return true if fresh
+         */
+        boolean isFresh(final long now) {
+            return now - expiresAtNanos < 0;
+        }
+    }
+
+}
@@ -0,0 +1,347 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.resolver;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.starfireaviation.email.config.ApplicationProperties;
+import com.starfireaviation.email.exception.UpstreamException;
+import com.starfireaviation.email.service.EntityLookup;
+import com.starfireaviation.email.service.RecipientLocale;
+import com.starfireaviation.model.Event;
+import com.starfireaviation.model.Message;
+import com.starfireaviation.model.Question;
+import com.starfireaviation.model.User;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * ResolvingEntityLookup.
+ *
+ * <p>Resolves users, events and questions from the upstream service through {@link BatchLoader}s. Messages are
+ * prefetched as they are queued, so by the time a worker sends one its entities are usually cached, and a wave of
+ * messages for one event costs one event fetch and a handful of batched user fetches. A user's timeZone and locale
+ * are read from the same user document and cached with the user.</p>
+ *
+ * <p>An entity upstream does not know resolves to null. One that cannot be resolved in time, because upstream is
+ * slow or failing, is thrown as an {@link UpstreamException}, which the dispatcher retries like a failed send.</p>
+ */
+@Slf4j
+public class ResolvingEntityLookup implements EntityLookup {
+
+    /**
+     * Threads running batch fetches.
+     */
+    private static final int FETCH_THREADS = 4;
+
+    /**
+     * Users, with their time zone and locale.
+     */
+    private final BatchLoader<Long, ResolvedUser> users;
+
+    /**
+     * Events.
+     */
+    private final BatchLoader<Long, Event> events;
+
+    /**
+     * Questions.
+     */
+    private final BatchLoader<Long, Question> questions;
+
+    /**
+     * Schedules flushes of partial batches.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Runs batch fetches.
+     */
+    private final ExecutorService fetchExecutor;
+
+    /**
+     * How long a send waits for an entity.
+     */
+    private final long timeoutMillis;
+
+    /**
+     * ResolvingEntityLookup.
+     *
+     * @param client UpstreamClient
+     * @param aProps ApplicationProperties
+     */
+    public ResolvingEntityLookup(final UpstreamClient client, final ApplicationProperties aProps) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "email-resolver-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        fetchExecutor = Executors.newFixedThreadPool(FETCH_THREADS, runnable -> {
+            final Thread thread = new Thread(runnable, "email-resolver-fetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timeoutMillis = aProps.getUpstreamTimeoutMillis();
+        users = loader(ids -> resolveUsers(client, ids), aProps);
+        events = loader(ids -> index(client.fetch("/events", ids, Event.class), Event::getId), aProps);
+        questions = loader(ids -> index(client.fetch("/questions", ids, Question.class), Question::getId), aProps);
+    }
+
+    /**
+     * Stops the loader threads.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        fetchExecutor.shutdownNow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public User getUser(final Message message) {
+        return await(user(message.getUserId()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RecipientLocale getRecipientLocale(final Message message) {
+        final ResolvedUser resolved = await(load(users, message.getUserId()));
+        if (resolved == null) {
+            return null;
+        }
+        return resolved.getLocale();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event getEvent(final Message message) {
+        return await(event(message.getEventId()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Question getQuestion(final Message message) {
+        return await(question(message.getQuestionId()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void prefetch(final Message message) {
+        user(message.getUserId());
+        event(message.getEventId());
+        question(message.getQuestionId());
+    }
+
+    /**
+     * Loads a user.
+     *
+     * @param id user ID, may be null
+     * @return future User
+     */
+    public CompletableFuture<User> user(final Long id) {
+        return load(users, id).thenApply(ResolvingEntityLookup::userOf);
+    }
+
+    /**
+     * Loads an event.
+     *
+     * @param id event ID, may be null
+     * @return future Event
+     */
+    public CompletableFuture<Event> event(final Long id) {
+        return load(events, id);
+    }
+
+    /**
+     * Loads a question.
+     *
+     * @param id question ID, may be null
+     * @return future Question
+     */
+    public CompletableFuture<Question> question(final Long id) {
+        return load(questions, id);
+    }
+
+    /**
+     * Loads an id, answering null for a null id.
+     *
+     * @param loader BatchLoader
+     * @param id     id, may be null
+     * @param <V>    entity type
+     * @return future entity
+     */
+    private static <V> CompletableFuture<V> load(final BatchLoader<Long, V> loader, final Long id) {
+        if (id == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return loader.load(id);
+    }
+
+    /**
+     * Waits for an entity.
+     *
+     * @param future future entity
+     * @param <V>    entity type
+     * @return entity, null if upstream does not know it
+     * @throws UpstreamException when the entity cannot be resolved in time, so the message can be tried again later
+     */
+    private <V> V await(final CompletableFuture<V> future) {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new UpstreamException(
+                    String.format("unable to resolve entity: %s", e.getCause().getMessage()), e.getCause());
+        } catch (TimeoutException e) {
+            throw new UpstreamException(String.format("entity not resolved within %d ms", timeoutMillis), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UpstreamException("interrupted resolving entity", e);
+        }
+    }
+
+    /**
+     * Creates a loader with the configured batching and caching.
+     *
+     * @param fetch  batch fetch
+     * @param aProps ApplicationProperties
+     * @param <V>    entity type
+     * @return BatchLoader
+     */
+    private <V> BatchLoader<Long, V> loader(final Function<List<Long>, Map<Long, V>> fetch,
+                                            final ApplicationProperties aProps) {
+        return new BatchLoader<>(
+                fetch,
+                aProps.getEntityBatchSize(),
+                aProps.getEntityBatchWindowMillis(),
+                TimeUnit.SECONDS.toMillis(aProps.getEntityCacheTtlSeconds()),
+                aProps.getEntityCacheSize(),
+                scheduler,
+                fetchExecutor);
+    }
+
+    /**
+     * Fetches users, keeping the time zone and locale from each user document.
+     *
+     * @param client UpstreamClient
+     * @param ids    user ids
+     * @return id to user
+     */
+    private static Map<Long, ResolvedUser> resolveUsers(final UpstreamClient client, final List<Long> ids) {
+        final Map<Long, ResolvedUser> indexed = new HashMap<>();
+        for (JsonNode node : client.fetch("/users", ids, JsonNode.class)) {
+            final User user = client.convert(node, User.class);
+            indexed.put(user.getId(), new ResolvedUser(
+                    user,
+                    new RecipientLocale(node.path("timeZone").asText(null), node.path("locale").asText(null))));
+        }
+        return indexed;
+    }
+
+    /**
+     * User of a resolved user.
+     *
+     * @param resolved ResolvedUser, may be null
+     * @return User, null if not resolved
+     */
+    private static User userOf(final ResolvedUser resolved) {
+        if (resolved == null) {
+            return null;
+        }
+        return resolved.getUser();
+    }
+
+    /**
+     * Indexes entities by id.
+     *
+     * @param entities entities
+     * @param id       id accessor
+     * @param <V>      entity type
+     * @return id to entity
+     */
+    private static <V> Map<Long, V> index(final List<V> entities, final Function<V, Long> id) {
+        final Map<Long, V> indexed = new HashMap<>();
+        for (V entity : entities) {
+            indexed.put(id.apply(entity), entity);
+        }
+        return indexed;
+    }
+
+    /**
+     * User along with their time zone and locale.
+     */
+    private static final class ResolvedUser {
+
+        /**
+         * User.
+         */
+        private final User user;
+
+        /**
+         * Time zone and locale.
+         */
+        private final RecipientLocale locale;
+
+        /**
+         * ResolvedUser.
+         *
+         * @param aUser   User
+         * @param aLocale time zone and locale
+         */
+        ResolvedUser(final User aUser, final RecipientLocale aLocale) {
+            user = aUser;
+            locale = aLocale;
+        }
+
+        /**
+         * User.
+         *
+         * @return User
+         */
+        User getUser() {
+            return user;
+        }
+
+        /**
+         * Time zone and locale.
+         *
+         * @return RecipientLocale
+         */
+        RecipientLocale getLocale() {
+            return locale;
+        }
+    }
+
+}
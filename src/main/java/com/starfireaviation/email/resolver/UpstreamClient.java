@@ -0,0 +1,133 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.resolver;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.starfireaviation.email.exception.UpstreamException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * UpstreamClient.
+ *
+ * <p>Fetches entities from the upstream service in bulk, e.g. {@code GET /users?ids=1,2,3} answering a JSON
+ * array.</p>
+ */
+public class UpstreamClient {
+
+    /**
+     * HTTP OK.
+     */
+    private static final int OK = 200;
+
+    /**
+     * HttpClient.
+     */
+    private final HttpClient httpClient;
+
+    /**
+     * ObjectMapper.
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Upstream base URL.
+     */
+    private final String baseUrl;
+
+    /**
+     * Request timeout.
+     */
+    private final Duration timeout;
+
+    /**
+     * UpstreamClient.
+     *
+     * @param url           upstream base URL
+     * @param timeoutMillis request timeout
+     * @param mapper        ObjectMapper
+     */
+    public UpstreamClient(final String url, final long timeoutMillis, final ObjectMapper mapper) {
+        baseUrl = url;
+        timeout = Duration.ofMillis(timeoutMillis);
+        objectMapper = mapper;
+        httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+    }
+
+    /**
+     * Fetches the entities with the given ids.
+     *
+     * @param path resource path, e.g. /users
+     * @param ids  ids
+     * @param type entity type
+     * @param <T>  entity type
+     * @return entities found, in no particular order
+     */
+    public <T> List<T> fetch(final String path, final Collection<?> ids, final Class<T> type) {
+        final String query = ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path + "?ids=" + query))
+                .timeout(timeout)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        try {
+            final HttpResponse<InputStream> response =
+                    httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != OK) {
+                    throw new UpstreamException(
+                            String.format("GET %s returned %d for %d ids", path, response.statusCode(), ids.size()));
+                }
+                return objectMapper.readerForListOf(type).readValue(body);
+            }
+        } catch (IOException e) {
+            throw new UpstreamException(String.format("GET %s failed: %s", path, e.getMessage()), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UpstreamException(String.format("GET %s interrupted", path), e);
+        }
+    }
+
+    /**
+     * Binds a fetched JSON tree to an entity type.
+     *
+     * @param node JSON tree, e.g. from fetching {@link JsonNode}
+     * @param type entity type
+     * @param <T>  entity type
+     * @return entity
+     */
+    public <T> T convert(final JsonNode node, final Class<T> type) {
+        try {
+            return objectMapper.treeToValue(node, type);
+        } catch (JsonProcessingException e) {
+            throw new UpstreamException(
+                    String.format("unable to read %s: %s", type.getSimpleName(), e.getMessage()), e);
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.schedule;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * HoldingQueue.
+ *
+ * <p>Items held until a release time, grouped into fixed-width time buckets. An item goes into the first bucket that
+ * starts at or after its release time, so it is never released early and at most one bucket late, and items in a
+ * bucket come out in the order they were held. Holding and polling touch only the bucket map's ends.</p>
+ *
+ * @param <T> item type
+ */
+final class HoldingQueue<T> {
+
+    /**
+     * Bucket width.
+     */
+    private final long bucketMillis;
+
+    /**
+     * Held items by bucket number.
+     */
+    private final NavigableMap<Long, Deque<T>> buckets = new TreeMap<>();
+
+    /**
+     * Number of held items.
+     */
+    private int size;
+
+    /**
+     * HoldingQueue.
+     *
+     * @param width bucket width in milliseconds
+     */
+    HoldingQueue(final long width) {
+        bucketMillis = width;
+    }
+
+    /**
+     * Holds an item.
+     *
+     * @param item            item
+     * @param releaseAtMillis release time, epoch milliseconds
+     */
+    synchronized void add(final T item, final long releaseAtMillis) {
+        final long bucket = Math.floorDiv(releaseAtMillis + bucketMillis - 1, bucketMillis);
+        buckets.computeIfAbsent(bucket, key -> new ArrayDeque<>()).addLast(item);
+        size++;
+    }
+
+    /**
+     * Takes the oldest item that is due.
+     *
+     * @param nowMillis current time, epoch milliseconds
+     * @return item, null if none is due
+     */
+    synchronized T poll(final long nowMillis) {
+        final Map.Entry<Long, Deque<T>> first = buckets.firstEntry();
+        if (first == null || first.getKey() > Math.floorDiv(nowMillis, bucketMillis)) {
+            return null;
+        }
+        final T item = first.getValue().pollFirst();
+        if (first.getValue().isEmpty()) {
+            buckets.remove(first.getKey());
+        }
+        size--;
+        return item;
+    }
+
+    /**
+     * Takes every held item matching a filter, whatever its release time.
+     *
+     * @param filter selects the items to take
+     * @return taken items by bucket number
+     */
+    synchronized NavigableMap<Long, List<T>> removeIf(final Predicate<T> filter) {
+        final NavigableMap<Long, List<T>> removed = new TreeMap<>();
+        final Iterator<Map.Entry<Long, Deque<T>>> entries = buckets.entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<Long, Deque<T>> bucket = entries.next();
+            final Iterator<T> items = bucket.getValue().iterator();
+            while (items.hasNext()) {
+                final T item = items.next();
+                if (filter.test(item)) {
+                    items.remove();
+                    removed.computeIfAbsent(bucket.getKey(), key -> new ArrayList<>()).add(item);
+                    size--;
+                }
+            }
+            if (bucket.getValue().isEmpty()) {
+                entries.remove();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Puts an item taken by {@link #removeIf} back into its bucket.
+     *
+     * @param item   item
+     * @param bucket bucket number
+     */
+    synchronized void restore(final T item, final long bucket) {
+        buckets.computeIfAbsent(bucket, key -> new ArrayDeque<>()).addLast(item);
+        size++;
+    }
+
+    /**
+     * Number of held items.
+     *
+     * @return count
+     */
+    synchronized int size() {
+        return size;
+    }
+
+}
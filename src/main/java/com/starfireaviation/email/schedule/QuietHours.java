@@ -0,0 +1,128 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.schedule;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * QuietHours.
+ *
+ * <p>Local time of day during which a recipient should not be sent mail that can wait. The quiet period runs from
+ * start up to end and may wrap past midnight; equal start and end times turn it off. A message arriving in the quiet
+ * period is due when it ends, plus a per-recipient offset within the spread so that everyone in a zone does not come
+ * due in the same instant.</p>
+ */
+public final class QuietHours {
+
+    /**
+     * Odd multiplier that scatters sequential keys across the spread.
+     */
+    private static final long KEY_MIX = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Local time the quiet period starts.
+     */
+    private final LocalTime start;
+
+    /**
+     * Local time the quiet period ends.
+     */
+    private final LocalTime end;
+
+    /**
+     * Window after the quiet period over which recipients are spread.
+     */
+    private final long spreadMillis;
+
+    /**
+     * QuietHours.
+     *
+     * @param quietStart local time the quiet period starts
+     * @param quietEnd   local time the quiet period ends
+     * @param spread     window after the quiet period over which recipients are spread
+     */
+    public QuietHours(final LocalTime quietStart, final LocalTime quietEnd, final Duration spread) {
+        start = quietStart;
+        end = quietEnd;
+        spreadMillis = spread.toMillis();
+    }
+
+    /**
+     * Whether there is a quiet period at all.
+     *
+     * @return false when start and end are equal
+     */
+    public boolean isEnabled() {
+        return !start.equals(end);
+    }
+
+    /**
+     * Whether a local time of day falls in the quiet period.
+     *
+     * @param time local time
+     * @return true if quiet
+     */
+    public boolean isQuiet(final LocalTime time) {
+        if (!isEnabled()) {
+            return false;
+        }
+        if (start.isBefore(end)) {
+            return !time.isBefore(start) && time.isBefore(end);
+        }
+        return !time.isBefore(start) || time.isBefore(end);
+    }
+
+    /**
+     * When a message for a recipient may be delivered.
+     *
+     * @param now  current time
+     * @param zone recipient's zone
+     * @param key  recipient key, e.g. the user ID
+     * @return time the message is due, null if it may be delivered now
+     */
+    public Instant deliverAt(final Instant now, final ZoneId zone, final long key) {
+        final ZonedDateTime local = now.atZone(zone);
+        final LocalTime time = local.toLocalTime();
+        if (!isQuiet(time)) {
+            return null;
+        }
+        LocalDate openDate = local.toLocalDate();
+        if (!time.isBefore(end)) {
+            openDate = openDate.plusDays(1);
+        }
+        return ZonedDateTime.of(openDate, end, zone).toInstant().plusMillis(offset(key));
+    }
+
+    /**
+     * Offset of a recipient within the spread.
+     *
+     * @param key recipient key
+     * @return milliseconds
+     */
+    private long offset(final long key) {
+        if (spreadMillis <= 0) {
+            return 0L;
+        }
+        return Math.floorMod(key * KEY_MIX, spreadMillis);
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.schedule;
+
+import com.starfireaviation.email.tenant.SendRateLimiter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * QuietHoursScheduler.
+ *
+ * <p>Defers items that would reach their recipient during {@link QuietHours} into a time-bucketed
+ * {@link HoldingQueue}. A background thread checks for due items every tick and hands them to the release sink
+ * through a {@link SendRateLimiter}, so when a window opens for many recipients at once they are released as an even
+ * stream rather than a spike.</p>
+ *
+ * <p>Items can also be held until a given time, e.g. until a recipient is back under a frequency cap; such a release
+ * time is pushed past quiet hours if it falls inside them.</p>
+ *
+ * @param <T> item type
+ */
+@Slf4j
+public class QuietHoursScheduler<T> {
+
+    /**
+     * How often the release thread checks for due items.
+     */
+    private static final long TICK_MILLIS = 1000L;
+
+    /**
+     * Delivery window policy.
+     */
+    private final QuietHours quietHours;
+
+    /**
+     * Held items.
+     */
+    private final HoldingQueue<T> holding;
+
+    /**
+     * Paces releases.
+     */
+    private final SendRateLimiter pacer;
+
+    /**
+     * Receives released items.
+     */
+    private final Consumer<T> sink;
+
+    /**
+     * Clock.
+     */
+    private final Clock clock;
+
+    /**
+     * Items deferred.
+     */
+    private final AtomicLong deferred = new AtomicLong();
+
+    /**
+     * Items released.
+     */
+    private final AtomicLong released = new AtomicLong();
+
+    /**
+     * Whether shutdown() has been called.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Release thread.
+     */
+    private Thread releaser;
+
+    /**
+     * QuietHoursScheduler.
+     *
+     * @param policy       delivery window policy
+     * @param bucketMillis width of a holding bucket
+     * @param limiter      paces releases
+     * @param release      receives released items
+     * @param aClock       Clock
+     */
+    public QuietHoursScheduler(final QuietHours policy,
+                               final long bucketMillis,
+                               final SendRateLimiter limiter,
+                               final Consumer<T> release,
+                               final Clock aClock) {
+        quietHours = policy;
+        holding = new HoldingQueue<>(bucketMillis);
+        pacer = limiter;
+        sink = release;
+        clock = aClock;
+    }
+
+    /**
+     * Starts the release thread.
+     */
+    public void start() {
+        releaser = new Thread(this::run, "email-quiet-hours");
+        releaser.setDaemon(true);
+        releaser.start();
+    }
+
+    /**
+     * Stops holding items and stops the release thread; items still held are not released.
+     */
+    public void shutdown() {
+        stopped = true;
+        if (releaser != null) {
+            releaser.interrupt();
+        }
+    }
+
+    /**
+     * Holds an item if it would reach its recipient during quiet hours.
+     *
+     * @param item item
+     * @param zone recipient's zone
+     * @param key  recipient key, e.g. the user ID
+     * @return true if the item was held, false if it may be sent now
+     */
+    public boolean defer(final T item, final ZoneId zone, final long key) {
+        if (stopped) {
+            return false;
+        }
+        final Instant releaseAt = quietHours.deliverAt(clock.instant(), zone, key);
+        if (releaseAt == null) {
+            return false;
+        }
+        holding.add(item, releaseAt.toEpochMilli());
+        deferred.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Holds an item until a given time, or until the recipient's quiet hours end if that time falls inside them.
+     *
+     * @param item item
+     * @param at   earliest release time
+     * @param zone recipient's zone
+     * @param key  recipient key, e.g. the user ID
+     * @return true if the item was held, false after shutdown
+     */
+    public boolean holdUntil(final T item, final Instant at, final ZoneId zone, final long key) {
+        if (stopped) {
+            return false;
+        }
+        Instant releaseAt = at;
+        final Instant windowOpens = quietHours.deliverAt(at, zone, key);
+        if (windowOpens != null) {
+            releaseAt = windowOpens;
+        }
+        holding.add(item, releaseAt.toEpochMilli());
+        return true;
+    }
+
+    /**
+     * Passes held items on elsewhere, e.g. to the replica that now owns their recipient, whatever their release time.
+     * An item the target does not take stays held until its release time.
+     *
+     * @param leaving selects the items to pass on
+     * @param target  takes an item; returns false if it could not
+     * @return number of items passed on
+     */
+    public int handOver(final Predicate<T> leaving, final Predicate<T> target) {
+        int count = 0;
+        for (Map.Entry<Long, List<T>> bucket : holding.removeIf(leaving).entrySet()) {
+            for (T item : bucket.getValue()) {
+                if (target.test(item)) {
+                    count++;
+                } else {
+                    holding.restore(item, bucket.getKey());
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Hands every due item to the sink, paced by the limiter.
+     *
+     * @return number of items released
+     * @throws InterruptedException when interrupted while pacing
+     */
+    int releaseDue() throws InterruptedException {
+        int count = 0;
+        T item = holding.poll(clock.millis());
+        while (item != null) {
+            pacer.acquire();
+            sink.accept(item);
+            released.incrementAndGet();
+            count++;
+            item = holding.poll(clock.millis());
+        }
+        return count;
+    }
+
+    /**
+     * Number of items being held.
+     *
+     * @return count
+     */
+    public int getHeld() {
+        return holding.size();
+    }
+
+    /**
+     * Items deferred for quiet hours since startup.
+     *
+     * @return count
+     */
+    public long getDeferred() {
+        return deferred.get();
+    }
+
+    /**
+     * Items released since startup.
+     *
+     * @return count
+     */
+    public long getReleased() {
+        return released.get();
+    }
+
+    /**
+     * Release loop.
+     */
+    private void run() {
+        try {
+            while (!stopped) {
+                final int count = releaseDue();
+                if (count > 0) {
+                    log.info(String.format("run() %d held messages released; %d still held", count, getHeld()));
+                }
+                TimeUnit.MILLISECONDS.sleep(TICK_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,381 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.sent;
+
+import com.starfireaviation.email.template.RenderBuffer;
+import com.starfireaviation.email.transport.Attachment;
+import com.starfireaviation.email.transport.OutboundMail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A message as it was sent: addresses, subject and the rendered bodies, so it can be sent again without looking
+ * anything up or rendering anything. The API key is not kept; it is taken from the organization when the message is
+ * replayed.
+ */
+public final class SentMessage {
+
+    /**
+     * Rough per-message cost of the object and its strings, added to the body sizes.
+     */
+    private static final int OVERHEAD_BYTES = 256;
+
+    /**
+     * Stored in place of a null user ID.
+     */
+    private static final long NONE = Long.MIN_VALUE;
+
+    /**
+     * ID.
+     */
+    private final long id;
+
+    /**
+     * User the message was sent to, may be null.
+     */
+    private final Long userId;
+
+    /**
+     * Kind of message, e.g. a message type ordinal.
+     */
+    private final int kind;
+
+    /**
+     * Organization the message was sent for.
+     */
+    private final String organization;
+
+    /**
+     * From address.
+     */
+    private final String fromAddress;
+
+    /**
+     * Reply-to address, may be null.
+     */
+    private final String replyToAddress;
+
+    /**
+     * To address.
+     */
+    private final String toAddress;
+
+    /**
+     * Subject.
+     */
+    private final String subject;
+
+    /**
+     * UTF-8 encoded HTML body.
+     */
+    private final byte[] html;
+
+    /**
+     * UTF-8 encoded plain text alternative, may be null.
+     */
+    private final byte[] text;
+
+    /**
+     * Attachments, shared with whoever created them.
+     */
+    private final List<Attachment> attachments;
+
+    /**
+     * Copies a message that has just been sent.
+     *
+     * @param anId  ID
+     * @param user  user the message was sent to, may be null
+     * @param aKind kind of message
+     * @param org   organization the message was sent for
+     * @param mail  OutboundMail; its pooled buffers are copied, so they may be reused afterwards
+     */
+    public SentMessage(final long anId, final Long user, final int aKind, final String org, final OutboundMail mail) {
+        this(anId, user, aKind, org, mail.getFromAddress(), mail.getReplyToAddress(), mail.getToAddress(),
+                mail.getSubject(), copy(mail.getBody()), copy(mail.getText()), mail.getAttachments());
+    }
+
+    /**
+     * SentMessage.
+     *
+     * @param anId     ID
+     * @param user     user the message was sent to, may be null
+     * @param aKind    kind of message
+     * @param org      organization the message was sent for
+     * @param from     from address
+     * @param replyTo  reply-to address, may be null
+     * @param to       to address
+     * @param aSubject subject
+     * @param htmlBody UTF-8 encoded HTML body
+     * @param textBody UTF-8 encoded plain text alternative, may be null
+     * @param attached attachments
+     */
+    private SentMessage(final long anId,
+                        final Long user,
+                        final int aKind,
+                        final String org,
+                        final String from,
+                        final String replyTo,
+                        final String to,
+                        final String aSubject,
+                        final byte[] htmlBody,
+                        final byte[] textBody,
+                        final List<Attachment> attached) {
+        id = anId;
+        userId = user;
+        kind = aKind;
+        organization = org;
+        fromAddress = from;
+        replyToAddress = replyTo;
+        toAddress = to;
+        subject = aSubject;
+        html = htmlBody;
+        text = textBody;
+        attachments = attached;
+    }
+
+    /**
+     * ID.
+     *
+     * @return ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * User the message was sent to.
+     *
+     * @return user ID, may be null
+     */
+    public Long getUserId() {
+        return userId;
+    }
+
+    /**
+     * Kind of message.
+     *
+     * @return kind
+     */
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * Organization the message was sent for.
+     *
+     * @return organization
+     */
+    public String getOrganization() {
+        return organization;
+    }
+
+    /**
+     * To address.
+     *
+     * @return to address
+     */
+    public String getToAddress() {
+        return toAddress;
+    }
+
+    /**
+     * Subject.
+     *
+     * @return subject
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * The message, ready to send again.
+     *
+     * @param apiKey SendGrid API key of the organization
+     * @return OutboundMail over read-only views of the bodies
+     */
+    public OutboundMail toMail(final String apiKey) {
+        RenderBuffer plain = null;
+        if (text != null) {
+            plain = RenderBuffer.shared(text);
+        }
+        final RenderBuffer body = RenderBuffer.shared(html);
+        return new OutboundMail(fromAddress, replyToAddress, toAddress, subject, body, plain, apiKey, attachments);
+    }
+
+    /**
+     * Approximate memory held by the message. Attachments are shared and not counted.
+     *
+     * @return bytes
+     */
+    int weight() {
+        int weight = OVERHEAD_BYTES + html.length;
+        if (text != null) {
+            weight += text.length;
+        }
+        return weight;
+    }
+
+    /**
+     * Serializes the message.
+     *
+     * @return bytes
+     * @throws IOException never, in practice
+     */
+    byte[] encode() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(weight());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(id);
+            if (userId == null) {
+                out.writeLong(NONE);
+            } else {
+                out.writeLong(userId);
+            }
+            out.writeInt(kind);
+            writeString(out, organization);
+            writeString(out, fromAddress);
+            writeString(out, replyToAddress);
+            writeString(out, toAddress);
+            writeString(out, subject);
+            writeBytes(out, html);
+            writeBytes(out, text);
+            out.writeInt(attachments.size());
+            for (Attachment attachment : attachments) {
+                writeString(out, attachment.getFilename());
+                writeString(out, attachment.getContentType());
+                writeBytes(out, attachment.getBase64());
+                writeBytes(out, attachment.getMimeBase64());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a message written by {@link #encode()}.
+     *
+     * @param in encoded message
+     * @return SentMessage
+     * @throws IOException when the input is truncated
+     */
+    static SentMessage decode(final DataInputStream in) throws IOException {
+        final long id = in.readLong();
+        Long userId = in.readLong();
+        if (userId == NONE) {
+            userId = null;
+        }
+        final int kind = in.readInt();
+        final String organization = readString(in);
+        final String from = readString(in);
+        final String replyTo = readString(in);
+        final String to = readString(in);
+        final String subject = readString(in);
+        final byte[] html = readBytes(in);
+        final byte[] text = readBytes(in);
+        final int count = in.readInt();
+        List<Attachment> attachments = Collections.emptyList();
+        if (count > 0) {
+            attachments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                attachments.add(new Attachment(readString(in), readString(in), readBytes(in), readBytes(in)));
+            }
+        }
+        return new SentMessage(id, userId, kind, organization, from, replyTo, to, subject, html, text, attachments);
+    }
+
+    /**
+     * Copy of a buffer's contents; a shared buffer's contents never change, so they are kept without copying.
+     *
+     * @param buffer RenderBuffer, may be null
+     * @return bytes, null for a null buffer
+     */
+    private static byte[] copy(final RenderBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        if (buffer.isShared()) {
+            return buffer.array();
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Writes a nullable string.
+     *
+     * @param out   DataOutputStream
+     * @param value string, may be null
+     * @throws IOException never, in practice
+     */
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Reads a nullable string.
+     *
+     * @param in DataInputStream
+     * @return string, may be null
+     * @throws IOException when the input is truncated
+     */
+    private static String readString(final DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return in.readUTF();
+    }
+
+    /**
+     * Writes a nullable byte array.
+     *
+     * @param out   DataOutputStream
+     * @param value bytes, may be null
+     * @throws IOException never, in practice
+     */
+    private static void writeBytes(final DataOutputStream out, final byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    /**
+     * Reads a nullable byte array.
+     *
+     * @param in DataInputStream
+     * @return bytes, may be null
+     * @throws IOException when the input is truncated
+     */
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+}
@@ -0,0 +1,1280 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.sent;
+
+import com.starfireaviation.email.transport.OutboundMail;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * SentMessageStore.
+ *
+ * <p>Keeps recently sent messages, rendered, so they can be sent again without building a model or rendering a
+ * template. Messages are looked up by ID or as the latest of a kind sent to a user, each a single hash lookup. The
+ * newest messages are held in memory up to a byte budget. Every message is also compressed and appended to a file
+ * used as a ring, by a single background writer so senders never wait on deflate or disk; records are dropped once
+ * the ring wraps over them, so a lookup costs at most one positional read and one inflate.</p>
+ *
+ * <p>IDs are unique across replicas and restarts: the replica's slot in the top {@value #SLOT_BITS} bits, then
+ * milliseconds since 2022 and a counter in the low {@value #COUNTER_BITS} bits. Issuing never goes backwards, so a
+ * burst of more than one ID per counter value borrows from the next millisecond.</p>
+ *
+ * <p>The file survives a restart: when the store opens, the index is rebuilt by scanning records from the start of
+ * the file up to the first one that does not check out, so records past where the ring last wrapped may be lost.
+ * With a shared directory, each replica writes its own {@code <slot>.bin} and a lookup this replica cannot answer
+ * is tried against the other replicas' files, so a message can be resent from any replica. Each of those files is
+ * indexed as it is followed, reading only the records written since the last look, and looked at again at most
+ * every {@value #PEER_REFRESH_MILLIS} ms, so a lookup for an unknown ID costs a hash lookup per replica.</p>
+ *
+ * <p>File layout: magic and version, then records of stored length, raw length, write sequence, ID, user, kind and
+ * a CRC32 of all of them and the data, followed by the deflated message.</p>
+ */
+@Slf4j
+public class SentMessageStore {
+
+    /**
+     * Bits of an ID holding the replica slot.
+     */
+    public static final int SLOT_BITS = 8;
+
+    /**
+     * Bits of an ID holding the counter within a millisecond.
+     */
+    public static final int COUNTER_BITS = 14;
+
+    /**
+     * Bits of an ID holding milliseconds since {@link #ID_EPOCH_MILLIS}.
+     */
+    private static final int MILLIS_BITS = Long.SIZE - 1 - SLOT_BITS - COUNTER_BITS;
+
+    /**
+     * Start of ID time, 2022-01-01T00:00:00Z.
+     */
+    private static final long ID_EPOCH_MILLIS = 1_640_995_200_000L;
+
+    /**
+     * Bits of a user key that hold the kind.
+     */
+    private static final int KIND_BITS = 6;
+
+    /**
+     * File magic, "SENT".
+     */
+    private static final int MAGIC = 0x53454e54;
+
+    /**
+     * File format version.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * File header length.
+     */
+    private static final int FILE_HEADER_BYTES = 2 * Integer.BYTES;
+
+    /**
+     * Record header length.
+     */
+    private static final int RECORD_HEADER_BYTES = 4 * Integer.BYTES + 3 * Long.BYTES;
+
+    /**
+     * Offset of the write sequence in a record.
+     */
+    private static final int SEQUENCE_OFFSET = 2 * Integer.BYTES;
+
+    /**
+     * Offset of the ID in a record.
+     */
+    private static final int ID_OFFSET = SEQUENCE_OFFSET + Long.BYTES;
+
+    /**
+     * Offset of the user in a record.
+     */
+    private static final int USER_OFFSET = ID_OFFSET + Long.BYTES;
+
+    /**
+     * Offset of the kind in a record.
+     */
+    private static final int KIND_OFFSET = USER_OFFSET + Long.BYTES;
+
+    /**
+     * Offset of the CRC32 in a record.
+     */
+    private static final int CRC_OFFSET = KIND_OFFSET + Integer.BYTES;
+
+    /**
+     * Stored form of a message without a user.
+     */
+    private static final long NONE = Long.MIN_VALUE;
+
+    /**
+     * Messages waiting for the writer before new ones are kept in memory only.
+     */
+    private static final int WRITE_QUEUE_CAPACITY = 4096;
+
+    /**
+     * How long closing waits for the writer to finish.
+     */
+    private static final long CLOSE_SECONDS = 10L;
+
+    /**
+     * File name suffix.
+     */
+    private static final String FILE_SUFFIX = ".bin";
+
+    /**
+     * Least time between two looks at the shared directory, or at another replica's file, for messages written
+     * since; lookups in between answer from what was last seen.
+     */
+    static final long PEER_REFRESH_MILLIS = 100L;
+
+    /**
+     * {@link #PEER_REFRESH_MILLIS} in nanoseconds.
+     */
+    private static final long PEER_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(PEER_REFRESH_MILLIS);
+
+    /**
+     * This replica's slot, the top bits of the IDs it issues.
+     */
+    private final int slot;
+
+    /**
+     * Directory shared with other replicas, null when local.
+     */
+    private final Path directory;
+
+    /**
+     * Memory budget.
+     */
+    private final long memoryLimit;
+
+    /**
+     * File length, 0 when there is no file.
+     */
+    private final long fileLimit;
+
+    /**
+     * Open file, null when messages are kept in memory only.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Writes messages to the file, null when there is no file.
+     */
+    private final ThreadPoolExecutor writer;
+
+    /**
+     * Messages waiting for the writer.
+     */
+    private final BlockingQueue<Runnable> writeQueue = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+
+    /**
+     * Messages in memory, oldest first.
+     */
+    private final LinkedHashMap<Long, SentMessage> memory = new LinkedHashMap<>();
+
+    /**
+     * Messages waiting to be written, by ID.
+     */
+    private final Map<Long, SentMessage> pending = new HashMap<>();
+
+    /**
+     * Records in the file by message ID.
+     */
+    private final Map<Long, Spilled> spilled = new HashMap<>();
+
+    /**
+     * Records in the file, oldest first.
+     */
+    private final ArrayDeque<Spilled> spillOrder = new ArrayDeque<>();
+
+    /**
+     * ID of the latest message by user and kind.
+     */
+    private final Map<Long, Long> latest = new HashMap<>();
+
+    /**
+     * Other replicas' files, opened on first use.
+     */
+    private final Map<Integer, Peer> peers = new ConcurrentHashMap<>();
+
+    /**
+     * Compresses messages; used by the writer only.
+     */
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+     * Last ID issued.
+     */
+    private final AtomicLong lastId = new AtomicLong();
+
+    /**
+     * Lookups answered from memory.
+     */
+    private final LongAdder memoryHits = new LongAdder();
+
+    /**
+     * Lookups answered from a file.
+     */
+    private final LongAdder fileHits = new LongAdder();
+
+    /**
+     * Lookups of messages no longer held.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Memory held by the messages in memory.
+     */
+    private long memoryBytes;
+
+    /**
+     * Other replicas' slots as of the last directory listing.
+     */
+    private volatile List<Integer> peerSlots = List.of();
+
+    /**
+     * When the directory was last listed, System.nanoTime().
+     */
+    private volatile long peersListedNanos;
+
+    /**
+     * File position the next record is written at; moved by the writer only.
+     */
+    private long writePosition = FILE_HEADER_BYTES;
+
+    /**
+     * Sequence of the next record written; used by the writer only.
+     */
+    private long writeSequence;
+
+    /**
+     * Opens a local store, keeping what a previous run left in the file.
+     *
+     * @param path         file; null to keep messages in memory only
+     * @param memoryBudget bytes of messages kept in memory
+     * @param fileBudget   bytes of compressed messages kept in the file
+     * @throws IOException when the file cannot be opened
+     */
+    public SentMessageStore(final Path path, final long memoryBudget, final long fileBudget) throws IOException {
+        this(path, null, 0, memoryBudget, fileBudget);
+    }
+
+    /**
+     * Opens this replica's file in a directory shared by all replicas, keeping what the slot's previous holder left.
+     *
+     * @param dir          shared directory
+     * @param aSlot        this replica's slot, 1 to 255
+     * @param memoryBudget bytes of messages kept in memory
+     * @param fileBudget   bytes of compressed messages kept in the file
+     * @throws IOException when the file cannot be opened
+     */
+    public SentMessageStore(final Path dir, final int aSlot, final long memoryBudget, final long fileBudget)
+            throws IOException {
+        this(Files.createDirectories(dir).resolve(aSlot + FILE_SUFFIX), dir, aSlot, memoryBudget, fileBudget);
+    }
+
+    /**
+     * Opens the store.
+     *
+     * @param path         file; null to keep messages in memory only
+     * @param dir          shared directory, null when local
+     * @param aSlot        this replica's slot, 0 when local
+     * @param memoryBudget bytes of messages kept in memory
+     * @param fileBudget   bytes of compressed messages kept in the file
+     * @throws IOException when the file cannot be opened
+     */
+    private SentMessageStore(final Path path,
+                             final Path dir,
+                             final int aSlot,
+                             final long memoryBudget,
+                             final long fileBudget) throws IOException {
+        if (aSlot < 0 || aSlot >= 1 << SLOT_BITS) {
+            throw new IllegalArgumentException("slot " + aSlot + " out of range");
+        }
+        slot = aSlot;
+        directory = dir;
+        memoryLimit = memoryBudget;
+        if (path == null || fileBudget <= FILE_HEADER_BYTES + RECORD_HEADER_BYTES) {
+            channel = null;
+            writer = null;
+            fileLimit = 0;
+        } else {
+            channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            fileLimit = fileBudget;
+            recover(path);
+            writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, writeQueue, runnable -> {
+                final Thread thread = new Thread(runnable, "email-sent-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        log.info(String.format("SentMessageStore() [%s] slot %d; %d bytes in memory, %d bytes in the file; "
+                + "%d messages recovered", path, slot, memoryLimit, fileLimit, spilled.size()));
+    }
+
+    /**
+     * Issues a new message ID.
+     *
+     * @return ID, unique across replicas and restarts
+     */
+    public long nextId() {
+        final long candidate = (long) slot << (MILLIS_BITS + COUNTER_BITS)
+                | (System.currentTimeMillis() - ID_EPOCH_MILLIS) << COUNTER_BITS;
+        return lastId.accumulateAndGet(candidate, (previous, next) -> Math.max(previous + 1, next));
+    }
+
+    /**
+     * Slot of the replica that issued an ID.
+     *
+     * @param id message ID
+     * @return slot
+     */
+    public static int slotOf(final long id) {
+        return (int) (id >>> (MILLIS_BITS + COUNTER_BITS));
+    }
+
+    /**
+     * Keeps a message that has just been sent, under a new ID.
+     *
+     * @param userId       user the message was sent to, may be null
+     * @param kind         kind of message, 0 to 63
+     * @param organization organization the message was sent for
+     * @param mail         OutboundMail; its buffers are copied
+     * @return message ID
+     */
+    public long put(final Long userId, final int kind, final String organization, final OutboundMail mail) {
+        return put(nextId(), userId, kind, organization, mail);
+    }
+
+    /**
+     * Keeps a message that has just been sent, under an ID issued earlier by {@link #nextId()}, here or on another
+     * replica.
+     *
+     * @param id           message ID
+     * @param userId       user the message was sent to, may be null
+     * @param kind         kind of message, 0 to 63
+     * @param organization organization the message was sent for
+     * @param mail         OutboundMail; its buffers are copied
+     * @return message ID
+     */
+    public long put(final long id,
+                    final Long userId,
+                    final int kind,
+                    final String organization,
+                    final OutboundMail mail) {
+        if (kind < 0 || kind >= 1 << KIND_BITS) {
+            throw new IllegalArgumentException("kind " + kind + " out of range");
+        }
+        final SentMessage message = new SentMessage(id, userId, kind, organization, mail);
+        synchronized (this) {
+            memory.put(id, message);
+            memoryBytes += message.weight();
+            if (userId != null) {
+                latest.put(key(userId, kind), id);
+            }
+            if (writer != null) {
+                pending.put(id, message);
+            }
+            final Iterator<SentMessage> oldest = memory.values().iterator();
+            while (memoryBytes > memoryLimit && oldest.hasNext()) {
+                final SentMessage evicted = oldest.next();
+                oldest.remove();
+                memoryBytes -= evicted.weight();
+                forgetIfGone(evicted.getId(), evicted.getUserId(), evicted.getKind());
+            }
+        }
+        if (writer != null) {
+            try {
+                writer.execute(() -> write(message));
+            } catch (RejectedExecutionException e) {
+                log.debug(String.format("put() writer busy or stopped; message [%d] kept in memory only", id));
+                synchronized (this) {
+                    pending.remove(id);
+                    forgetIfGone(id, userId, kind);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Looks a message up by ID, in this replica's memory and file and then, with a shared directory, in the other
+     * replicas' files.
+     *
+     * @param id message ID
+     * @return SentMessage, null if it was never stored or has since been dropped
+     */
+    public SentMessage get(final long id) {
+        final Spilled record;
+        synchronized (this) {
+            SentMessage recent = memory.get(id);
+            if (recent == null) {
+                recent = pending.get(id);
+            }
+            if (recent != null) {
+                memoryHits.increment();
+                return recent;
+            }
+            record = spilled.get(id);
+        }
+        SentMessage message = null;
+        if (record != null) {
+            message = read(channel, record);
+        }
+        if (message == null && directory != null) {
+            message = readPeers(id);
+        }
+        if (message == null) {
+            misses.increment();
+        } else {
+            fileHits.increment();
+        }
+        return message;
+    }
+
+    /**
+     * Looks up the latest message of a kind sent to a user through this replica.
+     *
+     * @param userId user ID, may be null
+     * @param kind   kind of message
+     * @return SentMessage, null if none is held
+     */
+    public SentMessage latest(final Long userId, final int kind) {
+        Long id = null;
+        if (userId != null) {
+            synchronized (this) {
+                id = latest.get(key(userId, kind));
+            }
+        }
+        if (id == null) {
+            misses.increment();
+            return null;
+        }
+        return get(id);
+    }
+
+    /**
+     * Number of messages held.
+     *
+     * @return count
+     */
+    public synchronized int size() {
+        if (writer == null) {
+            return memory.size();
+        }
+        return spilled.size() + pending.size();
+    }
+
+    /**
+     * Memory held by the messages in memory.
+     *
+     * @return bytes
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * Lookups answered from memory.
+     *
+     * @return count
+     */
+    public long getMemoryHits() {
+        return memoryHits.sum();
+    }
+
+    /**
+     * Lookups answered from a file.
+     *
+     * @return count
+     */
+    public long getFileHits() {
+        return fileHits.sum();
+    }
+
+    /**
+     * Lookups of messages no longer held.
+     *
+     * @return count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Waits until every message put so far has been written.
+     *
+     * @throws InterruptedException when interrupted while waiting
+     */
+    void flush() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.submit(() -> { }).get();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            log.warn(String.format("flush() %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Lets the writer finish, then closes the files.
+     */
+    public void close() {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                if (!writer.awaitTermination(CLOSE_SECONDS, TimeUnit.SECONDS)) {
+                    log.warn(String.format("close() %d messages left unwritten", writeQueue.size()));
+                    writer.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                writer.shutdownNow();
+            }
+        }
+        deflater.end();
+        closeQuietly(channel);
+        for (Peer peer : peers.values()) {
+            closeQuietly(peer.channel);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the file a previous run left, or starts the file afresh when it holds something
+     * else.
+     *
+     * @param path file
+     * @throws IOException when the file cannot be read or written
+     */
+    private void recover(final Path path) throws IOException {
+        if (!hasHeader(channel)) {
+            if (channel.size() > 0) {
+                log.warn(String.format("recover() [%s] is not a version %d sent message file; starting afresh",
+                        path, VERSION));
+            }
+            channel.truncate(0);
+            final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            return;
+        }
+        final List<Spilled> ordered = ringOrder(scan(channel, fileLimit));
+        if (ordered.isEmpty()) {
+            return;
+        }
+        for (Spilled record : ordered) {
+            spilled.put(record.id, record);
+            spillOrder.addLast(record);
+            if (record.userId != null) {
+                latest.put(key(record.userId, record.kind), record.id);
+            }
+            if (slotOf(record.id) == slot) {
+                lastId.accumulateAndGet(record.id, Math::max);
+            }
+        }
+        final Spilled last = ordered.get(ordered.size() - 1);
+        writePosition = last.position + last.length;
+        writeSequence = last.sequence + 1;
+    }
+
+    /**
+     * Compresses a message and writes it to the file, dropping the oldest records it overwrites. Runs on the writer
+     * only; the lock is held just to update the index.
+     *
+     * @param message SentMessage
+     */
+    private void write(final SentMessage message) {
+        try {
+            final byte[] raw = message.encode();
+            final byte[] stored = deflate(raw);
+            final int length = RECORD_HEADER_BYTES + stored.length;
+            if (FILE_HEADER_BYTES + length > fileLimit) {
+                unpend(message);
+                return;
+            }
+            final long position;
+            synchronized (this) {
+                if (writePosition + length > fileLimit) {
+                    while (!spillOrder.isEmpty() && spillOrder.peekFirst().position >= writePosition) {
+                        discard(spillOrder.pollFirst());
+                    }
+                    writePosition = FILE_HEADER_BYTES;
+                }
+                while (!spillOrder.isEmpty() && spillOrder.peekFirst().overlaps(writePosition, length)) {
+                    discard(spillOrder.pollFirst());
+                }
+                position = writePosition;
+                writePosition += length;
+            }
+            final Long userId = message.getUserId();
+            long user = NONE;
+            if (userId != null) {
+                user = userId;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            buffer.putInt(stored.length).putInt(raw.length).putLong(writeSequence).putLong(message.getId())
+                    .putLong(user).putInt(message.getKind()).putInt(0).put(stored);
+            buffer.putInt(CRC_OFFSET, crc(buffer.array(), stored.length)).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            final Spilled record = new Spilled(
+                    message.getId(), userId, message.getKind(), writeSequence, position, length, raw.length);
+            writeSequence++;
+            synchronized (this) {
+                spilled.put(record.id, record);
+                spillOrder.addLast(record);
+                pending.remove(record.id);
+            }
+            if (directory != null && writeQueue.isEmpty()) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            log.warn(String.format("write() message [%d] kept in memory only: %s", message.getId(), e.getMessage()));
+            unpend(message);
+        }
+    }
+
+    /**
+     * Gives up on writing a message.
+     *
+     * @param message SentMessage
+     */
+    private synchronized void unpend(final SentMessage message) {
+        pending.remove(message.getId());
+        forgetIfGone(message.getId(), message.getUserId(), message.getKind());
+    }
+
+    /**
+     * Looks an ID up in the other replicas' files, starting with the one that issued it.
+     *
+     * @param id message ID
+     * @return SentMessage, null if no file holds it
+     */
+    private SentMessage readPeers(final long id) {
+        final int owner = slotOf(id);
+        SentMessage message = null;
+        if (owner != slot) {
+            message = readPeer(owner, id);
+        }
+        final List<Integer> others = peerSlots(System.nanoTime());
+        for (int i = 0; i < others.size() && message == null; i++) {
+            if (others.get(i) != owner) {
+                message = readPeer(others.get(i), id);
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Other replicas' slots, listing the directory again if it was last listed over
+     * {@link #PEER_REFRESH_MILLIS} ago.
+     *
+     * @param now System.nanoTime()
+     * @return slots
+     */
+    private List<Integer> peerSlots(final long now) {
+        if (!peerSlots.isEmpty() && now - peersListedNanos < PEER_REFRESH_NANOS) {
+            return peerSlots;
+        }
+        final List<Integer> listed = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    final int owner = Integer.parseInt(name.substring(0, name.length() - FILE_SUFFIX.length()));
+                    if (owner != slot) {
+                        listed.add(owner);
+                    }
+                } catch (NumberFormatException e) {
+                    log.debug(String.format("peerSlots() ignoring [%s]", file));
+                }
+            }
+        } catch (IOException e) {
+            log.warn(String.format("peerSlots() %s", e.getMessage()));
+        }
+        peerSlots = listed;
+        peersListedNanos = now;
+        return listed;
+    }
+
+    /**
+     * Looks an ID up in another replica's file.
+     *
+     * @param owner slot
+     * @param id    message ID
+     * @return SentMessage, null if the file does not exist or does not hold it
+     */
+    private SentMessage readPeer(final int owner, final long id) {
+        try {
+            return peer(owner).get(id);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn(String.format("readPeer() slot %d unreadable: %s", owner, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Another slot's file, opened for reading on first use.
+     *
+     * @param owner slot
+     * @return Peer
+     * @throws IOException when the file cannot be opened or is not a sent message file
+     */
+    private Peer peer(final int owner) throws IOException {
+        Peer peer = peers.get(owner);
+        if (peer == null) {
+            final Path path = directory.resolve(owner + FILE_SUFFIX);
+            final FileChannel peerChannel = FileChannel.open(path, StandardOpenOption.READ);
+            if (!hasHeader(peerChannel)) {
+                peerChannel.close();
+                throw new IOException(path + " is not a version " + VERSION + " sent message file");
+            }
+            peer = new Peer(peerChannel, System.nanoTime());
+            final Peer raced = peers.putIfAbsent(owner, peer);
+            if (raced != null) {
+                peerChannel.close();
+                peer = raced;
+            }
+        }
+        return peer;
+    }
+
+    /**
+     * Compresses a serialized message. Called by the writer only.
+     *
+     * @param raw serialized message
+     * @return compressed bytes
+     */
+    private byte[] deflate(final byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] out = new byte[raw.length / 2 + RECORD_HEADER_BYTES];
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            size += deflater.deflate(out, size, out.length - size);
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    /**
+     * Drops a record overwritten in the file. Callers hold the lock.
+     *
+     * @param record Spilled
+     */
+    private void discard(final Spilled record) {
+        spilled.remove(record.id);
+        forgetIfGone(record.id, record.userId, record.kind);
+    }
+
+    /**
+     * Stops pointing at a message once it is neither in memory, waiting to be written nor in the file. Callers hold
+     * the lock.
+     *
+     * @param id     message ID
+     * @param userId user ID, may be null
+     * @param kind   kind of message
+     */
+    private void forgetIfGone(final long id, final Long userId, final int kind) {
+        if (userId != null && !memory.containsKey(id) && !pending.containsKey(id) && !spilled.containsKey(id)) {
+            latest.remove(key(userId, kind), id);
+        }
+    }
+
+    /**
+     * Key of the latest message of a kind sent to a user.
+     *
+     * @param userId user ID
+     * @param kind   kind of message
+     * @return key
+     */
+    private static long key(final long userId, final int kind) {
+        return (userId << KIND_BITS) | kind;
+    }
+
+    /**
+     * Whether a file starts with this version's header.
+     *
+     * @param file open file
+     * @return true if it does
+     * @throws IOException when the file cannot be read
+     */
+    private static boolean hasHeader(final FileChannel file) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        int read = 0;
+        while (header.hasRemaining() && read >= 0) {
+            read = file.read(header, header.position());
+        }
+        return !header.hasRemaining() && header.getInt(0) == MAGIC && header.getInt(Integer.BYTES) == VERSION;
+    }
+
+    /**
+     * Reads the records of a file from the start up to the first one that does not check out.
+     *
+     * @param file  open file
+     * @param limit bytes of the file to look at
+     * @return records in file order
+     * @throws IOException when the file cannot be read
+     */
+    private static List<Spilled> scan(final FileChannel file, final long limit) throws IOException {
+        final List<Spilled> records = new ArrayList<>();
+        final long end = Math.min(limit, file.size());
+        Spilled record = recordAt(file, FILE_HEADER_BYTES, end);
+        while (record != null) {
+            records.add(record);
+            record = recordAt(file, record.position + record.length, end);
+        }
+        return records;
+    }
+
+    /**
+     * Reads the record at a position of a file, if there is one that checks out.
+     *
+     * @param file     open file
+     * @param position file position
+     * @param end      bytes of the file to look at
+     * @return Spilled, null if there is no whole, undamaged record there
+     * @throws IOException when the file cannot be read
+     */
+    private static Spilled recordAt(final FileChannel file, final long position, final long end) throws IOException {
+        if (position + RECORD_HEADER_BYTES > end) {
+            return null;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        int read = 0;
+        while (header.hasRemaining() && read >= 0) {
+            read = file.read(header, position + header.position());
+        }
+        final int storedLength = header.getInt(0);
+        final int rawLength = header.getInt(Integer.BYTES);
+        if (header.hasRemaining() || storedLength <= 0 || rawLength <= 0
+                || position + RECORD_HEADER_BYTES + storedLength > end) {
+            return null;
+        }
+        final long userId = header.getLong(USER_OFFSET);
+        Long user = null;
+        if (userId != NONE) {
+            user = userId;
+        }
+        final Spilled record = new Spilled(header.getLong(ID_OFFSET), user, header.getInt(KIND_OFFSET),
+                header.getLong(SEQUENCE_OFFSET), position, RECORD_HEADER_BYTES + storedLength, rawLength);
+        if (readRecord(file, record) == null) {
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * Puts the records of a ring file in the order they were written, oldest first.
+     *
+     * @param records records in file order
+     * @return records in write order
+     */
+    private static List<Spilled> ringOrder(final List<Spilled> records) {
+        int newest = -1;
+        for (int i = 0; i < records.size(); i++) {
+            if (newest < 0 || records.get(i).sequence > records.get(newest).sequence) {
+                newest = i;
+            }
+        }
+        final List<Spilled> ordered = new ArrayList<>(records.subList(newest + 1, records.size()));
+        ordered.addAll(records.subList(0, newest + 1));
+        return ordered;
+    }
+
+    /**
+     * Reads a record's bytes and checks them against what the index expects.
+     *
+     * @param file   open file
+     * @param record Spilled
+     * @return record bytes, null if the record has been overwritten or is damaged
+     * @throws IOException when the file cannot be read
+     */
+    private static ByteBuffer readRecord(final FileChannel file, final Spilled record) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(record.length);
+        int read = 0;
+        while (buffer.hasRemaining() && read >= 0) {
+            read = file.read(buffer, record.position + buffer.position());
+        }
+        final int storedLength = record.length - RECORD_HEADER_BYTES;
+        if (buffer.hasRemaining()
+                || buffer.getInt(0) != storedLength
+                || buffer.getInt(Integer.BYTES) != record.rawLength
+                || buffer.getLong(SEQUENCE_OFFSET) != record.sequence
+                || buffer.getLong(ID_OFFSET) != record.id
+                || buffer.getInt(CRC_OFFSET) != crc(buffer.array(), storedLength)) {
+            return null;
+        }
+        return buffer;
+    }
+
+    /**
+     * Reads a message back from a file.
+     *
+     * @param file   open file
+     * @param record Spilled
+     * @return SentMessage, null if it cannot be read or has been overwritten
+     */
+    private static SentMessage read(final FileChannel file, final Spilled record) {
+        final Inflater inflater = new Inflater();
+        try {
+            final ByteBuffer buffer = readRecord(file, record);
+            if (buffer == null) {
+                return null;
+            }
+            final byte[] raw = new byte[record.rawLength];
+            inflater.setInput(buffer.array(), RECORD_HEADER_BYTES, record.length - RECORD_HEADER_BYTES);
+            int inflated = 0;
+            while (inflated < raw.length && !inflater.finished() && !inflater.needsInput()) {
+                inflated += inflater.inflate(raw, inflated, raw.length - inflated);
+            }
+            if (inflated != raw.length) {
+                return null;
+            }
+            return SentMessage.decode(new DataInputStream(new ByteArrayInputStream(raw)));
+        } catch (IOException | DataFormatException e) {
+            log.warn(String.format("read() message [%d] unreadable: %s", record.id, e.getMessage()));
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * CRC32 of a record's header, less the CRC itself, and its data.
+     *
+     * @param record       record bytes
+     * @param storedLength data length
+     * @return CRC32
+     */
+    private static int crc(final byte[] record, final int storedLength) {
+        final CRC32 crc = new CRC32();
+        crc.update(record, 0, CRC_OFFSET);
+        crc.update(record, RECORD_HEADER_BYTES, storedLength);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Closes a file, logging any failure.
+     *
+     * @param file open file, may be null
+     */
+    private static void closeQuietly(final FileChannel file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            log.warn(String.format("closeQuietly() %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Where a message sits in a file.
+     */
+    private static final class Spilled {
+
+        /**
+         * Message ID.
+         */
+        private final long id;
+
+        /**
+         * User ID, may be null.
+         */
+        private final Long userId;
+
+        /**
+         * Kind of message.
+         */
+        private final int kind;
+
+        /**
+         * Write sequence.
+         */
+        private final long sequence;
+
+        /**
+         * File position.
+         */
+        private final long position;
+
+        /**
+         * Record length.
+         */
+        private final int length;
+
+        /**
+         * Serialized message length.
+         */
+        private final int rawLength;
+
+        /**
+         * Spilled.
+         *
+         * @param anId      message ID
+         * @param user      user ID, may be null
+         * @param aKind     kind of message
+         * @param aSequence write sequence
+         * @param aPosition file position
+         * @param aLength   record length
+         * @param raw       serialized message length
+         */
+        Spilled(final long anId,
+                final Long user,
+                final int aKind,
+                final long aSequence,
+                final long aPosition,
+                final int aLength,
+                final int raw) {
+            id = anId;
+            userId = user;
+            kind = aKind;
+            sequence = aSequence;
+            position = aPosition;
+            length = aLength;
+            rawLength = raw;
+        }
+
+        /**
+         * Whether the record shares any bytes with a range of the file.
+         *
+         * @param start  range start
+         * @param extent range length
+         * @return true if they overlap
+         */
+        boolean overlaps(final long start, final long extent) {
+            return position < start + extent && start < position + length;
+        }
+    }
+
+    /**
+     * Another replica's file. It is scanned once when first opened; after that, lookups that miss follow its writer
+     * from where the last look left off, reading only the records written since, at most once per
+     * {@link #PEER_REFRESH_MILLIS}. Should the writer lap the last look, the file is scanned again as on recovery.
+     */
+    private static final class Peer {
+
+        /**
+         * Open file.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Records by message ID.
+         */
+        private final Map<Long, Spilled> index = new HashMap<>();
+
+        /**
+         * Records in the order they were written, oldest first.
+         */
+        private final ArrayDeque<Spilled> order = new ArrayDeque<>();
+
+        /**
+         * Position after the newest record seen, where the writer goes on.
+         */
+        private long scanPosition = FILE_HEADER_BYTES;
+
+        /**
+         * Sequence of the newest record seen, -1 before any.
+         */
+        private long scanSequence = -1L;
+
+        /**
+         * When the file was last followed, System.nanoTime().
+         */
+        private long refreshedNanos;
+
+        /**
+         * Peer.
+         *
+         * @param aChannel open file
+         * @param now      System.nanoTime()
+         * @throws IOException when the file cannot be read
+         */
+        Peer(final FileChannel aChannel, final long now) throws IOException {
+            channel = aChannel;
+            rebuild();
+            refreshedNanos = now;
+        }
+
+        /**
+         * Looks a message up, first following the file if the message has not been seen.
+         *
+         * @param id message ID
+         * @return SentMessage, null if the file does not hold it
+         * @throws IOException when the file cannot be read
+         */
+        SentMessage get(final long id) throws IOException {
+            final Spilled record = find(id, System.nanoTime());
+            if (record == null) {
+                return null;
+            }
+            return read(channel, record);
+        }
+
+        /**
+         * Finds where a message sits, following the file if it has not been seen and was last followed over
+         * {@link #PEER_REFRESH_MILLIS} ago.
+         *
+         * @param id  message ID
+         * @param now System.nanoTime()
+         * @return Spilled, null if not seen
+         * @throws IOException when the file cannot be read
+         */
+        private synchronized Spilled find(final long id, final long now) throws IOException {
+            Spilled record = index.get(id);
+            if (record == null && now - refreshedNanos >= PEER_REFRESH_NANOS) {
+                refreshedNanos = now;
+                refresh();
+                record = index.get(id);
+            }
+            return record;
+        }
+
+        /**
+         * Reads the records written since the last look: on from the newest one seen, or from the start of the file
+         * when the writer has wrapped. If the writer has lapped the last look, or the file was started afresh, the
+         * whole file is scanned again.
+         *
+         * @throws IOException when the file cannot be read
+         */
+        private void refresh() throws IOException {
+            final long end = channel.size();
+            if (end < scanPosition) {
+                rebuild();
+                return;
+            }
+            boolean more = true;
+            while (more) {
+                final long expected = scanSequence + 1;
+                Spilled next = recordAt(channel, scanPosition, end);
+                if (next == null || next.sequence != expected) {
+                    final Spilled first = recordAt(channel, FILE_HEADER_BYTES, end);
+                    if (isAhead(next, expected) || isAhead(first, expected)) {
+                        rebuild();
+                        return;
+                    }
+                    next = null;
+                    if (first != null && first.sequence == expected) {
+                        wrap();
+                        next = first;
+                    }
+                }
+                more = next != null;
+                if (more) {
+                    add(next);
+                }
+            }
+        }
+
+        /**
+         * Scans the whole file again.
+         *
+         * @throws IOException when the file cannot be read
+         */
+        private void rebuild() throws IOException {
+            index.clear();
+            order.clear();
+            scanPosition = FILE_HEADER_BYTES;
+            scanSequence = -1L;
+            for (Spilled record : ringOrder(scan(channel, Long.MAX_VALUE))) {
+                add(record);
+            }
+        }
+
+        /**
+         * Follows the writer back to the start of the file, dropping the records past the newest one seen, which
+         * it skipped as they had no room for its next record.
+         */
+        private void wrap() {
+            while (!order.isEmpty() && order.peekFirst().position >= scanPosition) {
+                index.remove(order.pollFirst().id);
+            }
+            scanPosition = FILE_HEADER_BYTES;
+        }
+
+        /**
+         * Indexes the next record written, dropping the older ones it overwrote.
+         *
+         * @param record Spilled
+         */
+        private void add(final Spilled record) {
+            while (!order.isEmpty() && order.peekFirst().overlaps(record.position, record.length)) {
+                index.remove(order.pollFirst().id);
+            }
+            index.put(record.id, record);
+            order.addLast(record);
+            scanPosition = record.position + record.length;
+            scanSequence = record.sequence;
+        }
+
+        /**
+         * Whether a record was written after the one expected next, so some were missed.
+         *
+         * @param record   Spilled, may be null
+         * @param expected sequence expected next
+         * @return true if records were missed
+         */
+        private static boolean isAhead(final Spilled record, final long expected) {
+            return record != null && record.sequence > expected;
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.service;
+
+/**
+ * DispatchContext.
+ *
+ * <p>The message a {@link MessageDispatcher} worker is handing to MessageService on the current thread. It carries
+ * the ID the message was given when it was queued, for the first mail sent for it to be stored under. The send
+ * methods return nothing, so MessageService also marks here when a provider accepts the mail, and the dispatcher
+ * reads it back once the send method returns.</p>
+ */
+final class DispatchContext {
+
+    /**
+     * Context for the current thread.
+     */
+    private static final ThreadLocal<DispatchContext> CURRENT = new ThreadLocal<>();
+
+    /**
+     * ID the message was given when it was queued, 0 once claimed or when it has none.
+     */
+    private long messageId;
+
+    /**
+     * Whether a provider accepted mail for the message.
+     */
+    private boolean accepted;
+
+    /**
+     * DispatchContext.
+     *
+     * @param id ID the message was given when it was queued, 0 for none
+     */
+    private DispatchContext(final long id) {
+        messageId = id;
+    }
+
+    /**
+     * Starts a context for the current thread.
+     *
+     * @param id ID the message was given when it was queued, 0 for none
+     * @return DispatchContext
+     */
+    static DispatchContext open(final long id) {
+        final DispatchContext context = new DispatchContext(id);
+        CURRENT.set(context);
+        return context;
+    }
+
+    /**
+     * Takes the ID of the message on the current thread, so that only the first mail sent for it is stored under
+     * that ID.
+     *
+     * @return ID, 0 if there is none or it was already taken
+     */
+    static long claimMessageId() {
+        final DispatchContext context = CURRENT.get();
+        if (context == null) {
+            return 0L;
+        }
+        final long id = context.messageId;
+        context.messageId = 0L;
+        return id;
+    }
+
+    /**
+     * Marks that a provider accepted mail for the message on the current thread, if it is being dispatched.
+     */
+    static void markAccepted() {
+        final DispatchContext context = CURRENT.get();
+        if (context != null) {
+            context.accepted = true;
+        }
+    }
+
+    /**
+     * Clears the context for the current thread.
+     */
+    static void close() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Whether a provider accepted mail for the message.
+     *
+     * @return true if at least one mail was accepted
+     */
+    boolean isAccepted() {
+        return accepted;
+    }
+
+}
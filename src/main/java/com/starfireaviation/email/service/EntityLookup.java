@@ -0,0 +1,72 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.service;
+
+import com.starfireaviation.model.Event;
+import com.starfireaviation.model.Message;
+import com.starfireaviation.model.Question;
+import com.starfireaviation.model.User;
+
+/**
+ * Looks up the entities a message refers to.
+ */
+public interface EntityLookup {
+
+    /**
+     * User the message is for.
+     *
+     * @param message Message
+     * @return User, null if unknown
+     */
+    User getUser(Message message);
+
+    /**
+     * Event the message is about.
+     *
+     * @param message Message
+     * @return Event, null if unknown
+     */
+    Event getEvent(Message message);
+
+    /**
+     * Question the message is about.
+     *
+     * @param message Message
+     * @return Question, null if unknown
+     */
+    Question getQuestion(Message message);
+
+    /**
+     * Time zone and locale of the user the message is for.
+     *
+     * @param message Message
+     * @return RecipientLocale, null if unknown
+     */
+    default RecipientLocale getRecipientLocale(final Message message) {
+        return null;
+    }
+
+    /**
+     * Starts resolving a message's entities ahead of it being sent.
+     *
+     * @param message Message
+     */
+    default void prefetch(final Message message) {
+        // Nothing to prefetch by default
+    }
+
+}
@@ -0,0 +1,816 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.service;
+
+import com.starfireaviation.email.exception.TransportException;
+import com.starfireaviation.email.exception.UpstreamException;
+import com.starfireaviation.email.frequency.FrequencyCap;
+import com.starfireaviation.email.schedule.QuietHours;
+import com.starfireaviation.email.schedule.QuietHoursScheduler;
+import com.starfireaviation.email.tenant.SendRateLimiter;
+import com.starfireaviation.email.tenant.TenantContext;
+import com.starfireaviation.model.Message;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MessageDispatcher.
+ *
+ * <p>Bounded queue in front of MessageService. Producers block for up to the enqueue timeout when the queue is
+ * full, which pushes back on whoever is feeding messages in instead of buffering without limit.</p>
+ *
+ * <p>Deferrable messages that a worker picks up during the recipient's quiet hours are handed to a
+ * {@link QuietHoursScheduler} instead of being sent, and come back through the queue, paced, once the recipient's
+ * window opens.</p>
+ *
+ * <p>Before anything is looked up or rendered, each message is counted against the recipient's {@link FrequencyCap},
+ * except for the exempt types, which the recipient is waiting on, e.g. a password reset. A deferrable message over
+ * the cap is held until the recipient's window has room (and past their quiet hours); anything else over the cap is
+ * dropped. The count is only kept once a provider accepts the mail; a message that ends up suppressed, refused or
+ * dropped after its last retry is given back to the cap.</p>
+ *
+ * <p>Both are kept per recipient in memory, so when replicas share a cluster directory every message is first
+ * checked against the recipient's owner, and one for a recipient owned elsewhere is handed over through the
+ * {@link MessageHandoff} before it is held, counted or sent. Held messages whose recipient moves to another replica,
+ * and everything still held at shutdown, are handed over too.</p>
+ *
+ * <p>A message that could not be sent but may be accepted later, e.g. because every provider failed, every
+ * circuit is open or its entities could not be resolved from upstream in time, is queued again after an exponential backoff with jitter, up to the configured number of
+ * attempts; only then is it dropped. Retries skip the quiet-hours and frequency cap checks they already passed.</p>
+ */
+@Slf4j
+public class MessageDispatcher {
+
+    /**
+     * How long an idle worker waits for a message before re-checking for shutdown.
+     */
+    private static final long POLL_MILLIS = 500L;
+
+    /**
+     * How long shutdown waits for workers to drain the queue.
+     */
+    private static final long SHUTDOWN_SECONDS = 30L;
+
+    /**
+     * Width of a quiet-hours holding bucket.
+     */
+    private static final long HOLD_BUCKET_MILLIS = 60_000L;
+
+    /**
+     * Longest wait before a retry.
+     */
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 300_000L;
+
+    /**
+     * MessageService.
+     */
+    private final MessageService messageService;
+
+    /**
+     * Pending messages.
+     */
+    private final BlockingQueue<Dispatch> queue;
+
+    /**
+     * Number of worker threads.
+     */
+    private final int threads;
+
+    /**
+     * Time to wait for room in the queue.
+     */
+    private final long enqueueTimeoutMillis;
+
+    /**
+     * Worker threads.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * Holds deferrable messages through the recipient's quiet hours.
+     */
+    private final QuietHoursScheduler<Dispatch> quietHoursScheduler;
+
+    /**
+     * Per-user frequency caps.
+     */
+    private final FrequencyCap<MessageType> frequencyCap;
+
+    /**
+     * Message types not counted against frequency caps.
+     */
+    private final Set<MessageType> capExempt;
+
+    /**
+     * Routes messages to the replica that owns their recipient, null when running single-node.
+     */
+    private final MessageHandoff handoff;
+
+    /**
+     * Send attempts per message, the first included.
+     */
+    private final int maxAttempts;
+
+    /**
+     * Wait before the first retry; doubled for each one after.
+     */
+    private final long retryBackoffMillis;
+
+    /**
+     * Queues messages again once their retry backoff is over.
+     */
+    private final ScheduledExecutorService retries;
+
+    /**
+     * Send failures queued again for a retry.
+     */
+    private final LongAdder retried = new LongAdder();
+
+    /**
+     * Messages dropped after their last attempt failed.
+     */
+    private final LongAdder retriesExhausted = new LongAdder();
+
+    /**
+     * Messages dropped for being over a frequency cap.
+     */
+    private final LongAdder capDropped = new LongAdder();
+
+    /**
+     * Messages held for being over a frequency cap.
+     */
+    private final LongAdder capDeferred = new LongAdder();
+
+    /**
+     * Messages being sent right now.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * When a worker last finished a dispatch or found the queue empty, System.nanoTime().
+     */
+    private volatile long progressNanos = System.nanoTime();
+
+    /**
+     * Whether workers should keep polling.
+     */
+    private volatile boolean running;
+
+    /**
+     * MessageDispatcher.
+     *
+     * @param service       MessageService
+     * @param workerCount   number of worker threads
+     * @param capacity      queue capacity
+     * @param timeoutMillis time to wait for room in the queue
+     * @param quietHours    recipients' quiet hours
+     * @param releasePacer  paces the release of messages held through quiet hours
+     * @param cap           per-user frequency caps
+     * @param exempt        message types not counted against frequency caps
+     * @param attempts      send attempts per message, the first included
+     * @param backoffMillis wait before the first retry; doubled for each one after
+     * @param aHandoff      routes messages to the replica that owns their recipient, null when running single-node
+     */
+    public MessageDispatcher(final MessageService service,
+                             final int workerCount,
+                             final int capacity,
+                             final long timeoutMillis,
+                             final QuietHours quietHours,
+                             final SendRateLimiter releasePacer,
+                             final FrequencyCap<MessageType> cap,
+                             final Set<MessageType> exempt,
+                             final int attempts,
+                             final long backoffMillis,
+                             final MessageHandoff aHandoff) {
+        messageService = service;
+        threads = workerCount;
+        enqueueTimeoutMillis = timeoutMillis;
+        queue = new ArrayBlockingQueue<>(capacity);
+        final AtomicInteger sequence = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            final Thread thread = new Thread(runnable, "email-dispatch-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        quietHoursScheduler = new QuietHoursScheduler<>(
+                quietHours,
+                HOLD_BUCKET_MILLIS,
+                releasePacer,
+                held -> requeue(held.released()),
+                Clock.systemUTC());
+        frequencyCap = cap;
+        capExempt = EnumSet.noneOf(MessageType.class);
+        capExempt.addAll(exempt);
+        maxAttempts = attempts;
+        retryBackoffMillis = backoffMillis;
+        retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "email-dispatch-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        handoff = aHandoff;
+    }
+
+    /**
+     * Starts the worker threads.
+     */
+    public void start() {
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::drain);
+        }
+        quietHoursScheduler.start();
+        if (handoff != null) {
+            handoff.start(this::takeOver);
+            handoff.onRebalance(() -> handOverHeld(false));
+        }
+    }
+
+    /**
+     * Stops accepting work and waits for the queue to drain.
+     */
+    public void shutdown() {
+        running = false;
+        quietHoursScheduler.shutdown();
+        if (handoff != null) {
+            handoff.shutdown();
+            handOverHeld(true);
+        }
+        if (quietHoursScheduler.getHeld() > 0) {
+            log.warn(String.format("shutdown() %d messages held for quiet hours left undelivered",
+                    quietHoursScheduler.getHeld()));
+        }
+        final int waiting = retries.shutdownNow().size();
+        if (waiting > 0) {
+            log.warn(String.format("shutdown() %d messages waiting to be retried left undelivered", waiting));
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+                log.warn(String.format("shutdown() %d messages left undelivered", queue.size()));
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Queues a message under a new ID, waiting up to the enqueue timeout for room.
+     *
+     * @param type         MessageType
+     * @param message      Message
+     * @param organization organization the message is sent for
+     * @return SubmitResult
+     * @throws InterruptedException when interrupted while waiting for room
+     */
+    public SubmitResult submit(final MessageType type,
+                               final Message message,
+                               final String organization) throws InterruptedException {
+        return submit(type, message, organization, messageService.newMessageId());
+    }
+
+    /**
+     * Queues a message, waiting up to the enqueue timeout for room.
+     *
+     * @param type         MessageType
+     * @param message      Message
+     * @param organization organization the message is sent for
+     * @param messageId    ID from {@link MessageService#newMessageId()} the message is stored under once sent
+     * @return SubmitResult
+     * @throws InterruptedException when interrupted while waiting for room
+     */
+    public SubmitResult submit(final MessageType type,
+                               final Message message,
+                               final String organization,
+                               final long messageId) throws InterruptedException {
+        if (!running) {
+            return SubmitResult.SHUTTING_DOWN;
+        }
+        final Dispatch dispatch = new Dispatch(type, message, organization, false, 0, messageId);
+        if (!queue.offer(dispatch, enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            if (!running) {
+                return SubmitResult.SHUTTING_DOWN;
+            }
+            return SubmitResult.QUEUE_FULL;
+        }
+        messageService.prefetch(message);
+        return SubmitResult.ACCEPTED;
+    }
+
+    /**
+     * Number of messages waiting to be sent.
+     *
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Number of messages being sent right now.
+     *
+     * @return in-flight sends
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * How long the oldest queued message has been waiting.
+     *
+     * @return backlog age in milliseconds, 0 when the queue is empty
+     */
+    public long getBacklogAgeMillis() {
+        final Dispatch oldest = queue.peek();
+        if (oldest == null) {
+            return 0L;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.getEnqueuedAtNanos());
+    }
+
+    /**
+     * How long the workers have gone without finishing a dispatch while there is work to do. A slow provider only
+     * slows progress down; this grows only while every worker is stuck.
+     *
+     * @return milliseconds, 0 when there is nothing queued or in flight
+     */
+    public long getStalledMillis() {
+        if (queue.isEmpty() && inFlight.get() == 0) {
+            return 0L;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - progressNanos);
+    }
+
+    /**
+     * Holds deferrable messages through the recipient's quiet hours.
+     *
+     * @return QuietHoursScheduler
+     */
+    public QuietHoursScheduler<?> getQuietHoursScheduler() {
+        return quietHoursScheduler;
+    }
+
+    /**
+     * Messages dropped for being over a frequency cap.
+     *
+     * @return count
+     */
+    public long getCapDropped() {
+        return capDropped.sum();
+    }
+
+    /**
+     * Messages held for being over a frequency cap.
+     *
+     * @return count
+     */
+    public long getCapDeferred() {
+        return capDeferred.sum();
+    }
+
+    /**
+     * Send failures queued again for a retry.
+     *
+     * @return count
+     */
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    /**
+     * Messages dropped after their last attempt failed.
+     *
+     * @return count
+     */
+    public long getRetriesExhausted() {
+        return retriesExhausted.sum();
+    }
+
+    /**
+     * Whether the workers are accepting and draining messages.
+     *
+     * @return true if running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Worker loop.
+     */
+    private void drain() {
+        while (running || !queue.isEmpty()) {
+            try {
+                final Dispatch dispatch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (dispatch == null) {
+                    progressNanos = System.nanoTime();
+                } else {
+                    inFlight.incrementAndGet();
+                    TenantContext.setOrganization(dispatch.getOrganization());
+                    try {
+                        if (dispatch.getAttempt() > 0
+                                || (!handOver(dispatch) && !defer(dispatch) && withinCap(dispatch))) {
+                            send(dispatch);
+                        }
+                    } finally {
+                        TenantContext.clear();
+                        inFlight.decrementAndGet();
+                        progressNanos = System.nanoTime();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn(String.format("drain() dispatch failed: %s", e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Sends a message, scheduling a retry if it may be accepted later. Unless the message is accepted or will be
+     * retried, its frequency cap count is given back.
+     *
+     * @param dispatch Dispatch
+     */
+    private void send(final Dispatch dispatch) {
+        final DispatchContext context = DispatchContext.open(dispatch.getMessageId());
+        boolean retrying = false;
+        try {
+            dispatch.getType().dispatch(messageService, dispatch.getMessage());
+        } catch (TransportException | UpstreamException e) {
+            retrying = retry(dispatch, e);
+        } finally {
+            DispatchContext.close();
+            if (!retrying && !context.isAccepted()) {
+                releaseCap(dispatch);
+            }
+        }
+    }
+
+    /**
+     * Queues a failed message again after its backoff, or drops it once it has used up its attempts.
+     *
+     * @param dispatch Dispatch
+     * @param failure  why the last attempt failed
+     * @return true if the message will be retried
+     */
+    private boolean retry(final Dispatch dispatch, final RuntimeException failure) {
+        final int attempts = dispatch.getAttempt() + 1;
+        final Long userId = dispatch.getMessage().getUserId();
+        if (attempts < maxAttempts && running) {
+            final long delay = backoff(attempts);
+            try {
+                retries.schedule(() -> requeue(dispatch.retried()), delay, TimeUnit.MILLISECONDS);
+                retried.increment();
+                log.warn(String.format("retry() %s for user [%s] failed on attempt %d of %d; retrying in %d ms: %s",
+                        dispatch.getType(), userId, attempts, maxAttempts, delay, failure.getMessage()));
+                return true;
+            } catch (RejectedExecutionException e) {
+                log.debug(String.format("retry() shutting down; %s for user [%s] not retried",
+                        dispatch.getType(), userId));
+            }
+        }
+        retriesExhausted.increment();
+        log.error(String.format("retry() %s for user [%s] dropped after %d attempts: %s",
+                dispatch.getType(), userId, attempts, failure.getMessage()));
+        return false;
+    }
+
+    /**
+     * Wait before a retry: the initial backoff doubled for each earlier retry, capped, with the upper half jittered
+     * so messages that failed together do not all come back together.
+     *
+     * @param attempts attempts made so far
+     * @return milliseconds
+     */
+    private long backoff(final int attempts) {
+        long delay = retryBackoffMillis;
+        for (int i = 1; i < attempts && delay < MAX_RETRY_BACKOFF_MILLIS; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, MAX_RETRY_BACKOFF_MILLIS);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Hands a message to the replica that owns its recipient, if that is not this one.
+     *
+     * @param dispatch Dispatch
+     * @return true if the message was handed over
+     */
+    private boolean handOver(final Dispatch dispatch) {
+        final Long userId = dispatch.getMessage().getUserId();
+        if (handoff == null || userId == null || handoff.owns(userId)) {
+            return false;
+        }
+        return handoff.handOver(dispatch.getType(), dispatch.getMessage(), dispatch.getOrganization(),
+                dispatch.isReleased(), dispatch.getMessageId());
+    }
+
+    /**
+     * Hands held messages to the replica that owns their recipient: those whose recipient has moved away, or all of
+     * them. They are handed over as not yet held, so their new owner applies quiet hours and caps afresh.
+     *
+     * @param all whether to hand over every held message
+     */
+    private void handOverHeld(final boolean all) {
+        final int count = quietHoursScheduler.handOver(
+                held -> all || !handoff.isAssigned(held.getMessage().getUserId()),
+                held -> handoff.handOver(held.getType(), held.getMessage(), held.getOrganization(), false,
+                        held.getMessageId()));
+        if (count > 0) {
+            log.info(String.format("handOverHeld() %d held messages handed to other replicas", count));
+        }
+    }
+
+    /**
+     * Queues a message handed over by another replica.
+     *
+     * @param item handed over message
+     * @return false if the queue has no room for it right now
+     */
+    private boolean takeOver(final MessageHandoff.Item item) {
+        final Dispatch dispatch = new Dispatch(
+                item.getType(), item.getMessage(), item.getOrganization(), item.isHeld(), 0, item.getMessageId());
+        if (!queue.offer(dispatch)) {
+            return false;
+        }
+        messageService.prefetch(item.getMessage());
+        return true;
+    }
+
+    /**
+     * Holds a message if it can wait and would reach its recipient during quiet hours.
+     *
+     * @param dispatch Dispatch
+     * @return true if the message was held
+     */
+    private boolean defer(final Dispatch dispatch) {
+        final Message message = dispatch.getMessage();
+        if (dispatch.isReleased() || !dispatch.getType().isDeferrable() || message.getUserId() == null) {
+            return false;
+        }
+        return quietHoursScheduler.defer(dispatch, messageService.recipientZone(message), message.getUserId());
+    }
+
+    /**
+     * Counts a message against the recipient's frequency caps, unless its type is exempt. A deferrable message over
+     * a cap is held until there is room, once; anything else over a cap is dropped.
+     *
+     * @param dispatch Dispatch
+     * @return true if the message may be sent now
+     */
+    private boolean withinCap(final Dispatch dispatch) {
+        final Message message = dispatch.getMessage();
+        final MessageType type = dispatch.getType();
+        final Long userId = message.getUserId();
+        if (userId == null || capExempt.contains(type)) {
+            return true;
+        }
+        final long reservedAt = frequencyCap.reserve(type, userId);
+        if (reservedAt >= 0) {
+            dispatch.setCapReservedAtMillis(reservedAt);
+            return true;
+        }
+        if (type.isDeferrable()
+                && !dispatch.isReleased()
+                && quietHoursScheduler.holdUntil(
+                        dispatch, frequencyCap.roomAt(type, userId), messageService.recipientZone(message), userId)) {
+            capDeferred.increment();
+            log.info(String.format("withinCap() %s for user [%s] over its frequency cap; held", type, userId));
+            return false;
+        }
+        capDropped.increment();
+        log.info(String.format("withinCap() %s for user [%s] over its frequency cap; dropped", type, userId));
+        return false;
+    }
+
+    /**
+     * Gives back the frequency cap count of a message that was not sent.
+     *
+     * @param dispatch Dispatch
+     */
+    private void releaseCap(final Dispatch dispatch) {
+        if (dispatch.getCapReservedAtMillis() >= 0) {
+            frequencyCap.release(dispatch.getType(), dispatch.getMessage().getUserId(),
+                    dispatch.getCapReservedAtMillis());
+        }
+    }
+
+    /**
+     * Puts a message released from a hold or due for a retry back on the queue, waiting for room if need be.
+     *
+     * @param dispatch Dispatch
+     */
+    private void requeue(final Dispatch dispatch) {
+        try {
+            queue.put(dispatch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn(String.format("requeue() interrupted; message for user [%s] dropped",
+                    dispatch.getMessage().getUserId()));
+        }
+    }
+
+    /**
+     * Queued message.
+     */
+    private static final class Dispatch {
+
+        /**
+         * MessageType.
+         */
+        private final MessageType type;
+
+        /**
+         * Message.
+         */
+        private final Message message;
+
+        /**
+         * Organization.
+         */
+        private final String organization;
+
+        /**
+         * When the message was queued.
+         */
+        private final long enqueuedAtNanos = System.nanoTime();
+
+        /**
+         * Whether the message has already been held, through quiet hours or for a frequency cap.
+         */
+        private final boolean released;
+
+        /**
+         * Send attempts made so far.
+         */
+        private final int attempt;
+
+        /**
+         * ID the message is stored under once sent, 0 for none.
+         */
+        private final long messageId;
+
+        /**
+         * When the message was counted against its frequency caps, -1 if it was not; set by the worker counting it.
+         */
+        private long capReservedAtMillis = -1L;
+
+        /**
+         * Dispatch.
+         *
+         * @param aType          MessageType
+         * @param aMessage       Message
+         * @param anOrganization organization
+         * @param wasHeld        whether the message has already been held
+         * @param attempts       send attempts made so far
+         * @param anId           ID the message is stored under once sent, 0 for none
+         */
+        Dispatch(final MessageType aType,
+                 final Message aMessage,
+                 final String anOrganization,
+                 final boolean wasHeld,
+                 final int attempts,
+                 final long anId) {
+            type = aType;
+            message = aMessage;
+            organization = anOrganization;
+            released = wasHeld;
+            attempt = attempts;
+            messageId = anId;
+        }
+
+        /**
+         * This message, released from a hold.
+         *
+         * @return Dispatch
+         */
+        Dispatch released() {
+            return new Dispatch(type, message, organization, true, attempt, messageId);
+        }
+
+        /**
+         * This message, due for another attempt.
+         *
+         * @return Dispatch
+         */
+        Dispatch retried() {
+            final Dispatch retry = new Dispatch(type, message, organization, released, attempt + 1, messageId);
+            retry.capReservedAtMillis = capReservedAtMillis;
+            return retry;
+        }
+
+        /**
+         * MessageType.
+         *
+         * @return MessageType
+         */
+        MessageType getType() {
+            return type;
+        }
+
+        /**
+         * Message.
+         *
+         * @return Message
+         */
+        Message getMessage() {
+            return message;
+        }
+
+        /**
+         * Organization.
+         *
+         * @return organization
+         */
+        String getOrganization() {
+            return organization;
+        }
+
+        /**
+         * When the message was queued.
+         *
+         * @return System.nanoTime() at enqueue
+         */
+        long getEnqueuedAtNanos() {
+            return enqueuedAtNanos;
+        }
+
+        /**
+         * Whether the message has already been held, through quiet hours or for a frequency cap.
+         *
+         * @return true if released from quiet hours or a frequency cap hold
+         */
+        boolean isReleased() {
+            return released;
+        }
+
+        /**
+         * Send attempts made so far.
+         *
+         * @return 0 for a message not yet tried
+         */
+        int getAttempt() {
+            return attempt;
+        }
+
+        /**
+         * ID the message is stored under once sent.
+         *
+         * @return ID, 0 for none
+         */
+        long getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * When the message was counted against its frequency caps.
+         *
+         * @return epoch milliseconds, -1 if it was not counted
+         */
+        long getCapReservedAtMillis() {
+            return capReservedAtMillis;
+        }
+
+        /**
+         * Records when the message was counted against its frequency caps.
+         *
+         * @param reservedAtMillis epoch milliseconds
+         */
+        void setCapReservedAtMillis(final long reservedAtMillis) {
+            capReservedAtMillis = reservedAtMillis;
+        }
+    }
+
+}
@@ -0,0 +1,291 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.starfireaviation.email.cluster.PartitionInbox;
+import com.starfireaviation.email.cluster.PartitionManager;
+import com.starfireaviation.model.Message;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * MessageHandoff.
+ *
+ * <p>Routes messages to the replica that owns their recipient. Quiet-hours holds and frequency caps are kept per
+ * recipient in memory, so they only hold if every message for a recipient goes through one replica: the
+ * {@link PartitionManager} decides which, and a message picked up anywhere else is written to the owning
+ * partition's {@link PartitionInbox} on the shared cluster volume. A background thread takes the items waiting for
+ * the partitions this replica owns and hands them to the dispatcher.</p>
+ *
+ * <p>Nothing is handed over while running single-node, since every partition is owned locally.</p>
+ */
+@Slf4j
+public class MessageHandoff {
+
+    /**
+     * How often the inbox of each owned partition is checked.
+     */
+    private static final long TICK_MILLIS = 1000L;
+
+    /**
+     * Decides which replica owns a recipient.
+     */
+    private final PartitionManager partitions;
+
+    /**
+     * Shared per-partition inboxes.
+     */
+    private final PartitionInbox inbox;
+
+    /**
+     * ObjectMapper.
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Messages handed to another replica.
+     */
+    private final LongAdder handedOver = new LongAdder();
+
+    /**
+     * Messages taken over from another replica.
+     */
+    private final LongAdder takenOver = new LongAdder();
+
+    /**
+     * Whether shutdown() has been called.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Inbox thread.
+     */
+    private Thread taker;
+
+    /**
+     * MessageHandoff.
+     *
+     * @param aPartitions PartitionManager
+     * @param anInbox     shared per-partition inboxes
+     * @param mapper      ObjectMapper
+     */
+    public MessageHandoff(final PartitionManager aPartitions,
+                          final PartitionInbox anInbox,
+                          final ObjectMapper mapper) {
+        partitions = aPartitions;
+        inbox = anInbox;
+        objectMapper = mapper;
+    }
+
+    /**
+     * Starts taking the items waiting for owned partitions.
+     *
+     * @param sink returns false when it cannot accept an item right now
+     */
+    void start(final Predicate<Item> sink) {
+        taker = new Thread(() -> run(sink), "email-handoff");
+        taker.setDaemon(true);
+        taker.start();
+    }
+
+    /**
+     * Stops taking items.
+     */
+    void shutdown() {
+        stopped = true;
+        if (taker != null) {
+            taker.interrupt();
+        }
+    }
+
+    /**
+     * Registers an action to run after each rebalance.
+     *
+     * @param action action
+     */
+    void onRebalance(final Runnable action) {
+        partitions.addListener(owned -> action.run());
+    }
+
+    /**
+     * Whether a recipient's messages are handled here right now.
+     *
+     * @param userId user ID
+     * @return true if this replica owns the recipient's partition and is past its hand-off delay
+     */
+    boolean owns(final long userId) {
+        return partitions.owns(userId);
+    }
+
+    /**
+     * Whether a recipient's partition is assigned here, including a partition still waiting out its hand-off delay.
+     *
+     * @param userId user ID
+     * @return true if assigned
+     */
+    boolean isAssigned(final long userId) {
+        return partitions.ownedPartitions().contains(partitions.partition(userId));
+    }
+
+    /**
+     * Hands a message to the owner of its recipient.
+     *
+     * @param type         MessageType
+     * @param message      Message
+     * @param organization organization
+     * @param held         whether the message has already been held
+     * @param messageId    ID the message was given when it was queued
+     * @return false if it could not be written, in which case the caller keeps it
+     */
+    boolean handOver(final MessageType type,
+                     final Message message,
+                     final String organization,
+                     final boolean held,
+                     final long messageId) {
+        final Item item = new Item();
+        item.setType(type);
+        item.setMessage(message);
+        item.setOrganization(organization);
+        item.setHeld(held);
+        item.setMessageId(messageId);
+        try {
+            inbox.put(partitions.partition(message.getUserId()), objectMapper.writeValueAsBytes(item));
+        } catch (IOException e) {
+            log.warn(String.format("handOver() %s for user [%s] kept here: %s",
+                    type, message.getUserId(), e.getMessage()));
+            return false;
+        }
+        handedOver.increment();
+        return true;
+    }
+
+    /**
+     * Takes the items waiting for the partitions owned here.
+     *
+     * @param sink returns false when it cannot accept an item right now
+     * @return number of items taken
+     */
+    int takeOwned(final Predicate<Item> sink) {
+        int count = 0;
+        for (Integer partition : partitions.ownedPartitions()) {
+            if (!partitions.ownsPartition(partition)) {
+                continue;
+            }
+            try {
+                count += inbox.take(partition, bytes -> accept(bytes, sink));
+            } catch (IOException e) {
+                log.warn(String.format("takeOwned() partition %d not read: %s", partition, e.getMessage()));
+            }
+        }
+        takenOver.add(count);
+        return count;
+    }
+
+    /**
+     * Messages handed to another replica.
+     *
+     * @return count
+     */
+    public long getHandedOver() {
+        return handedOver.sum();
+    }
+
+    /**
+     * Messages taken over from another replica.
+     *
+     * @return count
+     */
+    public long getTakenOver() {
+        return takenOver.sum();
+    }
+
+    /**
+     * Decodes an item and offers it to the sink; an item that cannot be decoded is logged and discarded.
+     *
+     * @param bytes encoded item
+     * @param sink  sink
+     * @return false if the sink cannot accept it right now
+     */
+    private boolean accept(final byte[] bytes, final Predicate<Item> sink) {
+        final Item item;
+        try {
+            item = objectMapper.readValue(bytes, Item.class);
+        } catch (IOException e) {
+            log.error(String.format("accept() discarding unreadable item: %s", e.getMessage()));
+            return true;
+        }
+        return sink.test(item);
+    }
+
+    /**
+     * Inbox loop.
+     *
+     * @param sink sink
+     */
+    private void run(final Predicate<Item> sink) {
+        try {
+            while (!stopped) {
+                final int count = takeOwned(sink);
+                if (count > 0) {
+                    log.info(String.format("run() %d messages taken over from other replicas", count));
+                }
+                TimeUnit.MILLISECONDS.sleep(TICK_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Message handed between replicas.
+     */
+    @Data
+    static final class Item {
+
+        /**
+         * MessageType.
+         */
+        private MessageType type;
+
+        /**
+         * Message.
+         */
+        private Message message;
+
+        /**
+         * Organization.
+         */
+        private String organization;
+
+        /**
+         * Whether the message has already been held, through quiet hours or for a frequency cap.
+         */
+        private boolean held;
+
+        /**
+         * ID the message was given when it was queued, 0 for none.
+         */
+        private long messageId;
+    }
+
+}
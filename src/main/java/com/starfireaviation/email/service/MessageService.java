@@ -16,41 +16,124 @@
 
 package com.starfireaviation.email.service;
 
-import com.sendgrid.Method;
-import com.sendgrid.Request;
-import com.sendgrid.SendGrid;
-import com.sendgrid.helpers.mail.Mail;
-import com.sendgrid.helpers.mail.objects.Content;
-import com.sendgrid.helpers.mail.objects.Email;
 import com.starfireaviation.model.Event;
 import com.starfireaviation.model.EventType;
 import com.starfireaviation.model.Message;
 import com.starfireaviation.model.Question;
 import com.starfireaviation.model.User;
+import com.starfireaviation.email.calendar.CalendarInviteCache;
 import com.starfireaviation.email.config.ApplicationProperties;
-import com.starfireaviation.email.util.TemplateUtil;
-import freemarker.template.Configuration;
+import com.starfireaviation.email.correlation.Correlation;
+import com.starfireaviation.email.correlation.ReplyCorrelator;
+import com.starfireaviation.email.exception.TransportException;
+import com.starfireaviation.email.exception.UpstreamException;
+import com.starfireaviation.email.jfr.ModelBuildEvent;
+import com.starfireaviation.email.jfr.TemplateRenderEvent;
+import com.starfireaviation.email.jfr.TransportCallEvent;
+import com.starfireaviation.email.sent.SentMessage;
+import com.starfireaviation.email.sent.SentMessageStore;
+import com.starfireaviation.email.suppression.SuppressionList;
+import com.starfireaviation.email.template.RenderedBody;
+import com.starfireaviation.email.template.TemplateRenderer;
+import com.starfireaviation.email.template.model.ModelValues;
+import com.starfireaviation.email.template.model.TemplateModels;
+import com.starfireaviation.email.template.model.TypedModel;
+import com.starfireaviation.email.tenant.Tenant;
+import com.starfireaviation.email.tenant.TenantConfigCache;
+import com.starfireaviation.email.tenant.TenantContext;
+import com.starfireaviation.email.transport.Attachment;
+import com.starfireaviation.email.transport.MailTransport;
+import com.starfireaviation.email.transport.OutboundMail;
+import com.starfireaviation.email.util.FormatterCache;
+import com.starfireaviation.email.util.RecipientFormats;
 import freemarker.template.TemplateException;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ui.freemarker.FreeMarkerTemplateUtils;
 
 import java.io.IOException;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * MessageService.
+ *
+ * <p>A message the providers refused outright is logged and dropped. Any other send failure, such as every provider
+ * failing or every circuit being open, is thrown out of the send method as a {@link TransportException} so the
+ * caller can try again later, as is an {@link UpstreamException} from an entity that could not be resolved in
+ * time.</p>
  */
 @Slf4j
 public class MessageService {
 
     /**
-     * TEMPLATE_LOCATION.
+     * Suffix of subject template names.
+     */
+    private static final String SUBJECT_SUFFIX = "_subject.ftl";
+
+    /**
+     * Suffix of body template names.
+     */
+    private static final String BODY_SUFFIX = "_body.ftl";
+
+    /**
+     * Outcome recorded in flight recorder events when a step succeeded.
      */
-    private static final String TEMPLATE_LOCATION = "/templates";
+    private static final String SUCCESS = "success";
 
     /**
-     * FreeMarker Configuration.
+     * Outcome recorded in flight recorder events when a step failed.
      */
-    private final Configuration freemarkerConfig;
+    private static final String FAILURE = "failure";
+
+    /**
+     * Message type recorded in flight recorder events for a resend.
+     */
+    private static final String RESEND = "RESEND";
+
+    /**
+     * TemplateRenderer.
+     */
+    private final TemplateRenderer templateRenderer;
+
+    /**
+     * TenantConfigCache.
+     */
+    private final TenantConfigCache tenantConfigCache;
+
+    /**
+     * EntityLookup.
+     */
+    private final EntityLookup entityLookup;
+
+    /**
+     * MailTransport.
+     */
+    private final MailTransport mailTransport;
+
+    /**
+     * SuppressionList.
+     */
+    private final SuppressionList suppressionList;
+
+    /**
+     * CalendarInviteCache.
+     */
+    private final CalendarInviteCache calendarInvites;
+
+    /**
+     * FormatterCache.
+     */
+    private final FormatterCache formatterCache;
+
+    /**
+     * ReplyCorrelator.
+     */
+    private final ReplyCorrelator replyCorrelator;
+
+    /**
+     * SentMessageStore.
+     */
+    private final SentMessageStore sentMessages;
 
     /**
      * ApplicationProperties.
@@ -60,13 +143,37 @@ public class MessageService {
     /**
      * EmailService.
      *
-     * @param aProps ApplicationProperties
-     * @param config Configuration
+     * @param aProps       ApplicationProperties
+     * @param renderer     TemplateRenderer
+     * @param tenants      TenantConfigCache
+     * @param lookup       EntityLookup
+     * @param transport    MailTransport
+     * @param suppressions SuppressionList
+     * @param invites      CalendarInviteCache
+     * @param formatters   FormatterCache
+     * @param correlator   ReplyCorrelator
+     * @param sent         SentMessageStore
      */
     public MessageService(final ApplicationProperties aProps,
-                        final Configuration config) {
+                        final TemplateRenderer renderer,
+                        final TenantConfigCache tenants,
+                        final EntityLookup lookup,
+                        final MailTransport transport,
+                        final SuppressionList suppressions,
+                        final CalendarInviteCache invites,
+                        final FormatterCache formatters,
+                        final ReplyCorrelator correlator,
+                        final SentMessageStore sent) {
         applicationProperties = aProps;
-        freemarkerConfig = config;
+        templateRenderer = renderer;
+        tenantConfigCache = tenants;
+        entityLookup = lookup;
+        mailTransport = transport;
+        suppressionList = suppressions;
+        calendarInvites = invites;
+        formatterCache = formatters;
+        replyCorrelator = correlator;
+        sentMessages = sent;
     }
 
     /**
@@ -79,20 +186,16 @@ public class MessageService {
             return;
         }
         final User user = getUser(message);
+        if (isSuppressed(user.getEmail())) {
+            return;
+        }
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
-            send(
-                    user.getId(),
-                    applicationProperties.getFromAddress(),
+            sendTemplated(
+                    MessageType.USER_DELETE,
+                    user,
                     user.getEmail(),
-                    null,
-                    null,
-                    FreeMarkerTemplateUtils.processTemplateIntoString(
-                            freemarkerConfig.getTemplate("user_delete_subject.ftl"),
-                            TemplateUtil.getModel(user, null, null, applicationProperties)),
-                    FreeMarkerTemplateUtils.processTemplateIntoString(
-                            freemarkerConfig.getTemplate("user_delete_body.ftl"),
-                            TemplateUtil.getModel(user, null, null, applicationProperties)));
+                    TemplateModels.USER_DELETE,
+                    new ModelValues(user, null, null, applicationProperties, formats(message)));
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
         }
@@ -108,20 +211,16 @@ public class MessageService {
             return;
         }
         final User user = getUser(message);
+        if (isSuppressed(user.getEmail())) {
+            return;
+        }
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
-            send(
-                    user.getId(),
-                    applicationProperties.getFromAddress(),
+            sendTemplated(
+                    MessageType.QUIZ_COMPLETE,
+                    user,
                     user.getEmail(),
-                    null,
-                    null,
-                    FreeMarkerTemplateUtils.processTemplateIntoString(
-                            freemarkerConfig.getTemplate("quiz_complete_subject.ftl"),
-                            TemplateUtil.getModel(user, null, null, applicationProperties)),
-                    FreeMarkerTemplateUtils.processTemplateIntoString(
-                            freemarkerConfig.getTemplate("quiz_complete_body.ftl"),
-                            TemplateUtil.getModel(user, null, null, applicationProperties)));
+                    TemplateModels.QUIZ_COMPLETE,
+                    new ModelValues(user, null, null, applicationProperties, formats(message)));
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
         }
@@ -137,22 +236,20 @@ public class MessageService {
             return;
         }
         final User user = getUser(message);
+        if (isSuppressed(user.getEmail())) {
+            return;
+        }
         final Event event = getEvent(message);
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
             if (event.getEventType() == EventType.GROUNDSCHOOL) {
-                send(
-                        user.getId(),
-                        applicationProperties.getFromAddress(),
+                sendTemplated(
+                        MessageType.EVENT_RSVP,
+                        user,
                         user.getEmail(),
-                        null,
-                        null,
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_event_rsvp_subject.ftl"),
-                                TemplateUtil.getModel(user, event, null, applicationProperties)),
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_event_rsvp_body.ftl"),
-                                TemplateUtil.getModel(user, event, null, applicationProperties)));
+                        TemplateModels.GS_EVENT_RSVP,
+                        new ModelValues(user, event, null, applicationProperties, formats(message)),
+                        calendarInvites.invite(event),
+                        new Correlation(user.getId(), message.getEventId(), null));
             }
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
@@ -169,22 +266,19 @@ public class MessageService {
             return;
         }
         final User user = getUser(message);
+        if (isSuppressed(user.getEmail())) {
+            return;
+        }
         final Event event = getEvent(message);
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
             if (event.getEventType() == EventType.GROUNDSCHOOL) {
-                send(
-                        user.getId(),
-                        applicationProperties.getFromAddress(),
+                sendTemplated(
+                        MessageType.EVENT_UPCOMING,
+                        user,
                         user.getEmail(),
-                        null,
-                        null,
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_event_upcoming_subject.ftl"),
-                                TemplateUtil.getModel(user, event, null, applicationProperties)),
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_event_upcoming_body.ftl"),
-                                TemplateUtil.getModel(user, event, null, applicationProperties)));
+                        TemplateModels.GS_EVENT_UPCOMING,
+                        new ModelValues(user, event, null, applicationProperties, formats(message)),
+                        calendarInvites.invite(event));
             }
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
@@ -201,22 +295,18 @@ public class MessageService {
             return;
         }
         final User user = getUser(message);
+        if (isSuppressed(user.getEmail())) {
+            return;
+        }
         final Event event = getEvent(message);
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
             if (event.getEventType() == EventType.GROUNDSCHOOL) {
-                send(
-                        user.getId(),
-                        applicationProperties.getFromAddress(),
+                sendTemplated(
+                        MessageType.EVENT_START,
+                        user,
                         user.getEmail(),
-                        null,
-                        null,
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_event_start_subject.ftl"),
-                                TemplateUtil.getModel(user, event, null, applicationProperties)),
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_event_start_body.ftl"),
-                                TemplateUtil.getModel(user, event, null, applicationProperties)));
+                        TemplateModels.GS_EVENT_START,
+                        new ModelValues(user, event, null, applicationProperties, formats(message)));
             }
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
@@ -233,21 +323,19 @@ public class MessageService {
             return;
         }
         final User user = getUser(message);
+        if (isSuppressed(user.getEmail())) {
+            return;
+        }
         final Question question = getQuestion(message);
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
-            send(
-                    user.getId(),
-                    applicationProperties.getFromAddress(),
+            sendTemplated(
+                    MessageType.QUESTION_ASKED,
+                    user,
                     user.getEmail(),
+                    TemplateModels.QUESTION,
+                    new ModelValues(user, null, question, applicationProperties, formats(message)),
                     null,
-                    null,
-                    FreeMarkerTemplateUtils.processTemplateIntoString(
-                            freemarkerConfig.getTemplate("question_subject.ftl"),
-                            TemplateUtil.getModel(user, null, question, applicationProperties)),
-                    FreeMarkerTemplateUtils.processTemplateIntoString(
-                            freemarkerConfig.getTemplate("question_body.ftl"),
-                            TemplateUtil.getModel(user, null, question, applicationProperties)));
+                    new Correlation(user.getId(), null, message.getQuestionId()));
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
         }
@@ -263,22 +351,19 @@ public class MessageService {
             return;
         }
         final User user = getUser(message);
+        if (isSuppressed(user.getEmail())) {
+            return;
+        }
         final Event event = getEvent(message);
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
             if (event.getEventType() == EventType.GROUNDSCHOOL) {
-                send(
-                        user.getId(),
-                        applicationProperties.getFromAddress(),
+                sendTemplated(
+                        MessageType.EVENT_REGISTER,
+                        user,
                         user.getEmail(),
-                        null,
-                        null,
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_event_register_subject.ftl"),
-                                TemplateUtil.getModel(user, event, null, applicationProperties)),
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_event_register_body.ftl"),
-                                TemplateUtil.getModel(user, event, null, applicationProperties)));
+                        TemplateModels.GS_EVENT_REGISTER,
+                        new ModelValues(user, event, null, applicationProperties, formats(message)),
+                        calendarInvites.invite(event));
             }
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
@@ -295,22 +380,18 @@ public class MessageService {
             return;
         }
         final User user = getUser(message);
+        if (isSuppressed(user.getEmail())) {
+            return;
+        }
         final Event event = getEvent(message);
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
             if (event.getEventType() == EventType.GROUNDSCHOOL) {
-                send(
-                        user.getId(),
-                        applicationProperties.getFromAddress(),
+                sendTemplated(
+                        MessageType.EVENT_UNREGISTER,
+                        user,
                         user.getEmail(),
-                        null,
-                        null,
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_event_unregister_subject.ftl"),
-                                TemplateUtil.getModel(user, event, null, applicationProperties)),
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_event_unregister_body.ftl"),
-                                TemplateUtil.getModel(user, event, null, applicationProperties)));
+                        TemplateModels.GS_EVENT_UNREGISTER,
+                        new ModelValues(user, event, null, applicationProperties, formats(message)));
             }
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
@@ -327,20 +408,16 @@ public class MessageService {
             return;
         }
         final User user = getUser(message);
+        if (isSuppressed(user.getEmail())) {
+            return;
+        }
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
-            send(
-                    user.getId(),
-                    applicationProperties.getFromAddress(),
+            sendTemplated(
+                    MessageType.USER_SETTINGS_VERIFIED,
+                    user,
                     user.getEmail(),
-                    null,
-                    null,
-                    FreeMarkerTemplateUtils.processTemplateIntoString(
-                            freemarkerConfig.getTemplate("user_settings_verified_subject.ftl"),
-                            TemplateUtil.getModel(user, null, null, applicationProperties)),
-                    FreeMarkerTemplateUtils.processTemplateIntoString(
-                            freemarkerConfig.getTemplate("user_settings_verified_body.ftl"),
-                            TemplateUtil.getModel(user, null, null, applicationProperties)));
+                    TemplateModels.USER_SETTINGS_VERIFIED,
+                    new ModelValues(user, null, null, applicationProperties, formats(message)));
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
         }
@@ -356,20 +433,16 @@ public class MessageService {
             return;
         }
         final User user = getUser(message);
+        if (isSuppressed(user.getEmail())) {
+            return;
+        }
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
-            send(
-                    user.getId(),
-                    applicationProperties.getFromAddress(),
+            sendTemplated(
+                    MessageType.USER_SETTINGS_CHANGE,
+                    user,
                     user.getEmail(),
-                    null,
-                    null,
-                    FreeMarkerTemplateUtils.processTemplateIntoString(
-                            freemarkerConfig.getTemplate("user_verify_settings_subject.ftl"),
-                            TemplateUtil.getModel(user, null, null, applicationProperties)),
-                    FreeMarkerTemplateUtils.processTemplateIntoString(
-                            freemarkerConfig.getTemplate("user_verify_settings_body.ftl"),
-                            TemplateUtil.getModel(user, null, null, applicationProperties)));
+                    TemplateModels.USER_VERIFY_SETTINGS,
+                    new ModelValues(user, null, null, applicationProperties, formats(message)));
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
         }
@@ -387,20 +460,13 @@ public class MessageService {
         final User user = getUser(message);
         final Event event = getEvent(message);
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
             if (event.getEventType() == EventType.GROUNDSCHOOL) {
-                send(
-                        user.getId(),
-                        applicationProperties.getFromAddress(),
+                sendTemplated(
+                        MessageType.INVITE,
+                        user,
                         "", // TODO
-                        null,
-                        null,
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_invite_subject.ftl"),
-                                TemplateUtil.getModel(user, null, null, applicationProperties)),
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_invite_body.ftl"),
-                                TemplateUtil.getModel(user, null, null, applicationProperties)));
+                        TemplateModels.INVITE,
+                        new ModelValues(user, null, null, applicationProperties, formats(message)));
             }
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
@@ -417,32 +483,64 @@ public class MessageService {
             return;
         }
         final User user = getUser(message);
+        if (isSuppressed(user.getEmail())) {
+            return;
+        }
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
-            send(
-                    user.getId(),
-                    applicationProperties.getFromAddress(),
+            sendTemplated(
+                    MessageType.PASSWORD_RESET,
+                    user,
                     user.getEmail(),
-                    null,
-                    null,
-                    FreeMarkerTemplateUtils.processTemplateIntoString(
-                            freemarkerConfig.getTemplate("password_reset_subject.ftl"),
-                            TemplateUtil.getModel(user, null, null, applicationProperties)),
-                    FreeMarkerTemplateUtils.processTemplateIntoString(
-                            freemarkerConfig.getTemplate("password_reset_body.ftl"),
-                            TemplateUtil.getModel(user, null, null, applicationProperties)));
+                    TemplateModels.PASSWORD_RESET,
+                    new ModelValues(user, null, null, applicationProperties, formats(message)));
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
         }
     }
 
     /**
-     * Resends a message for user settings changed.
+     * Resends a message for user settings changed. The copy last sent to the user is replayed as it was, without
+     * looking the user up or rendering anything; when none is held any more, it is built and sent afresh.
      *
      * @param message Message
      */
     public void resendUserSettingsChangeMsg(final Message message) {
-        // Not implemented
+        if (!applicationProperties.isEnabled()) {
+            return;
+        }
+        final SentMessage sent = sentMessages.latest(message.getUserId(), MessageType.USER_SETTINGS_CHANGE.ordinal());
+        if (sent == null) {
+            sendUserSettingsChangeMsg(message);
+            return;
+        }
+        replay(sent);
+    }
+
+    /**
+     * Sends a message again exactly as it was sent.
+     *
+     * @param messageId ID the message was given when it was queued
+     * @return ResendResult
+     */
+    public ResendResult resend(final long messageId) {
+        if (!applicationProperties.isEnabled()) {
+            return ResendResult.UNAVAILABLE;
+        }
+        final SentMessage sent = sentMessages.get(messageId);
+        if (sent == null) {
+            log.info(String.format("resend() message [%d] not held", messageId));
+            return ResendResult.NOT_HELD;
+        }
+        return replay(sent);
+    }
+
+    /**
+     * Issues the ID a message will be stored under once it is sent, so it can be handed back when it is queued.
+     *
+     * @return message ID
+     */
+    public long newMessageId() {
+        return sentMessages.nextId();
     }
 
     /**
@@ -475,22 +573,18 @@ public class MessageService {
             return;
         }
         final User user = getUser(message);
+        if (isSuppressed(user.getEmail())) {
+            return;
+        }
         final Event event = getEvent(message);
         try {
-            freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
             if (event.getEventType() == EventType.GROUNDSCHOOL) {
-                send(
-                        user.getId(),
-                        applicationProperties.getFromAddress(),
+                sendTemplated(
+                        MessageType.EVENT_LAST_MIN_REGISTRATION,
+                        user,
                         user.getEmail(),
-                        null,
-                        null,
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_event_last_min_registration_subject.ftl"),
-                                TemplateUtil.getModel(user, null, null, applicationProperties)),
-                        FreeMarkerTemplateUtils.processTemplateIntoString(
-                                freemarkerConfig.getTemplate("gs_event_last_min_registration_body.ftl"),
-                                TemplateUtil.getModel(user, null, null, applicationProperties)));
+                        TemplateModels.GS_EVENT_LAST_MIN_REGISTRATION,
+                        new ModelValues(user, null, null, applicationProperties, formats(message)));
             }
         } catch (IOException | TemplateException e) {
             log.warn(e.getMessage());
@@ -506,64 +600,390 @@ public class MessageService {
         if (!applicationProperties.isEnabled()) {
             return;
         }
-        freemarkerConfig.setClassForTemplateLoading(this.getClass(), TEMPLATE_LOCATION);
+        // Not implemented
     }
 
     /**
-     * Sends an email.
+     * Starts resolving a queued message's user, event and question before it reaches a worker.
      *
+     * @param message Message
+     */
+    public void prefetch(final Message message) {
+        entityLookup.prefetch(message);
+    }
+
+    /**
+     * Time zone of the user a message is for.
+     *
+     * @param message Message
+     * @return ZoneId, the default zone when unknown
+     */
+    public ZoneId recipientZone(final Message message) {
+        return formats(message).getZone();
+    }
+
+    /**
+     * Whether an address is on the suppression list. Checked before a model is built or anything rendered.
+     *
+     * @param address address
+     * @return true if the message must not be sent
+     */
+    private boolean isSuppressed(final String address) {
+        if (!suppressionList.contains(address)) {
+            return false;
+        }
+        log.info(String.format("isSuppressed() not sending to suppressed address [%s]", address));
+        return true;
+    }
+
+    /**
+     * Renders a subject and body template pair and sends the result as the organization on the current thread.
+     *
+     * @param type           MessageType
+     * @param user           User
+     * @param toAddress      to address
+     * @param templatePrefix template name without the _subject.ftl/_body.ftl suffix
+     * @param values         what the templates may reference
+     * @throws IOException       when a template cannot be loaded
+     * @throws TemplateException when a template cannot be rendered
+     */
+    private void sendTemplated(
+            final MessageType type,
+            final User user,
+            final String toAddress,
+            final String templatePrefix,
+            final ModelValues values) throws IOException, TemplateException {
+        sendTemplated(type, user, toAddress, templatePrefix, values, null);
+    }
+
+    /**
+     * Renders a subject and body template pair and sends the result, with an attachment, as the organization on the
+     * current thread.
+     *
+     * @param type           MessageType
+     * @param user           User
+     * @param toAddress      to address
+     * @param templatePrefix template name without the _subject.ftl/_body.ftl suffix
+     * @param values         what the templates may reference
+     * @param attachment     shared attachment, may be null
+     * @throws IOException       when a template cannot be loaded
+     * @throws TemplateException when a template cannot be rendered
+     */
+    private void sendTemplated(
+            final MessageType type,
+            final User user,
+            final String toAddress,
+            final String templatePrefix,
+            final ModelValues values,
+            final Attachment attachment) throws IOException, TemplateException {
+        sendTemplated(type, user, toAddress, templatePrefix, values, attachment, null);
+    }
+
+    /**
+     * Renders a subject and body template pair and sends the result, with an attachment and a reply-to that links
+     * replies back to what the message was about, as the organization on the current thread.
+     *
+     * @param type           MessageType
+     * @param user           User
+     * @param toAddress      to address
+     * @param templatePrefix template name without the _subject.ftl/_body.ftl suffix
+     * @param values         what the templates may reference
+     * @param attachment     shared attachment, may be null
+     * @param correlation    what replies are about, null to let replies go to the from address untracked
+     * @throws IOException       when a template cannot be loaded
+     * @throws TemplateException when a template cannot be rendered
+     */
+    private void sendTemplated(
+            final MessageType type,
+            final User user,
+            final String toAddress,
+            final String templatePrefix,
+            final ModelValues values,
+            final Attachment attachment,
+            final Correlation correlation) throws IOException, TemplateException {
+        List<Attachment> attachments = Collections.emptyList();
+        if (attachment != null) {
+            attachments = Collections.singletonList(attachment);
+        }
+        final Tenant tenant = tenantConfigCache.get(TenantContext.getOrganization());
+        final String subjectTemplate = tenant.template(templatePrefix + SUBJECT_SUFFIX);
+        final String bodyTemplate = tenant.template(templatePrefix + BODY_SUFFIX);
+        final ModelBuildEvent modelEvent = new ModelBuildEvent();
+        modelEvent.begin();
+        final Object model = model(templatePrefix, subjectTemplate, bodyTemplate, values);
+        modelEvent.finish(templatePrefix, model instanceof TypedModel);
+        final String subject = renderText(subjectTemplate, model);
+        final RenderedBody body = renderBody(bodyTemplate, model);
+        String replyTo = null;
+        if (correlation != null) {
+            replyTo = replyCorrelator.replyTo(replyAddress(tenant), correlation);
+        }
+        try {
+            tenant.getRateLimiter().acquire();
+            send(
+                    type,
+                    user.getId(),
+                    tenant.getFromAddress(),
+                    replyTo,
+                    toAddress,
+                    null,
+                    null,
+                    subject,
+                    body,
+                    tenant.getSendGridApiKey(),
+                    attachments);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn(String.format("sendTemplated() interrupted; %s not sent to [%s]", templatePrefix, toAddress));
+        } finally {
+            templateRenderer.release(body);
+        }
+    }
+
+    /**
+     * Model for a template pair: its generated model when the built-in templates are used, so only what they
+     * reference is computed; otherwise, for organization overrides and templates loaded from the external directory,
+     * a map of every value, since they may reference anything.
+     *
+     * @param templatePrefix  template name without the _subject.ftl/_body.ftl suffix
+     * @param subjectTemplate subject template used
+     * @param bodyTemplate    body template used
+     * @param values          ModelValues
+     * @return model
+     */
+    private Object model(final String templatePrefix,
+                         final String subjectTemplate,
+                         final String bodyTemplate,
+                         final ModelValues values) {
+        if (subjectTemplate.equals(templatePrefix + SUBJECT_SUFFIX)
+                && bodyTemplate.equals(templatePrefix + BODY_SUFFIX)
+                && !templateRenderer.isExternal(subjectTemplate)
+                && !templateRenderer.isExternal(bodyTemplate)) {
+            final TypedModel typed = TemplateModels.create(templatePrefix, values);
+            if (typed != null) {
+                return typed;
+            }
+        }
+        return values.toMap();
+    }
+
+    /**
+     * Renders a subject template, recording a flight recorder event.
+     *
+     * @param templateName template name
+     * @param model        model
+     * @return rendered text
+     * @throws IOException       when the template cannot be loaded
+     * @throws TemplateException when the template cannot be rendered
+     */
+    private String renderText(final String templateName, final Object model) throws IOException, TemplateException {
+        final TemplateRenderEvent event = new TemplateRenderEvent();
+        event.begin();
+        String outcome = FAILURE;
+        long size = 0;
+        try {
+            final String text = templateRenderer.renderText(templateName, model);
+            size = text.length();
+            outcome = SUCCESS;
+            return text;
+        } finally {
+            event.finish(templateName, size, outcome);
+        }
+    }
+
+    /**
+     * Renders a body template, recording a flight recorder event.
+     *
+     * @param templateName template name
+     * @param model        model
+     * @return RenderedBody
+     * @throws IOException       when the template cannot be loaded
+     * @throws TemplateException when the template cannot be rendered
+     */
+    private RenderedBody renderBody(final String templateName, final Object model)
+            throws IOException, TemplateException {
+        final TemplateRenderEvent event = new TemplateRenderEvent();
+        event.begin();
+        String outcome = FAILURE;
+        long size = 0;
+        try {
+            final RenderedBody body = templateRenderer.renderBody(templateName, model);
+            size = body.getHtml().size() + body.getText().size();
+            outcome = SUCCESS;
+            return body;
+        } finally {
+            event.finish(templateName, size, outcome);
+        }
+    }
+
+    /**
+     * Hands a message to the mail transport, recording a flight recorder event.
+     *
+     * @param type message type, or RESEND
+     * @param mail OutboundMail
+     * @throws TransportException when the message could not be sent
+     */
+    private void transportSend(final String type, final OutboundMail mail) throws TransportException {
+        final TransportCallEvent event = new TransportCallEvent();
+        event.begin();
+        String outcome = FAILURE;
+        try {
+            mailTransport.send(mail);
+            outcome = SUCCESS;
+        } finally {
+            event.finish(type, size(mail), mail.getAttachments().size(), outcome);
+        }
+    }
+
+    /**
+     * Size of a message's HTML and plain text.
+     *
+     * @param mail OutboundMail
+     * @return bytes
+     */
+    private static long size(final OutboundMail mail) {
+        if (mail.getText() == null) {
+            return mail.getBody().size();
+        }
+        return mail.getBody().size() + mail.getText().size();
+    }
+
+    /**
+     * Sends an email and keeps a copy of it for resends.
+     *
+     * @param type        MessageType
      * @param userId      user ID
      * @param fromAddress from address
+     * @param replyTo     reply-to address, may be null
      * @param toAddress   to address
      * @param ccAddress   cc address
      * @param bccAddress  bcc address
      * @param subject     subject
-     * @param body        body
+     * @param body        HTML body and plain text alternative
+     * @param apiKey      SendGrid API key
+     * @param attachments attachments
+     * @throws TransportException when no provider accepted the message and it may be accepted later
      */
     private void send(
+            final MessageType type,
             final Long userId,
             final String fromAddress,
+            final String replyTo,
             final String toAddress,
             final String ccAddress,
             final String bccAddress,
             final String subject,
-            final String body) {
-        final String msg = String.format(
-                "Sending... fromAddress [%s]; toAddress [%s]; ccAddress [%s]; bccAddress [%s]; subject [%s]; body [%s]",
+            final RenderedBody body,
+            final String apiKey,
+            final List<Attachment> attachments) {
+        if (log.isInfoEnabled()) {
+            log.info(String.format(
+                    "Sending... fromAddress [%s]; replyTo [%s]; toAddress [%s]; ccAddress [%s]; bccAddress [%s]; "
+                            + "subject [%s]; body [%d bytes]; text [%d bytes]",
+                    fromAddress,
+                    replyTo,
+                    toAddress,
+                    ccAddress,
+                    bccAddress,
+                    subject,
+                    body.getHtml().size(),
+                    body.getText().size()));
+        }
+        final OutboundMail mail = new OutboundMail(
                 fromAddress,
+                replyTo,
                 toAddress,
-                ccAddress,
-                bccAddress,
                 subject,
-                body);
-        log.info(msg);
+                body.getHtml(),
+                body.getText(),
+                apiKey,
+                attachments);
+        try {
+            transportSend(type.name(), mail);
+        } catch (TransportException ex) {
+            if (!ex.isPermanent()) {
+                throw ex;
+            }
+            log.error(String.format("send() %s to [%s] refused: %s", type, toAddress, ex.getMessage()));
+            return;
+        }
+        DispatchContext.markAccepted();
+        long messageId = DispatchContext.claimMessageId();
+        if (messageId <= 0) {
+            messageId = sentMessages.nextId();
+        }
+        sentMessages.put(messageId, userId, type.ordinal(), TenantContext.getOrganization(), mail);
+        log.info(String.format("send() %s to [%s] kept as message [%d]", type, toAddress, messageId));
+    }
+
+    /**
+     * Sends a stored message again, as the organization it was first sent for.
+     *
+     * @param sent SentMessage
+     * @return ResendResult
+     */
+    private ResendResult replay(final SentMessage sent) {
+        if (isSuppressed(sent.getToAddress())) {
+            return ResendResult.SUPPRESSED;
+        }
+        final Tenant tenant = tenantConfigCache.get(sent.getOrganization());
         try {
-            final Email from = new Email(fromAddress);
-            final Email to = new Email(toAddress);
-            final Content content = new Content("text/html", body);
-            final Mail mail = new Mail(from, subject, to, content);
-
-            final SendGrid sg = new SendGrid(applicationProperties.getSendGridApiKey());
-            final Request request = new Request();
-            request.setMethod(Method.POST);
-            request.setEndpoint("mail/send");
-            request.setBody(mail.build());
-            sg.api(request);
-        } catch (IOException ex) {
+            tenant.getRateLimiter().acquire();
+            transportSend(RESEND, sent.toMail(tenant.getSendGridApiKey()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn(String.format("replay() interrupted; message [%d] not resent", sent.getId()));
+            return ResendResult.UNAVAILABLE;
+        } catch (TransportException ex) {
             log.error(ex.getMessage());
+            if (ex.isPermanent()) {
+                return ResendResult.REFUSED;
+            }
+            return ResendResult.UNAVAILABLE;
+        }
+        DispatchContext.markAccepted();
+        log.info(String.format("replay() message [%d] resent to [%s]; subject [%s]",
+                sent.getId(), sent.getToAddress(), sent.getSubject()));
+        return ResendResult.RESENT;
+    }
+
+    /**
+     * Address replies go to before a correlation token is added.
+     *
+     * @param tenant Tenant
+     * @return configured reply address, else the organization's from address
+     */
+    private String replyAddress(final Tenant tenant) {
+        if (applicationProperties.getReplyAddress() != null) {
+            return applicationProperties.getReplyAddress();
         }
+        return tenant.getFromAddress();
+    }
+
+    /**
+     * Date and time formats in the zone and locale of the user a message is for.
+     *
+     * @param message Message
+     * @return RecipientFormats
+     */
+    private RecipientFormats formats(final Message message) {
+        final RecipientLocale recipient = entityLookup.getRecipientLocale(message);
+        if (recipient == null) {
+            return formatterCache.defaults();
+        }
+        return formatterCache.get(recipient.getTimeZone(), recipient.getLocale());
     }
 
     private Event getEvent(final Message message) {
-        return null;
+        return entityLookup.getEvent(message);
     }
 
     private User getUser(final Message message) {
-        return null;
+        return entityLookup.getUser(message);
     }
 
     private Question getQuestion(final Message message) {
-        return null;
+        return entityLookup.getQuestion(message);
     }
 
 }
@@ -0,0 +1,157 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.service;
+
+import com.starfireaviation.model.Message;
+
+import java.util.function.BiConsumer;
+
+/**
+ * MessageType.
+ */
+public enum MessageType {
+
+    /**
+     * User deleted.
+     */
+    USER_DELETE(MessageService::sendUserDeleteMsg),
+
+    /**
+     * Quiz completed.
+     */
+    QUIZ_COMPLETE(MessageService::sendQuizCompleteMsg),
+
+    /**
+     * RSVP for an upcoming event.
+     */
+    EVENT_RSVP(MessageService::sendEventRSVPMsg, true),
+
+    /**
+     * Upcoming event.
+     */
+    EVENT_UPCOMING(MessageService::sendEventUpcomingMsg, true),
+
+    /**
+     * Event started.
+     */
+    EVENT_START(MessageService::sendEventStartMsg),
+
+    /**
+     * Question asked.
+     */
+    QUESTION_ASKED(MessageService::sendQuestionAskedMsg),
+
+    /**
+     * Registered for an event.
+     */
+    EVENT_REGISTER(MessageService::sendEventRegisterMsg),
+
+    /**
+     * Unregistered from an event.
+     */
+    EVENT_UNREGISTER(MessageService::sendEventUnregisterMsg),
+
+    /**
+     * User settings verified.
+     */
+    USER_SETTINGS_VERIFIED(MessageService::sendUserSettingsVerifiedMsg),
+
+    /**
+     * User settings changed.
+     */
+    USER_SETTINGS_CHANGE(MessageService::sendUserSettingsChangeMsg),
+
+    /**
+     * Invitation.
+     */
+    INVITE(MessageService::sendInviteMsg),
+
+    /**
+     * Password reset.
+     */
+    PASSWORD_RESET(MessageService::sendPasswordResetMsg),
+
+    /**
+     * Resend of user settings changed.
+     */
+    RESEND_USER_SETTINGS_CHANGE(MessageService::resendUserSettingsChangeMsg),
+
+    /**
+     * Display information.
+     */
+    DISPLAY(MessageService::sendDisplayMsg),
+
+    /**
+     * Last minute registration/RSVP for an upcoming event.
+     */
+    EVENT_LAST_MIN_REGISTRATION(MessageService::sendEventLastMinRegistrationMsg),
+
+    /**
+     * Event completed.
+     */
+    EVENT_COMPLETED(MessageService::sendEventCompletedMsg, true);
+
+    /**
+     * MessageService method handling this type.
+     */
+    private final BiConsumer<MessageService, Message> handler;
+
+    /**
+     * Whether delivery can wait until the recipient's quiet hours are over.
+     */
+    private final boolean deferrable;
+
+    /**
+     * MessageType, delivered as soon as it is sent.
+     *
+     * @param aHandler MessageService method
+     */
+    MessageType(final BiConsumer<MessageService, Message> aHandler) {
+        this(aHandler, false);
+    }
+
+    /**
+     * MessageType.
+     *
+     * @param aHandler  MessageService method
+     * @param canBeHeld whether delivery can wait until the recipient's quiet hours are over
+     */
+    MessageType(final BiConsumer<MessageService, Message> aHandler, final boolean canBeHeld) {
+        handler = aHandler;
+        deferrable = canBeHeld;
+    }
+
+    /**
+     * Whether delivery can wait until the recipient's quiet hours are over.
+     *
+     * @return true for reminders and follow-ups, false for anything the recipient is waiting on
+     */
+    public boolean isDeferrable() {
+        return deferrable;
+    }
+
+    /**
+     * Hands a message to the MessageService method for this type.
+     *
+     * @param messageService MessageService
+     * @param message        Message
+     */
+    public void dispatch(final MessageService messageService, final Message message) {
+        handler.accept(messageService, message);
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.service;
+
+/**
+ * Time zone and locale a recipient reads their mail in, as given by the upstream service.
+ */
+public final class RecipientLocale {
+
+    /**
+     * IANA time zone id, may be null.
+     */
+    private final String timeZone;
+
+    /**
+     * BCP 47 language tag, may be null.
+     */
+    private final String locale;
+
+    /**
+     * RecipientLocale.
+     *
+     * @param zone        IANA time zone id, may be null
+     * @param languageTag BCP 47 language tag, may be null
+     */
+    public RecipientLocale(final String zone, final String languageTag) {
+        timeZone = zone;
+        locale = languageTag;
+    }
+
+    /**
+     * IANA time zone id.
+     *
+     * @return zone id, null when unknown
+     */
+    public String getTimeZone() {
+        return timeZone;
+    }
+
+    /**
+     * BCP 47 language tag.
+     *
+     * @return language tag, null when unknown
+     */
+    public String getLocale() {
+        return locale;
+    }
+
+}
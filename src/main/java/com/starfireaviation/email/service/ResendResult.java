@@ -0,0 +1,51 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.service;
+
+/**
+ * ResendResult.
+ *
+ * <p>Outcome of sending a stored message again.</p>
+ */
+public enum ResendResult {
+
+    /**
+     * Accepted by a provider.
+     */
+    RESENT,
+
+    /**
+     * Never stored, or dropped since.
+     */
+    NOT_HELD,
+
+    /**
+     * The recipient is on the suppression list.
+     */
+    SUPPRESSED,
+
+    /**
+     * A provider refused the message itself, so no provider will accept it.
+     */
+    REFUSED,
+
+    /**
+     * Sending is disabled or no provider could take the message right now.
+     */
+    UNAVAILABLE
+
+}
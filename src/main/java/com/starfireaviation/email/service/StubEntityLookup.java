@@ -0,0 +1,53 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.service;
+
+import com.starfireaviation.model.Event;
+import com.starfireaviation.model.Message;
+import com.starfireaviation.model.Question;
+import com.starfireaviation.model.User;
+
+/**
+ * EntityLookup used until upstream lookups are wired up; resolves nothing.
+ */
+public class StubEntityLookup implements EntityLookup {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public User getUser(final Message message) {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event getEvent(final Message message) {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Question getQuestion(final Message message) {
+        return null;
+    }
+
+}
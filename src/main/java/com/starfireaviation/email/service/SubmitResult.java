@@ -0,0 +1,41 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.service;
+
+/**
+ * SubmitResult.
+ *
+ * <p>Outcome of handing a message to the {@link MessageDispatcher}.</p>
+ */
+public enum SubmitResult {
+
+    /**
+     * Queued.
+     */
+    ACCEPTED,
+
+    /**
+     * Turned away because the queue stayed full for the whole enqueue timeout.
+     */
+    QUEUE_FULL,
+
+    /**
+     * Turned away because the dispatcher is stopped or stopping.
+     */
+    SHUTTING_DOWN
+
+}
@@ -0,0 +1,198 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.suppression;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SuppressionJournal.
+ *
+ * <p>Shares suppressions between replicas through a directory on the shared cluster volume. Each replica appends the
+ * changes it makes to a journal of its own, {@code <slot>.log}, and is its only writer; every replica reads the
+ * others' journals from where it last stopped and applies what it finds to its local list. Changes to one address
+ * made on two replicas at once may be applied in different orders; suppressing is only ever undone by hand. Records are
+ * fixed length and applied only when whole, so a journal being written is read up to its last complete record.</p>
+ *
+ * <p>Journals only ever grow, by {@value #RECORD_BYTES} bytes per change, and a replica starting in a slot that was
+ * held before appends to its predecessor's journal, so there are never more journals than slots.</p>
+ *
+ * <p>Record layout: operation, then the fingerprint.</p>
+ */
+@Slf4j
+public class SuppressionJournal {
+
+    /**
+     * Record length.
+     */
+    static final int RECORD_BYTES = 1 + Long.BYTES;
+
+    /**
+     * Operation adding a fingerprint.
+     */
+    static final byte ADD = 1;
+
+    /**
+     * Operation removing a fingerprint.
+     */
+    static final byte REMOVE = 2;
+
+    /**
+     * Journal file suffix.
+     */
+    private static final String JOURNAL_SUFFIX = ".log";
+
+    /**
+     * Records read per read call.
+     */
+    private static final int RECORDS_PER_READ = 4096;
+
+    /**
+     * Shared directory.
+     */
+    private final Path directory;
+
+    /**
+     * This replica's journal file.
+     */
+    private final Path own;
+
+    /**
+     * This replica's journal.
+     */
+    private final FileChannel journal;
+
+    /**
+     * Bytes applied from each journal.
+     */
+    private final Map<Path, Long> applied = new HashMap<>();
+
+    /**
+     * Opens this replica's journal, creating the directory and journal if they do not exist.
+     *
+     * @param dir  shared directory
+     * @param slot this replica's slot
+     * @throws IOException when the journal cannot be opened
+     */
+    public SuppressionJournal(final Path dir, final int slot) throws IOException {
+        directory = Files.createDirectories(dir);
+        own = dir.resolve(slot + JOURNAL_SUFFIX);
+        journal = FileChannel.open(own,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Appends a change to this replica's journal and forces it out, so other replicas see it on their next read.
+     * Callers hold the list's lock, which orders appends; the journal's own lock is only taken by readers, which then
+     * take the list's, so taking it here could deadlock.
+     *
+     * @param operation   ADD or REMOVE
+     * @param fingerprint fingerprint
+     * @throws IOException when the journal cannot be written
+     */
+    void append(final byte operation, final long fingerprint) throws IOException {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        record.put(operation).putLong(fingerprint).flip();
+        while (record.hasRemaining()) {
+            journal.write(record);
+        }
+        journal.force(false);
+    }
+
+    /**
+     * Applies the records appended to any journal since the last call. This replica's own journal is only read the
+     * first time, for what a previous holder of the slot wrote; its own changes are applied as they are made.
+     *
+     * @param list list to apply them to
+     * @return records applied
+     * @throws IOException when the directory cannot be listed
+     */
+    synchronized int replay(final SuppressionList list) throws IOException {
+        int records = 0;
+        try (DirectoryStream<Path> journals = Files.newDirectoryStream(directory, "*" + JOURNAL_SUFFIX)) {
+            for (Path file : journals) {
+                if (!file.equals(own) || !applied.containsKey(own)) {
+                    records += replay(file, list);
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Closes this replica's journal.
+     */
+    public void close() {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn(String.format("close() %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Applies the complete records of one journal past the bytes already applied.
+     *
+     * @param file journal
+     * @param list list to apply them to
+     * @return records applied
+     */
+    private int replay(final Path file, final SuppressionList list) {
+        long position = applied.getOrDefault(file, 0L);
+        int records = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES * RECORDS_PER_READ)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            long complete = position + (channel.size() - position) / RECORD_BYTES * RECORD_BYTES;
+            while (position < complete) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), complete - position));
+                int read = 0;
+                while (buffer.hasRemaining() && read >= 0) {
+                    read = channel.read(buffer, position + buffer.position());
+                }
+                if (buffer.hasRemaining()) {
+                    complete = position + buffer.position() / RECORD_BYTES * RECORD_BYTES;
+                }
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_BYTES) {
+                    list.apply(buffer.get(), buffer.getLong());
+                    position += RECORD_BYTES;
+                    records++;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            log.warn(String.format("replay() [%s] stopped at byte %d: %s", file, position, e.getMessage()));
+        }
+        applied.put(file, position);
+        return records;
+    }
+
+}
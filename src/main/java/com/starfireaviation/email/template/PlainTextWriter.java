@@ -0,0 +1,767 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * PlainTextWriter.
+ *
+ * <p>Streaming, single-pass HTML to plain text converter. HTML written to it is converted as it arrives and the text
+ * is UTF-8 encoded into a {@link RenderBuffer}: tags are dropped, block elements become line breaks, list items get
+ * a bullet, links keep their target after the label, entities are decoded, whitespace is collapsed and the contents
+ * of head, style and script elements are skipped.</p>
+ *
+ * <p>A whole char array written at once is taken to be a static template chunk. When it starts outside of any tag,
+ * its text is looked up in, or added to, a {@link StaticTextCache}, so static template text is converted once no
+ * matter how often the template is rendered. Instances are used for one render and are not thread safe.</p>
+ */
+final class PlainTextWriter extends Writer {
+
+    /**
+     * Blank lines are never more than this many line breaks.
+     */
+    private static final int MAX_BREAKS = 2;
+
+    /**
+     * State bits holding the number of line breaks already written.
+     */
+    private static final int TRAILING_MASK = 0x3;
+
+    /**
+     * Shift of the state bits holding the number of line breaks owed.
+     */
+    private static final int PENDING_SHIFT = 2;
+
+    /**
+     * State bit set when a space is owed.
+     */
+    private static final int SPACE_BIT = 0x10;
+
+    /**
+     * State bit set when a list bullet is owed.
+     */
+    private static final int BULLET_BIT = 0x20;
+
+    /**
+     * State bit set once any text has been written.
+     */
+    private static final int EMITTED_BIT = 0x40;
+
+    /**
+     * Longest entity name or number.
+     */
+    private static final int MAX_ENTITY = 10;
+
+    /**
+     * Radix of hexadecimal character references.
+     */
+    private static final int HEX = 16;
+
+    /**
+     * Non-breaking space.
+     */
+    private static final char NBSP = '\u00A0';
+
+    /**
+     * Elements followed by a blank line.
+     */
+    private static final Set<String> PARAGRAPHS = new HashSet<>(Arrays.asList(
+            "p", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "table", "blockquote", "hr", "pre"));
+
+    /**
+     * Elements that start a new line.
+     */
+    private static final Set<String> LINES = new HashSet<>(Arrays.asList(
+            "div", "tr", "li", "dt", "dd", "dl", "section", "article", "header", "footer", "form", "title"));
+
+    /**
+     * Elements whose contents are not text.
+     */
+    private static final Set<String> SKIPPED = new HashSet<>(Arrays.asList("head", "style", "script"));
+
+    /**
+     * Parser states.
+     */
+    private enum Mode {
+
+        /**
+         * Text content.
+         */
+        TEXT,
+
+        /**
+         * After '&amp;'.
+         */
+        ENTITY,
+
+        /**
+         * After '&lt;', before the tag name.
+         */
+        TAG_OPEN,
+
+        /**
+         * Tag name.
+         */
+        TAG_NAME,
+
+        /**
+         * Inside a tag, between attributes.
+         */
+        TAG_BODY,
+
+        /**
+         * Attribute name.
+         */
+        ATTR_NAME,
+
+        /**
+         * After an attribute name.
+         */
+        ATTR_AFTER_NAME,
+
+        /**
+         * After '='.
+         */
+        ATTR_VALUE_START,
+
+        /**
+         * Attribute value.
+         */
+        ATTR_VALUE,
+
+        /**
+         * After '&lt;!'.
+         */
+        DECLARATION,
+
+        /**
+         * Inside a comment.
+         */
+        COMMENT
+    }
+
+    /**
+     * Text buffer.
+     */
+    private final RenderBuffer out;
+
+    /**
+     * Writer encoding into the text buffer.
+     */
+    private final Writer encoder;
+
+    /**
+     * Converted static chunks, null to convert everything.
+     */
+    private final StaticTextCache cache;
+
+    /**
+     * Tag name, or the start of a declaration.
+     */
+    private final StringBuilder tagName = new StringBuilder();
+
+    /**
+     * Attribute name.
+     */
+    private final StringBuilder attrName = new StringBuilder();
+
+    /**
+     * Attribute value.
+     */
+    private final StringBuilder attrValue = new StringBuilder();
+
+    /**
+     * Entity name or number.
+     */
+    private final StringBuilder entity = new StringBuilder();
+
+    /**
+     * Parser state.
+     */
+    private Mode mode = Mode.TEXT;
+
+    /**
+     * Whether the current tag is a closing tag.
+     */
+    private boolean closing;
+
+    /**
+     * Quote around the current attribute value, 0 when unquoted.
+     */
+    private char quote;
+
+    /**
+     * Dashes seen in a row inside a comment.
+     */
+    private int dashes;
+
+    /**
+     * href of the current tag.
+     */
+    private String tagHref;
+
+    /**
+     * Target of the open link, written after its label.
+     */
+    private String href;
+
+    /**
+     * Element whose contents are being skipped.
+     */
+    private String skipping;
+
+    /**
+     * Line breaks written in a row, up to {@link #MAX_BREAKS}.
+     */
+    private int trailingBreaks;
+
+    /**
+     * Line breaks owed before the next text.
+     */
+    private int pendingBreaks;
+
+    /**
+     * Whether a space is owed before the next text.
+     */
+    private boolean pendingSpace;
+
+    /**
+     * Whether a list bullet is owed before the next text.
+     */
+    private boolean pendingBullet;
+
+    /**
+     * Whether any text has been written.
+     */
+    private boolean emitted;
+
+    /**
+     * PlainTextWriter.
+     *
+     * @param text        buffer the text is encoded into
+     * @param staticCache converted static chunks, null to convert everything
+     */
+    PlainTextWriter(final RenderBuffer text, final StaticTextCache staticCache) {
+        out = text;
+        encoder = text.asWriter();
+        cache = staticCache;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final int c) {
+        convert((char) c);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) {
+        if (cache == null || off != 0 || len != cbuf.length || !isReusable()) {
+            convert(cbuf, off, len);
+            return;
+        }
+        final int state = state();
+        final StaticTextCache.Converted converted = cache.get(cbuf, state);
+        if (converted == StaticTextCache.UNCACHEABLE) {
+            convert(cbuf, off, len);
+        } else if (converted != null) {
+            out.append(converted.getText());
+            restore(converted.getEndState());
+        } else {
+            final int start = out.size();
+            convert(cbuf, off, len);
+            if (isReusable()) {
+                cache.put(cbuf, state, new StaticTextCache.Converted(
+                        Arrays.copyOfRange(out.array(), start, out.size()), state()));
+            } else {
+                cache.put(cbuf, state, StaticTextCache.UNCACHEABLE);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final String str, final int off, final int len) {
+        for (int i = off; i < off + len; i++) {
+            convert(str.charAt(i));
+        }
+    }
+
+    /**
+     * Ends the text with a single line break.
+     */
+    public void finish() {
+        if (mode == Mode.ENTITY) {
+            flushEntity();
+        }
+        if (emitted && trailingBreaks == 0) {
+            put('\n');
+        }
+        mode = Mode.TEXT;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() {
+        // Text is encoded straight into the buffer
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        // The buffer belongs to the caller
+    }
+
+    /**
+     * Converts a run of characters.
+     *
+     * @param cbuf characters
+     * @param off  offset
+     * @param len  length
+     */
+    private void convert(final char[] cbuf, final int off, final int len) {
+        for (int i = off; i < off + len; i++) {
+            convert(cbuf[i]);
+        }
+    }
+
+    /**
+     * Converts one character.
+     *
+     * @param c character
+     */
+    private void convert(final char c) {
+        switch (mode) {
+            case TEXT:
+                if (c == '<') {
+                    mode = Mode.TAG_OPEN;
+                } else if (c == '&') {
+                    entity.setLength(0);
+                    mode = Mode.ENTITY;
+                } else {
+                    text(c);
+                }
+                break;
+            case ENTITY:
+                entity(c);
+                break;
+            case TAG_OPEN:
+                tagOpen(c);
+                break;
+            case TAG_NAME:
+                if (c == '>') {
+                    endTag();
+                } else if (Character.isWhitespace(c) || c == '/') {
+                    mode = Mode.TAG_BODY;
+                } else {
+                    tagName.append(Character.toLowerCase(c));
+                }
+                break;
+            case TAG_BODY:
+                if (c == '>') {
+                    endTag();
+                } else if (!Character.isWhitespace(c) && c != '/') {
+                    attrName.setLength(0);
+                    attrName.append(c);
+                    mode = Mode.ATTR_NAME;
+                }
+                break;
+            case ATTR_NAME:
+                attrName(c);
+                break;
+            case ATTR_AFTER_NAME:
+                if (c == '=') {
+                    mode = Mode.ATTR_VALUE_START;
+                } else if (c == '>') {
+                    endTag();
+                } else if (!Character.isWhitespace(c)) {
+                    attrName.setLength(0);
+                    attrName.append(c);
+                    mode = Mode.ATTR_NAME;
+                }
+                break;
+            case ATTR_VALUE_START:
+                attrValueStart(c);
+                break;
+            case ATTR_VALUE:
+                attrValue(c);
+                break;
+            case DECLARATION:
+                declaration(c);
+                break;
+            default:
+                comment(c);
+                break;
+        }
+    }
+
+    /**
+     * Handles the character after '&lt;'.
+     *
+     * @param c character
+     */
+    private void tagOpen(final char c) {
+        tagName.setLength(0);
+        tagHref = null;
+        closing = false;
+        if (c == '/') {
+            closing = true;
+            mode = Mode.TAG_NAME;
+        } else if (c == '!') {
+            mode = Mode.DECLARATION;
+        } else if (Character.isLetter(c)) {
+            tagName.append(Character.toLowerCase(c));
+            mode = Mode.TAG_NAME;
+        } else {
+            mode = Mode.TEXT;
+            text('<');
+            convert(c);
+        }
+    }
+
+    /**
+     * Handles an attribute name character.
+     *
+     * @param c character
+     */
+    private void attrName(final char c) {
+        if (c == '=') {
+            mode = Mode.ATTR_VALUE_START;
+        } else if (c == '>') {
+            endTag();
+        } else if (Character.isWhitespace(c)) {
+            mode = Mode.ATTR_AFTER_NAME;
+        } else {
+            attrName.append(c);
+        }
+    }
+
+    /**
+     * Handles the character after '='.
+     *
+     * @param c character
+     */
+    private void attrValueStart(final char c) {
+        attrValue.setLength(0);
+        if (c == '"' || c == '\'') {
+            quote = c;
+            mode = Mode.ATTR_VALUE;
+        } else if (c == '>') {
+            endTag();
+        } else if (!Character.isWhitespace(c)) {
+            quote = 0;
+            attrValue.append(c);
+            mode = Mode.ATTR_VALUE;
+        }
+    }
+
+    /**
+     * Handles an attribute value character.
+     *
+     * @param c character
+     */
+    private void attrValue(final char c) {
+        if ((quote != 0 && c == quote) || (quote == 0 && Character.isWhitespace(c))) {
+            endAttribute();
+            mode = Mode.TAG_BODY;
+        } else if (quote == 0 && c == '>') {
+            endAttribute();
+            endTag();
+        } else {
+            attrValue.append(c);
+        }
+    }
+
+    /**
+     * Keeps the value of an href attribute.
+     */
+    private void endAttribute() {
+        if ("href".equalsIgnoreCase(attrName.toString())) {
+            tagHref = attrValue.toString().trim().replace("&amp;", "&");
+        }
+    }
+
+    /**
+     * Handles a character after '&lt;!'; comments are told apart from other declarations by their dashes.
+     *
+     * @param c character
+     */
+    private void declaration(final char c) {
+        if (c == '>') {
+            mode = Mode.TEXT;
+            return;
+        }
+        tagName.append(c);
+        if (tagName.length() == 2 && "--".contentEquals(tagName)) {
+            dashes = 0;
+            mode = Mode.COMMENT;
+        }
+    }
+
+    /**
+     * Handles a comment character.
+     *
+     * @param c character
+     */
+    private void comment(final char c) {
+        if (c == '-') {
+            dashes++;
+        } else if (c == '>' && dashes >= 2) {
+            mode = Mode.TEXT;
+        } else {
+            dashes = 0;
+        }
+    }
+
+    /**
+     * Handles a character after '&amp;'.
+     *
+     * @param c character
+     */
+    private void entity(final char c) {
+        if (c == ';') {
+            mode = Mode.TEXT;
+            decodeEntity();
+        } else if ((Character.isLetterOrDigit(c) || c == '#') && entity.length() < MAX_ENTITY) {
+            entity.append(c);
+        } else {
+            flushEntity();
+            convert(c);
+        }
+    }
+
+    /**
+     * Writes an unterminated entity as it was.
+     */
+    private void flushEntity() {
+        mode = Mode.TEXT;
+        text('&');
+        for (int i = 0; i < entity.length(); i++) {
+            text(entity.charAt(i));
+        }
+    }
+
+    /**
+     * Writes the character an entity stands for.
+     */
+    private void decodeEntity() {
+        final String name = entity.toString();
+        switch (name) {
+            case "amp":
+                text('&');
+                return;
+            case "lt":
+                text('<');
+                return;
+            case "gt":
+                text('>');
+                return;
+            case "quot":
+                text('"');
+                return;
+            case "apos":
+                text('\'');
+                return;
+            case "nbsp":
+                text(' ');
+                return;
+            default:
+                break;
+        }
+        int codePoint = -1;
+        try {
+            if (name.startsWith("#x") || name.startsWith("#X")) {
+                codePoint = Integer.parseInt(name.substring(2), HEX);
+            } else if (name.startsWith("#")) {
+                codePoint = Integer.parseInt(name.substring(1));
+            }
+        } catch (NumberFormatException e) {
+            codePoint = -1;
+        }
+        if (codePoint < 0 || !Character.isValidCodePoint(codePoint)) {
+            flushEntity();
+            text(';');
+            return;
+        }
+        for (char c : Character.toChars(codePoint)) {
+            text(c);
+        }
+    }
+
+    /**
+     * Applies the end of a tag.
+     */
+    private void endTag() {
+        mode = Mode.TEXT;
+        final String name = tagName.toString();
+        if (skipping != null) {
+            if (closing && name.equals(skipping)) {
+                skipping = null;
+            }
+            return;
+        }
+        if (!closing && SKIPPED.contains(name)) {
+            skipping = name;
+        } else if (PARAGRAPHS.contains(name)) {
+            pendingBreaks = MAX_BREAKS;
+        } else if (LINES.contains(name)) {
+            pendingBreaks = Math.max(pendingBreaks, 1);
+            if (!closing && "li".equals(name)) {
+                pendingBullet = true;
+            }
+        } else if ("br".equals(name)) {
+            put('\n');
+        } else if ("td".equals(name) || "th".equals(name)) {
+            pendingSpace = true;
+        } else if ("a".equals(name)) {
+            link();
+        }
+    }
+
+    /**
+     * Opens a link, or writes the target of the open one after its label.
+     */
+    private void link() {
+        if (!closing) {
+            href = tagHref;
+            return;
+        }
+        final String target = href;
+        href = null;
+        if (target == null || target.isEmpty() || target.startsWith("#")) {
+            return;
+        }
+        pendingSpace = true;
+        text('(');
+        for (int i = 0; i < target.length(); i++) {
+            text(target.charAt(i));
+        }
+        text(')');
+    }
+
+    /**
+     * Writes a text character, collapsing whitespace and paying owed breaks, spaces and bullets first.
+     *
+     * @param c character
+     */
+    private void text(final char c) {
+        if (skipping != null) {
+            return;
+        }
+        if (Character.isWhitespace(c) || c == NBSP) {
+            pendingSpace = true;
+            return;
+        }
+        if (emitted) {
+            for (int i = trailingBreaks; i < pendingBreaks; i++) {
+                put('\n');
+            }
+            if (pendingSpace && trailingBreaks == 0) {
+                put(' ');
+            }
+        }
+        if (pendingBullet) {
+            put('-');
+            put(' ');
+        }
+        put(c);
+        emitted = true;
+        trailingBreaks = 0;
+        pendingBreaks = 0;
+        pendingSpace = false;
+        pendingBullet = false;
+    }
+
+    /**
+     * Encodes one character of output.
+     *
+     * @param c character
+     */
+    private void put(final char c) {
+        try {
+            encoder.write(c);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (c == '\n') {
+            trailingBreaks = Math.min(trailingBreaks + 1, MAX_BREAKS);
+            pendingSpace = false;
+        } else {
+            trailingBreaks = 0;
+        }
+    }
+
+    /**
+     * Whether the converter is between tags, outside any link or skipped element, so that the text of what follows
+     * depends only on {@link #state()}.
+     *
+     * @return true if reusable
+     */
+    private boolean isReusable() {
+        return mode == Mode.TEXT && href == null && skipping == null;
+    }
+
+    /**
+     * Whitespace state, packed into an index below {@link StaticTextCache#STATES}.
+     *
+     * @return state
+     */
+    private int state() {
+        int state = trailingBreaks | (pendingBreaks << PENDING_SHIFT);
+        if (pendingSpace) {
+            state |= SPACE_BIT;
+        }
+        if (pendingBullet) {
+            state |= BULLET_BIT;
+        }
+        if (emitted) {
+            state |= EMITTED_BIT;
+        }
+        return state;
+    }
+
+    /**
+     * Restores the whitespace state.
+     *
+     * @param state state from {@link #state()}
+     */
+    private void restore(final int state) {
+        trailingBreaks = state & TRAILING_MASK;
+        pendingBreaks = (state >> PENDING_SHIFT) & TRAILING_MASK;
+        pendingSpace = (state & SPACE_BIT) != 0;
+        pendingBullet = (state & BULLET_BIT) != 0;
+        emitted = (state & EMITTED_BIT) != 0;
+    }
+
+}
@@ -0,0 +1,389 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * RenderBuffer.
+ *
+ * <p>Growable UTF-8 byte buffer that templates render into. The writer returned by {@link #asWriter()} encodes
+ * characters straight into the buffer, so a render never goes through an intermediate String. Instances are
+ * reused through {@link RenderBufferPool} and are not thread safe.</p>
+ *
+ * <p>An unpaired surrogate is written as U+FFFD, including a high surrogate still waiting for its low half when the
+ * text ends, which is either when raw bytes are written next or when {@link #finish()} is called.</p>
+ *
+ * <p>A {@link #shared(byte[])} buffer is a read-only view of contents that never change, such as a cached render,
+ * and may be handed to any number of messages at once.</p>
+ */
+public final class RenderBuffer extends OutputStream {
+
+    /**
+     * Largest code point encoded in one byte.
+     */
+    private static final int MAX_ONE_BYTE = 0x7F;
+
+    /**
+     * Largest code point encoded in two bytes.
+     */
+    private static final int MAX_TWO_BYTES = 0x7FF;
+
+    /**
+     * Lead byte marker for a two byte sequence.
+     */
+    private static final int LEAD_TWO = 0xC0;
+
+    /**
+     * Lead byte marker for a three byte sequence.
+     */
+    private static final int LEAD_THREE = 0xE0;
+
+    /**
+     * Lead byte marker for a four byte sequence.
+     */
+    private static final int LEAD_FOUR = 0xF0;
+
+    /**
+     * Continuation byte marker.
+     */
+    private static final int CONTINUATION = 0x80;
+
+    /**
+     * Payload bits of a continuation byte.
+     */
+    private static final int SIX_BITS = 0x3F;
+
+    /**
+     * Shift for one continuation byte.
+     */
+    private static final int SHIFT_ONE = 6;
+
+    /**
+     * Shift for two continuation bytes.
+     */
+    private static final int SHIFT_TWO = 12;
+
+    /**
+     * Shift for three continuation bytes.
+     */
+    private static final int SHIFT_THREE = 18;
+
+    /**
+     * Longest UTF-8 sequence in bytes.
+     */
+    private static final int MAX_SEQUENCE = 4;
+
+    /**
+     * Replacement for an unpaired surrogate, U+FFFD.
+     */
+    private static final int REPLACEMENT = 0xFFFD;
+
+    /**
+     * Encoded bytes.
+     */
+    private byte[] bytes;
+
+    /**
+     * Number of bytes written.
+     */
+    private int size;
+
+    /**
+     * High surrogate waiting for its low half.
+     */
+    private char pendingHighSurrogate;
+
+    /**
+     * Writer encoding into this buffer.
+     */
+    private final Writer writer = new Utf8Writer();
+
+    /**
+     * Whether this is a read-only view of contents that never change.
+     */
+    private final boolean shared;
+
+    /**
+     * RenderBuffer.
+     *
+     * @param initialCapacity initial capacity in bytes
+     */
+    public RenderBuffer(final int initialCapacity) {
+        bytes = new byte[initialCapacity];
+        shared = false;
+    }
+
+    /**
+     * Read-only RenderBuffer.
+     *
+     * @param contents contents, which must never change
+     */
+    private RenderBuffer(final byte[] contents) {
+        bytes = contents;
+        size = contents.length;
+        shared = true;
+    }
+
+    /**
+     * Read-only buffer over contents that never change, which can be sent by several messages at once and is never
+     * pooled.
+     *
+     * @param contents UTF-8 encoded contents; the array is used as it is and must not be modified afterwards
+     * @return RenderBuffer
+     */
+    public static RenderBuffer shared(final byte[] contents) {
+        return new RenderBuffer(contents);
+    }
+
+    /**
+     * Whether this is a read-only buffer from {@link #shared(byte[])}.
+     *
+     * @return true if shared
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Writer that UTF-8 encodes into this buffer.
+     *
+     * @return Writer
+     */
+    public Writer asWriter() {
+        return writer;
+    }
+
+    /**
+     * Backing array; only the first {@link #size()} bytes are valid.
+     *
+     * @return bytes
+     */
+    public byte[] array() {
+        return bytes;
+    }
+
+    /**
+     * Number of bytes written.
+     *
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Current capacity in bytes.
+     *
+     * @return capacity
+     */
+    public int capacity() {
+        return bytes.length;
+    }
+
+    /**
+     * Empties the buffer, keeping its capacity.
+     */
+    public void reset() {
+        checkWritable();
+        size = 0;
+        pendingHighSurrogate = 0;
+    }
+
+    /**
+     * Ends the text written through the writer: a high surrogate still waiting for its low half is written as
+     * U+FFFD. Raw byte writes do the same first, since nothing written after them could complete the pair.
+     */
+    public void finish() {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            encodeCodePoint(REPLACEMENT);
+        }
+    }
+
+    /**
+     * Decodes the contents.
+     *
+     * @return contents as a String
+     */
+    public String toUtf8String() {
+        return new String(bytes, 0, size, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the contents.
+     *
+     * @return contents as a new array
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final int b) {
+        finish();
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final byte[] src, final int off, final int len) {
+        finish();
+        ensureCapacity(len);
+        System.arraycopy(src, off, bytes, size, len);
+        size += len;
+    }
+
+    /**
+     * Appends an encoded byte array.
+     *
+     * @param src bytes
+     */
+    public void append(final byte[] src) {
+        write(src, 0, src.length);
+    }
+
+    /**
+     * Encodes one UTF-16 unit.
+     *
+     * @param c char
+     */
+    private void encode(final char c) {
+        if (pendingHighSurrogate != 0) {
+            final char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                encodeCodePoint(Character.toCodePoint(high, c));
+                return;
+            }
+            encodeCodePoint(REPLACEMENT);
+        }
+        if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            encodeCodePoint(REPLACEMENT);
+        } else {
+            encodeCodePoint(c);
+        }
+    }
+
+    /**
+     * Encodes one code point.
+     *
+     * @param codePoint code point
+     */
+    private void encodeCodePoint(final int codePoint) {
+        ensureCapacity(MAX_SEQUENCE);
+        if (codePoint <= MAX_ONE_BYTE) {
+            bytes[size++] = (byte) codePoint;
+        } else if (codePoint <= MAX_TWO_BYTES) {
+            bytes[size++] = (byte) (LEAD_TWO | (codePoint >> SHIFT_ONE));
+            bytes[size++] = (byte) (CONTINUATION | (codePoint & SIX_BITS));
+        } else if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            bytes[size++] = (byte) (LEAD_THREE | (codePoint >> SHIFT_TWO));
+            bytes[size++] = (byte) (CONTINUATION | ((codePoint >> SHIFT_ONE) & SIX_BITS));
+            bytes[size++] = (byte) (CONTINUATION | (codePoint & SIX_BITS));
+        } else {
+            bytes[size++] = (byte) (LEAD_FOUR | (codePoint >> SHIFT_THREE));
+            bytes[size++] = (byte) (CONTINUATION | ((codePoint >> SHIFT_TWO) & SIX_BITS));
+            bytes[size++] = (byte) (CONTINUATION | ((codePoint >> SHIFT_ONE) & SIX_BITS));
+            bytes[size++] = (byte) (CONTINUATION | (codePoint & SIX_BITS));
+        }
+    }
+
+    /**
+     * Fails on an attempt to change a shared buffer.
+     */
+    private void checkWritable() {
+        if (shared) {
+            throw new IllegalStateException("shared RenderBuffer is read-only");
+        }
+    }
+
+    /**
+     * Grows the backing array if needed.
+     *
+     * @param extra bytes about to be written
+     */
+    private void ensureCapacity(final int extra) {
+        checkWritable();
+        final int required = size + extra;
+        if (required > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length * 2));
+        }
+    }
+
+    /**
+     * Writer encoding into the enclosing buffer.
+     */
+    private final class Utf8Writer extends Writer {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(final int c) {
+            encode((char) c);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            for (int i = off; i < off + len; i++) {
+                encode(cbuf[i]);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(final String str, final int off, final int len) {
+            for (int i = off; i < off + len; i++) {
+                encode(str.charAt(i));
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void flush() {
+            // Nothing buffered outside the enclosing byte array
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            // Buffers are reused through the pool, never closed
+        }
+    }
+
+}
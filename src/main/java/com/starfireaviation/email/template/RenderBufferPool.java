@@ -0,0 +1,312 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RenderBufferPool.
+ *
+ * <p>Size-classed pool of {@link RenderBuffer}s. Classes double from the smallest to the largest capacity; a caller
+ * that knows roughly how large a render will be gets a buffer from the class that fits it, so the buffer does not
+ * have to grow while rendering. Released buffers go back to the largest class their capacity covers, as long as
+ * the idle buffers stay within the byte budget. Buffers that grew past the largest class while rendering an
+ * unusually large message are dropped on release rather than pinned in the pool, and shared read-only buffers are
+ * never pooled.</p>
+ *
+ * <p>Buffers are on the heap: every consumer of a rendered message, the JSON writer, JavaMail and the sent message
+ * store, reads a byte array.</p>
+ *
+ * <p>With leak detection on, each acquired buffer is tracked by a phantom reference together with where it was
+ * acquired; a buffer that is garbage collected without having been released is logged and counted as leaked. This
+ * is meant for tests and for diagnosing a leak, not for normal running.</p>
+ */
+@Slf4j
+public class RenderBufferPool {
+
+    /**
+     * Idle buffers by size class, smallest first.
+     */
+    private final List<Queue<RenderBuffer>> classes = new ArrayList<>();
+
+    /**
+     * Capacity of the smallest class.
+     */
+    private final int smallestCapacity;
+
+    /**
+     * Capacity of the largest class.
+     */
+    private final int largestCapacity;
+
+    /**
+     * Most bytes held by idle buffers.
+     */
+    private final long maxPooledBytes;
+
+    /**
+     * Bytes held by idle buffers.
+     */
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    /**
+     * Buffers acquired.
+     */
+    private final LongAdder acquired = new LongAdder();
+
+    /**
+     * Buffers released.
+     */
+    private final LongAdder released = new LongAdder();
+
+    /**
+     * Buffers garbage collected without being released.
+     */
+    private final LongAdder leaked = new LongAdder();
+
+    /**
+     * Trackers of acquired buffers, null when leak detection is off.
+     */
+    private final Map<RenderBuffer, Tracker> trackers;
+
+    /**
+     * Trackers whose buffer was garbage collected.
+     */
+    private final ReferenceQueue<RenderBuffer> collected = new ReferenceQueue<>();
+
+    /**
+     * Trackers whose buffer has not been released yet.
+     */
+    private final Map<Tracker, Boolean> live = new ConcurrentHashMap<>();
+
+    /**
+     * RenderBufferPool.
+     *
+     * @param smallest    capacity of the smallest size class
+     * @param largest     largest capacity pooled; larger buffers are dropped on release
+     * @param budget      most bytes held by idle buffers
+     * @param detectLeaks whether to track acquired buffers and report those never released
+     */
+    public RenderBufferPool(final int smallest, final int largest, final long budget, final boolean detectLeaks) {
+        smallestCapacity = smallest;
+        largestCapacity = largest;
+        maxPooledBytes = budget;
+        for (long capacity = smallest; capacity <= largest; capacity *= 2) {
+            classes.add(new ConcurrentLinkedQueue<>());
+        }
+        if (detectLeaks) {
+            trackers = Collections.synchronizedMap(new WeakHashMap<>());
+        } else {
+            trackers = null;
+        }
+    }
+
+    /**
+     * Takes a buffer of the smallest class from the pool, creating one if none is idle.
+     *
+     * @return RenderBuffer
+     */
+    public RenderBuffer acquire() {
+        return acquire(0);
+    }
+
+    /**
+     * Takes a buffer that can hold the expected size without growing, creating one if none is idle.
+     *
+     * @param expectedSize expected size in bytes, 0 if unknown
+     * @return RenderBuffer
+     */
+    public RenderBuffer acquire(final int expectedSize) {
+        acquired.increment();
+        final RenderBuffer buffer = take(expectedSize);
+        if (trackers != null) {
+            reportLeaks();
+            final Tracker tracker = new Tracker(buffer, collected);
+            live.put(tracker, Boolean.TRUE);
+            trackers.put(buffer, tracker);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer RenderBuffer, may be null
+     */
+    public void release(final RenderBuffer buffer) {
+        if (buffer == null || buffer.isShared()) {
+            return;
+        }
+        released.increment();
+        if (trackers != null) {
+            final Tracker tracker = trackers.remove(buffer);
+            if (tracker != null) {
+                live.remove(tracker);
+                tracker.clear();
+            }
+        }
+        final int capacity = buffer.capacity();
+        if (capacity < smallestCapacity || capacity > largestCapacity) {
+            return;
+        }
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        buffer.reset();
+        classes.get(classCovered(capacity)).offer(buffer);
+    }
+
+    /**
+     * Logs and counts buffers garbage collected without being released; only finds any with leak detection on.
+     *
+     * @return number of leaks found by this call
+     */
+    public int reportLeaks() {
+        int found = 0;
+        Reference<? extends RenderBuffer> reference = collected.poll();
+        while (reference != null) {
+            if (live.remove(reference) != null) {
+                found++;
+                leaked.increment();
+                log.error("reportLeaks() RenderBuffer garbage collected without being released",
+                        ((Tracker) reference).getAcquiredAt());
+            }
+            reference = collected.poll();
+        }
+        return found;
+    }
+
+    /**
+     * Buffers acquired and not released yet.
+     *
+     * @return count
+     */
+    public long getOutstanding() {
+        return acquired.sum() - released.sum();
+    }
+
+    /**
+     * Buffers garbage collected without being released, as found so far.
+     *
+     * @return count
+     */
+    public long getLeaked() {
+        return leaked.sum();
+    }
+
+    /**
+     * Bytes held by idle buffers.
+     *
+     * @return bytes
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * Takes an idle buffer of the class fitting a size, or creates one.
+     *
+     * @param expectedSize expected size in bytes
+     * @return RenderBuffer
+     */
+    private RenderBuffer take(final int expectedSize) {
+        final int index = classFitting(expectedSize);
+        if (index == classes.size()) {
+            return new RenderBuffer(expectedSize);
+        }
+        final RenderBuffer buffer = classes.get(index).poll();
+        if (buffer == null) {
+            return new RenderBuffer(smallestCapacity << index);
+        }
+        pooledBytes.addAndGet(-buffer.capacity());
+        return buffer;
+    }
+
+    /**
+     * Smallest class whose capacity holds a size.
+     *
+     * @param size bytes
+     * @return class index, the number of classes if none is large enough
+     */
+    private int classFitting(final int size) {
+        int index = 0;
+        while (index < classes.size() && (long) smallestCapacity << index < size) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Largest class whose capacity a buffer covers.
+     *
+     * @param capacity buffer capacity, between the smallest and largest class
+     * @return class index
+     */
+    private int classCovered(final int capacity) {
+        int index = 0;
+        while (index + 1 < classes.size() && (long) smallestCapacity << (index + 1) <= capacity) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Phantom reference to an acquired buffer, remembering where it was acquired.
+     */
+    private static final class Tracker extends PhantomReference<RenderBuffer> {
+
+        /**
+         * Stack trace of the acquire.
+         */
+        private final Throwable acquiredAt = new Throwable("RenderBuffer acquired here");
+
+        /**
+         * Tracker.
+         *
+         * @param buffer acquired buffer
+         * @param queue  queue the tracker goes to once the buffer is garbage collected
+         */
+        Tracker(final RenderBuffer buffer, final ReferenceQueue<RenderBuffer> queue) {
+            super(buffer, queue);
+        }
+
+        /**
+         * Stack trace of the acquire.
+         *
+         * @return Throwable
+         */
+        Throwable getAcquiredAt() {
+            return acquiredAt;
+        }
+    }
+
+}
@@ -0,0 +1,445 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import com.starfireaviation.email.template.model.TypedModel;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RenderCache.
+ *
+ * <p>Content addressed cache of renders. A render is keyed by its compiled template, the layout it was placed in and
+ * its {@link TypedModel}, which holds exactly the values the template references; equal keys therefore render
+ * identically and share one immutable copy, e.g. every user_delete mail to users with the same name.</p>
+ *
+ * <p>Renders that depend on a user ID or a code never repeat, so a key is only remembered the first time it is
+ * seen and its render kept the second time, which keeps one-off renders from being copied into the cache. The cache
+ * is bounded by entries and by bytes. Lookups take no lock: entries live in a ConcurrentHashMap and each records
+ * when it was last used, and a thread that takes the cache over a limit evicts the least recently used of a small
+ * sample, taken by a hand that walks the map, until it is back within its limits. Templates and layouts are
+ * compared by identity, so a reloaded template starts with fresh keys and its old renders age out.</p>
+ */
+public class RenderCache {
+
+    /**
+     * Estimated bytes held by an entry besides its render: the key, its model and the map entry.
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    /**
+     * Initial capacity of the entry map.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Multiplier combining hashes.
+     */
+    private static final int HASH_MULTIPLIER = 31;
+
+    /**
+     * Entries compared to pick each one evicted.
+     */
+    private static final int EVICTION_SAMPLE = 8;
+
+    /**
+     * How stale an entry's last use may be before a hit records it again, so hot entries are not written on every
+     * hit.
+     */
+    private static final long USE_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    /**
+     * Most entries, including keys seen once.
+     */
+    private final int maxEntries;
+
+    /**
+     * Most bytes held.
+     */
+    private final long maxBytes;
+
+    /**
+     * Renders, and keys seen once.
+     */
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>(INITIAL_CAPACITY);
+
+    /**
+     * Bytes held.
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Whether a thread is evicting.
+     */
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * Lookups answered from the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Lookups that had to render.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Where the next eviction sample starts; used only by the thread holding {@link #evicting}.
+     */
+    private Iterator<Map.Entry<Key, Entry>> hand;
+
+    /**
+     * RenderCache.
+     *
+     * @param entryLimit most entries, including keys seen once
+     * @param byteLimit  most bytes held
+     */
+    public RenderCache(final int entryLimit, final long byteLimit) {
+        maxEntries = entryLimit;
+        maxBytes = byteLimit;
+    }
+
+    /**
+     * Cached text render.
+     *
+     * @param template compiled template, compared by identity
+     * @param model    TypedModel
+     * @return text, null if not cached
+     */
+    public String getText(final Object template, final TypedModel model) {
+        return (String) get(new Key(template, null, model));
+    }
+
+    /**
+     * Offers a text render to the cache.
+     *
+     * @param template compiled template, compared by identity
+     * @param model    TypedModel it was rendered with
+     * @param text     rendered text
+     */
+    public void putText(final Object template, final TypedModel model, final String text) {
+        put(new Key(template, null, model), text, 2L * text.length());
+    }
+
+    /**
+     * Cached body render, over shared buffers that must not be written or pooled.
+     *
+     * @param template compiled template, compared by identity
+     * @param layout   layout the body is placed in, compared by identity
+     * @param model    TypedModel
+     * @return RenderedBody, null if not cached
+     */
+    public RenderedBody getBody(final Object template, final Object layout, final TypedModel model) {
+        return (RenderedBody) get(new Key(template, layout, model));
+    }
+
+    /**
+     * Offers a body render to the cache; if it is kept, its contents are copied into shared buffers.
+     *
+     * @param template compiled template, compared by identity
+     * @param layout   layout the body is placed in, compared by identity
+     * @param model    TypedModel it was rendered with
+     * @param body     RenderedBody, which the caller still owns
+     * @return the shared copy if the render was kept, else null
+     */
+    public RenderedBody putBody(final Object template,
+                                final Object layout,
+                                final TypedModel model,
+                                final RenderedBody body) {
+        final Key key = new Key(template, layout, model);
+        final Entry previous = entries.get(key);
+        if (previous == null || previous.getValue() != null) {
+            remember(key);
+            return null;
+        }
+        final RenderedBody shared = new RenderedBody(
+                RenderBuffer.shared(body.getHtml().toByteArray()),
+                RenderBuffer.shared(body.getText().toByteArray()));
+        put(key, shared, (long) body.getHtml().size() + body.getText().size());
+        return shared;
+    }
+
+    /**
+     * Lookups answered from the cache.
+     *
+     * @return count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Lookups that had to render.
+     *
+     * @return count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Number of entries, including keys seen once.
+     *
+     * @return count
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Approximate bytes held.
+     *
+     * @return bytes
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Looks a render up, counting the hit or miss.
+     *
+     * @param key Key
+     * @return render, null if not cached
+     */
+    private Object get(final Key key) {
+        final Entry entry = entries.get(key);
+        if (entry == null || entry.getValue() == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        entry.used(System.nanoTime());
+        return entry.getValue();
+    }
+
+    /**
+     * Keeps a render if its key was seen before, otherwise remembers the key.
+     *
+     * @param key    Key
+     * @param value  render
+     * @param weight bytes held by the render
+     */
+    private void put(final Key key, final Object value, final long weight) {
+        final Entry previous = entries.get(key);
+        if (previous == null) {
+            remember(key);
+            return;
+        }
+        if (previous.getValue() != null) {
+            return;
+        }
+        if (entries.replace(key, previous, new Entry(value, weight, System.nanoTime()))) {
+            bytes.addAndGet(weight);
+            evict();
+        }
+    }
+
+    /**
+     * Remembers a key seen for the first time.
+     *
+     * @param key Key
+     */
+    private void remember(final Key key) {
+        if (entries.putIfAbsent(key, new Entry(null, 0L, System.nanoTime())) == null) {
+            bytes.addAndGet(ENTRY_OVERHEAD_BYTES);
+            evict();
+        }
+    }
+
+    /**
+     * Drops the least recently used of each sample until the cache is within its limits. Only one thread evicts at
+     * a time; the others go on, leaving the cache briefly over its limits.
+     */
+    private void evict() {
+        if (!isOverLimit() || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            boolean more = true;
+            while (more && isOverLimit()) {
+                Map.Entry<Key, Entry> victim = null;
+                for (int i = 0; i < EVICTION_SAMPLE; i++) {
+                    if (hand == null || !hand.hasNext()) {
+                        hand = entries.entrySet().iterator();
+                    }
+                    if (hand.hasNext()) {
+                        final Map.Entry<Key, Entry> candidate = hand.next();
+                        if (victim == null
+                                || candidate.getValue().getUsedNanos() - victim.getValue().getUsedNanos() < 0) {
+                            victim = candidate;
+                        }
+                    }
+                }
+                more = victim != null;
+                if (more && entries.remove(victim.getKey(), victim.getValue())) {
+                    bytes.addAndGet(-(ENTRY_OVERHEAD_BYTES + victim.getValue().getWeight()));
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Whether the cache holds more entries or bytes than it may.
+     *
+     * @return true if over a limit
+     */
+    private boolean isOverLimit() {
+        return entries.size() > maxEntries || bytes.get() > maxBytes;
+    }
+
+    /**
+     * Cache key.
+     */
+    private static final class Key {
+
+        /**
+         * Compiled template.
+         */
+        private final Object template;
+
+        /**
+         * Layout, null for a text render.
+         */
+        private final Object layout;
+
+        /**
+         * Model.
+         */
+        private final TypedModel model;
+
+        /**
+         * Hash of the template, layout and model.
+         */
+        private final int hash;
+
+        /**
+         * Key.
+         *
+         * @param aTemplate compiled template
+         * @param aLayout   layout, null for a text render
+         * @param aModel    model
+         */
+        Key(final Object aTemplate, final Object aLayout, final TypedModel aModel) {
+            template = aTemplate;
+            layout = aLayout;
+            model = aModel;
+            hash = (System.identityHashCode(aTemplate) * HASH_MULTIPLIER + System.identityHashCode(aLayout))
+                    * HASH_MULTIPLIER + aModel.hashCode();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) other;
+            return template == that.template && layout == that.layout && model.equals(that.model);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Kept render, or a key seen once, with the bytes it holds and when it was last used.
+     */
+    private static final class Entry {
+
+        /**
+         * Render, a String or a RenderedBody over shared buffers; null for a key seen once.
+         */
+        private final Object value;
+
+        /**
+         * Bytes held by the render.
+         */
+        private final long weight;
+
+        /**
+         * When the entry was last used, System.nanoTime().
+         */
+        private volatile long usedNanos;
+
+        /**
+         * Entry.
+         *
+         * @param aValue  render, null for a key seen once
+         * @param aWeight bytes held by the render
+         * @param nanos   when the entry was made, System.nanoTime()
+         */
+        Entry(final Object aValue, final long aWeight, final long nanos) {
+            value = aValue;
+            weight = aWeight;
+            usedNanos = nanos;
+        }
+
+        /**
+         * Records a use, unless one was recorded within the last {@link #USE_RESOLUTION_NANOS}.
+         *
+         * @param nanos System.nanoTime()
+         */
+        void used(final long nanos) {
+            if (nanos - usedNanos > USE_RESOLUTION_NANOS) {
+                usedNanos = nanos;
+            }
+        }
+
+        /**
+         * When the entry was last used.
+         *
+         * @return System.nanoTime()
+         */
+        long getUsedNanos() {
+            return usedNanos;
+        }
+
+        /**
+         * Render.
+         *
+         * @return render
+         */
+        Object getValue() {
+            return value;
+        }
+
+        /**
+         * Bytes held by the render.
+         *
+         * @return bytes
+         */
+        long getWeight() {
+            return weight;
+        }
+    }
+
+}
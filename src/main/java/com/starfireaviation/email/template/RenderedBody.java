@@ -0,0 +1,63 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+/**
+ * A rendered message body: the HTML and its plain text alternative, both in pooled buffers.
+ */
+public final class RenderedBody {
+
+    /**
+     * UTF-8 encoded HTML.
+     */
+    private final RenderBuffer html;
+
+    /**
+     * UTF-8 encoded plain text.
+     */
+    private final RenderBuffer text;
+
+    /**
+     * RenderedBody.
+     *
+     * @param htmlBuffer UTF-8 encoded HTML
+     * @param textBuffer UTF-8 encoded plain text
+     */
+    public RenderedBody(final RenderBuffer htmlBuffer, final RenderBuffer textBuffer) {
+        html = htmlBuffer;
+        text = textBuffer;
+    }
+
+    /**
+     * UTF-8 encoded HTML.
+     *
+     * @return RenderBuffer
+     */
+    public RenderBuffer getHtml() {
+        return html;
+    }
+
+    /**
+     * UTF-8 encoded plain text.
+     *
+     * @return RenderBuffer
+     */
+    public RenderBuffer getText() {
+        return text;
+    }
+
+}
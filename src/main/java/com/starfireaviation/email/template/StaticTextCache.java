@@ -0,0 +1,144 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * StaticTextCache.
+ *
+ * <p>Plain text conversions of the static chunks of compiled templates. FreeMarker writes each static chunk from the
+ * same char array on every render, so the array itself is the key. A chunk's text depends on the converter's
+ * whitespace state when it starts, so each chunk holds one conversion per starting state. When the cache reaches its
+ * limit, e.g. after many template reloads, it is cleared and refills from the templates still in use.</p>
+ */
+final class StaticTextCache {
+
+    /**
+     * Number of distinct converter states a chunk can start in.
+     */
+    static final int STATES = 128;
+
+    /**
+     * Marks a chunk whose conversion cannot be reused, e.g. because it ends inside a tag.
+     */
+    static final Converted UNCACHEABLE = new Converted(null, 0);
+
+    /**
+     * Most chunks cached.
+     */
+    private final int maxChunks;
+
+    /**
+     * Conversions by chunk, then starting state.
+     */
+    private final Map<char[], Converted[]> chunks = new ConcurrentHashMap<>();
+
+    /**
+     * StaticTextCache.
+     *
+     * @param chunkLimit most chunks cached
+     */
+    StaticTextCache(final int chunkLimit) {
+        maxChunks = chunkLimit;
+    }
+
+    /**
+     * Looks a conversion up.
+     *
+     * @param chunk static chunk
+     * @param state converter state the chunk starts in
+     * @return Converted, {@link #UNCACHEABLE}, or null when the chunk has not been converted from that state
+     */
+    Converted get(final char[] chunk, final int state) {
+        final Converted[] states = chunks.get(chunk);
+        if (states == null) {
+            return null;
+        }
+        return states[state];
+    }
+
+    /**
+     * Stores a conversion.
+     *
+     * @param chunk     static chunk
+     * @param state     converter state the chunk started in
+     * @param converted Converted or {@link #UNCACHEABLE}
+     */
+    void put(final char[] chunk, final int state, final Converted converted) {
+        if (chunks.size() >= maxChunks && !chunks.containsKey(chunk)) {
+            chunks.clear();
+        }
+        chunks.computeIfAbsent(chunk, key -> new Converted[STATES])[state] = converted;
+    }
+
+    /**
+     * Number of chunks cached.
+     *
+     * @return count
+     */
+    int size() {
+        return chunks.size();
+    }
+
+    /**
+     * Text of a static chunk and the converter state it leaves behind.
+     */
+    static final class Converted {
+
+        /**
+         * UTF-8 encoded text.
+         */
+        private final byte[] text;
+
+        /**
+         * Converter state after the chunk.
+         */
+        private final int endState;
+
+        /**
+         * Converted.
+         *
+         * @param encoded UTF-8 encoded text
+         * @param state   converter state after the chunk
+         */
+        Converted(final byte[] encoded, final int state) {
+            text = encoded;
+            endState = state;
+        }
+
+        /**
+         * UTF-8 encoded text.
+         *
+         * @return bytes
+         */
+        byte[] getText() {
+            return text;
+        }
+
+        /**
+         * Converter state after the chunk.
+         *
+         * @return state
+         */
+        int getEndState() {
+            return endState;
+        }
+    }
+
+}
@@ -0,0 +1,337 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * TemplateRegistry.
+ *
+ * <p>Looks templates up in an optional external directory before falling back to the classpath. The external
+ * templates are compiled into an immutable map that renders read through an {@link AtomicReference}. A background
+ * thread watches the directory, recompiles whatever changed and swaps in a new copy of the map, so a render never
+ * waits on a reload and never sees a half-applied one. A template that fails to compile keeps its previous
+ * version.</p>
+ */
+@Slf4j
+public class TemplateRegistry {
+
+    /**
+     * Template file extension.
+     */
+    private static final String TEMPLATE_EXTENSION = ".ftl";
+
+    /**
+     * How long to keep collecting change events before reloading, since editors write files in several steps.
+     */
+    private static final long DEBOUNCE_MILLIS = 250L;
+
+    /**
+     * Reload counter name.
+     */
+    private static final String RELOADS_METRIC = "email.template.reloads";
+
+    /**
+     * FreeMarker Configuration, used for classpath templates.
+     */
+    private final Configuration freemarkerConfig;
+
+    /**
+     * External template directory, null when disabled.
+     */
+    private final Path directory;
+
+    /**
+     * Compiled external templates.
+     */
+    private final AtomicReference<Map<String, Template>> templates =
+            new AtomicReference<>(Collections.emptyMap());
+
+    /**
+     * Successful reloads.
+     */
+    private final Counter reloadSuccesses;
+
+    /**
+     * Templates that failed to compile on reload.
+     */
+    private final Counter reloadFailures;
+
+    /**
+     * Reload duration.
+     */
+    private final Timer reloadTimer;
+
+    /**
+     * Whether start() has completed.
+     */
+    private volatile boolean loaded;
+
+    /**
+     * Directory watcher.
+     */
+    private WatchService watchService;
+
+    /**
+     * Watch thread.
+     */
+    private Thread watcher;
+
+    /**
+     * TemplateRegistry.
+     *
+     * @param config        FreeMarker Configuration
+     * @param externalDir   external template directory, null or empty to use the classpath only
+     * @param meterRegistry MeterRegistry
+     */
+    public TemplateRegistry(final Configuration config, final String externalDir, final MeterRegistry meterRegistry) {
+        freemarkerConfig = config;
+        if (externalDir == null || externalDir.isEmpty()) {
+            directory = null;
+        } else {
+            directory = Paths.get(externalDir);
+        }
+        reloadSuccesses = Counter.builder(RELOADS_METRIC).tag("outcome", "success").register(meterRegistry);
+        reloadFailures = Counter.builder(RELOADS_METRIC).tag("outcome", "failure").register(meterRegistry);
+        reloadTimer = Timer.builder("email.template.reload.time").register(meterRegistry);
+        meterRegistry.gauge("email.template.external", templates, current -> current.get().size());
+    }
+
+    /**
+     * Compiles the external directory and starts watching it.
+     *
+     * @throws IOException when the directory cannot be read or watched
+     */
+    public void start() throws IOException {
+        if (directory == null) {
+            loaded = true;
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        final Set<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths.collect(Collectors.toSet());
+        }
+        for (Path path : files) {
+            if (Files.isDirectory(path)) {
+                register(path);
+            }
+        }
+        reload(files);
+        watcher = new Thread(this::watch, "email-template-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+        loaded = true;
+        log.info(String.format("start() watching [%s]; %d templates loaded", directory, templates.get().size()));
+    }
+
+    /**
+     * Stops watching.
+     */
+    public void shutdown() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn(e.getMessage());
+        }
+    }
+
+    /**
+     * Looks a template up, external directory first.
+     *
+     * @param name template name
+     * @return Template
+     * @throws IOException when the template cannot be found or loaded
+     */
+    public Template getTemplate(final String name) throws IOException {
+        final Template template = templates.get().get(name);
+        if (template != null) {
+            return template;
+        }
+        return freemarkerConfig.getTemplate(name);
+    }
+
+    /**
+     * Whether a template is served from the external directory.
+     *
+     * @param name template name
+     * @return true if external
+     */
+    public boolean isExternal(final String name) {
+        return templates.get().containsKey(name);
+    }
+
+    /**
+     * Number of templates served from the external directory.
+     *
+     * @return count
+     */
+    public int getExternalTemplateCount() {
+        return templates.get().size();
+    }
+
+    /**
+     * Whether templates have been loaded.
+     *
+     * @return true once start() has completed
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Watch loop.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                final Set<Path> changed = new HashSet<>();
+                collect(watchService.take(), changed);
+                WatchKey next = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                while (next != null) {
+                    collect(next, changed);
+                    next = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                reloadSafely(changed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            log.info("watch() stopped");
+        }
+    }
+
+    /**
+     * Reloads, keeping the previous templates and the watch loop going if the reload fails unexpectedly.
+     *
+     * @param changed changed paths
+     */
+    private void reloadSafely(final Set<Path> changed) {
+        try {
+            reload(changed);
+        } catch (RuntimeException e) {
+            reloadFailures.increment();
+            log.error(String.format("reloadSafely() keeping previous templates after a failed reload of %s", changed),
+                    e);
+        }
+    }
+
+    /**
+     * Collects the paths named by a watch key's events.
+     *
+     * @param key     WatchKey
+     * @param changed paths collected so far
+     */
+    private void collect(final WatchKey key, final Set<Path> changed) {
+        final Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed.addAll(templates.get().keySet().stream().map(directory::resolve).collect(Collectors.toSet()));
+                continue;
+            }
+            final Path path = dir.resolve((Path) event.context());
+            if (Files.isDirectory(path)) {
+                register(path);
+            } else {
+                changed.add(path);
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * Watches a directory.
+     *
+     * @param dir directory
+     */
+    private void register(final Path dir) {
+        try {
+            dir.register(
+                    watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            log.warn(String.format("register() unable to watch [%s]: %s", dir, e.getMessage()));
+        }
+    }
+
+    /**
+     * Recompiles changed templates and swaps in a new template map.
+     *
+     * @param changed changed paths
+     */
+    private void reload(final Set<Path> changed) {
+        final long start = System.nanoTime();
+        final Map<String, Template> next = new HashMap<>(templates.get());
+        int compiled = 0;
+        for (Path path : changed) {
+            if (!path.getFileName().toString().endsWith(TEMPLATE_EXTENSION)) {
+                continue;
+            }
+            final String name = directory.relativize(path).toString().replace('\\', '/');
+            if (!Files.isRegularFile(path)) {
+                next.remove(name);
+                continue;
+            }
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                next.put(name, new Template(name, reader, freemarkerConfig));
+                compiled++;
+            } catch (IOException e) {
+                reloadFailures.increment();
+                log.warn(String.format("reload() keeping previous version of [%s]: %s", name, e.getMessage()));
+            }
+        }
+        templates.set(Collections.unmodifiableMap(next));
+        reloadTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (compiled > 0) {
+            reloadSuccesses.increment(compiled);
+            log.info(String.format("reload() %d templates recompiled", compiled));
+        }
+    }
+
+}
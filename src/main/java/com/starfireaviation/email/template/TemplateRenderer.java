@@ -0,0 +1,451 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import com.starfireaviation.email.template.model.TypedModel;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.springframework.ui.freemarker.FreeMarkerTemplateUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TemplateRenderer.
+ *
+ * <p>Body templates are fragments placed inside the shared layout. The layout is rendered once at startup and
+ * split around its content placeholder into pre-encoded header and footer bytes, so each message only renders its
+ * own fragment, straight into a pooled {@link RenderBuffer}. If the layout is reloaded through the
+ * {@link TemplateRegistry} the split is redone on the next render.</p>
+ *
+ * <p>The same render also produces the plain text alternative: the fragment's output is teed into a
+ * {@link PlainTextWriter}, which converts it in one pass. The static chunks of every template, including the layout
+ * header and footer, are converted once and then served from a {@link StaticTextCache}, so only the interpolated
+ * values are converted on each render.</p>
+ *
+ * <p>Each render takes its buffers from the size class that fits the previous render of the same template, plus
+ * some headroom, so a buffer rarely has to grow mid-render.</p>
+ *
+ * <p>Renders with a generated {@link TypedModel} go through a {@link RenderCache}, so messages whose referenced
+ * values are all the same share one immutable render instead of each rendering their own.</p>
+ */
+public class TemplateRenderer {
+
+    /**
+     * Layout template name.
+     */
+    private static final String LAYOUT_TEMPLATE = "layout.ftl";
+
+    /**
+     * Name of the layout variable holding the body fragment.
+     */
+    private static final String CONTENT_VARIABLE = "content";
+
+    /**
+     * Placeholder rendered into the layout to find where the body fragment goes.
+     */
+    private static final String CONTENT_MARKER = "\u0000content\u0000";
+
+    /**
+     * Most static template chunks whose plain text is cached.
+     */
+    private static final int STATIC_TEXT_CHUNKS = 4096;
+
+    /**
+     * Headroom over the previous render's size, as a right shift: an eighth.
+     */
+    private static final int HEADROOM_SHIFT = 3;
+
+    /**
+     * TemplateRegistry.
+     */
+    private final TemplateRegistry templateRegistry;
+
+    /**
+     * RenderBufferPool.
+     */
+    private final RenderBufferPool bufferPool;
+
+    /**
+     * Plain text of static template chunks.
+     */
+    private final StaticTextCache staticText = new StaticTextCache(STATIC_TEXT_CHUNKS);
+
+    /**
+     * Renders shared between messages with equal models, null to render every message.
+     */
+    private final RenderCache renderCache;
+
+    /**
+     * Size of the last render of each body template.
+     */
+    private final Map<String, SizeHint> sizeHints = new ConcurrentHashMap<>();
+
+    /**
+     * Layout split around the body fragment.
+     */
+    private volatile Layout layout;
+
+    /**
+     * TemplateRenderer.
+     *
+     * @param registry TemplateRegistry
+     * @param pool     RenderBufferPool
+     * @param cache    RenderCache, null to render every message
+     */
+    public TemplateRenderer(final TemplateRegistry registry, final RenderBufferPool pool, final RenderCache cache) {
+        templateRegistry = registry;
+        bufferPool = pool;
+        renderCache = cache;
+    }
+
+    /**
+     * Renders the layout and splits it into header and footer.
+     *
+     * @throws IOException       when the layout cannot be loaded
+     * @throws TemplateException when the layout cannot be rendered
+     */
+    public void init() throws IOException, TemplateException {
+        currentLayout();
+    }
+
+    /**
+     * Renders a short template, such as a subject line, to a String.
+     *
+     * @param templateName template name
+     * @param model        a TemplateHashModel, used as it is, or a map
+     * @return rendered text
+     * @throws IOException       when the template cannot be loaded
+     * @throws TemplateException when the template cannot be rendered
+     */
+    public String renderText(final String templateName, final Object model)
+            throws IOException, TemplateException {
+        final Template template = templateRegistry.getTemplate(templateName);
+        if (renderCache == null || !(model instanceof TypedModel)) {
+            return FreeMarkerTemplateUtils.processTemplateIntoString(template, model);
+        }
+        final TypedModel typed = (TypedModel) model;
+        final String cached = renderCache.getText(template, typed);
+        if (cached != null) {
+            return cached;
+        }
+        final String text = FreeMarkerTemplateUtils.processTemplateIntoString(template, model);
+        renderCache.putText(template, typed, text);
+        return text;
+    }
+
+    /**
+     * Renders a body fragment inside the layout, along with its plain text alternative. The caller must hand the
+     * buffers back through {@link #release(RenderedBody)} once it has been sent; a cached render comes in shared
+     * buffers, which release leaves alone.
+     *
+     * @param templateName template name
+     * @param model        a TemplateHashModel, used as it is, or a map
+     * @return RenderedBody holding the UTF-8 encoded HTML and text
+     * @throws IOException       when the template cannot be loaded
+     * @throws TemplateException when the template cannot be rendered
+     */
+    public RenderedBody renderBody(final String templateName, final Object model)
+            throws IOException, TemplateException {
+        final Layout parts = currentLayout();
+        final Template template = templateRegistry.getTemplate(templateName);
+        if (renderCache == null || !(model instanceof TypedModel)) {
+            return render(parts, template, model);
+        }
+        final TypedModel typed = (TypedModel) model;
+        final RenderedBody cached = renderCache.getBody(template, parts, typed);
+        if (cached != null) {
+            return cached;
+        }
+        final RenderedBody body = render(parts, template, model);
+        final RenderedBody shared = renderCache.putBody(template, parts, typed, body);
+        if (shared == null) {
+            return body;
+        }
+        release(body);
+        return shared;
+    }
+
+    /**
+     * Renders a body fragment inside the layout into pooled buffers.
+     *
+     * @param parts    Layout
+     * @param template body template
+     * @param model    model
+     * @return RenderedBody
+     * @throws IOException       when the template cannot be rendered
+     * @throws TemplateException when the template cannot be rendered
+     */
+    private RenderedBody render(final Layout parts, final Template template, final Object model)
+            throws IOException, TemplateException {
+        final SizeHint hint = sizeHints.computeIfAbsent(template.getName(), name -> new SizeHint());
+        final RenderBuffer html = bufferPool.acquire(hint.html + (hint.html >> HEADROOM_SHIFT));
+        final RenderBuffer text = bufferPool.acquire(hint.text + (hint.text >> HEADROOM_SHIFT));
+        try {
+            final PlainTextWriter plain = new PlainTextWriter(text, staticText);
+            html.append(parts.getHeader());
+            plain.write(parts.getHeaderHtml());
+            template.process(model, new TeeWriter(html.asWriter(), plain));
+            html.append(parts.getFooter());
+            plain.write(parts.getFooterHtml());
+            plain.finish();
+            html.finish();
+            text.finish();
+            hint.html = html.size();
+            hint.text = text.size();
+            return new RenderedBody(html, text);
+        } catch (IOException | TemplateException | RuntimeException e) {
+            bufferPool.release(html);
+            bufferPool.release(text);
+            throw e;
+        }
+    }
+
+    /**
+     * Whether a template is served from the external directory rather than the classpath, i.e. may differ from the
+     * one its generated model was made for.
+     *
+     * @param templateName template name
+     * @return true if external
+     */
+    public boolean isExternal(final String templateName) {
+        return templateRegistry.isExternal(templateName);
+    }
+
+    /**
+     * Returns a rendered body's buffers to the pool.
+     *
+     * @param body RenderedBody, may be null
+     */
+    public void release(final RenderedBody body) {
+        if (body == null) {
+            return;
+        }
+        bufferPool.release(body.getHtml());
+        bufferPool.release(body.getText());
+    }
+
+    /**
+     * Layout for the current layout template, split again if the template was reloaded.
+     *
+     * @return Layout
+     * @throws IOException       when the layout cannot be loaded
+     * @throws TemplateException when the layout cannot be rendered
+     */
+    private Layout currentLayout() throws IOException, TemplateException {
+        final Template template = templateRegistry.getTemplate(LAYOUT_TEMPLATE);
+        final Layout current = layout;
+        if (current != null && current.getSource() == template) {
+            return current;
+        }
+        final String rendered = FreeMarkerTemplateUtils.processTemplateIntoString(
+                template,
+                Collections.singletonMap(CONTENT_VARIABLE, CONTENT_MARKER));
+        final int split = rendered.indexOf(CONTENT_MARKER);
+        if (split < 0) {
+            throw new IllegalStateException(LAYOUT_TEMPLATE + " does not reference ${" + CONTENT_VARIABLE + "}");
+        }
+        final String header = rendered.substring(0, split);
+        final String footer = rendered.substring(split + CONTENT_MARKER.length());
+        final Layout next = new Layout(template, header, footer);
+        layout = next;
+        return next;
+    }
+
+    /**
+     * Layout template split into header and footer, kept encoded for the HTML and as chars for the text conversion.
+     */
+    private static final class Layout {
+
+        /**
+         * Template the split was made from.
+         */
+        private final Template source;
+
+        /**
+         * Encoded layout before the body fragment.
+         */
+        private final byte[] header;
+
+        /**
+         * Encoded layout after the body fragment.
+         */
+        private final byte[] footer;
+
+        /**
+         * Layout before the body fragment; one array, so its text is converted once.
+         */
+        private final char[] headerHtml;
+
+        /**
+         * Layout after the body fragment; one array, so its text is converted once.
+         */
+        private final char[] footerHtml;
+
+        /**
+         * Layout.
+         *
+         * @param template     layout template
+         * @param headerMarkup layout before the body fragment
+         * @param footerMarkup layout after the body fragment
+         */
+        Layout(final Template template, final String headerMarkup, final String footerMarkup) {
+            source = template;
+            header = headerMarkup.getBytes(StandardCharsets.UTF_8);
+            footer = footerMarkup.getBytes(StandardCharsets.UTF_8);
+            headerHtml = headerMarkup.toCharArray();
+            footerHtml = footerMarkup.toCharArray();
+        }
+
+        /**
+         * Template the split was made from.
+         *
+         * @return Template
+         */
+        Template getSource() {
+            return source;
+        }
+
+        /**
+         * Encoded layout before the body fragment.
+         *
+         * @return bytes
+         */
+        byte[] getHeader() {
+            return header;
+        }
+
+        /**
+         * Encoded layout after the body fragment.
+         *
+         * @return bytes
+         */
+        byte[] getFooter() {
+            return footer;
+        }
+
+        /**
+         * Layout before the body fragment.
+         *
+         * @return chars
+         */
+        char[] getHeaderHtml() {
+            return headerHtml;
+        }
+
+        /**
+         * Layout after the body fragment.
+         *
+         * @return chars
+         */
+        char[] getFooterHtml() {
+            return footerHtml;
+        }
+    }
+
+    /**
+     * Size of the last render of a body template.
+     */
+    private static final class SizeHint {
+
+        /**
+         * HTML bytes.
+         */
+        private volatile int html;
+
+        /**
+         * Plain text bytes.
+         */
+        private volatile int text;
+    }
+
+    /**
+     * Writes everything to two writers, passing char arrays through unchanged so static chunks keep their identity.
+     */
+    private static final class TeeWriter extends Writer {
+
+        /**
+         * First writer.
+         */
+        private final Writer first;
+
+        /**
+         * Second writer.
+         */
+        private final Writer second;
+
+        /**
+         * TeeWriter.
+         *
+         * @param one first writer
+         * @param two second writer
+         */
+        TeeWriter(final Writer one, final Writer two) {
+            first = one;
+            second = two;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(final int c) throws IOException {
+            first.write(c);
+            second.write(c);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) throws IOException {
+            first.write(cbuf, off, len);
+            second.write(cbuf, off, len);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(final String str, final int off, final int len) throws IOException {
+            first.write(str, off, len);
+            second.write(str, off, len);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void flush() throws IOException {
+            first.flush();
+            second.flush();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            // Both writers belong to the renderer
+        }
+    }
+
+}
@@ -0,0 +1,492 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template.model;
+
+import com.starfireaviation.email.config.ApplicationProperties;
+import com.starfireaviation.email.util.RecipientFormats;
+import com.starfireaviation.email.util.TemplateUtil;
+import com.starfireaviation.model.Answer;
+import com.starfireaviation.model.Event;
+import com.starfireaviation.model.Question;
+import com.starfireaviation.model.User;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateModel;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything a template may reference about one message, with one getter per template variable, named after it.
+ *
+ * <p>Generated models copy only the values their templates reference, so nothing else is computed. A template
+ * variable without a getter here is a compile error in its generated model. IDs are written as plain digits, not
+ * through FreeMarker's grouped number format, because they end up in URLs.</p>
+ */
+public final class ModelValues {
+
+    /**
+     * Link to the ground school site.
+     */
+    private static final String GROUND_SCHOOL_LINK = "https://groundschool.starfireaviation.com";
+
+    /**
+     * Position of the first answer.
+     */
+    private static final int FIRST = 1;
+
+    /**
+     * Position of the second answer.
+     */
+    private static final int SECOND = 2;
+
+    /**
+     * Position of the third answer.
+     */
+    private static final int THIRD = 3;
+
+    /**
+     * Position of the fourth answer.
+     */
+    private static final int FOURTH = 4;
+
+    /**
+     * User, may be null.
+     */
+    private final User user;
+
+    /**
+     * Event, may be null.
+     */
+    private final Event event;
+
+    /**
+     * Question, may be null.
+     */
+    private final Question question;
+
+    /**
+     * ApplicationProperties.
+     */
+    private final ApplicationProperties applicationProperties;
+
+    /**
+     * Date and time formats of the recipient.
+     */
+    private final RecipientFormats formats;
+
+    /**
+     * ModelValues.
+     *
+     * @param aUser     User, may be null
+     * @param anEvent   Event, may be null
+     * @param aQuestion Question, may be null
+     * @param aProps    ApplicationProperties
+     * @param recipient date and time formats of the recipient
+     */
+    public ModelValues(final User aUser,
+                       final Event anEvent,
+                       final Question aQuestion,
+                       final ApplicationProperties aProps,
+                       final RecipientFormats recipient) {
+        user = aUser;
+        event = anEvent;
+        question = aQuestion;
+        applicationProperties = aProps;
+        formats = recipient;
+    }
+
+    /**
+     * Wraps a value for a template.
+     *
+     * @param value value, may be null
+     * @return SimpleScalar, null for a null value so the template reports it as missing
+     */
+    public static TemplateModel scalar(final String value) {
+        if (value == null) {
+            return null;
+        }
+        return new SimpleScalar(value);
+    }
+
+    /**
+     * The same values as a map, for templates without a generated model, such as organization overrides.
+     *
+     * @return model
+     */
+    public Map<String, Object> toMap() {
+        return TemplateUtil.getModel(user, event, question, applicationProperties, formats);
+    }
+
+    /**
+     * ${groundSchoolLink}.
+     *
+     * @return value
+     */
+    public String getGroundSchoolLink() {
+        return GROUND_SCHOOL_LINK;
+    }
+
+    /**
+     * ${groundSchoolPasswordResetLink}.
+     *
+     * @return value
+     */
+    public String getGroundSchoolPasswordResetLink() {
+        return "";
+    }
+
+    /**
+     * ${hostapp}.
+     *
+     * @return value
+     */
+    public String getHostapp() {
+        return applicationProperties.getHostApp();
+    }
+
+    /**
+     * ${hostui}.
+     *
+     * @return value
+     */
+    public String getHostui() {
+        return applicationProperties.getHostUi();
+    }
+
+    /**
+     * ${firstName}.
+     *
+     * @return value
+     */
+    public String getFirstName() {
+        if (user == null) {
+            return "";
+        }
+        return user.getFirstName();
+    }
+
+    /**
+     * ${lastName}.
+     *
+     * @return value
+     */
+    public String getLastName() {
+        if (user == null) {
+            return "";
+        }
+        return user.getLastName();
+    }
+
+    /**
+     * ${userId}.
+     *
+     * @return value
+     */
+    public String getUserId() {
+        if (user == null) {
+            return "";
+        }
+        return text(user.getId());
+    }
+
+    /**
+     * ${code}.
+     *
+     * @return value
+     */
+    public String getCode() {
+        if (user == null) {
+            return "";
+        }
+        return user.getCode();
+    }
+
+    /**
+     * ${certificateNumber}.
+     *
+     * @return value
+     */
+    public String getCertificateNumber() {
+        if (user == null) {
+            return "";
+        }
+        return user.getCertificateNumber();
+    }
+
+    /**
+     * ${event}.
+     *
+     * @return value
+     */
+    public String getEvent() {
+        if (event == null) {
+            return "";
+        }
+        return TemplateUtil.describeEvent(event, formats);
+    }
+
+    /**
+     * ${eventId}.
+     *
+     * @return value
+     */
+    public String getEventId() {
+        if (event == null) {
+            return "";
+        }
+        return text(event.getId());
+    }
+
+    /**
+     * ${eventtitle}.
+     *
+     * @return value
+     */
+    public String getEventtitle() {
+        if (event == null) {
+            return "";
+        }
+        return event.getTitle();
+    }
+
+    /**
+     * ${dayofweek}.
+     *
+     * @return value
+     */
+    public String getDayofweek() {
+        if (event == null) {
+            return "";
+        }
+        return TemplateUtil.dayOfWeek(event, formats);
+    }
+
+    /**
+     * ${questionId}.
+     *
+     * @return value
+     */
+    public String getQuestionId() {
+        if (question == null) {
+            return null;
+        }
+        return text(question.getId());
+    }
+
+    /**
+     * ${questionText}.
+     *
+     * @return value
+     */
+    public String getQuestionText() {
+        if (question == null) {
+            return null;
+        }
+        return question.getText();
+    }
+
+    /**
+     * ${questionUnit}.
+     *
+     * @return value
+     */
+    public String getQuestionUnit() {
+        if (question == null) {
+            return null;
+        }
+        return text(question.getUnit());
+    }
+
+    /**
+     * ${questionSubUnit}.
+     *
+     * @return value
+     */
+    public String getQuestionSubUnit() {
+        if (question == null) {
+            return null;
+        }
+        return text(question.getSubUnit());
+    }
+
+    /**
+     * ${questionLearningStatementCode}.
+     *
+     * @return value
+     */
+    public String getQuestionLearningStatementCode() {
+        if (question == null) {
+            return null;
+        }
+        return text(question.getLearningStatementCode());
+    }
+
+    /**
+     * ${callbackId}.
+     *
+     * @return value
+     */
+    public String getCallbackId() {
+        if (question == null) {
+            return null;
+        }
+        return "question";
+    }
+
+    /**
+     * ${referenceMaterial}.
+     *
+     * @return value
+     */
+    public String getReferenceMaterial() {
+        if (question == null) {
+            return null;
+        }
+        return TemplateUtil.referenceMaterial(question);
+    }
+
+    /**
+     * ${answerChoice1}.
+     *
+     * @return value
+     */
+    public String getAnswerChoice1() {
+        return choice(FIRST);
+    }
+
+    /**
+     * ${answerText1}.
+     *
+     * @return value
+     */
+    public String getAnswerText1() {
+        return answerText(FIRST);
+    }
+
+    /**
+     * ${answerChoice2}.
+     *
+     * @return value
+     */
+    public String getAnswerChoice2() {
+        return choice(SECOND);
+    }
+
+    /**
+     * ${answerText2}.
+     *
+     * @return value
+     */
+    public String getAnswerText2() {
+        return answerText(SECOND);
+    }
+
+    /**
+     * ${answerChoice3}.
+     *
+     * @return value
+     */
+    public String getAnswerChoice3() {
+        return choice(THIRD);
+    }
+
+    /**
+     * ${answerText3}.
+     *
+     * @return value
+     */
+    public String getAnswerText3() {
+        return answerText(THIRD);
+    }
+
+    /**
+     * ${answerChoice4}.
+     *
+     * @return value
+     */
+    public String getAnswerChoice4() {
+        return choice(FOURTH);
+    }
+
+    /**
+     * ${answerText4}.
+     *
+     * @return value
+     */
+    public String getAnswerText4() {
+        return answerText(FOURTH);
+    }
+
+    /**
+     * Choice of an answer to the question.
+     *
+     * @param position position of the answer, from 1
+     * @return choice, null if there is no such answer
+     */
+    private String choice(final int position) {
+        final Answer answer = answer(position);
+        if (answer == null) {
+            return null;
+        }
+        return text(answer.getChoice());
+    }
+
+    /**
+     * Text of an answer to the question.
+     *
+     * @param position position of the answer, from 1
+     * @return text, null if there is no such answer
+     */
+    private String answerText(final int position) {
+        final Answer answer = answer(position);
+        if (answer == null) {
+            return null;
+        }
+        return text(answer.getText());
+    }
+
+    /**
+     * Answer to the question.
+     *
+     * @param position position of the answer, from 1
+     * @return Answer, null if there is no such answer
+     */
+    private Answer answer(final int position) {
+        if (question == null) {
+            return null;
+        }
+        final List<Answer> answers = question.getAnswers();
+        if (answers == null || answers.size() < position) {
+            return null;
+        }
+        return answers.get(position - 1);
+    }
+
+    /**
+     * Text of a value.
+     *
+     * @param value value, may be null
+     * @return text, null for a null value
+     */
+    private static String text(final Object value) {
+        if (value == null) {
+            return null;
+        }
+        return value.toString();
+    }
+
+}
@@ -0,0 +1,26 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template.model;
+
+import freemarker.template.TemplateHashModel;
+
+/**
+ * Generated model of a template pair. It holds exactly the values the pair references and is equal to another model
+ * of the same pair when all of those values are, so equal models render identically.
+ */
+public interface TypedModel extends TemplateHashModel {
+}
@@ -0,0 +1,96 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.tenant;
+
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.boot.env.PropertySourceLoader;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FileTenantConfigSource.
+ *
+ * <p>Reads organizations from a YAML or properties file on every load, so an edited file, such as a mounted
+ * ConfigMap, takes effect at the next refresh without a restart. The file uses the same keys as the application
+ * properties, {@code email.organizations.<name>.*}, with the same relaxed binding. A missing or unreadable file
+ * fails the load, which keeps the previous snapshot.</p>
+ */
+public class FileTenantConfigSource implements TenantConfigSource {
+
+    /**
+     * Property prefix of the organizations.
+     */
+    private static final String PREFIX = "email.organizations";
+
+    /**
+     * Organizations file.
+     */
+    private final Path file;
+
+    /**
+     * FileTenantConfigSource.
+     *
+     * @param organizationsFile YAML (.yml, .yaml) or properties (.properties) file
+     */
+    public FileTenantConfigSource(final Path organizationsFile) {
+        file = organizationsFile;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, TenantProperties> load() {
+        if (!Files.isRegularFile(file)) {
+            throw new IllegalStateException(String.format("organizations file [%s] not found", file));
+        }
+        final List<PropertySource<?>> sources;
+        try {
+            sources = loader().load(file.toString(), new FileSystemResource(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("unable to read organizations file [%s]", file), e);
+        }
+        return new Binder(ConfigurationPropertySources.from(sources))
+                .bind(PREFIX, Bindable.mapOf(String.class, TenantProperties.class))
+                .orElse(Collections.emptyMap());
+    }
+
+    /**
+     * Loader for the file's format.
+     *
+     * @return PropertySourceLoader
+     */
+    private PropertySourceLoader loader() {
+        if (file.getFileName().toString().endsWith(".properties")) {
+            return new PropertiesPropertySourceLoader();
+        }
+        return new YamlPropertySourceLoader();
+    }
+
+}
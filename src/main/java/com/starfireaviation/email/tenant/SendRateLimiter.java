@@ -0,0 +1,100 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.tenant;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SendRateLimiter.
+ *
+ * <p>Spaces sends evenly at a fixed rate. Each caller claims the next free time slot with a compare-and-set and
+ * sleeps until it arrives, so there is no lock and no burst when a backlog is released.</p>
+ */
+public final class SendRateLimiter {
+
+    /**
+     * Nanoseconds per second.
+     */
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    /**
+     * Permits per second, zero for no limit.
+     */
+    private final double permitsPerSecond;
+
+    /**
+     * Time between permits.
+     */
+    private final long intervalNanos;
+
+    /**
+     * Time the next permit becomes available.
+     */
+    private final AtomicLong nextFreeNanos = new AtomicLong(System.nanoTime());
+
+    /**
+     * SendRateLimiter.
+     *
+     * @param rate permits per second, zero or less for no limit
+     */
+    public SendRateLimiter(final double rate) {
+        if (rate > 0) {
+            permitsPerSecond = rate;
+            intervalNanos = (long) (NANOS_PER_SECOND / rate);
+        } else {
+            permitsPerSecond = 0;
+            intervalNanos = 0;
+        }
+    }
+
+    /**
+     * Permits per second, zero for no limit.
+     *
+     * @return permits per second
+     */
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Waits for the next permit.
+     *
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        if (intervalNanos == 0) {
+            return;
+        }
+        long now;
+        long slot;
+        long previous;
+        do {
+            previous = nextFreeNanos.get();
+            now = System.nanoTime();
+            slot = now;
+            if (previous - now > 0) {
+                slot = previous;
+            }
+        } while (!nextFreeNanos.compareAndSet(previous, slot + intervalNanos));
+        final long waitNanos = slot - now;
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.tenant;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolved, immutable configuration of one organization.
+ */
+public final class Tenant {
+
+    /**
+     * Organization.
+     */
+    private final String organization;
+
+    /**
+     * From address for emails.
+     */
+    private final String fromAddress;
+
+    /**
+     * SendGrid API key.
+     */
+    private final String sendGridApiKey;
+
+    /**
+     * Send rate limiter.
+     */
+    private final SendRateLimiter rateLimiter;
+
+    /**
+     * Template name to the template used in its place.
+     */
+    private final Map<String, String> templateOverrides;
+
+    /**
+     * Tenant.
+     *
+     * @param org       organization
+     * @param from      from address
+     * @param apiKey    SendGrid API key
+     * @param limiter   SendRateLimiter
+     * @param overrides template overrides
+     */
+    public Tenant(final String org,
+                  final String from,
+                  final String apiKey,
+                  final SendRateLimiter limiter,
+                  final Map<String, String> overrides) {
+        organization = org;
+        fromAddress = from;
+        sendGridApiKey = apiKey;
+        rateLimiter = limiter;
+        if (overrides == null || overrides.isEmpty()) {
+            templateOverrides = Collections.emptyMap();
+        } else {
+            templateOverrides = Collections.unmodifiableMap(new HashMap<>(overrides));
+        }
+    }
+
+    /**
+     * Organization.
+     *
+     * @return organization
+     */
+    public String getOrganization() {
+        return organization;
+    }
+
+    /**
+     * From address for emails.
+     *
+     * @return from address
+     */
+    public String getFromAddress() {
+        return fromAddress;
+    }
+
+    /**
+     * SendGrid API key.
+     *
+     * @return API key
+     */
+    public String getSendGridApiKey() {
+        return sendGridApiKey;
+    }
+
+    /**
+     * Send rate limiter.
+     *
+     * @return SendRateLimiter
+     */
+    public SendRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Template to render in place of the given one.
+     *
+     * @param templateName template name
+     * @return override, or the given name when there is none
+     */
+    public String template(final String templateName) {
+        return templateOverrides.getOrDefault(templateName, templateName);
+    }
+
+}
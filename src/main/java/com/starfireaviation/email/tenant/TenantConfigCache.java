@@ -0,0 +1,176 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.tenant;
+
+import com.starfireaviation.email.config.ApplicationProperties;
+import com.starfireaviation.email.config.CommonConstants;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TenantConfigCache.
+ *
+ * <p>Holds an immutable snapshot of every organization's resolved configuration. Lookups are a volatile read and a
+ * map get with no locking and never touch the config source; a background task reloads the source ahead of time
+ * and swaps in a new snapshot. If a reload fails the previous snapshot keeps being served.</p>
+ */
+@Slf4j
+public class TenantConfigCache {
+
+    /**
+     * Config source.
+     */
+    private final TenantConfigSource source;
+
+    /**
+     * ApplicationProperties, supplying values an organization does not set.
+     */
+    private final ApplicationProperties applicationProperties;
+
+    /**
+     * Seconds between reloads.
+     */
+    private final long refreshSeconds;
+
+    /**
+     * Reload thread.
+     */
+    private final ScheduledExecutorService refresher;
+
+    /**
+     * Current snapshot.
+     */
+    private volatile Map<String, Tenant> tenants = Collections.emptyMap();
+
+    /**
+     * Tenant used for unknown organizations.
+     */
+    private volatile Tenant defaultTenant;
+
+    /**
+     * TenantConfigCache.
+     *
+     * @param configSource TenantConfigSource
+     * @param aProps       ApplicationProperties
+     * @param refreshEvery seconds between reloads
+     */
+    public TenantConfigCache(final TenantConfigSource configSource,
+                             final ApplicationProperties aProps,
+                             final long refreshEvery) {
+        source = configSource;
+        applicationProperties = aProps;
+        refreshSeconds = refreshEvery;
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "email-tenant-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Loads the first snapshot and schedules reloads.
+     */
+    public void start() {
+        refresh();
+        refresher.scheduleWithFixedDelay(this::refreshQuietly, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops reloading.
+     */
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Resolves an organization.
+     *
+     * @param organization organization
+     * @return Tenant, or the default tenant when the organization is unknown
+     */
+    public Tenant get(final String organization) {
+        final Tenant tenant = tenants.get(organization);
+        if (tenant == null) {
+            return defaultTenant;
+        }
+        return tenant;
+    }
+
+    /**
+     * Reloads the source and swaps in a new snapshot. Rate limiters of organizations whose rate did not change are
+     * carried over so pacing is not reset by a reload.
+     */
+    public void refresh() {
+        final Map<String, TenantProperties> loaded = source.load();
+        final Map<String, Tenant> current = tenants;
+        final Map<String, Tenant> next = new HashMap<>();
+        for (Map.Entry<String, TenantProperties> entry : loaded.entrySet()) {
+            next.put(entry.getKey(), build(entry.getKey(), entry.getValue(), current.get(entry.getKey())));
+        }
+        Tenant fallback = next.get(CommonConstants.DEFAULT_ORGANIZATION);
+        if (fallback == null) {
+            fallback = build(CommonConstants.DEFAULT_ORGANIZATION, new TenantProperties(), defaultTenant);
+            next.put(CommonConstants.DEFAULT_ORGANIZATION, fallback);
+        }
+        defaultTenant = fallback;
+        tenants = Collections.unmodifiableMap(next);
+    }
+
+    /**
+     * Scheduled reload; failures keep the previous snapshot.
+     */
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            log.warn(String.format("refresh() keeping previous tenant configuration: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Resolves one organization's configuration.
+     *
+     * @param organization organization
+     * @param props        TenantProperties
+     * @param previous     Tenant from the previous snapshot, may be null
+     * @return Tenant
+     */
+    private Tenant build(final String organization, final TenantProperties props, final Tenant previous) {
+        String fromAddress = props.getFromAddress();
+        if (fromAddress == null) {
+            fromAddress = applicationProperties.getFromAddress();
+        }
+        String apiKey = props.getSendGridApiKey();
+        if (apiKey == null) {
+            apiKey = applicationProperties.getSendGridApiKey();
+        }
+        SendRateLimiter limiter;
+        if (previous != null && previous.getRateLimiter().getPermitsPerSecond() == props.getMaxSendsPerSecond()) {
+            limiter = previous.getRateLimiter();
+        } else {
+            limiter = new SendRateLimiter(props.getMaxSendsPerSecond());
+        }
+        return new Tenant(organization, fromAddress, apiKey, limiter, props.getTemplateOverrides());
+    }
+
+}
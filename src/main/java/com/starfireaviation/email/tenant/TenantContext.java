@@ -0,0 +1,69 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.tenant;
+
+import com.starfireaviation.email.config.CommonConstants;
+
+/**
+ * TenantContext.
+ *
+ * <p>Holds the organization a message is being sent for on the current thread, so MessageService can resolve the
+ * sender identity without every send method taking an organization argument.</p>
+ */
+public final class TenantContext {
+
+    /**
+     * Organization for the current thread.
+     */
+    private static final ThreadLocal<String> ORGANIZATION = new ThreadLocal<>();
+
+    /**
+     * TenantContext.
+     */
+    private TenantContext() {
+    }
+
+    /**
+     * Sets the organization for the current thread.
+     *
+     * @param organization organization
+     */
+    public static void setOrganization(final String organization) {
+        ORGANIZATION.set(organization);
+    }
+
+    /**
+     * Organization for the current thread.
+     *
+     * @return organization, or the default organization when none is set
+     */
+    public static String getOrganization() {
+        final String organization = ORGANIZATION.get();
+        if (organization == null) {
+            return CommonConstants.DEFAULT_ORGANIZATION;
+        }
+        return organization;
+    }
+
+    /**
+     * Clears the organization for the current thread.
+     */
+    public static void clear() {
+        ORGANIZATION.remove();
+    }
+
+}
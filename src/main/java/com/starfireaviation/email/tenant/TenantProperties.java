@@ -0,0 +1,50 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.tenant;
+
+import lombok.Data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Configuration for one organization. Unset values fall back to the top level email properties.
+ */
+@Data
+public class TenantProperties {
+
+    /**
+     * From address for emails.
+     */
+    private String fromAddress;
+
+    /**
+     * SendGrid API key.
+     */
+    private String sendGridApiKey;
+
+    /**
+     * Maximum sends per second, zero for no limit.
+     */
+    private double maxSendsPerSecond;
+
+    /**
+     * Template name to the template used in its place, e.g. password_reset_body.ftl=acme/password_reset_body.ftl.
+     */
+    private Map<String, String> templateOverrides = new HashMap<>();
+
+}
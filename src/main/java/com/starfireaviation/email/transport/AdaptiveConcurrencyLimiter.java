@@ -0,0 +1,292 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AdaptiveConcurrencyLimiter.
+ *
+ * <p>Bounds the number of sends in flight to a provider and tunes that bound from observed round-trip times,
+ * gradient style. Samples are collected into windows of at least a minimum duration and sample count, and the limit
+ * is adjusted once per window rather than once per send, so sends that were started under the old limit do not all
+ * pull it the same way. The window's average round trip is the provider's current latency, and the lowest window
+ * average seen is its unloaded latency. While the current latency stays within a tolerance of the unloaded one the
+ * limit grows by roughly its square root, and as requests start to queue at the provider and the current latency
+ * rises above it the limit is scaled down by their ratio. A send that fails or times out backs the limit off
+ * multiplicatively straight away. The limit is left alone while callers use less than half of it.</p>
+ *
+ * <p>The provider's unloaded latency can change, and under steady demand it may never be seen unloaded again, so
+ * every so often one window is run at half the limit. If that did not bring the round trip down, the requests were
+ * not queueing and the probe's average becomes the unloaded estimate, up or down; otherwise it can only lower
+ * it.</p>
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * Fewest samples in a window.
+     */
+    private static final int MIN_WINDOW_SAMPLES = 10;
+
+    /**
+     * Windows between probes of the unloaded round trip.
+     */
+    private static final int PROBE_INTERVAL = 30;
+
+    /**
+     * Fraction of the limit a probe window runs at.
+     */
+    private static final double PROBE_FRACTION = 0.5;
+
+    /**
+     * Fraction of the round trip before a probe that the probe must still take for the round trip to count as the
+     * provider's own rather than queueing.
+     */
+    private static final double PROBE_UNCHANGED = 0.9;
+
+    /**
+     * How far the current round trip may exceed the unloaded one before the limit shrinks.
+     */
+    private static final double RTT_TOLERANCE = 1.5;
+
+    /**
+     * Smallest factor a single window can scale the limit by.
+     */
+    private static final double MIN_GRADIENT = 0.5;
+
+    /**
+     * Weight of each new limit estimate.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * Factor the limit is scaled by after a failed send.
+     */
+    private static final double BACKOFF = 0.9;
+
+    /**
+     * Nanoseconds per millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    /**
+     * Lowest limit.
+     */
+    private final int minLimit;
+
+    /**
+     * Highest limit.
+     */
+    private final int maxLimit;
+
+    /**
+     * Shortest window.
+     */
+    private final long windowNanos;
+
+    /**
+     * Current limit, fractional so small steps accumulate.
+     */
+    private double limit;
+
+    /**
+     * Sends in flight.
+     */
+    private int inFlight;
+
+    /**
+     * Average round trip of the last window, in milliseconds.
+     */
+    private double shortRtt;
+
+    /**
+     * Unloaded round trip in milliseconds, zero until the first window closes.
+     */
+    private double noLoadRtt;
+
+    /**
+     * Windows closed since the last probe.
+     */
+    private int windowsSinceProbe;
+
+    /**
+     * Whether the current window is a probe.
+     */
+    private boolean probing;
+
+    /**
+     * Limit to go back to after the probe.
+     */
+    private double limitBeforeProbe;
+
+    /**
+     * Round trip of the window before the probe, in milliseconds.
+     */
+    private double rttBeforeProbe;
+
+    /**
+     * Number of probes started; sends started before the current probe do not count towards it.
+     */
+    private long probes;
+
+    /**
+     * When the current window started.
+     */
+    private long windowStartNanos = System.nanoTime();
+
+    /**
+     * Samples in the current window.
+     */
+    private int windowSamples;
+
+    /**
+     * Sum of the current window's round trips, in milliseconds.
+     */
+    private double windowRttSum;
+
+    /**
+     * Most sends in flight during the current window.
+     */
+    private int windowMaxInFlight;
+
+    /**
+     * AdaptiveConcurrencyLimiter.
+     *
+     * @param initial      starting limit
+     * @param lowest       lowest limit
+     * @param highest      highest limit
+     * @param windowMillis shortest window the limit is adjusted over
+     */
+    public AdaptiveConcurrencyLimiter(final int initial, final int lowest, final int highest, final long windowMillis) {
+        minLimit = lowest;
+        maxLimit = highest;
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        limit = Math.max(lowest, Math.min(highest, initial));
+    }
+
+    /**
+     * Waits until a send may start.
+     *
+     * @return ticket to hand back to release()
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+        return probes;
+    }
+
+    /**
+     * Ends a send and adjusts the limit from its outcome.
+     *
+     * @param ticket   ticket acquire() returned
+     * @param rttNanos round-trip time
+     * @param dropped  whether the send failed or timed out
+     */
+    public synchronized void release(final long ticket, final long rttNanos, final boolean dropped) {
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+        inFlight--;
+        if (dropped) {
+            limit = Math.max(minLimit, limit * BACKOFF);
+            limitBeforeProbe = Math.max(minLimit, limitBeforeProbe * BACKOFF);
+        } else if (!probing || ticket == probes) {
+            windowSamples++;
+            windowRttSum += rttNanos / NANOS_PER_MILLI;
+            final long now = System.nanoTime();
+            if (windowSamples >= MIN_WINDOW_SAMPLES && now - windowStartNanos >= windowNanos) {
+                closeWindow();
+                windowStartNanos = now;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Current limit.
+     *
+     * @return most sends allowed in flight
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Sends in flight.
+     *
+     * @return count
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Current round-trip estimate.
+     *
+     * @return milliseconds
+     */
+    public synchronized double getShortRttMillis() {
+        return shortRtt;
+    }
+
+    /**
+     * Unloaded round-trip estimate.
+     *
+     * @return milliseconds
+     */
+    public synchronized double getNoLoadRttMillis() {
+        return noLoadRtt;
+    }
+
+    /**
+     * Updates the round-trip estimates and the limit from the window's samples, and starts a new window.
+     */
+    private void closeWindow() {
+        shortRtt = windowRttSum / windowSamples;
+        final int used = windowMaxInFlight;
+        windowSamples = 0;
+        windowRttSum = 0;
+        windowMaxInFlight = inFlight;
+        if (probing) {
+            probing = false;
+            if (shortRtt >= rttBeforeProbe * PROBE_UNCHANGED || shortRtt < noLoadRtt) {
+                noLoadRtt = shortRtt;
+            }
+            limit = limitBeforeProbe;
+            return;
+        }
+        if (noLoadRtt == 0 || shortRtt < noLoadRtt) {
+            noLoadRtt = shortRtt;
+        }
+        if (used >= limit / 2) {
+            final double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, RTT_TOLERANCE * noLoadRtt / shortRtt));
+            final double estimate = limit * gradient + Math.sqrt(limit);
+            limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + estimate * SMOOTHING));
+        }
+        windowsSinceProbe++;
+        if (windowsSinceProbe >= PROBE_INTERVAL) {
+            windowsSinceProbe = 0;
+            probing = true;
+            probes++;
+            limitBeforeProbe = limit;
+            rttBeforeProbe = shortRtt;
+            limit = Math.max(minLimit, limit * PROBE_FRACTION);
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+/**
+ * Attachment whose content is already base64 encoded, so it can be shared by every message it is attached to.
+ */
+public final class Attachment {
+
+    /**
+     * File name.
+     */
+    private final String filename;
+
+    /**
+     * MIME content type.
+     */
+    private final String contentType;
+
+    /**
+     * Content as unwrapped base64, for JSON APIs.
+     */
+    private final byte[] base64;
+
+    /**
+     * Content as base64 wrapped into 76 character CRLF lines, for MIME.
+     */
+    private final byte[] mimeBase64;
+
+    /**
+     * Attachment.
+     *
+     * @param name        file name
+     * @param type        MIME content type
+     * @param encoded     content as unwrapped base64
+     * @param mimeEncoded content as base64 wrapped for MIME
+     */
+    public Attachment(final String name, final String type, final byte[] encoded, final byte[] mimeEncoded) {
+        filename = name;
+        contentType = type;
+        base64 = encoded;
+        mimeBase64 = mimeEncoded;
+    }
+
+    /**
+     * File name.
+     *
+     * @return file name
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * MIME content type.
+     *
+     * @return content type
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Content as unwrapped base64. Shared; must not be modified.
+     *
+     * @return ASCII bytes
+     */
+    public byte[] getBase64() {
+        return base64;
+    }
+
+    /**
+     * Content as base64 wrapped into 76 character CRLF lines. Shared; must not be modified.
+     *
+     * @return ASCII bytes
+     */
+    public byte[] getMimeBase64() {
+        return mimeBase64;
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CircuitBreaker.
+ *
+ * <p>Opens after a run of consecutive failures so callers fail fast instead of each waiting out a timeout against a
+ * provider that is down. Once the open interval has passed a single probe call is let through (half-open); its
+ * success closes the breaker, its failure opens it again for another interval.</p>
+ */
+public class CircuitBreaker {
+
+    /**
+     * Breaker state.
+     */
+    public enum State {
+        /**
+         * Calls pass.
+         */
+        CLOSED,
+        /**
+         * Calls are refused.
+         */
+        OPEN,
+        /**
+         * One probe call is allowed.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Consecutive failures that open the breaker.
+     */
+    private final int failureThreshold;
+
+    /**
+     * How long the breaker stays open before probing.
+     */
+    private final long openNanos;
+
+    /**
+     * Current state.
+     */
+    private State state = State.CLOSED;
+
+    /**
+     * Consecutive failures while closed.
+     */
+    private int consecutiveFailures;
+
+    /**
+     * When the breaker last opened.
+     */
+    private long openedAtNanos;
+
+    /**
+     * Whether the half-open probe has been handed out.
+     */
+    private boolean probing;
+
+    /**
+     * CircuitBreaker.
+     *
+     * @param threshold  consecutive failures that open the breaker
+     * @param openMillis how long the breaker stays open before probing
+     */
+    public CircuitBreaker(final int threshold, final long openMillis) {
+        failureThreshold = threshold;
+        openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * Asks to make a call. Every permitted call must be followed by {@link #onSuccess()} or {@link #onFailure()}.
+     *
+     * @return true if the call may go ahead
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAtNanos < openNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (probing) {
+            return false;
+        }
+        probing = true;
+        return true;
+    }
+
+    /**
+     * Records a successful call.
+     */
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probing = false;
+    }
+
+    /**
+     * Ends a call whose outcome says nothing about the provider, e.g. a message it refused, without changing state.
+     */
+    public synchronized void onRelease() {
+        probing = false;
+    }
+
+    /**
+     * Records a failed call.
+     */
+    public synchronized void onFailure() {
+        probing = false;
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        consecutiveFailures++;
+        if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * Current state; an open breaker whose interval has passed reports half-open.
+     *
+     * @return State
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openedAtNanos >= openNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Opens the breaker.
+     */
+    private void open() {
+        state = State.OPEN;
+        openedAtNanos = System.nanoTime();
+        consecutiveFailures = 0;
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+/**
+ * Exponentially weighted moving average.
+ */
+final class Ewma {
+
+    /**
+     * Weight of each new sample.
+     */
+    private final double alpha;
+
+    /**
+     * Current average.
+     */
+    private double value;
+
+    /**
+     * Ewma.
+     *
+     * @param weight  weight of each new sample, between 0 and 1
+     * @param initial starting value
+     */
+    Ewma(final double weight, final double initial) {
+        alpha = weight;
+        value = initial;
+    }
+
+    /**
+     * Adds a sample.
+     *
+     * @param sample sample
+     */
+    synchronized void update(final double sample) {
+        value += alpha * (sample - value);
+    }
+
+    /**
+     * Current average.
+     *
+     * @return average
+     */
+    synchronized double get() {
+        return value;
+    }
+
+}
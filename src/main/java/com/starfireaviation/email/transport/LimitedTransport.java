@@ -0,0 +1,96 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+import com.starfireaviation.email.exception.TransportException;
+
+/**
+ * LimitedTransport.
+ *
+ * <p>Runs a provider's sends through an {@link AdaptiveConcurrencyLimiter}. A caller waits for a free slot before
+ * the send starts; the round trip of every send the provider answered, including ones it refused, tunes the limit,
+ * and a send that failed backs it off.</p>
+ */
+public class LimitedTransport implements MailTransport {
+
+    /**
+     * Provider.
+     */
+    private final MailTransport delegate;
+
+    /**
+     * AdaptiveConcurrencyLimiter.
+     */
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    /**
+     * LimitedTransport.
+     *
+     * @param transport provider
+     * @param aLimiter  AdaptiveConcurrencyLimiter
+     */
+    public LimitedTransport(final MailTransport transport, final AdaptiveConcurrencyLimiter aLimiter) {
+        delegate = transport;
+        limiter = aLimiter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    /**
+     * Sends once a slot is free.
+     *
+     * @param mail OutboundMail
+     * @throws TransportException when the provider did not accept the message, or the wait was interrupted
+     */
+    @Override
+    public void send(final OutboundMail mail) {
+        final long ticket;
+        try {
+            ticket = limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransportException("interrupted waiting for a send slot", e, false);
+        }
+        final long start = System.nanoTime();
+        boolean dropped = true;
+        try {
+            delegate.send(mail);
+            dropped = false;
+        } catch (TransportException e) {
+            dropped = !e.isPermanent();
+            throw e;
+        } finally {
+            limiter.release(ticket, System.nanoTime() - start, dropped);
+        }
+    }
+
+    /**
+     * AdaptiveConcurrencyLimiter.
+     *
+     * @return AdaptiveConcurrencyLimiter
+     */
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+}
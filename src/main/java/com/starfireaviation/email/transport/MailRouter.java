@@ -0,0 +1,408 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+import com.starfireaviation.email.exception.TransportException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * MailRouter.
+ *
+ * <p>Spreads sends over several providers, each behind its own {@link CircuitBreaker}. A provider's share of
+ * traffic is its configured weight scaled by its recent success rate and divided by its recent latency (both
+ * exponentially weighted moving averages), so traffic drifts away from a provider as it slows down or starts
+ * failing, well before its breaker opens. A send that fails on one provider is retried on the others, best scoring
+ * first; a permanent failure (the message itself was refused) is not, and since it says nothing about the
+ * provider's health it neither counts against the provider nor closes its breaker.</p>
+ */
+@Slf4j
+public class MailRouter implements MailTransport {
+
+    /**
+     * Weight of each new sample in the moving averages.
+     */
+    private static final double EWMA_ALPHA = 0.2;
+
+    /**
+     * Latency floor, so a provider's score does not explode while its latency is near zero.
+     */
+    private static final double LATENCY_FLOOR_MILLIS = 10.0;
+
+    /**
+     * Smallest success share, so a provider that has been failing still gets the odd send to prove it recovered.
+     */
+    private static final double MIN_SUCCESS_SHARE = 0.05;
+
+    /**
+     * Nanoseconds per millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    /**
+     * Send counter name.
+     */
+    private static final String SENDS_METRIC = "email.transport.sends";
+
+    /**
+     * Consecutive failures that open a provider's breaker.
+     */
+    private final int failureThreshold;
+
+    /**
+     * How long an open breaker waits before probing.
+     */
+    private final long openMillis;
+
+    /**
+     * MeterRegistry.
+     */
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Providers.
+     */
+    private final List<Route> routes = new CopyOnWriteArrayList<>();
+
+    /**
+     * MailRouter.
+     *
+     * @param threshold     consecutive failures that open a provider's breaker
+     * @param retryMillis   how long an open breaker waits before probing
+     * @param registry      MeterRegistry
+     */
+    public MailRouter(final int threshold, final long retryMillis, final MeterRegistry registry) {
+        failureThreshold = threshold;
+        openMillis = retryMillis;
+        meterRegistry = registry;
+    }
+
+    /**
+     * Adds a provider.
+     *
+     * @param transport MailTransport
+     * @param weight    share of traffic while all providers are healthy
+     * @return this
+     */
+    public MailRouter addProvider(final MailTransport transport, final int weight) {
+        final CircuitBreaker breaker = new CircuitBreaker(failureThreshold, openMillis);
+        final Route route = new Route(transport, weight, breaker);
+        final Tags tags = Tags.of("provider", transport.getName());
+        meterRegistry.gauge("email.transport.latency.ewma", tags, route, current -> current.getLatency().get());
+        meterRegistry.gauge("email.transport.error.ewma", tags, route, current -> current.getErrors().get());
+        meterRegistry.gauge("email.transport.circuit.open", tags, breaker, MailRouter::openGauge);
+        routes.add(route);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return "router";
+    }
+
+    /**
+     * Sends through the providers until one accepts the message.
+     *
+     * @param mail OutboundMail
+     * @throws TransportException with the last failure when no provider accepted the message
+     */
+    @Override
+    public void send(final OutboundMail mail) {
+        TransportException last = null;
+        for (Route route : order()) {
+            if (!route.getBreaker().tryAcquire()) {
+                continue;
+            }
+            final String provider = route.getTransport().getName();
+            final long start = System.nanoTime();
+            try {
+                route.getTransport().send(mail);
+                route.succeeded(System.nanoTime() - start);
+                count(provider, "success");
+                return;
+            } catch (TransportException e) {
+                if (e.isPermanent()) {
+                    route.refused(System.nanoTime() - start);
+                    count(provider, "refused");
+                    throw e;
+                }
+                route.failed(System.nanoTime() - start);
+                count(provider, "failure");
+                log.warn(String.format("send() provider [%s] failed: %s", provider, e.getMessage()));
+                last = e;
+            } catch (RuntimeException e) {
+                route.failed(System.nanoTime() - start);
+                count(provider, "failure");
+                log.warn(String.format("send() provider [%s] failed: %s", provider, e.getMessage()));
+                last = new TransportException(e.getMessage(), e, false);
+            }
+        }
+        if (last == null) {
+            throw new TransportException("no provider available; all circuits open", false);
+        }
+        throw last;
+    }
+
+    /**
+     * Health across providers.
+     *
+     * @return TransportHealth
+     */
+    public TransportHealth getHealth() {
+        int open = 0;
+        int closed = 0;
+        for (Route route : routes) {
+            final CircuitBreaker.State state = route.getBreaker().getState();
+            if (state == CircuitBreaker.State.OPEN) {
+                open++;
+            } else if (state == CircuitBreaker.State.CLOSED) {
+                closed++;
+            }
+        }
+        if (closed == routes.size()) {
+            return TransportHealth.UP;
+        }
+        if (open == routes.size()) {
+            return TransportHealth.DOWN;
+        }
+        return TransportHealth.DEGRADED;
+    }
+
+    /**
+     * Breaker state per provider.
+     *
+     * @return provider name to state
+     */
+    public Map<String, CircuitBreaker.State> getCircuitStates() {
+        final Map<String, CircuitBreaker.State> states = new LinkedHashMap<>();
+        for (Route route : routes) {
+            states.put(route.getTransport().getName(), route.getBreaker().getState());
+        }
+        return states;
+    }
+
+    /**
+     * Current share of traffic per provider.
+     *
+     * @return provider name to share between 0 and 1
+     */
+    public Map<String, Double> getShares() {
+        double total = 0;
+        for (Route route : routes) {
+            total += route.score();
+        }
+        final Map<String, Double> shares = new LinkedHashMap<>();
+        for (Route route : routes) {
+            shares.put(route.getTransport().getName(), route.score() / total);
+        }
+        return shares;
+    }
+
+    /**
+     * Providers in the order they are tried: one picked at random by score among those whose breaker is not open,
+     * then the rest best scoring first.
+     *
+     * @return routes
+     */
+    private List<Route> order() {
+        final List<Route> candidates = new ArrayList<>(routes);
+        double total = 0;
+        for (Route route : candidates) {
+            if (route.getBreaker().getState() != CircuitBreaker.State.OPEN) {
+                total += route.score();
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(Route::score).reversed());
+        if (total <= 0) {
+            return candidates;
+        }
+        double pick = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < candidates.size(); i++) {
+            final Route route = candidates.get(i);
+            if (route.getBreaker().getState() == CircuitBreaker.State.OPEN) {
+                continue;
+            }
+            pick -= route.score();
+            if (pick < 0) {
+                candidates.remove(i);
+                candidates.add(0, route);
+                break;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Gauge value of a breaker.
+     *
+     * @param breaker CircuitBreaker
+     * @return 1 when open, 0 otherwise
+     */
+    private static double openGauge(final CircuitBreaker breaker) {
+        if (breaker.getState() == CircuitBreaker.State.OPEN) {
+            return 1.0;
+        }
+        return 0.0;
+    }
+
+    /**
+     * Counts a send outcome.
+     *
+     * @param provider provider name
+     * @param outcome  outcome
+     */
+    private void count(final String provider, final String outcome) {
+        Counter.builder(SENDS_METRIC).tag("provider", provider).tag("outcome", outcome).register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * A provider with its breaker and moving averages.
+     */
+    private static final class Route {
+
+        /**
+         * MailTransport.
+         */
+        private final MailTransport transport;
+
+        /**
+         * Configured weight.
+         */
+        private final int weight;
+
+        /**
+         * CircuitBreaker.
+         */
+        private final CircuitBreaker breaker;
+
+        /**
+         * Latency in milliseconds.
+         */
+        private final Ewma latency = new Ewma(EWMA_ALPHA, 0.0);
+
+        /**
+         * Failure rate.
+         */
+        private final Ewma errors = new Ewma(EWMA_ALPHA, 0.0);
+
+        /**
+         * Route.
+         *
+         * @param aTransport MailTransport
+         * @param aWeight    configured weight
+         * @param aBreaker   CircuitBreaker
+         */
+        Route(final MailTransport aTransport, final int aWeight, final CircuitBreaker aBreaker) {
+            transport = aTransport;
+            weight = aWeight;
+            breaker = aBreaker;
+        }
+
+        /**
+         * Traffic score: weight times success share over latency.
+         *
+         * @return score
+         */
+        double score() {
+            final double success = Math.max(1.0 - errors.get(), MIN_SUCCESS_SHARE);
+            return weight * success / Math.max(latency.get(), LATENCY_FLOOR_MILLIS);
+        }
+
+        /**
+         * Records a call the provider handled.
+         *
+         * @param elapsedNanos call duration
+         */
+        void succeeded(final long elapsedNanos) {
+            breaker.onSuccess();
+            latency.update(elapsedNanos / NANOS_PER_MILLI);
+            errors.update(0.0);
+        }
+
+        /**
+         * Records a call where the provider refused the message itself; its breaker and failure rate are left alone.
+         *
+         * @param elapsedNanos call duration
+         */
+        void refused(final long elapsedNanos) {
+            breaker.onRelease();
+            latency.update(elapsedNanos / NANOS_PER_MILLI);
+        }
+
+        /**
+         * Records a call the provider failed.
+         *
+         * @param elapsedNanos call duration
+         */
+        void failed(final long elapsedNanos) {
+            breaker.onFailure();
+            latency.update(elapsedNanos / NANOS_PER_MILLI);
+            errors.update(1.0);
+        }
+
+        /**
+         * MailTransport.
+         *
+         * @return MailTransport
+         */
+        MailTransport getTransport() {
+            return transport;
+        }
+
+        /**
+         * CircuitBreaker.
+         *
+         * @return CircuitBreaker
+         */
+        CircuitBreaker getBreaker() {
+            return breaker;
+        }
+
+        /**
+         * Latency in milliseconds.
+         *
+         * @return Ewma
+         */
+        Ewma getLatency() {
+            return latency;
+        }
+
+        /**
+         * Failure rate.
+         *
+         * @return Ewma
+         */
+        Ewma getErrors() {
+            return errors;
+        }
+    }
+
+}
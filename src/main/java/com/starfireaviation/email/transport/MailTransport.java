@@ -0,0 +1,41 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+import com.starfireaviation.email.exception.TransportException;
+
+/**
+ * Hands a rendered message to a mail provider.
+ */
+public interface MailTransport {
+
+    /**
+     * Provider name, used in logs and metrics.
+     *
+     * @return name
+     */
+    String getName();
+
+    /**
+     * Sends a message.
+     *
+     * @param mail OutboundMail
+     * @throws TransportException when the provider did not accept the message
+     */
+    void send(OutboundMail mail);
+
+}
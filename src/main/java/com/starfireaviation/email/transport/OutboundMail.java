@@ -0,0 +1,188 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+import com.starfireaviation.email.template.RenderBuffer;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A rendered message ready to send.
+ */
+public final class OutboundMail {
+
+    /**
+     * From address.
+     */
+    private final String fromAddress;
+
+    /**
+     * Reply-to address, null to reply to the from address.
+     */
+    private final String replyToAddress;
+
+    /**
+     * To address.
+     */
+    private final String toAddress;
+
+    /**
+     * Subject.
+     */
+    private final String subject;
+
+    /**
+     * UTF-8 encoded HTML body.
+     */
+    private final RenderBuffer body;
+
+    /**
+     * UTF-8 encoded plain text alternative, may be null.
+     */
+    private final RenderBuffer text;
+
+    /**
+     * SendGrid API key of the sending organization.
+     */
+    private final String apiKey;
+
+    /**
+     * Attachments.
+     */
+    private final List<Attachment> attachments;
+
+    /**
+     * OutboundMail without attachments.
+     *
+     * @param from     from address
+     * @param to       to address
+     * @param aSubject subject
+     * @param html     UTF-8 encoded HTML body
+     * @param key      SendGrid API key of the sending organization
+     */
+    public OutboundMail(final String from,
+                        final String to,
+                        final String aSubject,
+                        final RenderBuffer html,
+                        final String key) {
+        this(from, null, to, aSubject, html, null, key, Collections.emptyList());
+    }
+
+    /**
+     * OutboundMail.
+     *
+     * @param from     from address
+     * @param replyTo  reply-to address, null to reply to the from address
+     * @param to       to address
+     * @param aSubject subject
+     * @param html     UTF-8 encoded HTML body
+     * @param plain    UTF-8 encoded plain text alternative, may be null
+     * @param key      SendGrid API key of the sending organization
+     * @param attached attachments
+     */
+    public OutboundMail(final String from,
+                        final String replyTo,
+                        final String to,
+                        final String aSubject,
+                        final RenderBuffer html,
+                        final RenderBuffer plain,
+                        final String key,
+                        final List<Attachment> attached) {
+        fromAddress = from;
+        replyToAddress = replyTo;
+        toAddress = to;
+        subject = aSubject;
+        body = html;
+        text = plain;
+        apiKey = key;
+        attachments = attached;
+    }
+
+    /**
+     * From address.
+     *
+     * @return from address
+     */
+    public String getFromAddress() {
+        return fromAddress;
+    }
+
+    /**
+     * Reply-to address.
+     *
+     * @return reply-to address, null to reply to the from address
+     */
+    public String getReplyToAddress() {
+        return replyToAddress;
+    }
+
+    /**
+     * To address.
+     *
+     * @return to address
+     */
+    public String getToAddress() {
+        return toAddress;
+    }
+
+    /**
+     * Subject.
+     *
+     * @return subject
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * UTF-8 encoded HTML body.
+     *
+     * @return RenderBuffer
+     */
+    public RenderBuffer getBody() {
+        return body;
+    }
+
+    /**
+     * UTF-8 encoded plain text alternative.
+     *
+     * @return RenderBuffer, null when there is none
+     */
+    public RenderBuffer getText() {
+        return text;
+    }
+
+    /**
+     * SendGrid API key of the sending organization.
+     *
+     * @return API key
+     */
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    /**
+     * Attachments.
+     *
+     * @return attachments, empty when there are none
+     */
+    public List<Attachment> getAttachments() {
+        return attachments;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+import com.starfireaviation.email.config.CommonConstants;
+import lombok.Data;
+
+/**
+ * Configuration for one mail provider.
+ */
+@Data
+public class ProviderProperties {
+
+    /**
+     * Provider type.
+     */
+    public enum Type {
+        /**
+         * SendGrid v3 API.
+         */
+        SENDGRID,
+        /**
+         * SMTP relay.
+         */
+        SMTP
+    }
+
+    /**
+     * Provider type.
+     */
+    private Type type = Type.SENDGRID;
+
+    /**
+     * Share of traffic relative to the other providers while all are healthy.
+     */
+    private int weight = 1;
+
+    /**
+     * SendGrid base URL.
+     */
+    private String baseUrl = CommonConstants.SENDGRID_BASE_URL;
+
+    /**
+     * SMTP host.
+     */
+    private String host;
+
+    /**
+     * SMTP port.
+     */
+    private int port = CommonConstants.SMTP_PORT;
+
+    /**
+     * SMTP user name.
+     */
+    private String username;
+
+    /**
+     * SMTP password.
+     */
+    private String password;
+
+    /**
+     * Whether to upgrade SMTP connections with STARTTLS.
+     */
+    private boolean startTls;
+
+    /**
+     * Connect, read and write timeout.
+     */
+    private long timeoutMillis = CommonConstants.DEFAULT_TRANSPORT_TIMEOUT_MILLIS;
+
+    /**
+     * Whether to gzip compress SendGrid requests.
+     */
+    private boolean compress;
+
+}
@@ -0,0 +1,277 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.starfireaviation.email.exception.TransportException;
+import com.starfireaviation.email.template.RenderBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * SendGridTransport.
+ *
+ * <p>Posts to the SendGrid v3 mail/send endpoint. The JSON request is generated straight onto the connection's
+ * chunked output stream, and the plain text and HTML bodies are escaped into it directly from the rendered UTF-8
+ * bytes, so no String, JSON document or request entity holding a body is ever built. Attachments are already base64
+ * encoded and are copied in without escaping. The request can optionally be gzip compressed. Connect and read
+ * timeouts bound how long a slow provider can hold a sender.</p>
+ */
+public class SendGridTransport implements MailTransport {
+
+    /**
+     * mail/send path.
+     */
+    private static final String MAIL_SEND_PATH = "/v3/mail/send";
+
+    /**
+     * Shared JsonFactory; generators recycle their buffers per thread and leave the request stream open.
+     */
+    private static final JsonFactory JSON_FACTORY =
+            JsonFactory.builder().disable(StreamWriteFeature.AUTO_CLOSE_TARGET).build();
+
+    /**
+     * Chunk size of the request stream.
+     */
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    /**
+     * Lowest HTTP status that is not a success.
+     */
+    private static final int HTTP_MULTIPLE_CHOICES = 300;
+
+    /**
+     * HTTP Too Many Requests.
+     */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Lowest HTTP server error status.
+     */
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    /**
+     * Client error statuses caused by the provider or our account with it rather than the message: a revoked or
+     * wrong API key, a missing scope, a wrong base URL, a size limit another provider may not have, and rate
+     * limiting. Another provider may well accept the message.
+     */
+    private static final Set<Integer> PROVIDER_FAULTS = Set.of(
+            HttpURLConnection.HTTP_UNAUTHORIZED,
+            HttpURLConnection.HTTP_FORBIDDEN,
+            HttpURLConnection.HTTP_NOT_FOUND,
+            HttpURLConnection.HTTP_ENTITY_TOO_LARGE,
+            HTTP_TOO_MANY_REQUESTS);
+
+    /**
+     * Provider name.
+     */
+    private final String name;
+
+    /**
+     * mail/send URL.
+     */
+    private final URL endpoint;
+
+    /**
+     * Connect and read timeout.
+     */
+    private final int timeoutMillis;
+
+    /**
+     * Whether requests are gzip compressed.
+     */
+    private final boolean compress;
+
+    /**
+     * SendGridTransport.
+     *
+     * @param aName    provider name
+     * @param baseUrl  SendGrid base URL, e.g. https://api.sendgrid.com
+     * @param timeout  connect and read timeout in milliseconds
+     * @param gzip     whether to gzip compress requests
+     */
+    public SendGridTransport(final String aName, final String baseUrl, final long timeout, final boolean gzip) {
+        name = aName;
+        try {
+            endpoint = new URL(baseUrl + MAIL_SEND_PATH);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(String.format("%s: invalid base URL [%s]", aName, baseUrl), e);
+        }
+        timeoutMillis = (int) timeout;
+        compress = gzip;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void send(final OutboundMail mail) {
+        final int status;
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(CHUNK_BYTES);
+            connection.setRequestProperty("Authorization", "Bearer " + mail.getApiKey());
+            connection.setRequestProperty("Content-Type", "application/json");
+            if (compress) {
+                connection.setRequestProperty("Content-Encoding", "gzip");
+            }
+            try (OutputStream out = requestStream(connection)) {
+                writeRequest(mail, out);
+            }
+            status = connection.getResponseCode();
+            drain(connection, status);
+        } catch (IOException e) {
+            throw new TransportException(String.format("%s: %s", name, e.getMessage()), e, false);
+        }
+        if (status < HTTP_MULTIPLE_CHOICES) {
+            return;
+        }
+        throw new TransportException(String.format("%s: mail/send returned %d", name, status), isPermanent(status));
+    }
+
+    /**
+     * Whether a failure status means the message itself was refused, e.g. a 400 for an invalid recipient, as opposed
+     * to the provider failing.
+     *
+     * @param status HTTP status of a failed send
+     * @return true for client errors other than the provider faults
+     */
+    static boolean isPermanent(final int status) {
+        return status < HTTP_SERVER_ERROR && !PROVIDER_FAULTS.contains(status);
+    }
+
+    /**
+     * Writes the mail/send JSON.
+     *
+     * @param mail OutboundMail
+     * @param out  request stream
+     * @throws IOException when the stream fails
+     */
+    static void writeRequest(final OutboundMail mail, final OutputStream out) throws IOException {
+        final RenderBuffer body = mail.getBody();
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("personalizations");
+            json.writeStartObject();
+            json.writeArrayFieldStart("to");
+            json.writeStartObject();
+            json.writeStringField("email", mail.getToAddress());
+            json.writeEndObject();
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeEndArray();
+            json.writeObjectFieldStart("from");
+            json.writeStringField("email", mail.getFromAddress());
+            json.writeEndObject();
+            if (mail.getReplyToAddress() != null) {
+                json.writeObjectFieldStart("reply_to");
+                json.writeStringField("email", mail.getReplyToAddress());
+                json.writeEndObject();
+            }
+            json.writeStringField("subject", mail.getSubject());
+            json.writeArrayFieldStart("content");
+            final RenderBuffer text = mail.getText();
+            if (text != null) {
+                json.writeStartObject();
+                json.writeStringField("type", "text/plain");
+                json.writeFieldName("value");
+                json.writeUTF8String(text.array(), 0, text.size());
+                json.writeEndObject();
+            }
+            json.writeStartObject();
+            json.writeStringField("type", "text/html");
+            json.writeFieldName("value");
+            json.writeUTF8String(body.array(), 0, body.size());
+            json.writeEndObject();
+            json.writeEndArray();
+            if (!mail.getAttachments().isEmpty()) {
+                json.writeArrayFieldStart("attachments");
+                for (Attachment attachment : mail.getAttachments()) {
+                    final byte[] content = attachment.getBase64();
+                    json.writeStartObject();
+                    json.writeFieldName("content");
+                    json.writeRawUTF8String(content, 0, content.length);
+                    json.writeStringField("type", attachment.getContentType());
+                    json.writeStringField("filename", attachment.getFilename());
+                    json.writeStringField("disposition", "attachment");
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+            }
+            json.writeEndObject();
+        }
+    }
+
+    /**
+     * Request stream, gzip compressed if configured.
+     *
+     * @param connection HttpURLConnection
+     * @return OutputStream
+     * @throws IOException when the connection fails
+     */
+    private OutputStream requestStream(final HttpURLConnection connection) throws IOException {
+        if (compress) {
+            return new GZIPOutputStream(connection.getOutputStream(), CHUNK_BYTES);
+        }
+        return connection.getOutputStream();
+    }
+
+    /**
+     * Reads and discards the response body so the connection can be reused.
+     *
+     * @param connection HttpURLConnection
+     * @param status     response status
+     * @throws IOException when the connection fails
+     */
+    private static void drain(final HttpURLConnection connection, final int status) throws IOException {
+        InputStream in;
+        if (status < HTTP_MULTIPLE_CHOICES) {
+            in = connection.getInputStream();
+        } else {
+            in = connection.getErrorStream();
+        }
+        if (in == null) {
+            return;
+        }
+        try (InputStream response = in) {
+            response.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+}
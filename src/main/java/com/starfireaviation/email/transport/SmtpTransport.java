@@ -0,0 +1,120 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+import com.starfireaviation.email.exception.TransportException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import javax.activation.DataHandler;
+import javax.mail.MessagingException;
+import javax.mail.Part;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.PreencodedMimeBodyPart;
+import javax.mail.util.ByteArrayDataSource;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SmtpTransport; relays through an SMTP server.
+ */
+public class SmtpTransport implements MailTransport {
+
+    /**
+     * Provider name.
+     */
+    private final String name;
+
+    /**
+     * JavaMailSender.
+     */
+    private final JavaMailSender mailSender;
+
+    /**
+     * SmtpTransport.
+     *
+     * @param aName  provider name
+     * @param sender JavaMailSender configured for the relay, including its timeouts
+     */
+    public SmtpTransport(final String aName, final JavaMailSender sender) {
+        name = aName;
+        mailSender = sender;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void send(final OutboundMail mail) {
+        final MimeMessage message = mailSender.createMimeMessage();
+        try {
+            final boolean multipart = mail.getText() != null || !mail.getAttachments().isEmpty();
+            final MimeMessageHelper helper = new MimeMessageHelper(message, multipart, StandardCharsets.UTF_8.name());
+            helper.setFrom(mail.getFromAddress());
+            if (mail.getReplyToAddress() != null) {
+                helper.setReplyTo(mail.getReplyToAddress());
+            }
+            helper.setTo(mail.getToAddress());
+            helper.setSubject(mail.getSubject());
+            if (mail.getText() == null) {
+                helper.setText(mail.getBody().toUtf8String(), true);
+            } else {
+                helper.setText(mail.getText().toUtf8String(), mail.getBody().toUtf8String());
+            }
+            for (Attachment attachment : mail.getAttachments()) {
+                helper.getRootMimeMultipart().addBodyPart(part(attachment));
+            }
+        } catch (MessagingException e) {
+            throw new TransportException(String.format("%s: %s", name, e.getMessage()), e, true);
+        }
+        try {
+            mailSender.send(message);
+        } catch (MailParseException | MailPreparationException e) {
+            throw new TransportException(String.format("%s: %s", name, e.getMessage()), e, true);
+        } catch (MailException e) {
+            throw new TransportException(String.format("%s: %s", name, e.getMessage()), e, false);
+        }
+    }
+
+    /**
+     * MIME part for an attachment, written as the base64 it already holds rather than encoded again.
+     *
+     * @param attachment Attachment
+     * @return body part
+     * @throws MessagingException when the part cannot be built
+     */
+    private static PreencodedMimeBodyPart part(final Attachment attachment) throws MessagingException {
+        final PreencodedMimeBodyPart part = new PreencodedMimeBodyPart("base64");
+        part.setDataHandler(new DataHandler(
+                new ByteArrayDataSource(attachment.getMimeBase64(), attachment.getContentType())));
+        part.setHeader("Content-Type", attachment.getContentType());
+        part.setFileName(attachment.getFilename());
+        part.setDisposition(Part.ATTACHMENT);
+        return part;
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.util;
+
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IllformedLocaleException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FormatterCache.
+ *
+ * <p>Concurrent cache of {@link DateTimeFormatter}s keyed by (zone, locale, pattern), grouped per (zone, locale) into
+ * {@link RecipientFormats}. Patterns are parsed once, at construction, and {@link #warm(Collection)} builds the
+ * formatters for every available zone in the given locales at startup, so a send only looks formatters up. A
+ * combination that was not warmed is built once from the already parsed patterns and cached. Zone ids and language
+ * tags are resolved through caches of their own, and unknown ones fall back to the defaults.</p>
+ */
+public class FormatterCache {
+
+    /**
+     * Zone used when a recipient's is unknown or invalid.
+     */
+    private final ZoneId defaultZone;
+
+    /**
+     * Locale used when a recipient's is unknown or invalid.
+     */
+    private final Locale defaultLocale;
+
+    /**
+     * Zone event times are given in.
+     */
+    private final ZoneId eventZone;
+
+    /**
+     * Parsed patterns.
+     */
+    private final Map<String, DateTimeFormatter> patterns;
+
+    /**
+     * Zones by id.
+     */
+    private final Map<String, ZoneId> zones = new ConcurrentHashMap<>();
+
+    /**
+     * Locales by language tag.
+     */
+    private final Map<String, Locale> locales = new ConcurrentHashMap<>();
+
+    /**
+     * Formatters by zone, then locale.
+     */
+    private final Map<ZoneId, Map<Locale, RecipientFormats>> formats = new ConcurrentHashMap<>();
+
+    /**
+     * Formatters for the default zone and locale.
+     */
+    private final RecipientFormats defaults;
+
+    /**
+     * FormatterCache.
+     *
+     * @param zone          zone used when a recipient's is unknown
+     * @param locale        locale used when a recipient's is unknown
+     * @param sourceZone    zone event times are given in
+     * @param knownPatterns patterns to parse up front
+     */
+    public FormatterCache(final ZoneId zone,
+                          final Locale locale,
+                          final ZoneId sourceZone,
+                          final Collection<String> knownPatterns) {
+        defaultZone = zone;
+        defaultLocale = locale;
+        eventZone = sourceZone;
+        final Map<String, DateTimeFormatter> parsed = new HashMap<>();
+        for (String pattern : knownPatterns) {
+            parsed.put(pattern, DateTimeFormatter.ofPattern(pattern));
+        }
+        patterns = Collections.unmodifiableMap(parsed);
+        defaults = get(zone, locale);
+    }
+
+    /**
+     * Builds the formatters for every available zone in the given locales.
+     *
+     * @param languageTags BCP 47 language tags
+     */
+    public void warm(final Collection<String> languageTags) {
+        for (String languageTag : languageTags) {
+            final Locale locale = locale(languageTag);
+            for (String zoneId : ZoneId.getAvailableZoneIds()) {
+                get(zone(zoneId), locale);
+            }
+        }
+    }
+
+    /**
+     * Formatters for the default zone and locale.
+     *
+     * @return RecipientFormats
+     */
+    public RecipientFormats defaults() {
+        return defaults;
+    }
+
+    /**
+     * Formatters for a zone id and language tag.
+     *
+     * @param zoneId      IANA zone id, may be null
+     * @param languageTag BCP 47 language tag, may be null
+     * @return RecipientFormats
+     */
+    public RecipientFormats get(final String zoneId, final String languageTag) {
+        return get(zone(zoneId), locale(languageTag));
+    }
+
+    /**
+     * Formatters for a zone and locale.
+     *
+     * @param zone   ZoneId
+     * @param locale Locale
+     * @return RecipientFormats
+     */
+    public RecipientFormats get(final ZoneId zone, final Locale locale) {
+        Map<Locale, RecipientFormats> byLocale = formats.get(zone);
+        if (byLocale == null) {
+            byLocale = formats.computeIfAbsent(zone, key -> new ConcurrentHashMap<>());
+        }
+        final RecipientFormats cached = byLocale.get(locale);
+        if (cached != null) {
+            return cached;
+        }
+        return byLocale.computeIfAbsent(locale, key -> new RecipientFormats(zone, key, eventZone, patterns));
+    }
+
+    /**
+     * Resolves a zone id.
+     *
+     * @param zoneId IANA zone id, may be null
+     * @return ZoneId, the default zone when the id is missing or invalid
+     */
+    public ZoneId zone(final String zoneId) {
+        if (zoneId == null || zoneId.isEmpty()) {
+            return defaultZone;
+        }
+        final ZoneId cached = zones.get(zoneId);
+        if (cached != null) {
+            return cached;
+        }
+        return zones.computeIfAbsent(zoneId, key -> {
+            try {
+                return ZoneId.of(key);
+            } catch (DateTimeException e) {
+                return defaultZone;
+            }
+        });
+    }
+
+    /**
+     * Resolves a language tag.
+     *
+     * @param languageTag BCP 47 language tag, may be null
+     * @return Locale, the default locale when the tag is missing or invalid
+     */
+    public Locale locale(final String languageTag) {
+        if (languageTag == null || languageTag.isEmpty()) {
+            return defaultLocale;
+        }
+        final Locale cached = locales.get(languageTag);
+        if (cached != null) {
+            return cached;
+        }
+        return locales.computeIfAbsent(languageTag, key -> {
+            try {
+                return new Locale.Builder().setLanguageTag(key.replace('_', '-')).build();
+            } catch (IllformedLocaleException e) {
+                return defaultLocale;
+            }
+        });
+    }
+
+    /**
+     * Number of (zone, locale) pairs with formatters.
+     *
+     * @return count
+     */
+    public int size() {
+        int size = 0;
+        for (Map<Locale, RecipientFormats> byLocale : formats.values()) {
+            size += byLocale.size();
+        }
+        return size;
+    }
+
+}
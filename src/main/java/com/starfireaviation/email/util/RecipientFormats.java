@@ -0,0 +1,123 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.util;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Date and time formatters for one recipient's time zone and locale, obtained from a {@link FormatterCache}.
+ */
+public final class RecipientFormats {
+
+    /**
+     * Zone of the recipient.
+     */
+    private final ZoneId zone;
+
+    /**
+     * Locale of the recipient.
+     */
+    private final Locale locale;
+
+    /**
+     * Zone event times are given in.
+     */
+    private final ZoneId eventZone;
+
+    /**
+     * Parsed patterns shared by all recipients.
+     */
+    private final Map<String, DateTimeFormatter> patterns;
+
+    /**
+     * Formatters by pattern, localized and zoned for the recipient.
+     */
+    private final Map<String, DateTimeFormatter> formatters = new ConcurrentHashMap<>();
+
+    /**
+     * RecipientFormats; builds a formatter for every known pattern.
+     *
+     * @param aZone      zone of the recipient
+     * @param aLocale    locale of the recipient
+     * @param sourceZone zone event times are given in
+     * @param parsed     parsed patterns shared by all recipients
+     */
+    RecipientFormats(final ZoneId aZone,
+                     final Locale aLocale,
+                     final ZoneId sourceZone,
+                     final Map<String, DateTimeFormatter> parsed) {
+        zone = aZone;
+        locale = aLocale;
+        eventZone = sourceZone;
+        patterns = parsed;
+        for (Map.Entry<String, DateTimeFormatter> entry : parsed.entrySet()) {
+            formatters.put(entry.getKey(), entry.getValue().withLocale(aLocale).withZone(aZone));
+        }
+    }
+
+    /**
+     * Formatter for a pattern in the recipient's zone and locale.
+     *
+     * @param pattern DateTimeFormatter pattern
+     * @return DateTimeFormatter
+     */
+    public DateTimeFormatter formatter(final String pattern) {
+        final DateTimeFormatter formatter = formatters.get(pattern);
+        if (formatter != null) {
+            return formatter;
+        }
+        return formatters.computeIfAbsent(pattern, key -> {
+            DateTimeFormatter parsed = patterns.get(key);
+            if (parsed == null) {
+                parsed = DateTimeFormatter.ofPattern(key);
+            }
+            return parsed.withLocale(locale).withZone(zone);
+        });
+    }
+
+    /**
+     * Zone of the recipient.
+     *
+     * @return ZoneId
+     */
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * Locale of the recipient.
+     *
+     * @return Locale
+     */
+    public Locale getLocale() {
+        return locale;
+    }
+
+    /**
+     * Zone event times are given in.
+     *
+     * @return ZoneId
+     */
+    public ZoneId getEventZone() {
+        return eventZone;
+    }
+
+}
@@ -16,6 +16,7 @@
 
 package com.starfireaviation.email.util;
 
+import com.starfireaviation.email.jfr.InboundParseEvent;
 import com.starfireaviation.model.ResponseOption;
 
 import java.util.regex.Matcher;
@@ -73,6 +74,8 @@ public class ResponseParser {
      * @return SMSResponseOption
      */
     public static ResponseOption determineResponse(final String message) {
+        final InboundParseEvent event = new InboundParseEvent();
+        event.begin();
         ResponseOption responseOption = ResponseOption.UNKNOWN;
         if (isStopResponse(message)) {
             responseOption = ResponseOption.STOP;
@@ -91,6 +94,7 @@ public class ResponseParser {
         } else if (isDResponse(message)) {
             responseOption = ResponseOption.D;
         }
+        event.finish(message.length(), responseOption.name());
         return responseOption;
     }
 
@@ -24,11 +24,7 @@ import com.starfireaviation.model.ReferenceMaterial;
 import com.starfireaviation.model.User;
 import com.starfireaviation.email.config.ApplicationProperties;
 
-import java.text.SimpleDateFormat;
-import java.time.OffsetDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.util.Date;
+import java.time.ZonedDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,20 +35,19 @@ import java.util.Map;
 public class TemplateUtil {
 
     /**
-     * DateTimeFormatter.
+     * Pattern of event times.
      */
-    private static final DateTimeFormatter DATE_TIME_FORMATTER =
-            DateTimeFormatter.ofPattern("EEE MMM dd, yyyy hh:mm a");
+    public static final String EVENT_TIME_PATTERN = "EEE MMM dd, yyyy hh:mm a z";
 
     /**
-     * ZoneId.
+     * Pattern of the day of the week.
      */
-    private static final ZoneId ET_ZONE_ID = ZoneId.of("America/New_York");
+    public static final String DAY_OF_WEEK_PATTERN = "EEEE";
 
     /**
-     * SimpleDateFormat - Day of Week.
+     * Patterns used by templates, parsed once by the {@link FormatterCache}.
      */
-    private static final SimpleDateFormat DAY_OF_WEEK = new SimpleDateFormat("EEEE");
+    public static final List<String> PATTERNS = List.of(EVENT_TIME_PATTERN, DAY_OF_WEEK_PATTERN);
 
     /**
      * Builds model for use in templates.
@@ -61,23 +56,94 @@ public class TemplateUtil {
      * @param event                 Event
      * @param question              Question
      * @param applicationProperties ApplicationProperties
+     * @param formats               date and time formats of the recipient
      * @return model
      */
     public static Map<String, Object> getModel(
             final User user,
             final Event event,
             final Question question,
-            final ApplicationProperties applicationProperties) {
+            final ApplicationProperties applicationProperties,
+            final RecipientFormats formats) {
         Map<String, Object> model = new HashMap<>();
         // TODO property file this value
         model.put("groundSchoolLink", "https://groundschool.starfireaviation.com");
         model.put("groundSchoolPasswordResetLink", "");
+        model.put("hostapp", applicationProperties.getHostApp());
+        model.put("hostui", applicationProperties.getHostUi());
         buildUserModel(user, model);
-        buildEventModel(event, model);
+        buildEventModel(event, formats, model);
         buildQuestionModel(question, model);
         return model;
     }
 
+    /**
+     * Event title, time in the recipient's zone and locale, and address, as shown in event messages.
+     *
+     * @param event   Event
+     * @param formats date and time formats of the recipient
+     * @return description
+     */
+    public static String describeEvent(final Event event, final RecipientFormats formats) {
+        final ZonedDateTime start = event.getStartTime().atZone(formats.getEventZone());
+        StringBuilder sb = new StringBuilder();
+        sb.append(event.getTitle());
+        sb.append("\n\n");
+        sb.append("Time: ");
+        sb.append(formats.formatter(EVENT_TIME_PATTERN).format(start));
+        sb.append("\n");
+        Address address = event.getAddress();
+        if (address != null) {
+            sb.append("Address: \n");
+            if (address.getAddressLine1() != null) {
+                sb.append("\t");
+                sb.append(address.getAddressLine1());
+                sb.append("\n");
+            }
+            if (address.getAddressLine2() != null) {
+                sb.append("\t");
+                sb.append(address.getAddressLine2());
+                sb.append("\n");
+            }
+            sb.append("\t");
+            sb.append(address.getCity());
+            sb.append(", ");
+            sb.append(address.getState());
+            sb.append(" ");
+            sb.append(address.getZipCode());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Day of the week an event starts on, in the recipient's zone and locale.
+     *
+     * @param event   Event
+     * @param formats date and time formats of the recipient
+     * @return day of the week
+     */
+    public static String dayOfWeek(final Event event, final RecipientFormats formats) {
+        return formats.formatter(DAY_OF_WEEK_PATTERN).format(event.getStartTime().atZone(formats.getEventZone()));
+    }
+
+    /**
+     * Reference material of a question, as shown in question messages.
+     *
+     * @param question Question
+     * @return reference material, null if there is none
+     */
+    public static String referenceMaterial(final Question question) {
+        final List<ReferenceMaterial> referenceMaterials = question.getReferenceMaterials();
+        if (referenceMaterials == null || referenceMaterials.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("Reference Material: ");
+        for (ReferenceMaterial referenceMaterial : referenceMaterials) {
+            sb.append("<").append(referenceMaterial.getResourceLocation()).append(">\n");
+        }
+        return sb.toString();
+    }
+
     /**
      * Builds Question portions of model for use in templates.
      *
@@ -90,14 +156,11 @@ public class TemplateUtil {
             model.put("questionSubUnit", question.getSubUnit());
             model.put("questionLearningStatementCode", question.getLearningStatementCode());
             model.put("questionText", question.getText());
+            model.put("questionId", question.getId());
             model.put("callbackId", "question");
-            final List<ReferenceMaterial> referenceMaterials = question.getReferenceMaterials();
-            if (referenceMaterials != null && referenceMaterials.size() > 0) {
-                StringBuilder sb = new StringBuilder("Reference Material: ");
-                for (ReferenceMaterial referenceMaterial : referenceMaterials) {
-                    sb.append("<").append(referenceMaterial.getResourceLocation()).append(">\n");
-                }
-                model.put("referenceMaterial", sb.toString());
+            final String referenceMaterial = referenceMaterial(question);
+            if (referenceMaterial != null) {
+                model.put("referenceMaterial", referenceMaterial);
             }
             int count = 1;
             if (question.getAnswers() != null) {
@@ -111,49 +174,23 @@ public class TemplateUtil {
     }
 
     /**
-     * Builds Event portions of model for use in templates.
+     * Builds Event portions of model for use in templates, with times in the recipient's zone and locale.
      *
-     * @param event Event
-     * @param model Map
+     * @param event   Event
+     * @param formats date and time formats of the recipient
+     * @param model   Map
      */
-    private static void buildEventModel(final Event event, final Map<String, Object> model) {
+    private static void buildEventModel(final Event event,
+                                        final RecipientFormats formats,
+                                        final Map<String, Object> model) {
         if (event != null) {
-            StringBuilder sb = new StringBuilder();
-            sb.append(event.getTitle());
-            sb.append("\n\n");
-            sb.append("Time: ");
-            sb.append(DATE_TIME_FORMATTER.format(event.getStartTime().atZone(ET_ZONE_ID)));
-            sb.append("\n");
-            Address address = event.getAddress();
-            if (address != null) {
-                sb.append("Address: \n");
-                if (address.getAddressLine1() != null) {
-                    sb.append("\t");
-                    sb.append(address.getAddressLine1());
-                    sb.append("\n");
-                }
-                if (address.getAddressLine2() != null) {
-                    sb.append("\t");
-                    sb.append(address.getAddressLine2());
-                    sb.append("\n");
-                }
-                sb.append("\t");
-                sb.append(address.getCity());
-                sb.append(", ");
-                sb.append(address.getState());
-                sb.append(" ");
-                sb.append(address.getZipCode());
-            }
-            model.put("event", sb.toString());
+            model.put("event", describeEvent(event, formats));
+            model.put("eventId", event.getId());
             model.put("eventtitle", event.getTitle());
-            model.put(
-                    "dayofweek",
-                    DAY_OF_WEEK.format(
-                            Date.from(
-                                    event.getStartTime().toInstant(
-                                            OffsetDateTime.now(ZoneId.of("America/New_York")).getOffset()))));
+            model.put("dayofweek", dayOfWeek(event, formats));
         } else {
             model.put("event", "");
+            model.put("eventId", "");
             model.put("eventtitle", "");
             model.put("dayofweek", "");
         }
@@ -0,0 +1,173 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.webhook;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Clock;
+import java.util.Base64;
+
+/**
+ * WebhookAuthenticator.
+ *
+ * <p>Checks that provider callbacks really come from the provider. Delivery events must carry a valid SendGrid
+ * Signed Event Webhook signature: an ECDSA (P-256, SHA-256) signature over the timestamp header followed by the raw
+ * body, checked against the public key from the SendGrid console. The timestamp must also be recent, so a captured
+ * request cannot be replayed later. Inbound Parse requests are not signed by SendGrid, so they must carry a shared
+ * secret as the password of HTTP basic credentials in the configured parse URL, e.g.
+ * {@code https://parse:<secret>@email.example.com/webhooks/inbound}.</p>
+ *
+ * <p>A callback whose key or secret is not configured is always rejected.</p>
+ */
+@Slf4j
+public class WebhookAuthenticator {
+
+    /**
+     * Signature algorithm of the Signed Event Webhook.
+     */
+    private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+
+    /**
+     * Authorization scheme of the inbound secret.
+     */
+    private static final String BASIC_PREFIX = "Basic ";
+
+    /**
+     * Event Webhook verification key, null when not configured.
+     */
+    private final PublicKey eventKey;
+
+    /**
+     * Inbound Parse shared secret, null when not configured.
+     */
+    private final byte[] inboundSecret;
+
+    /**
+     * Largest difference between a signed timestamp and now, in seconds.
+     */
+    private final long toleranceSeconds;
+
+    /**
+     * Clock.
+     */
+    private final Clock clock;
+
+    /**
+     * WebhookAuthenticator.
+     *
+     * @param eventPublicKey base64 DER public key of the Signed Event Webhook, null to reject every event callback
+     * @param secret         Inbound Parse shared secret, null to reject every inbound callback
+     * @param tolerance      largest difference between a signed timestamp and now, in seconds
+     * @param aClock         Clock
+     */
+    public WebhookAuthenticator(final String eventPublicKey,
+                                final String secret,
+                                final long tolerance,
+                                final Clock aClock) {
+        eventKey = publicKey(eventPublicKey);
+        if (secret == null || secret.isEmpty()) {
+            inboundSecret = null;
+        } else {
+            inboundSecret = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        toleranceSeconds = tolerance;
+        clock = aClock;
+        if (eventKey == null) {
+            log.warn("WebhookAuthenticator() email.event-webhook-public-key not set; event callbacks are rejected");
+        }
+        if (inboundSecret == null) {
+            log.warn("WebhookAuthenticator() email.inbound-webhook-secret not set; inbound callbacks are rejected");
+        }
+    }
+
+    /**
+     * Whether a delivery event callback is signed by the provider.
+     *
+     * @param signature base64 signature header
+     * @param timestamp timestamp header, epoch seconds
+     * @param payload   raw request body
+     * @return true if the signature is valid and the timestamp recent
+     */
+    public boolean verifyEvents(final String signature, final String timestamp, final byte[] payload) {
+        if (eventKey == null || signature == null || timestamp == null) {
+            return false;
+        }
+        try {
+            if (Math.abs(clock.instant().getEpochSecond() - Long.parseLong(timestamp)) > toleranceSeconds) {
+                return false;
+            }
+            final Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+            verifier.initVerify(eventKey);
+            verifier.update(timestamp.getBytes(StandardCharsets.UTF_8));
+            verifier.update(payload);
+            return verifier.verify(Base64.getDecoder().decode(signature));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether an inbound callback carries the shared secret.
+     *
+     * @param authorization Authorization header
+     * @return true if it holds basic credentials whose password is the secret
+     */
+    public boolean verifyInbound(final String authorization) {
+        if (inboundSecret == null || authorization == null || !authorization.startsWith(BASIC_PREFIX)) {
+            return false;
+        }
+        final byte[] credentials;
+        try {
+            credentials = Base64.getDecoder().decode(authorization.substring(BASIC_PREFIX.length()).trim());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        final String decoded = new String(credentials, StandardCharsets.UTF_8);
+        final int colon = decoded.indexOf(':');
+        if (colon < 0) {
+            return false;
+        }
+        return MessageDigest.isEqual(
+                inboundSecret, decoded.substring(colon + 1).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses a base64 DER (X.509 SubjectPublicKeyInfo) EC public key.
+     *
+     * @param encoded base64 key, may be null
+     * @return PublicKey, null when not configured
+     */
+    private static PublicKey publicKey(final String encoded) {
+        if (encoded == null || encoded.isBlank()) {
+            return null;
+        }
+        try {
+            return KeyFactory.getInstance("EC")
+                    .generatePublic(new X509EncodedKeySpec(Base64.getMimeDecoder().decode(encoded.trim())));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("email.event-webhook-public-key is not a base64 EC public key", e);
+        }
+    }
+
+}
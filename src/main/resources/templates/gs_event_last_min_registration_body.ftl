@@ -1,7 +1,3 @@
-<html>
-    <body>
 Hi ${firstName} ${lastName}, there is still time to register for the ground school session:
 
 ${event}
-    </body>
-</html>
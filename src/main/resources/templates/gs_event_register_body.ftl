@@ -1,7 +1,3 @@
-<html>
-    <body>
 Hi ${firstName} ${lastName}, thank you for registering for the ground school session:
 
 ${event}
-    </body>
-</html>
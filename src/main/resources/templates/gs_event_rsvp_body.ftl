@@ -1,10 +1,6 @@
-<html>
-    <body>
 Hi ${firstName} ${lastName}, please RSVP for the ground school session:
 
 ${event}
 
 <a href="${hostapp}/events/${eventId}/rsvp/${userId}/CONFIRM/EMAIL">CONFIRM</a></br>
 <a href="${hostapp}/events/${eventId}/rsvp/${userId}/DECLINE/EMAIL">DECLINE</a>
-    </body>
-</html>
@@ -1,9 +1,5 @@
-<html>
-    <body>
 Hi ${firstName} ${lastName}, the ground school session:
 
 ${event}
 
 has just started.  Be sure to check in at ${hostui}
-    </body>
-</html>
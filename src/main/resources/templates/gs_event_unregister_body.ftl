@@ -1,7 +1,3 @@
-<html>
-    <body>
 Hi ${firstName} ${lastName}, you have been unregistered from the ground school session:
 
 ${event}
-    </body>
-</html>
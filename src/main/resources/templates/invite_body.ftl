@@ -1,6 +1,2 @@
-<html>
-    <body>
-        <h3>You are receiving this websocketMessage because ${firstName} ${lastName} thought you would like to join in on our ground school</h3>
-        <h3>To participate, you will need to signup up at <a href="${hostui}">${hostui}</a></h3>
-    </body>
-</html>
+<h3>You are receiving this websocketMessage because ${firstName} ${lastName} thought you would like to join in on our ground school</h3>
+<h3>To participate, you will need to signup up at <a href="${hostui}">${hostui}</a></h3>
@@ -0,0 +1,5 @@
+<html>
+    <body>
+${content}
+    </body>
+</html>
@@ -1,7 +1,3 @@
-<html>
-    <body>
-        <p>Hi ${firstName} ${lastName},</p>
-        <p><dd>You may go here to <a href="${hostui}/passwordreset?code=${code}&userId=${userId}">reset</a> your password.</p>
-        <p>If you did not make this request, you may ignore this websocketMessage.</p>
-    </body>
-</html>
+<p>Hi ${firstName} ${lastName},</p>
+<p><dd>You may go here to <a href="${hostui}/passwordreset?code=${code}&userId=${userId}">reset</a> your password.</p>
+<p>If you did not make this request, you may ignore this websocketMessage.</p>
@@ -1,5 +1 @@
-<html>
-    <body>
 That's it ${firstName}, you've completed the quiz!
-    </body>
-</html>
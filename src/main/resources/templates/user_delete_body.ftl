@@ -1,5 +1 @@
-<html>
-    <body>
 Bye ${firstName} ${lastName}, we are sorry to see you go!
-    </body>
-</html>
@@ -1,5 +1 @@
-<html>
-    <body>
 Hi ${firstName} ${lastName}, thank you for verifying your user settings!
-    </body>
-</html>
@@ -1,6 +1,2 @@
-<html>
-    <body>
-        <p>Hi ${firstName} ${lastName},</p>
-        <p><dd>Please <a href="${hostapp}/participants/${userId}/verify/EMAIL">verify</a> your user settings.</p>
-    </body>
-</html>
+<p>Hi ${firstName} ${lastName},</p>
+<p><dd>Please <a href="${hostapp}/participants/${userId}/verify/EMAIL">verify</a> your user settings.</p>
@@ -0,0 +1,164 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.calendar;
+
+import com.starfireaviation.email.transport.Attachment;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CalendarInviteCacheTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 7, 4, 18, 0);
+
+    private static final LocalDateTime UPDATED = LocalDateTime.of(2026, 1, 1, 7, 0);
+
+    private static final String LOCATION = "1 Hangar Way, Suite 2, Louisville, KY 40205";
+
+    private static final int RECIPIENTS = 2000;
+
+    private static final int THREADS = 8;
+
+    private static final int MAX_LINE_OCTETS = 75;
+
+    private static final int MAX_MIME_LINE = 76;
+
+    @Test
+    void waveSharesOneEncodedInvite() throws Exception {
+        final CalendarInviteCache cache = cache(16);
+        final Set<Attachment> seen = ConcurrentHashMap.newKeySet();
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<?>> sends = new ArrayList<>();
+            for (int i = 0; i < RECIPIENTS; i++) {
+                sends.add(pool.submit(() -> seen.add(cache.invite(7L, "Weather", START, LOCATION, UPDATED))));
+            }
+            for (Future<?> send : sends) {
+                send.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, seen.size());
+        assertEquals(1L, cache.getGenerated());
+    }
+
+    @Test
+    void changedEventIsRegenerated() {
+        final CalendarInviteCache cache = cache(16);
+        final Attachment first = cache.invite(7L, "Weather", START, LOCATION, UPDATED);
+        assertSame(first, cache.invite(7L, "Weather", START, LOCATION, UPDATED));
+
+        final Attachment moved = cache.invite(7L, "Weather", START.plusHours(1), LOCATION, UPDATED);
+        assertNotSame(first, moved);
+        assertTrue(decode(moved).contains("DTSTART:20260704T230000Z\r\n"));
+        assertSame(moved, cache.invite(7L, "Weather", START.plusHours(1), LOCATION, UPDATED));
+        assertEquals(2L, cache.getGenerated());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void stampAndSequenceFollowTheEventsLastUpdate() {
+        final String first = decode(cache(16).invite(7L, "Weather", START, LOCATION, UPDATED));
+        assertEquals(first, decode(cache(16).invite(7L, "Weather", START, LOCATION, UPDATED)), "same on every replica");
+        assertTrue(first.contains("SEQUENCE:29454480\r\n"));
+
+        final String edited = decode(cache(16).invite(7L, "Weather", START, LOCATION, UPDATED.plusMinutes(5)));
+        assertTrue(edited.contains("SEQUENCE:29454485\r\n"));
+        assertTrue(edited.contains("DTSTAMP:20260101T120500Z\r\n"));
+
+        final String unversioned = decode(cache(16).invite(7L, "Weather", START, LOCATION, null));
+        assertTrue(unversioned.contains("SEQUENCE:0\r\n"));
+        assertTrue(unversioned.contains("DTSTAMP:20260704T220000Z\r\n"));
+    }
+
+    @Test
+    void writesEscapedFoldedCalendar() {
+        final String title = "Ground School: Weather, Wind; Clouds \\ Fronts — a long title that has to be folded ✈✈✈✈";
+        final Attachment invite = cache(16).invite(7L, title, START, LOCATION, UPDATED);
+        assertEquals("invite.ics", invite.getFilename());
+        assertTrue(invite.getContentType().startsWith("text/calendar"));
+
+        final String ics = decode(invite);
+        assertTrue(ics.startsWith("BEGIN:VCALENDAR\r\n"));
+        assertTrue(ics.endsWith("END:VCALENDAR\r\n"));
+        assertTrue(ics.contains("UID:event-7@example.com\r\n"));
+        assertTrue(ics.contains("DTSTART:20260704T220000Z\r\n"), "New York summer time is UTC-4");
+        assertTrue(ics.contains("DTEND:20260705T000000Z\r\n"));
+        assertTrue(ics.contains("DTSTAMP:20260101T120000Z\r\n"));
+        assertTrue(ics.contains("LOCATION:1 Hangar Way\\, Suite 2\\, Louisville\\, KY 40205\r\n"));
+        for (String line : ics.split("\r\n")) {
+            assertTrue(line.getBytes(StandardCharsets.UTF_8).length <= MAX_LINE_OCTETS, line);
+        }
+        assertEquals(
+                "SUMMARY:" + title.replace("\\", "\\\\").replace(",", "\\,").replace(";", "\\;"),
+                ics.substring(ics.indexOf("SUMMARY:"), ics.indexOf("\r\nLOCATION:")).replace("\r\n ", ""));
+    }
+
+    @Test
+    void mimeEncodingHoldsTheSameContent() {
+        final Attachment invite = cache(16).invite(7L, "Weather", START, LOCATION, UPDATED);
+        final String mime = new String(invite.getMimeBase64(), StandardCharsets.US_ASCII);
+        for (String line : mime.split("\r\n")) {
+            assertTrue(line.length() <= MAX_MIME_LINE);
+        }
+        assertArrayEquals(
+                Base64.getDecoder().decode(invite.getBase64()),
+                Base64.getMimeDecoder().decode(invite.getMimeBase64()));
+    }
+
+    @Test
+    void cacheIsBounded() {
+        final CalendarInviteCache cache = cache(2);
+        for (long id = 1; id <= 10; id++) {
+            cache.invite(id, "Event " + id, START, null, UPDATED);
+        }
+        assertEquals(2, cache.size());
+        assertNull(cache.invite(null, "No id", START, null, UPDATED));
+    }
+
+    private static CalendarInviteCache cache(final int limit) {
+        return new CalendarInviteCache(
+                limit,
+                ZoneId.of("America/New_York"),
+                Duration.ofHours(2),
+                "example.com");
+    }
+
+    private static String decode(final Attachment invite) {
+        return new String(Base64.getDecoder().decode(invite.getBase64()), StandardCharsets.UTF_8);
+    }
+
+}
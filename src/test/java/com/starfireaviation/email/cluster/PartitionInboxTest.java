@@ -0,0 +1,101 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.cluster;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PartitionInboxTest {
+
+    private static final long CLAIM_TIMEOUT_MILLIS = 60_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void takesItemsInTheOrderTheyWereHandedOver() throws Exception {
+        final PartitionInbox a = new PartitionInbox(directory, "a", CLAIM_TIMEOUT_MILLIS);
+        final PartitionInbox b = new PartitionInbox(directory, "b", CLAIM_TIMEOUT_MILLIS);
+        a.put(3, bytes("one"));
+        a.put(3, bytes("two"));
+        a.put(4, bytes("other"));
+
+        final List<String> taken = new ArrayList<>();
+        assertEquals(2, b.take(3, item -> taken.add(text(item))));
+
+        assertEquals(List.of("one", "two"), taken);
+        assertEquals(0, b.take(3, item -> taken.add(text(item))));
+        assertEquals(0, b.take(9, item -> taken.add(text(item))));
+    }
+
+    @Test
+    void refusedItemIsPutBack() throws Exception {
+        final PartitionInbox inbox = new PartitionInbox(directory, "a", CLAIM_TIMEOUT_MILLIS);
+        inbox.put(1, bytes("one"));
+        inbox.put(1, bytes("two"));
+
+        assertEquals(0, inbox.take(1, item -> false));
+
+        final List<String> taken = new ArrayList<>();
+        assertEquals(2, inbox.take(1, item -> taken.add(text(item))));
+        assertEquals(List.of("one", "two"), taken);
+    }
+
+    @Test
+    void itemClaimedByADeadMemberIsTakenAfterTheClaimTimesOut() throws Exception {
+        final PartitionInbox inbox = new PartitionInbox(directory, "a", CLAIM_TIMEOUT_MILLIS);
+        inbox.put(1, bytes("one"));
+        final Path item = only(directory.resolve("1"));
+        final Path claimed = item.resolveSibling(item.getFileName() + ".dead.claimed");
+        Files.move(item, claimed);
+
+        final List<String> taken = new ArrayList<>();
+        assertEquals(0, inbox.take(1, bytes -> taken.add(text(bytes))), "claim still fresh");
+
+        Files.setLastModifiedTime(claimed, FileTime.fromMillis(System.currentTimeMillis() - CLAIM_TIMEOUT_MILLIS));
+        assertEquals(1, inbox.take(1, bytes -> taken.add(text(bytes))));
+        assertEquals(List.of("one"), taken);
+    }
+
+    private static Path only(final Path folder) throws Exception {
+        try (Stream<Path> files = Files.list(folder)) {
+            final List<Path> all = new ArrayList<>();
+            files.forEach(all::add);
+            assertEquals(1, all.size());
+            return all.get(0);
+        }
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(final byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.cluster;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PartitionManagerTest {
+
+    private static final long LEASE_MILLIS = 3000L;
+
+    private static final int PARTITIONS = 256;
+
+    private static final long RENEWAL_MILLIS = LEASE_MILLIS / 3;
+
+    private static final int USERS = 10000;
+
+    @TempDir
+    Path directory;
+
+    private MutableClock clock;
+
+    private FileCoordinationStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        clock = new MutableClock(1_000_000L);
+        store = new FileCoordinationStore(directory, LEASE_MILLIS);
+    }
+
+    @Test
+    void everyUserHasExactlyOneOwner() {
+        final List<PartitionManager> nodes = nodes("a", "b", "c");
+        settle(nodes);
+        final Map<Long, String> owners = owners(nodes);
+        assertEquals(USERS, owners.size());
+        for (PartitionManager node : nodes) {
+            assertEquals(3, node.getMembers().size());
+            assertTrue(node.ownedPartitions().size() > PARTITIONS / 6, node.getMemberId() + " owns too few");
+        }
+    }
+
+    @Test
+    void joiningMemberOnlyTakesPartitionsOnceOthersLetGo() {
+        final List<PartitionManager> nodes = new ArrayList<>(nodes("a", "b"));
+        settle(nodes);
+        final Map<Long, String> before = owners(nodes);
+
+        final PartitionManager c = node("c");
+        nodes.add(c);
+        c.refresh();
+        owners(nodes);
+        for (PartitionManager node : nodes) {
+            node.refresh();
+        }
+        owners(nodes);
+
+        tick(nodes, 3);
+        final Map<Long, String> after = owners(nodes);
+        assertEquals(USERS, after.size());
+        for (Map.Entry<Long, String> entry : after.entrySet()) {
+            if (!entry.getValue().equals(before.get(entry.getKey()))) {
+                assertEquals("c", entry.getValue(), "only moves to the new member");
+            }
+        }
+    }
+
+    @Test
+    void partitionsOfAFailedMemberMoveToSurvivors() {
+        final List<PartitionManager> nodes = new ArrayList<>(nodes("a", "b", "c"));
+        settle(nodes);
+        final Map<Long, String> before = owners(nodes);
+        final PartitionManager c = nodes.remove(2);
+
+        tick(nodes, 2);
+        clock.advance(RENEWAL_MILLIS - LEASE_MILLIS / 5);
+        assertTrue(c.ownedPartitions().stream().noneMatch(c::ownsPartition), "stops claiming before lease expiry");
+        assertEquals(3, nodes.get(0).getMembers().size(), "still a member until its lease expires");
+        owners(nodes);
+
+        clock.advance(LEASE_MILLIS / 5);
+        refreshAll(nodes);
+        assertEquals(2, nodes.get(0).getMembers().size());
+        tick(nodes, 3);
+        final Map<Long, String> after = owners(nodes);
+        assertEquals(USERS, after.size());
+        for (Map.Entry<Long, String> entry : after.entrySet()) {
+            if (!"c".equals(before.get(entry.getKey()))) {
+                assertEquals(before.get(entry.getKey()), entry.getValue(), "survivors keep their own partitions");
+            }
+        }
+    }
+
+    @Test
+    void shutdownReleasesLeaseImmediately() {
+        final List<PartitionManager> nodes = new ArrayList<>(nodes("a", "b"));
+        settle(nodes);
+        nodes.remove(1).shutdown();
+        nodes.get(0).refresh();
+        assertEquals(1, nodes.get(0).getMembers().size());
+        assertEquals(PARTITIONS, nodes.get(0).ownedPartitions().size());
+    }
+
+    @Test
+    void singleNodeOwnsEverything() {
+        final PartitionManager alone = new PartitionManager("solo", null, LEASE_MILLIS, PARTITIONS, clock);
+        for (long user = 0; user < USERS; user++) {
+            assertTrue(alone.owns(user));
+        }
+    }
+
+    @Test
+    void emptyRingHasNoOwner() {
+        assertNull(new ConsistentHashRing(new ArrayList<>()).owner(1L));
+        assertFalse(node("x").owns(1L), "no lease yet");
+    }
+
+    private List<PartitionManager> nodes(final String... ids) {
+        final List<PartitionManager> nodes = new ArrayList<>();
+        for (String id : ids) {
+            nodes.add(node(id));
+        }
+        return nodes;
+    }
+
+    private PartitionManager node(final String id) {
+        return new PartitionManager(id, store, LEASE_MILLIS, PARTITIONS, clock);
+    }
+
+    private void settle(final List<PartitionManager> nodes) {
+        refreshAll(nodes);
+        tick(nodes, 3);
+    }
+
+    private void tick(final List<PartitionManager> nodes, final int renewals) {
+        for (int i = 0; i < renewals; i++) {
+            clock.advance(RENEWAL_MILLIS);
+            refreshAll(nodes);
+        }
+    }
+
+    private void refreshAll(final List<PartitionManager> nodes) {
+        for (PartitionManager node : nodes) {
+            node.refresh();
+        }
+    }
+
+    private Map<Long, String> owners(final List<PartitionManager> nodes) {
+        final Map<Long, String> owners = new HashMap<>();
+        for (long user = 0; user < USERS; user++) {
+            for (PartitionManager node : nodes) {
+                if (node.owns(user)) {
+                    final String previous = owners.put(user, node.getMemberId());
+                    assertNull(previous, "user " + user + " owned by " + Arrays.asList(previous, node.getMemberId()));
+                }
+            }
+        }
+        return owners;
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private long millis;
+
+        MutableClock(final long start) {
+            millis = start;
+        }
+
+        void advance(final long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.cluster;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReplicaSlotTest {
+
+    private static final long LEASE_MILLIS = 15_000L;
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2026-01-01T00:00:00Z"), ZoneOffset.UTC);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void runningReplicasHoldDistinctSlots() throws Exception {
+        assertEquals(1, new ReplicaSlot(directory, "a", LEASE_MILLIS, CLOCK).getSlot());
+        assertEquals(2, new ReplicaSlot(directory, "b", LEASE_MILLIS, CLOCK).getSlot());
+    }
+
+    @Test
+    void releasedSlotIsTakenByTheNextReplica() throws Exception {
+        final ReplicaSlot a = new ReplicaSlot(directory, "a", LEASE_MILLIS, CLOCK);
+        new ReplicaSlot(directory, "b", LEASE_MILLIS, CLOCK);
+        a.shutdown();
+
+        assertEquals(1, new ReplicaSlot(directory, "c", LEASE_MILLIS, CLOCK).getSlot());
+    }
+
+    @Test
+    void expiredSlotIsTakenOver() throws Exception {
+        new ReplicaSlot(directory, "a", LEASE_MILLIS, CLOCK);
+        final Clock later = Clock.offset(CLOCK, Duration.ofMillis(LEASE_MILLIS + 1L));
+
+        final ReplicaSlot b = new ReplicaSlot(directory, "b", LEASE_MILLIS, later);
+
+        assertEquals(1, b.getSlot());
+        assertEquals("b " + (later.millis() + LEASE_MILLIS),
+                new String(Files.readAllBytes(directory.resolve("1.slot")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void withoutADirectoryRunsInSlotZero() throws Exception {
+        assertEquals(0, new ReplicaSlot(null, "a", LEASE_MILLIS, CLOCK).getSlot());
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.controller;
+
+import com.starfireaviation.email.config.ApplicationProperties;
+import com.starfireaviation.email.service.MessageDispatcher;
+import com.starfireaviation.email.template.TemplateRegistry;
+import com.starfireaviation.email.transport.MailRouter;
+import com.starfireaviation.email.transport.TransportHealth;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class HealthControllerTest {
+
+    private final TemplateRegistry registry = mock(TemplateRegistry.class);
+
+    private final MessageDispatcher dispatcher = mock(MessageDispatcher.class);
+
+    private final MailRouter router = mock(MailRouter.class);
+
+    private final ApplicationProperties props = new ApplicationProperties();
+
+    private HealthController controller;
+
+    @BeforeEach
+    void setUp() {
+        props.setLiveStallSeconds(60L);
+        props.setReadyBacklogAgeSeconds(30L);
+        props.setReadyQueueHighWater(100);
+        when(dispatcher.isRunning()).thenReturn(true);
+        when(registry.isLoaded()).thenReturn(true);
+        when(router.getHealth()).thenReturn(TransportHealth.UP);
+        when(router.getCircuitStates()).thenReturn(Map.of());
+        controller = new HealthController(registry, dispatcher, router, props);
+    }
+
+    @Test
+    void liveWhileWorkersProgressThroughAnOldBacklog() {
+        when(dispatcher.getBacklogAgeMillis()).thenReturn(3_600_000L);
+        when(dispatcher.getStalledMillis()).thenReturn(2_000L);
+
+        final ResponseEntity<Map<String, Object>> live = controller.live();
+
+        assertEquals(HttpStatus.OK, live.getStatusCode());
+        assertEquals(2_000L, live.getBody().get("stalledMillis"));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, controller.ready().getStatusCode(), "backlog is readiness");
+    }
+
+    @Test
+    void notLiveWhenWorkersStall() {
+        when(dispatcher.getStalledMillis()).thenReturn(60_000L);
+
+        final ResponseEntity<Map<String, Object>> live = controller.live();
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, live.getStatusCode());
+        assertEquals("DOWN", live.getBody().get("status"));
+    }
+
+    @Test
+    void notLiveOnceTheDispatcherStops() {
+        when(dispatcher.isRunning()).thenReturn(false);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, controller.live().getStatusCode());
+    }
+
+    @Test
+    void readyWithTemplatesATransportAndRoomInTheQueue() {
+        when(dispatcher.getQueueDepth()).thenReturn(99);
+        when(dispatcher.getBacklogAgeMillis()).thenReturn(29_000L);
+
+        final ResponseEntity<Map<String, Object>> ready = controller.ready();
+
+        assertEquals(HttpStatus.OK, ready.getStatusCode());
+        assertEquals("UP", ready.getBody().get("queue"));
+    }
+
+    @Test
+    void notReadyWhenTheQueueIsFull() {
+        when(dispatcher.getQueueDepth()).thenReturn(100);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, controller.ready().getStatusCode());
+    }
+
+    @Test
+    void notReadyWhenEveryProviderIsDown() {
+        when(router.getHealth()).thenReturn(TransportHealth.DOWN);
+
+        final ResponseEntity<Map<String, Object>> ready = controller.ready();
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, ready.getStatusCode());
+        assertEquals(TransportHealth.DOWN, ready.getBody().get("transport"));
+    }
+
+    @Test
+    void notReadyUntilTemplatesLoad() {
+        when(registry.isLoaded()).thenReturn(false);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, controller.ready().getStatusCode());
+    }
+
+}
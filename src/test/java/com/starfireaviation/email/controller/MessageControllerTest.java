@@ -0,0 +1,164 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.starfireaviation.email.service.MessageDispatcher;
+import com.starfireaviation.email.service.MessageService;
+import com.starfireaviation.email.service.MessageType;
+import com.starfireaviation.email.service.ResendResult;
+import com.starfireaviation.email.service.SubmitResult;
+import com.starfireaviation.model.Message;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageControllerTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final MessageDispatcher dispatcher = mock(MessageDispatcher.class);
+
+    private final MessageService service = mock(MessageService.class);
+
+    private final MessageController controller = new MessageController(dispatcher, service, mapper);
+
+    @Test
+    void answersEveryLineWithItsOutcome() throws Exception {
+        when(service.newMessageId()).thenReturn(Long.MAX_VALUE, 2L, 3L);
+        when(dispatcher.submit(eq(MessageType.USER_DELETE), any(Message.class), eq("acme"), anyLong()))
+                .thenReturn(SubmitResult.ACCEPTED, SubmitResult.QUEUE_FULL, SubmitResult.SHUTTING_DOWN);
+
+        final List<JsonNode> results =
+                bulk(MediaType.APPLICATION_NDJSON_VALUE, "{\"userId\":1}\n{\"userId\":2}\n\n{\"userId\":3}\n");
+
+        assertEquals(3, results.size());
+        assertResult(results.get(0), 0, "ACCEPTED", null);
+        assertResult(results.get(1), 1, "REJECTED", "dispatch queue full");
+        assertResult(results.get(2), 2, "REJECTED", "shutting down");
+        assertEquals(Long.toString(Long.MAX_VALUE), results.get(0).get("id").asText());
+        assertNull(results.get(1).get("id"));
+    }
+
+    @Test
+    void resendAnswersWhyItDidNotSend() {
+        when(service.resend(1L)).thenReturn(ResendResult.RESENT);
+        when(service.resend(2L)).thenReturn(ResendResult.NOT_HELD);
+        when(service.resend(3L)).thenReturn(ResendResult.SUPPRESSED);
+        when(service.resend(4L)).thenReturn(ResendResult.REFUSED);
+        when(service.resend(5L)).thenReturn(ResendResult.UNAVAILABLE);
+
+        assertEquals(HttpStatus.ACCEPTED, controller.resend(1L).getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, controller.resend(2L).getStatusCode());
+        assertEquals(HttpStatus.CONFLICT, controller.resend(3L).getStatusCode());
+        assertEquals(HttpStatus.BAD_GATEWAY, controller.resend(4L).getStatusCode());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, controller.resend(5L).getStatusCode());
+    }
+
+    @Test
+    void invalidLinesAreAnsweredAndSkipped() throws Exception {
+        when(dispatcher.submit(any(), any(), any(), anyLong())).thenReturn(SubmitResult.ACCEPTED);
+
+        final List<JsonNode> results = bulk(
+                MediaType.APPLICATION_NDJSON_VALUE,
+                "{\"userId\":1}\n{\"userId\":\n{\"userId\":\"seven\"}\nnull\n{\"userId\":5}\n");
+
+        assertEquals(5, results.size());
+        assertResult(results.get(0), 0, "ACCEPTED", null);
+        assertEquals("INVALID", results.get(1).get("status").asText());
+        assertEquals("INVALID", results.get(2).get("status").asText());
+        assertResult(results.get(3), 3, "INVALID", "null message");
+        assertResult(results.get(4), 4, "ACCEPTED", null);
+        verify(dispatcher, times(2)).submit(eq(MessageType.USER_DELETE), any(Message.class), eq("acme"), anyLong());
+        verify(dispatcher).submit(any(), argThat(message -> message.getUserId() == 5L), any(), anyLong());
+    }
+
+    @Test
+    void arrayElementOfTheWrongShapeIsSkipped() throws Exception {
+        when(dispatcher.submit(any(), any(), any(), anyLong())).thenReturn(SubmitResult.ACCEPTED);
+
+        final List<JsonNode> results =
+                bulk(MediaType.APPLICATION_JSON_VALUE, "[{\"userId\":1},{\"userId\":\"seven\"},{\"userId\":3}]");
+
+        assertEquals(3, results.size());
+        assertResult(results.get(0), 0, "ACCEPTED", null);
+        assertEquals("INVALID", results.get(1).get("status").asText());
+        assertResult(results.get(2), 2, "ACCEPTED", null);
+    }
+
+    @Test
+    void brokenArraySyntaxEndsTheRequestWithOneInvalidLine() throws Exception {
+        when(dispatcher.submit(any(), any(), any(), anyLong())).thenReturn(SubmitResult.ACCEPTED);
+
+        final List<JsonNode> results =
+                bulk(MediaType.APPLICATION_JSON_VALUE, "[{\"userId\":1},{\"userId\":},{\"userId\":3}]");
+
+        assertEquals(2, results.size());
+        assertResult(results.get(0), 0, "ACCEPTED", null);
+        assertEquals("INVALID", results.get(1).get("status").asText());
+        verify(dispatcher, times(1)).submit(any(), any(), any(), anyLong());
+    }
+
+    private List<JsonNode> bulk(final String contentType, final String body) throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/messages/bulk");
+        request.setContentType(contentType);
+        request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.bulk(MessageType.USER_DELETE, "acme", request, response);
+
+        assertEquals(MediaType.APPLICATION_NDJSON_VALUE, response.getContentType());
+        final List<JsonNode> results = new ArrayList<>();
+        for (String line : response.getContentAsString().split("\n")) {
+            if (!line.isEmpty()) {
+                results.add(mapper.readTree(line));
+            }
+        }
+        return results;
+    }
+
+    private static void assertResult(final JsonNode result,
+                                     final long index,
+                                     final String status,
+                                     final String reason) {
+        assertEquals(index, result.get("index").asLong());
+        assertEquals(status, result.get("status").asText());
+        if (reason == null) {
+            assertNull(result.get("reason"));
+        } else {
+            assertEquals(reason, result.get("reason").asText());
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.starfireaviation.email.correlation.Correlation;
+import com.starfireaviation.email.correlation.ReplyCorrelator;
+import com.starfireaviation.email.exception.UnauthorizedException;
+import com.starfireaviation.email.quiz.AnswerTally;
+import com.starfireaviation.email.suppression.SuppressionList;
+import com.starfireaviation.email.webhook.WebhookAuthenticator;
+import com.starfireaviation.model.ResponseOption;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class WebhookControllerTest {
+
+    private static final String SECRET = "s3cret";
+
+    private static final String BOUNCE = "[{\"email\":\"a@example.com\",\"event\":\"bounce\"}]";
+
+    @TempDir
+    Path directory;
+
+    private final ReplyCorrelator correlator = mock(ReplyCorrelator.class);
+
+    private final AnswerTally tally = new AnswerTally(16);
+
+    private KeyPair keys;
+
+    private SuppressionList suppressions;
+
+    private WebhookController controller;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        keys = generator.generateKeyPair();
+        suppressions = new SuppressionList(directory.resolve("suppressions.bin"), 64);
+        controller = new WebhookController(
+                suppressions,
+                new ObjectMapper(),
+                tally,
+                correlator,
+                new WebhookAuthenticator(
+                        Base64.getEncoder().encodeToString(keys.getPublic().getEncoded()),
+                        SECRET,
+                        600L,
+                        Clock.systemUTC()));
+    }
+
+    @Test
+    void inboundWithoutTheSecretIsRejected() {
+        assertThrows(UnauthorizedException.class, () -> controller.inbound(null, "a@example.com", null, "STOP"));
+        assertThrows(UnauthorizedException.class,
+                () -> controller.inbound(basic("wrong"), "a@example.com", null, "STOP"));
+        assertFalse(suppressions.contains("a@example.com"));
+    }
+
+    @Test
+    void answerIsOnlyCountedWithASignedToken() throws Exception {
+        when(correlator.resolve("ground+token@example.com")).thenReturn(new Correlation(1L, null, 42L));
+
+        assertEquals(ResponseOption.B, controller.inbound(basic(SECRET), "a@example.com", "ground@example.com", "B")
+                .get("response"));
+        assertEquals(0L, tally.getRecorded(), "no token, no answer");
+
+        controller.inbound(basic(SECRET), "a@example.com", "ground+token@example.com", "B");
+        assertEquals(1L, tally.snapshot(42L).get(ResponseOption.B));
+    }
+
+    @Test
+    void unsignedEventsAreRejected() {
+        final MockHttpServletRequest request = events(BOUNCE);
+        assertThrows(UnauthorizedException.class, () -> controller.events(request));
+
+        final MockHttpServletRequest forged = events(BOUNCE);
+        forged.addHeader("X-Twilio-Email-Event-Webhook-Timestamp", Long.toString(Instant.now().getEpochSecond()));
+        forged.addHeader("X-Twilio-Email-Event-Webhook-Signature", "MEUCIQ==");
+        assertThrows(UnauthorizedException.class, () -> controller.events(forged));
+        assertFalse(suppressions.contains("a@example.com"));
+    }
+
+    @Test
+    void signedEventsSuppress() throws Exception {
+        final MockHttpServletRequest request = events(BOUNCE);
+        final String timestamp = Long.toString(Instant.now().getEpochSecond());
+        request.addHeader("X-Twilio-Email-Event-Webhook-Timestamp", timestamp);
+        request.addHeader("X-Twilio-Email-Event-Webhook-Signature", sign(timestamp, BOUNCE));
+
+        final Map<String, Integer> result = controller.events(request);
+
+        assertEquals(1, result.get("suppressed"));
+        assertTrue(suppressions.contains("a@example.com"));
+    }
+
+    private static MockHttpServletRequest events(final String body) {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/webhooks/events");
+        request.setContentType("application/json");
+        request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        return request;
+    }
+
+    private String sign(final String timestamp, final String body) throws Exception {
+        final Signature signer = Signature.getInstance("SHA256withECDSA");
+        signer.initSign(keys.getPrivate());
+        signer.update(timestamp.getBytes(StandardCharsets.UTF_8));
+        signer.update(body.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(signer.sign());
+    }
+
+    private static String basic(final String password) {
+        return "Basic " + Base64.getEncoder().encodeToString(("parse:" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.correlation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CorrelationIndexTest {
+
+    private static final int MEMORY_SLOTS = 64;
+
+    private static final int FILE_SLOTS = 1024;
+
+    private static final int THREADS = 8;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recentCorrelationsAreAnsweredFromMemory() throws Exception {
+        final CorrelationIndex index = new CorrelationIndex(file(), MEMORY_SLOTS, FILE_SLOTS);
+        final long id = index.put(new Correlation(7L, null, 42L));
+        final Correlation found = index.get(id);
+        assertEquals(7L, (long) found.getUserId());
+        assertNull(found.getEventId());
+        assertEquals(42L, (long) found.getQuestionId());
+        assertEquals(1L, index.getMemoryHits());
+        assertEquals(0L, index.getFileHits());
+        index.close();
+    }
+
+    @Test
+    void displacedCorrelationsSpillToTheFile() throws Exception {
+        final CorrelationIndex index = new CorrelationIndex(file(), MEMORY_SLOTS, FILE_SLOTS);
+        final List<Long> ids = new ArrayList<>();
+        for (long user = 0; user < FILE_SLOTS; user++) {
+            ids.add(index.put(new Correlation(user, user + 1, null)));
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            final Correlation found = index.get(ids.get(i));
+            assertEquals((long) i, (long) found.getUserId());
+            assertEquals(i + 1L, (long) found.getEventId());
+            assertNull(found.getQuestionId());
+        }
+        assertEquals(MEMORY_SLOTS, index.getMemoryHits());
+        assertEquals(FILE_SLOTS - MEMORY_SLOTS, index.getFileHits());
+
+        for (int i = 0; i <= MEMORY_SLOTS; i++) {
+            index.put(new Correlation(-1L, null, null));
+        }
+        assertNull(index.get(ids.get(0)), "overwritten in both tiers");
+        assertEquals(2L, (long) index.get(ids.get(1)).getEventId());
+        assertNull(index.get(0L));
+        assertNull(index.get(Long.MAX_VALUE));
+        assertEquals(3L, index.getMisses());
+        assertEquals(FILE_SLOTS - MEMORY_SLOTS + 1, index.getFileHits());
+        index.close();
+    }
+
+    @Test
+    void reopenedIndexKeepsCorrelationsKeyAndIds() throws Exception {
+        final Path file = file();
+        final CorrelationIndex first = new CorrelationIndex(file, MEMORY_SLOTS, FILE_SLOTS);
+        final long id = first.put(new Correlation(7L, 9L, null));
+        final byte[] key = first.getKey();
+        first.close();
+
+        final CorrelationIndex second = new CorrelationIndex(file, MEMORY_SLOTS, FILE_SLOTS);
+        assertEquals(9L, (long) second.get(id).getEventId(), "entries in memory are written out on close");
+        assertArrayEquals(key, second.getKey());
+        assertTrue(second.put(new Correlation(8L, null, null)) > id, "IDs are not reused");
+        second.close();
+    }
+
+    @Test
+    void concurrentPutsAndGetsAlwaysResolve() throws Exception {
+        final CorrelationIndex index = new CorrelationIndex(file(), MEMORY_SLOTS, FILE_SLOTS);
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final long user = t;
+                workers.add(pool.submit(() -> {
+                    for (int i = 0; i < FILE_SLOTS / THREADS; i++) {
+                        final long id = index.put(new Correlation(user, null, (long) i));
+                        final Correlation found = index.get(id);
+                        assertEquals(user, (long) found.getUserId());
+                        assertEquals((long) i, (long) found.getQuestionId());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(0L, index.getMisses());
+        index.close();
+    }
+
+    @Test
+    void replicasResolveEachOthersIdsThroughTheSharedDirectory() throws Exception {
+        final CorrelationIndex one = new CorrelationIndex(directory, 1, MEMORY_SLOTS, FILE_SLOTS);
+        final CorrelationIndex two = new CorrelationIndex(directory, 2, MEMORY_SLOTS, FILE_SLOTS);
+        final long id = one.put(new Correlation(7L, 9L, null));
+        assertEquals(1L, id >>> CorrelationIndex.SEQUENCE_BITS, "IDs carry the slot");
+        assertTrue(two.put(new Correlation(8L, null, null)) != id);
+
+        assertEquals(9L, (long) two.get(id).getEventId(), "written through, not only when displaced");
+        assertEquals(1L, two.getFileHits());
+        assertNull(two.get(id + 1), "not issued yet");
+        assertNull(two.get((3L << CorrelationIndex.SEQUENCE_BITS) | 1L), "no such replica");
+        one.close();
+        two.close();
+    }
+
+    private Path file() {
+        return directory.resolve("correlations.bin");
+    }
+
+}
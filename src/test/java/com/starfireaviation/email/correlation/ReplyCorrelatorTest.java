@@ -0,0 +1,91 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.correlation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplyCorrelatorTest {
+
+    private static final byte[] SECRET = "ground school".getBytes(StandardCharsets.UTF_8);
+
+    private static final int MAX_LOCAL_PART = 64;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replyResolvesToWhatTheMessageWasAbout() throws Exception {
+        final CorrelationIndex index = index();
+        final ReplyCorrelator correlator = new ReplyCorrelator(index, new TokenSigner(SECRET));
+        final String replyTo = correlator.replyTo("ground@example.com", new Correlation(7L, null, 42L));
+        assertTrue(replyTo.matches("ground\\+[a-z2-7]{" + TokenSigner.TOKEN_LENGTH + "}@example\\.com"), replyTo);
+        assertTrue(replyTo.indexOf('@') <= MAX_LOCAL_PART);
+
+        final Correlation found = correlator.resolve("Ground School <" + replyTo + ">, other+x@example.com");
+        assertEquals(7L, (long) found.getUserId());
+        assertEquals(42L, (long) found.getQuestionId());
+        assertEquals(42L, (long) correlator.resolve(replyTo.toUpperCase(Locale.ROOT)).getQuestionId(), "case folded");
+        index.close();
+    }
+
+    @Test
+    void forgedOrMissingTokensResolveToNothing() throws Exception {
+        final CorrelationIndex index = index();
+        final ReplyCorrelator correlator = new ReplyCorrelator(index, new TokenSigner(SECRET));
+        final String replyTo = correlator.replyTo("ground@example.com", new Correlation(7L, 3L, null));
+        final int tokenStart = replyTo.indexOf('+') + 1;
+        char changed = 'a';
+        if (replyTo.charAt(tokenStart) == changed) {
+            changed = 'b';
+        }
+        final String tampered = replyTo.substring(0, tokenStart) + changed + replyTo.substring(tokenStart + 1);
+
+        assertNull(correlator.resolve(tampered));
+        assertNull(new ReplyCorrelator(index, new TokenSigner(new byte[]{1})).resolve(replyTo), "other key");
+        assertEquals(1L, correlator.getRejected());
+        assertNull(correlator.resolve("ground@example.com"));
+        assertNull(correlator.resolve(null));
+        assertNull(correlator.replyTo("not an address", new Correlation(7L, null, null)));
+        index.close();
+    }
+
+    @Test
+    void tokensRoundTripAcrossTheIdRange() {
+        final TokenSigner signer = new TokenSigner(SECRET);
+        for (long id : new long[]{1L, 2L, 255L, 1L << 32, TokenSigner.MAX_ID}) {
+            final String token = signer.sign(id);
+            assertEquals(TokenSigner.TOKEN_LENGTH, token.length());
+            assertEquals(id, signer.verify(token));
+        }
+        assertEquals(-1L, signer.verify("too-short"));
+        assertEquals(-1L, signer.verify("0".repeat(TokenSigner.TOKEN_LENGTH)));
+    }
+
+    private CorrelationIndex index() throws Exception {
+        return new CorrelationIndex(directory.resolve("correlations.bin"), 16, 64);
+    }
+
+}
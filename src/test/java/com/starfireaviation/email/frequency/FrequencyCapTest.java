@@ -0,0 +1,141 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.frequency;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrequencyCapTest {
+
+    private static final long HOUR = 3_600_000L;
+
+    private final MutableClock clock = new MutableClock(1_000 * HOUR);
+
+    @Test
+    void capsEachKindAndTheUsersTotal() {
+        final FrequencyCap<Kind> cap = cap(3, Map.of(Kind.REMINDER, 2));
+        assertTrue(cap.tryAcquire(Kind.REMINDER, 7L));
+        assertTrue(cap.tryAcquire(Kind.REMINDER, 7L));
+        assertFalse(cap.tryAcquire(Kind.REMINDER, 7L), "reminder cap");
+        assertTrue(cap.tryAcquire(Kind.RESET, 7L), "other kinds only count towards the total");
+        assertFalse(cap.tryAcquire(Kind.RESET, 7L), "total cap");
+        assertTrue(cap.tryAcquire(Kind.REMINDER, 8L), "users are independent");
+    }
+
+    @Test
+    void refusedByTheTotalDoesNotUseUpTheKind() {
+        final FrequencyCap<Kind> cap = cap(1, Map.of(Kind.REMINDER, 1));
+        assertTrue(cap.tryAcquire(Kind.RESET, 7L));
+        assertFalse(cap.tryAcquire(Kind.REMINDER, 7L));
+
+        clock.advance(25 * HOUR);
+        assertTrue(cap.tryAcquire(Kind.REMINDER, 7L));
+    }
+
+    @Test
+    void roomOpensWhenTheOldestSendLeavesTheWindow() {
+        final FrequencyCap<Kind> cap = cap(0, Map.of(Kind.REMINDER, 2));
+        final long start = clock.millis();
+        cap.tryAcquire(Kind.REMINDER, 7L);
+        clock.advance(5 * HOUR);
+        cap.tryAcquire(Kind.REMINDER, 7L);
+        assertFalse(cap.tryAcquire(Kind.REMINDER, 7L));
+        assertEquals(Instant.ofEpochMilli(start + 24 * HOUR), cap.roomAt(Kind.REMINDER, 7L));
+        assertEquals(clock.instant(), cap.roomAt(Kind.RESET, 7L), "uncapped kind has room now");
+
+        clock.advance(19 * HOUR);
+        assertTrue(cap.tryAcquire(Kind.REMINDER, 7L));
+    }
+
+    @Test
+    void releasedReservationGivesBackBothCounts() {
+        final FrequencyCap<Kind> cap = cap(2, Map.of(Kind.REMINDER, 1));
+        final long reservedAt = cap.reserve(Kind.REMINDER, 7L);
+        assertEquals(clock.millis(), reservedAt);
+        assertEquals(-1L, cap.reserve(Kind.REMINDER, 7L));
+
+        clock.advance(2 * HOUR);
+        cap.release(Kind.REMINDER, 7L, reservedAt);
+        assertTrue(cap.tryAcquire(Kind.REMINDER, 7L), "kind given back");
+        assertTrue(cap.tryAcquire(Kind.RESET, 7L), "total given back");
+        assertFalse(cap.tryAcquire(Kind.RESET, 7L));
+    }
+
+    @Test
+    void noCapsMeansEverythingGoes() {
+        final FrequencyCap<Kind> cap = cap(0, Map.of(Kind.REMINDER, 0));
+        assertFalse(cap.isEnabled());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(cap.tryAcquire(Kind.REMINDER, 7L));
+        }
+        assertEquals(0, cap.size());
+    }
+
+    private FrequencyCap<Kind> cap(final int perUser, final Map<Kind, Integer> perKind) {
+        return new FrequencyCap<>(
+                new SlidingWindowCounter(Duration.ofDays(1), 24), perUser, perKind, Kind.class, clock);
+    }
+
+    private enum Kind {
+        REMINDER,
+        RESET
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private long millis;
+
+        MutableClock(final long start) {
+            millis = start;
+        }
+
+        void advance(final long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.frequency;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlidingWindowCounterTest {
+
+    private static final long MINUTE = 60_000L;
+
+    private static final long HOUR = 60 * MINUTE;
+
+    private static final long START = 1_000 * HOUR;
+
+    private static final int USERS = 100_000;
+
+    private static final int THREADS = 8;
+
+    @Test
+    void limitsWithinTheWindow() {
+        final SlidingWindowCounter counter = new SlidingWindowCounter(Duration.ofHours(1), 60);
+        assertTrue(counter.tryAcquire(7L, 2, START));
+        assertTrue(counter.tryAcquire(7L, 2, START + 10 * MINUTE));
+        assertFalse(counter.tryAcquire(7L, 2, START + 20 * MINUTE));
+        assertTrue(counter.tryAcquire(8L, 2, START + 20 * MINUTE), "keys are independent");
+        assertEquals(2, counter.count(7L, START + 59 * MINUTE));
+    }
+
+    @Test
+    void eventsSlideOutOfTheWindow() {
+        final SlidingWindowCounter counter = new SlidingWindowCounter(Duration.ofHours(1), 60);
+        counter.tryAcquire(7L, 2, START);
+        counter.tryAcquire(7L, 2, START + 10 * MINUTE);
+        assertEquals(START + HOUR, counter.nextExpiryMillis(7L, START + 30 * MINUTE));
+
+        assertEquals(1, counter.count(7L, START + HOUR));
+        assertTrue(counter.tryAcquire(7L, 2, START + HOUR));
+        assertEquals(START + 10 * MINUTE + HOUR, counter.nextExpiryMillis(7L, START + HOUR));
+
+        assertEquals(0, counter.count(7L, START + 3 * HOUR));
+        assertEquals(START + 3 * HOUR, counter.nextExpiryMillis(7L, START + 3 * HOUR), "empty window");
+    }
+
+    @Test
+    void releaseTakesBackTheLastEvent() {
+        final SlidingWindowCounter counter = new SlidingWindowCounter(Duration.ofHours(1), 60);
+        assertTrue(counter.tryAcquire(7L, 1, START));
+        counter.release(7L, START);
+        assertTrue(counter.tryAcquire(7L, 1, START));
+        counter.release(8L, START);
+        assertEquals(0, counter.count(8L, START));
+    }
+
+    @Test
+    void releaseTakesBackFromTheBucketTheEventWasCountedIn() {
+        final SlidingWindowCounter counter = new SlidingWindowCounter(Duration.ofHours(1), 60);
+        assertTrue(counter.tryAcquire(7L, 2, START));
+        assertTrue(counter.tryAcquire(7L, 2, START + 30 * MINUTE));
+        counter.release(7L, START, START + 40 * MINUTE);
+        assertEquals(1, counter.count(7L, START + 40 * MINUTE));
+        assertEquals(START + 90 * MINUTE, counter.nextExpiryMillis(7L, START + 40 * MINUTE));
+
+        counter.release(7L, START + 30 * MINUTE, START + 2 * HOUR);
+        assertEquals(0, counter.count(7L, START + 2 * HOUR), "already out of the window");
+        assertTrue(counter.tryAcquire(7L, 1, START + 2 * HOUR));
+    }
+
+    @Test
+    void expiredKeysAreDroppedAsTheTableGrows() {
+        final SlidingWindowCounter counter = new SlidingWindowCounter(Duration.ofHours(1), 12);
+        for (long user = 0; user < USERS; user++) {
+            assertTrue(counter.tryAcquire(user, 1, START));
+        }
+        assertEquals(USERS, counter.size());
+        for (long user = 0; user < USERS; user++) {
+            assertFalse(counter.tryAcquire(user, 1, START + MINUTE));
+        }
+
+        final long later = START + 2 * HOUR;
+        for (long user = USERS; user < 2 * USERS; user++) {
+            assertTrue(counter.tryAcquire(user, 1, later));
+        }
+        assertTrue(counter.size() < 2 * USERS, "expired keys dropped, " + counter.size() + " held");
+        for (long user = 0; user < USERS; user++) {
+            assertTrue(counter.tryAcquire(user, 1, later), "window expired for " + user);
+        }
+    }
+
+    @Test
+    void concurrentSendsNeverExceedTheLimit() throws Exception {
+        final SlidingWindowCounter counter = new SlidingWindowCounter(Duration.ofDays(1), 24);
+        final AtomicInteger granted = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                workers.add(pool.submit(() -> {
+                    for (long user = 0; user < USERS / 10; user++) {
+                        for (int i = 0; i < 3; i++) {
+                            if (counter.tryAcquire(user, 5, START)) {
+                                granted.incrementAndGet();
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(USERS / 10 * 5, granted.get());
+        assertEquals(5, counter.count(USERS / 20, START));
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.jfr;
+
+import com.starfireaviation.email.util.ResponseParser;
+import com.starfireaviation.model.ResponseOption;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageEventsTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recordsLifecycleEvents() throws Exception {
+        final List<RecordedEvent> events = record(() -> {
+            assertEquals(ResponseOption.STOP, ResponseParser.determineResponse("Stop"));
+
+            final ModelBuildEvent model = new ModelBuildEvent();
+            model.begin();
+            model.finish("gs_event_rsvp", true);
+
+            final TemplateRenderEvent render = new TemplateRenderEvent();
+            render.begin();
+            render.finish("gs_event_rsvp_body.ftl", 2048L, "success");
+
+            final TransportCallEvent transport = new TransportCallEvent();
+            transport.begin();
+            transport.finish("EVENT_RSVP", 2048L, 1, "failure");
+        });
+        assertEquals(4, events.size());
+
+        final RecordedEvent parse = find(events, "com.starfireaviation.email.InboundParse");
+        assertEquals(4L, parse.getLong("length"));
+        assertEquals("STOP", parse.getString("outcome"));
+
+        final RecordedEvent model = find(events, "com.starfireaviation.email.ModelBuild");
+        assertEquals("gs_event_rsvp", model.getString("template"));
+        assertTrue(model.getBoolean("typed"));
+
+        final RecordedEvent render = find(events, "com.starfireaviation.email.TemplateRender");
+        assertEquals("gs_event_rsvp_body.ftl", render.getString("template"));
+        assertEquals(2048L, render.getLong("size"));
+        assertEquals("success", render.getString("outcome"));
+
+        final RecordedEvent transport = find(events, "com.starfireaviation.email.TransportCall");
+        assertEquals("EVENT_RSVP", transport.getString("messageType"));
+        assertEquals(1, transport.getInt("attachments"));
+        assertEquals("failure", transport.getString("outcome"));
+        assertFalse(transport.getDuration().isNegative());
+        assertNull(transport.getStackTrace());
+    }
+
+    @Test
+    void nothingIsRecordedWhileDisabled() throws Exception {
+        assertFalse(new InboundParseEvent().isEnabled(), "no recording running");
+        final Path file = directory.resolve("disabled.jfr");
+        try (Recording recording = new Recording()) {
+            recording.disable(InboundParseEvent.class);
+            recording.start();
+            assertEquals(ResponseOption.SKIP, ResponseParser.determineResponse("skip"));
+            recording.stop();
+            recording.dump(file);
+        }
+        assertTrue(RecordingFile.readAllEvents(file).stream()
+                .noneMatch(event -> event.getEventType().getName().startsWith("com.starfireaviation.email.")));
+    }
+
+    private List<RecordedEvent> record(final Runnable work) throws Exception {
+        final Path file = directory.resolve("events.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(InboundParseEvent.class);
+            recording.enable(ModelBuildEvent.class);
+            recording.enable(TemplateRenderEvent.class);
+            recording.enable(TransportCallEvent.class);
+            recording.start();
+            work.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file);
+    }
+
+    private static RecordedEvent find(final List<RecordedEvent> events, final String name) {
+        return events.stream().filter(event -> event.getEventType().getName().equals(name)).findFirst().orElseThrow();
+    }
+
+}
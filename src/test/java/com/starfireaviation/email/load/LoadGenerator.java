@@ -0,0 +1,542 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.load;
+
+import com.starfireaviation.email.EmailApplication;
+import com.starfireaviation.email.exception.TransportException;
+import com.starfireaviation.email.service.MessageService;
+import com.starfireaviation.email.service.MessageType;
+import com.starfireaviation.email.standin.MailApiStandIn;
+import com.starfireaviation.model.Message;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator.
+ *
+ * <p>Starts the real Spring context against a local {@link MailApiStandIn} and drives MessageService at a fixed
+ * arrival rate with a weighted mix of message types. Latency is measured from each message's scheduled start, not
+ * from when a driver thread got around to it, so a saturated service shows up as latency rather than being hidden
+ * by the driver slowing down. Settings are system properties:</p>
+ * <ul>
+ *     <li>load.rate - messages per second (default 200)</li>
+ *     <li>load.seconds - measured duration (default 60)</li>
+ *     <li>load.warmupSeconds - unmeasured warm up at the same rate (default 10)</li>
+ *     <li>load.threads - driver threads (default 32)</li>
+ *     <li>load.mix - weighted message types, e.g. EVENT_REGISTER=3,USER_DELETE=1</li>
+ *     <li>load.latencyMillis / load.jitterMillis - stand-in latency (default 80 / 40)</li>
+ *     <li>load.errorRate - fraction of stand-in 500s (default 0)</li>
+ *     <li>load.quietLogs - raise service log level to WARN (default true)</li>
+ * </ul>
+ * <p>Run with the pod's limits to size it, e.g.
+ * {@code java -Xmx768m -XX:ActiveProcessorCount=1 -cp <test classpath> ...LoadGenerator}.</p>
+ */
+public final class LoadGenerator {
+
+    /**
+     * Nanoseconds per second.
+     */
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    /**
+     * Nanoseconds per millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    /**
+     * Bytes per megabyte.
+     */
+    private static final double BYTES_PER_MB = 1024d * 1024d;
+
+    /**
+     * Interval between heap samples.
+     */
+    private static final long HEAP_SAMPLE_MILLIS = 100L;
+
+    /**
+     * Message types whose templates only use fields the model always provides.
+     */
+    private static final String DEFAULT_MIX =
+            "EVENT_REGISTER=4,EVENT_UNREGISTER=1,USER_DELETE=1,QUIZ_COMPLETE=2,USER_SETTINGS_VERIFIED=2";
+
+    /**
+     * LoadGenerator.
+     */
+    private LoadGenerator() {
+    }
+
+    /**
+     * Runs with settings from system properties and prints the report.
+     *
+     * @param args ignored
+     * @throws Exception when the run fails
+     */
+    public static void main(final String[] args) throws Exception {
+        System.out.println(run(Settings.fromSystemProperties()));
+    }
+
+    /**
+     * Runs one load test.
+     *
+     * @param settings Settings
+     * @return Report
+     * @throws Exception when the run fails
+     */
+    public static Report run(final Settings settings) throws Exception {
+        final MailApiStandIn standIn = new MailApiStandIn().start();
+        standIn.setLatency(settings.latencyMillis, settings.jitterMillis);
+        standIn.setErrorRate(settings.errorRate);
+        final List<String> properties = new ArrayList<>(Arrays.asList(
+                "server.port=0",
+                "email.enabled=true",
+                "email.from-address=load@example.com",
+                "email.send-grid-api-key=load-test",
+                "email.host-app=https://app.example.com",
+                "email.send-grid-base-url=" + standIn.getBaseUrl()));
+        if (settings.quietLogs) {
+            properties.add("logging.level.com.starfireaviation.email=WARN");
+            properties.add("logging.level.com.starfireaviation.email.load=INFO");
+        }
+        try (ConfigurableApplicationContext context =
+                     new SpringApplicationBuilder(EmailApplication.class, SyntheticEntityLookup.Config.class)
+                             .properties(properties.toArray(new String[0]))
+                             .run()) {
+            final MessageService service = context.getBean(MessageService.class);
+            drive(service, settings, settings.warmupSeconds);
+            final long acceptedBefore = standIn.getAccepted();
+            final long failedBefore = standIn.getFailed();
+            final long bytesBefore = standIn.getBytesReceived();
+            final Report report = new Report(settings);
+            report.begin();
+            report.latencies = drive(service, settings, settings.seconds);
+            report.end();
+            report.delivered = standIn.getAccepted() - acceptedBefore;
+            report.transportErrors = standIn.getFailed() - failedBefore;
+            report.bytesSent = standIn.getBytesReceived() - bytesBefore;
+            return report;
+        } finally {
+            standIn.stop();
+        }
+    }
+
+    /**
+     * Sends at the configured rate for a number of seconds.
+     *
+     * @param service  MessageService
+     * @param settings Settings
+     * @param seconds  duration
+     * @return latency of each message in nanoseconds, measured from its scheduled start
+     * @throws InterruptedException when interrupted
+     */
+    private static long[] drive(final MessageService service, final Settings settings, final int seconds)
+            throws InterruptedException {
+        final int total = (int) (settings.rate * seconds);
+        final long[] latencies = new long[total];
+        if (total == 0) {
+            return latencies;
+        }
+        final long intervalNanos = (long) (NANOS_PER_SECOND / settings.rate);
+        final AtomicInteger next = new AtomicInteger();
+        final ExecutorService drivers = Executors.newFixedThreadPool(settings.threads);
+        final long start = System.nanoTime();
+        for (int t = 0; t < settings.threads; t++) {
+            drivers.execute(() -> {
+                for (int i = next.getAndIncrement(); i < total; i = next.getAndIncrement()) {
+                    final long scheduled = start + i * intervalNanos;
+                    long wait = scheduled - System.nanoTime();
+                    while (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                        wait = scheduled - System.nanoTime();
+                    }
+                    try {
+                        settings.mix.pick().dispatch(service, new Message());
+                    } catch (TransportException e) {
+                        // counted by the stand-in; the dispatcher would retry it
+                    }
+                    latencies[i] = System.nanoTime() - scheduled;
+                }
+            });
+        }
+        drivers.shutdown();
+        drivers.awaitTermination(seconds + TimeUnit.HOURS.toSeconds(1), TimeUnit.SECONDS);
+        return latencies;
+    }
+
+    /**
+     * Load settings.
+     */
+    public static final class Settings {
+
+        /**
+         * Messages per second.
+         */
+        private double rate = 200;
+
+        /**
+         * Measured duration.
+         */
+        private int seconds = 60;
+
+        /**
+         * Unmeasured warm up.
+         */
+        private int warmupSeconds = 10;
+
+        /**
+         * Driver threads.
+         */
+        private int threads = 32;
+
+        /**
+         * Message type mix.
+         */
+        private Mix mix = Mix.parse(DEFAULT_MIX);
+
+        /**
+         * Stand-in fixed latency.
+         */
+        private long latencyMillis = 80;
+
+        /**
+         * Stand-in random latency.
+         */
+        private long jitterMillis = 40;
+
+        /**
+         * Stand-in error rate.
+         */
+        private double errorRate;
+
+        /**
+         * Raise service log level to WARN.
+         */
+        private boolean quietLogs = true;
+
+        /**
+         * Settings from load.* system properties.
+         *
+         * @return Settings
+         */
+        public static Settings fromSystemProperties() {
+            final Settings settings = new Settings();
+            settings.rate = Double.parseDouble(System.getProperty("load.rate", String.valueOf(settings.rate)));
+            settings.seconds = Integer.getInteger("load.seconds", settings.seconds);
+            settings.warmupSeconds = Integer.getInteger("load.warmupSeconds", settings.warmupSeconds);
+            settings.threads = Integer.getInteger("load.threads", settings.threads);
+            settings.mix = Mix.parse(System.getProperty("load.mix", DEFAULT_MIX));
+            settings.latencyMillis = Long.getLong("load.latencyMillis", settings.latencyMillis);
+            settings.jitterMillis = Long.getLong("load.jitterMillis", settings.jitterMillis);
+            settings.errorRate = Double.parseDouble(
+                    System.getProperty("load.errorRate", String.valueOf(settings.errorRate)));
+            settings.quietLogs = Boolean.parseBoolean(
+                    System.getProperty("load.quietLogs", String.valueOf(settings.quietLogs)));
+            return settings;
+        }
+
+        /**
+         * Measured duration.
+         *
+         * @return seconds
+         */
+        public int getSeconds() {
+            return seconds;
+        }
+
+        /**
+         * Messages per second.
+         *
+         * @return rate
+         */
+        public double getRate() {
+            return rate;
+        }
+    }
+
+    /**
+     * Weighted message type mix.
+     */
+    static final class Mix {
+
+        /**
+         * Message types.
+         */
+        private final MessageType[] types;
+
+        /**
+         * Cumulative weights.
+         */
+        private final int[] cumulative;
+
+        /**
+         * Mix.
+         *
+         * @param weights type to weight
+         */
+        private Mix(final Map<MessageType, Integer> weights) {
+            types = weights.keySet().toArray(new MessageType[0]);
+            cumulative = new int[types.length];
+            int sum = 0;
+            for (int i = 0; i < types.length; i++) {
+                sum += weights.get(types[i]);
+                cumulative[i] = sum;
+            }
+        }
+
+        /**
+         * Parses TYPE=weight pairs.
+         *
+         * @param spec e.g. EVENT_REGISTER=3,USER_DELETE=1
+         * @return Mix
+         */
+        static Mix parse(final String spec) {
+            final Map<MessageType, Integer> weights = new LinkedHashMap<>();
+            for (String pair : spec.split(",")) {
+                final String[] parts = pair.trim().split("=");
+                int weight = 1;
+                if (parts.length > 1) {
+                    weight = Integer.parseInt(parts[1].trim());
+                }
+                weights.put(MessageType.valueOf(parts[0].trim()), weight);
+            }
+            return new Mix(weights);
+        }
+
+        /**
+         * Picks a type at random by weight.
+         *
+         * @return MessageType
+         */
+        MessageType pick() {
+            final int roll = ThreadLocalRandom.current().nextInt(cumulative[cumulative.length - 1]);
+            for (int i = 0; i < cumulative.length; i++) {
+                if (roll < cumulative[i]) {
+                    return types[i];
+                }
+            }
+            return types[types.length - 1];
+        }
+    }
+
+    /**
+     * Result of a load run.
+     */
+    public static final class Report {
+
+        /**
+         * Settings used.
+         */
+        private final Settings settings;
+
+        /**
+         * Latency of each message in nanoseconds.
+         */
+        private long[] latencies;
+
+        /**
+         * Messages the stand-in accepted.
+         */
+        private long delivered;
+
+        /**
+         * Messages the stand-in answered with 500.
+         */
+        private long transportErrors;
+
+        /**
+         * Request bytes the stand-in received.
+         */
+        private long bytesSent;
+
+        /**
+         * Start of the measured run.
+         */
+        private long startNanos;
+
+        /**
+         * Measured run duration.
+         */
+        private long elapsedNanos;
+
+        /**
+         * Collections at start.
+         */
+        private long gcCountStart;
+
+        /**
+         * Collection time at start.
+         */
+        private long gcMillisStart;
+
+        /**
+         * Collections during the run.
+         */
+        private long gcCount;
+
+        /**
+         * Collection time during the run.
+         */
+        private long gcMillis;
+
+        /**
+         * Highest total heap in use seen by the sampler during the run.
+         */
+        private final AtomicLong heapPeakBytes = new AtomicLong();
+
+        /**
+         * Samples total heap in use during the run.
+         */
+        private ScheduledExecutorService heapSampler;
+
+        /**
+         * Report.
+         *
+         * @param runSettings Settings
+         */
+        Report(final Settings runSettings) {
+            settings = runSettings;
+        }
+
+        /**
+         * Snapshots GC counters and starts sampling the heap. Total heap in use is sampled, rather than adding up
+         * each pool's peak, because the pools peak at different times and their sum overstates the real peak.
+         */
+        void begin() {
+            heapSampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "load-heap-sampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            heapSampler.scheduleAtFixedRate(this::sampleHeap, 0L, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcCountStart += Math.max(0, gc.getCollectionCount());
+                gcMillisStart += Math.max(0, gc.getCollectionTime());
+            }
+            startNanos = System.nanoTime();
+        }
+
+        /**
+         * Collects GC counters and stops sampling the heap.
+         */
+        void end() {
+            elapsedNanos = System.nanoTime() - startNanos;
+            heapSampler.shutdownNow();
+            sampleHeap();
+            long count = 0;
+            long millis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+                millis += Math.max(0, gc.getCollectionTime());
+            }
+            gcCount = count - gcCountStart;
+            gcMillis = millis - gcMillisStart;
+        }
+
+        /**
+         * Records total heap in use if it is the highest seen.
+         */
+        private void sampleHeap() {
+            heapPeakBytes.accumulateAndGet(
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), Math::max);
+        }
+
+        /**
+         * Messages driven.
+         *
+         * @return count
+         */
+        public int getRequested() {
+            return latencies.length;
+        }
+
+        /**
+         * Messages the stand-in accepted.
+         *
+         * @return count
+         */
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * Messages the stand-in answered with 500.
+         *
+         * @return count
+         */
+        public long getTransportErrors() {
+            return transportErrors;
+        }
+
+        /**
+         * Achieved messages per second.
+         *
+         * @return throughput
+         */
+        public double getThroughput() {
+            return latencies.length * NANOS_PER_SECOND / elapsedNanos;
+        }
+
+        /**
+         * Latency percentile.
+         *
+         * @param percentile between 0 and 100
+         * @return milliseconds
+         */
+        public double percentileMillis(final double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            final long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            final int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile / 100d * sorted.length) - 1);
+            return sorted[Math.max(0, index)] / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "target %.0f msg/s for %ds; achieved %.1f msg/s%n"
+                            + "requested %d; delivered %d; transport errors %d; not sent %d; %.1f MB posted%n"
+                            + "latency ms p50 %.1f; p90 %.1f; p99 %.1f; p99.9 %.1f; max %.1f%n"
+                            + "gc %d collections; %d ms total; peak heap in use %.1f MB (sampled every %d ms) "
+                            + "of %.1f MB max",
+                    settings.rate, settings.seconds, getThroughput(),
+                    getRequested(), delivered, transportErrors, getRequested() - delivered - transportErrors,
+                    bytesSent / BYTES_PER_MB,
+                    percentileMillis(50), percentileMillis(90), percentileMillis(99), percentileMillis(99.9),
+                    percentileMillis(100),
+                    gcCount, gcMillis, heapPeakBytes.get() / BYTES_PER_MB, HEAP_SAMPLE_MILLIS,
+                    Runtime.getRuntime().maxMemory() / BYTES_PER_MB);
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.load;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Soak test; run with {@code mvn test -Dload.soak=true -Dtest=LoadGeneratorTest} plus any load.* settings.
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "load.soak", matches = "true")
+class LoadGeneratorTest {
+
+    @Test
+    void soak() throws Exception {
+        final LoadGenerator.Report report = LoadGenerator.run(LoadGenerator.Settings.fromSystemProperties());
+        log.info(String.format("soak()%n%s", report));
+        assertEquals(report.getRequested(), report.getDelivered() + report.getTransportErrors(),
+                "every driven message should reach the transport");
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.load;
+
+import com.starfireaviation.email.service.EntityLookup;
+import com.starfireaviation.model.Event;
+import com.starfireaviation.model.EventType;
+import com.starfireaviation.model.Message;
+import com.starfireaviation.model.Question;
+import com.starfireaviation.model.User;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * EntityLookup returning synthetic recipients, so load runs do not need the upstream services.
+ */
+public class SyntheticEntityLookup implements EntityLookup {
+
+    /**
+     * Number of distinct synthetic users.
+     */
+    private static final int USER_COUNT = 2000;
+
+    /**
+     * Synthetic users.
+     */
+    private final User[] users = new User[USER_COUNT];
+
+    /**
+     * Synthetic ground school event.
+     */
+    private final Event event = new Event();
+
+    /**
+     * SyntheticEntityLookup.
+     */
+    public SyntheticEntityLookup() {
+        for (int i = 0; i < USER_COUNT; i++) {
+            final User user = new User();
+            user.setId((long) i);
+            user.setEmail("load.user" + i + "@example.com");
+            user.setFirstName("Load");
+            user.setLastName("User" + i);
+            users[i] = user;
+        }
+        event.setId(1L);
+        event.setTitle("Ground School: Weather");
+        event.setStartTime(LocalDateTime.now().plusDays(1));
+        event.setEventType(EventType.GROUNDSCHOOL);
+    }
+
+    @Override
+    public User getUser(final Message message) {
+        return users[ThreadLocalRandom.current().nextInt(USER_COUNT)];
+    }
+
+    @Override
+    public Event getEvent(final Message message) {
+        return event;
+    }
+
+    @Override
+    public Question getQuestion(final Message message) {
+        return null;
+    }
+
+    /**
+     * Registers the synthetic lookup in place of the real one.
+     */
+    @TestConfiguration
+    public static class Config {
+
+        /**
+         * Synthetic EntityLookup.
+         *
+         * @return EntityLookup
+         */
+        @Bean
+        @Primary
+        public EntityLookup syntheticEntityLookup() {
+            return new SyntheticEntityLookup();
+        }
+    }
+
+}
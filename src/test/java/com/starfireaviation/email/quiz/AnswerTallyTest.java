@@ -0,0 +1,199 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.quiz;
+
+import com.starfireaviation.model.ResponseOption;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnswerTallyTest {
+
+    private static final int THREADS = 8;
+
+    private static final int REPLIES_PER_THREAD = 50_000;
+
+    private static final int QUESTIONS = 4;
+
+    private static final long IDLE_MILLIS = 60_000L;
+
+    @Test
+    void countsEachAnswerPerQuestion() {
+        final AnswerTally tally = new AnswerTally(16);
+        tally.record(7L, ResponseOption.A);
+        tally.record(7L, ResponseOption.A);
+        tally.record(7L, ResponseOption.C);
+        tally.record(7L, ResponseOption.SKIP);
+        tally.record(8L, ResponseOption.D);
+
+        final Map<ResponseOption, Long> seven = tally.snapshot(7L);
+        assertEquals(AnswerTally.ANSWERS, new ArrayList<>(seven.keySet()));
+        assertEquals(2L, (long) seven.get(ResponseOption.A));
+        assertEquals(0L, (long) seven.get(ResponseOption.B));
+        assertEquals(1L, (long) seven.get(ResponseOption.C));
+        assertEquals(1L, (long) seven.get(ResponseOption.SKIP));
+        assertEquals(1L, (long) tally.snapshot(8L).get(ResponseOption.D));
+        assertEquals(List.of(7L, 8L), new ArrayList<>(tally.snapshot().keySet()));
+        assertEquals(5L, tally.getRecorded());
+    }
+
+    @Test
+    void ignoresRepliesThatAreNotAnswers() {
+        final AnswerTally tally = new AnswerTally(16);
+        assertFalse(tally.record(7L, ResponseOption.STOP));
+        assertFalse(tally.record(7L, ResponseOption.UNKNOWN));
+        assertFalse(tally.record(7L, null));
+        assertEquals(0, tally.size());
+        assertEquals(0L, (long) tally.snapshot(7L).get(ResponseOption.A));
+    }
+
+    @Test
+    void newQuestionDisplacesTheLeastRecentlyAnsweredWhenFull() {
+        final MutableClock clock = new MutableClock();
+        final AnswerTally tally = new AnswerTally(2, 0L, clock);
+        assertTrue(tally.record(1L, ResponseOption.A));
+        clock.advance(1L);
+        assertTrue(tally.record(2L, ResponseOption.B));
+        clock.advance(1L);
+        assertTrue(tally.record(1L, ResponseOption.B), "question 1 is now the more recent");
+        clock.advance(1L);
+
+        assertTrue(tally.record(3L, ResponseOption.C));
+
+        assertEquals(Set.of(1L, 3L), tally.snapshot().keySet());
+        assertEquals(1L, tally.getEvicted());
+        assertEquals(1L, (long) tally.clear(1L).get(ResponseOption.B));
+        assertEquals(0L, (long) tally.snapshot(1L).get(ResponseOption.A));
+    }
+
+    @Test
+    void idleQuestionsAreDroppedFirst() {
+        final MutableClock clock = new MutableClock();
+        final AnswerTally tally = new AnswerTally(3, IDLE_MILLIS, clock);
+        tally.record(1L, ResponseOption.A);
+        tally.record(2L, ResponseOption.A);
+        clock.advance(IDLE_MILLIS);
+        tally.record(3L, ResponseOption.A);
+        clock.advance(1L);
+
+        tally.record(4L, ResponseOption.A);
+
+        assertEquals(Set.of(3L, 4L), tally.snapshot().keySet(), "both idle questions go, not just one");
+        assertEquals(2L, tally.getEvicted());
+    }
+
+    @Test
+    void burstIsCountedExactlyWhileSnapshotsRead() throws Exception {
+        final AnswerTally tally = new AnswerTally(16);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean done = new AtomicBoolean();
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            final List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                writers.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < REPLIES_PER_THREAD; i++) {
+                        tally.record(i % QUESTIONS, AnswerTally.ANSWERS.get(i % AnswerTally.ANSWERS.size()));
+                    }
+                    return null;
+                }));
+            }
+            final Future<Long> reader = pool.submit(() -> {
+                long reads = 0L;
+                long previous = 0L;
+                start.await();
+                while (!done.get()) {
+                    final long total = total(tally.snapshot());
+                    assertTrue(total >= previous, "counts never go backwards");
+                    previous = total;
+                    reads++;
+                }
+                return reads;
+            });
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            done.set(true);
+            assertTrue(reader.get() > 0L);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        final long replies = (long) THREADS * REPLIES_PER_THREAD;
+        assertEquals(replies, total(tally.snapshot()));
+        assertEquals(replies, tally.getRecorded());
+        assertEquals(QUESTIONS, tally.size());
+        for (Map<ResponseOption, Long> counts : tally.snapshot().values()) {
+            for (long count : counts.values()) {
+                assertEquals(replies / QUESTIONS / AnswerTally.ANSWERS.size(), count);
+            }
+        }
+    }
+
+    private static long total(final Map<Long, Map<ResponseOption, Long>> snapshot) {
+        long total = 0L;
+        for (Map<ResponseOption, Long> counts : snapshot.values()) {
+            for (long count : counts.values()) {
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private long millis;
+
+        void advance(final long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+
+}
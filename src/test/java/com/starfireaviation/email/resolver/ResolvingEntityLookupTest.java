@@ -0,0 +1,101 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.resolver;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.starfireaviation.email.config.ApplicationProperties;
+import com.starfireaviation.email.standin.UpstreamStandIn;
+import com.starfireaviation.model.Event;
+import com.starfireaviation.model.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResolvingEntityLookupTest {
+
+    private static final int RECIPIENTS = 2000;
+
+    private static final int BATCH_SIZE = 100;
+
+    private UpstreamStandIn upstream;
+
+    private ResolvingEntityLookup lookup;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        upstream = new UpstreamStandIn()
+                .resource("/users", id -> id < RECIPIENTS
+                        ? String.format("{\"id\":%d,\"firstName\":\"User%d\",\"email\":\"u%d@example.com\"}", id, id, id)
+                        : null)
+                .resource("/events", id -> String.format("{\"id\":%d,\"title\":\"Weather\"}", id))
+                .start();
+        final ApplicationProperties props = new ApplicationProperties();
+        props.setEntityBatchSize(BATCH_SIZE);
+        final ObjectMapper mapper = new ObjectMapper()
+                .findAndRegisterModules()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        lookup = new ResolvingEntityLookup(
+                new UpstreamClient(upstream.getBaseUrl(), props.getUpstreamTimeoutMillis(), mapper), props);
+    }
+
+    @AfterEach
+    void tearDown() {
+        lookup.shutdown();
+        upstream.stop();
+    }
+
+    @Test
+    void eventWaveCostsOneEventFetchAndBatchedUserFetches() {
+        final List<CompletableFuture<User>> users = new ArrayList<>();
+        final List<CompletableFuture<Event>> events = new ArrayList<>();
+        for (long id = 0; id < RECIPIENTS; id++) {
+            users.add(lookup.user(id));
+            events.add(lookup.event(7L));
+        }
+        for (int i = 0; i < RECIPIENTS; i++) {
+            assertEquals(Long.valueOf(i), users.get(i).join().getId());
+            assertEquals("Weather", events.get(i).join().getTitle());
+        }
+        assertEquals(1, upstream.getRequests("/events"));
+        assertEquals(RECIPIENTS, upstream.getIdsRequested("/users"), "each user id fetched once");
+        assertTrue(upstream.getRequests("/users") <= RECIPIENTS / BATCH_SIZE + 5,
+                "user fetches should be batched, was " + upstream.getRequests("/users"));
+    }
+
+    @Test
+    void cachedValuesAreNotFetchedAgain() {
+        assertEquals("u5@example.com", lookup.user(5L).join().getEmail());
+        assertEquals("u5@example.com", lookup.user(5L).join().getEmail());
+        assertEquals(1, upstream.getRequests("/users"));
+    }
+
+    @Test
+    void unknownAndMissingIdsResolveToNull() {
+        assertNull(lookup.user((long) RECIPIENTS).join());
+        assertNull(lookup.user(null).join());
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.schedule;
+
+import com.starfireaviation.email.tenant.SendRateLimiter;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuietHoursSchedulerTest {
+
+    private static final ZoneId UTC = ZoneOffset.UTC;
+
+    private static final long BUCKET_MILLIS = 60_000L;
+
+    private static final double RELEASE_PER_SECOND = 200d;
+
+    private static final int RECIPIENTS = 100;
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2026-03-03T23:00:00Z").toEpochMilli());
+
+    private final List<Long> released = new ArrayList<>();
+
+    private final List<Long> releasedAtNanos = new ArrayList<>();
+
+    @Test
+    void sendsOutsideQuietHoursRightAway() {
+        clock.set(Instant.parse("2026-03-03T12:00:00Z").toEpochMilli());
+        final QuietHoursScheduler<Long> scheduler = scheduler(Duration.ZERO);
+        assertFalse(scheduler.defer(1L, UTC, 1L));
+        assertEquals(0, scheduler.getHeld());
+    }
+
+    @Test
+    void holdsUntilTheWindowOpens() throws Exception {
+        final QuietHoursScheduler<Long> scheduler = scheduler(Duration.ZERO);
+        assertTrue(scheduler.defer(1L, UTC, 1L));
+        assertTrue(scheduler.defer(2L, UTC, 2L));
+        assertEquals(2, scheduler.getHeld());
+
+        clock.set(Instant.parse("2026-03-04T07:59:59Z").toEpochMilli());
+        assertEquals(0, scheduler.releaseDue());
+
+        clock.set(Instant.parse("2026-03-04T08:00:00Z").toEpochMilli());
+        assertEquals(2, scheduler.releaseDue());
+        assertEquals(List.of(1L, 2L), released);
+        assertEquals(0, scheduler.getHeld());
+        assertEquals(2L, scheduler.getDeferred());
+        assertEquals(2L, scheduler.getReleased());
+    }
+
+    @Test
+    void releasesTheMorningWaveGradually() throws Exception {
+        final Duration spread = Duration.ofMinutes(30);
+        final QuietHoursScheduler<Long> scheduler = scheduler(spread);
+        for (long user = 0; user < RECIPIENTS; user++) {
+            assertTrue(scheduler.defer(user, UTC, user));
+        }
+
+        clock.set(Instant.parse("2026-03-04T08:00:00Z").toEpochMilli());
+        final int first = scheduler.releaseDue();
+        assertTrue(first < RECIPIENTS / 10, "only the first minute's share is due, got " + first);
+
+        clock.set(Instant.parse("2026-03-04T08:00:00Z").plus(spread).toEpochMilli());
+        assertEquals(RECIPIENTS - first, scheduler.releaseDue());
+        assertEquals(RECIPIENTS, released.size());
+
+        final long minimumGapNanos = (long) (TimeUnit.SECONDS.toNanos(1) / RELEASE_PER_SECOND);
+        final long elapsed = releasedAtNanos.get(RECIPIENTS - 1) - releasedAtNanos.get(first);
+        assertTrue(elapsed >= minimumGapNanos * (RECIPIENTS - first - 2), "paced, took " + elapsed + "ns");
+    }
+
+    @Test
+    void holdsUntilAGivenTimeButNotIntoQuietHours() throws Exception {
+        clock.set(Instant.parse("2026-03-03T12:00:00Z").toEpochMilli());
+        final QuietHoursScheduler<Long> scheduler = scheduler(Duration.ZERO);
+        assertTrue(scheduler.holdUntil(1L, Instant.parse("2026-03-03T15:00:00Z"), UTC, 1L));
+        assertTrue(scheduler.holdUntil(2L, Instant.parse("2026-03-03T22:00:00Z"), UTC, 2L));
+
+        clock.set(Instant.parse("2026-03-03T15:00:00Z").toEpochMilli());
+        assertEquals(1, scheduler.releaseDue());
+        clock.set(Instant.parse("2026-03-03T22:00:00Z").toEpochMilli());
+        assertEquals(0, scheduler.releaseDue());
+        clock.set(Instant.parse("2026-03-04T08:00:00Z").toEpochMilli());
+        assertEquals(1, scheduler.releaseDue());
+        assertEquals(List.of(1L, 2L), released);
+        assertEquals(0L, scheduler.getDeferred(), "only quiet hours deferrals are counted");
+    }
+
+    @Test
+    void stopsHoldingOnShutdown() {
+        final QuietHoursScheduler<Long> scheduler = scheduler(Duration.ZERO);
+        scheduler.shutdown();
+        assertFalse(scheduler.defer(1L, UTC, 1L));
+        assertFalse(scheduler.holdUntil(1L, clock.instant(), UTC, 1L));
+    }
+
+    private QuietHoursScheduler<Long> scheduler(final Duration spread) {
+        return new QuietHoursScheduler<>(
+                new QuietHours(LocalTime.of(21, 0), LocalTime.of(8, 0), spread),
+                BUCKET_MILLIS,
+                new SendRateLimiter(RELEASE_PER_SECOND),
+                item -> {
+                    released.add(item);
+                    releasedAtNanos.add(System.nanoTime());
+                },
+                clock);
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private long millis;
+
+        MutableClock(final long start) {
+            millis = start;
+        }
+
+        void set(final long now) {
+            millis = now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.schedule;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuietHoursTest {
+
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    private static final ZoneId TOKYO = ZoneId.of("Asia/Tokyo");
+
+    private static final LocalTime NINE_PM = LocalTime.of(21, 0);
+
+    private static final LocalTime EIGHT_AM = LocalTime.of(8, 0);
+
+    private static final Duration SPREAD = Duration.ofMinutes(30);
+
+    private final QuietHours overnight = new QuietHours(NINE_PM, EIGHT_AM, Duration.ZERO);
+
+    @Test
+    void wrapsPastMidnight() {
+        assertTrue(overnight.isQuiet(LocalTime.of(23, 30)));
+        assertTrue(overnight.isQuiet(LocalTime.of(3, 0)));
+        assertTrue(overnight.isQuiet(NINE_PM));
+        assertFalse(overnight.isQuiet(EIGHT_AM));
+        assertFalse(overnight.isQuiet(LocalTime.NOON));
+    }
+
+    @Test
+    void sameDayWindow() {
+        final QuietHours afternoon = new QuietHours(LocalTime.of(13, 0), LocalTime.of(14, 0), Duration.ZERO);
+        assertTrue(afternoon.isQuiet(LocalTime.of(13, 30)));
+        assertFalse(afternoon.isQuiet(LocalTime.of(12, 59)));
+        assertFalse(afternoon.isQuiet(LocalTime.of(14, 0)));
+    }
+
+    @Test
+    void equalStartAndEndTurnsItOff() {
+        final QuietHours off = new QuietHours(EIGHT_AM, EIGHT_AM, SPREAD);
+        assertFalse(off.isEnabled());
+        assertNull(off.deliverAt(at(2026, 3, 3, 3, 0, NEW_YORK), NEW_YORK, 1L));
+    }
+
+    @Test
+    void deliversNowOutsideQuietHours() {
+        assertNull(overnight.deliverAt(at(2026, 3, 3, 10, 0, NEW_YORK), NEW_YORK, 1L));
+    }
+
+    @Test
+    void holdsUntilTheRecipientsMorning() {
+        final Instant morning = at(2026, 3, 4, 8, 0, NEW_YORK);
+        assertEquals(morning, overnight.deliverAt(at(2026, 3, 3, 22, 0, NEW_YORK), NEW_YORK, 1L));
+        assertEquals(morning, overnight.deliverAt(at(2026, 3, 4, 3, 0, NEW_YORK), NEW_YORK, 1L));
+
+        final Instant noonInNewYork = at(2026, 3, 3, 12, 0, NEW_YORK);
+        assertEquals(at(2026, 3, 4, 8, 0, TOKYO), overnight.deliverAt(noonInNewYork, TOKYO, 1L), "2 a.m. in Tokyo");
+    }
+
+    @Test
+    void followsDaylightSavingTime() {
+        final Instant beforeSpringForward = at(2026, 3, 7, 23, 0, NEW_YORK);
+        final Instant open = overnight.deliverAt(beforeSpringForward, NEW_YORK, 1L);
+        assertEquals(Duration.ofHours(8), Duration.between(beforeSpringForward, open), "the night is an hour short");
+    }
+
+    @Test
+    void spreadsRecipientsAcrossTheWindow() {
+        final QuietHours spread = new QuietHours(NINE_PM, EIGHT_AM, SPREAD);
+        final Instant now = at(2026, 3, 3, 23, 0, NEW_YORK);
+        final Instant open = at(2026, 3, 4, 8, 0, NEW_YORK);
+        final int[] halves = new int[2];
+        for (long user = 0; user < 1000; user++) {
+            final Instant due = spread.deliverAt(now, NEW_YORK, user);
+            assertFalse(due.isBefore(open));
+            assertTrue(due.isBefore(open.plus(SPREAD)));
+            assertEquals(due, spread.deliverAt(now, NEW_YORK, user), "stable per recipient");
+            halves[(int) (Duration.between(open, due).toMillis() * 2 / SPREAD.toMillis())]++;
+        }
+        assertTrue(halves[0] > 400 && halves[1] > 400, halves[0] + " / " + halves[1]);
+    }
+
+    private static Instant at(final int year,
+                              final int month,
+                              final int day,
+                              final int hour,
+                              final int minute,
+                              final ZoneId zone) {
+        return ZonedDateTime.of(year, month, day, hour, minute, 0, 0, zone).toInstant();
+    }
+
+}
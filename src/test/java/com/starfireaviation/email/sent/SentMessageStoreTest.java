@@ -0,0 +1,243 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.sent;
+
+import com.starfireaviation.email.template.RenderBuffer;
+import com.starfireaviation.email.transport.Attachment;
+import com.starfireaviation.email.transport.OutboundMail;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SentMessageStoreTest {
+
+    private static final int SETTINGS = 9;
+
+    private static final int RSVP = 2;
+
+    private static final int MESSAGES = 200;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysTheLatestMessageOfAKind() throws Exception {
+        final SentMessageStore store = new SentMessageStore(directory.resolve("sent.bin"), 1 << 20, 1 << 20);
+        final long first = store.put(7L, SETTINGS, "starfire", mail("first", "<p>1</p>"));
+        final long second = store.put(7L, SETTINGS, "starfire", mail("second", "<p>2</p>"));
+        store.put(7L, RSVP, "starfire", mail("rsvp", "<p>rsvp</p>"));
+        store.put(8L, SETTINGS, "starfire", mail("other user", "<p>8</p>"));
+
+        final SentMessage latest = store.latest(7L, SETTINGS);
+        assertEquals(second, latest.getId());
+        assertEquals("second", latest.getSubject());
+        assertEquals("starfire", latest.getOrganization());
+        final OutboundMail replay = latest.toMail("key");
+        assertEquals("<p>2</p>", replay.getBody().toUtf8String());
+        assertEquals("2", replay.getText().toUtf8String());
+        assertEquals("reply+token@example.com", replay.getReplyToAddress());
+        assertEquals("key", replay.getApiKey());
+        assertEquals("first", store.get(first).getSubject());
+        assertNull(store.latest(9L, SETTINGS));
+        assertNull(store.latest(null, SETTINGS));
+        store.close();
+    }
+
+    @Test
+    void spilledMessagesReadBackFromTheFile() throws Exception {
+        final SentMessageStore store = new SentMessageStore(directory.resolve("sent.bin"), 4096, 1 << 20);
+        final Attachment invite = new Attachment("invite.ics", "text/calendar",
+                "QkVHSU4=".getBytes(StandardCharsets.US_ASCII), "QkVHSU4=\r\n".getBytes(StandardCharsets.US_ASCII));
+        final long[] ids = new long[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            ids[i] = store.put((long) i, SETTINGS, "starfire", mail("subject " + i, body(i), invite));
+        }
+        store.flush();
+        assertTrue(store.getMemoryBytes() <= 4096);
+        assertEquals(MESSAGES, store.size());
+        assertTrue(Files.size(directory.resolve("sent.bin")) < (long) MESSAGES * body(0).length(), "compressed");
+
+        final SentMessage spilled = store.get(ids[0]);
+        assertEquals(ids[0], spilled.getId());
+        assertEquals(0L, (long) spilled.getUserId());
+        assertEquals(SETTINGS, spilled.getKind());
+        assertEquals("to@example.com", spilled.getToAddress());
+        final OutboundMail replay = spilled.toMail("key");
+        assertEquals(body(0), replay.getBody().toUtf8String());
+        assertEquals(1, replay.getAttachments().size());
+        assertEquals("invite.ics", replay.getAttachments().get(0).getFilename());
+        assertArrayEquals(invite.getMimeBase64(), replay.getAttachments().get(0).getMimeBase64());
+        assertEquals(ids[MESSAGES / 2], store.latest((long) MESSAGES / 2, SETTINGS).getId());
+        assertTrue(store.getFileHits() >= 2);
+        assertEquals(0L, store.getMemoryHits());
+        store.close();
+    }
+
+    @Test
+    void fullFileDropsTheOldestMessages() throws Exception {
+        final SentMessageStore store = new SentMessageStore(directory.resolve("sent.bin"), 4096, 16384);
+        final long[] ids = new long[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            ids[i] = store.put((long) i, SETTINGS, "starfire", mail("subject " + i, body(i)));
+        }
+        store.flush();
+        assertTrue(Files.size(directory.resolve("sent.bin")) <= 16384);
+        assertNull(store.get(ids[0]));
+        assertNull(store.latest(0L, SETTINGS));
+        assertTrue(store.size() < MESSAGES);
+        for (int i = MESSAGES - store.size(); i < MESSAGES; i++) {
+            assertNotNull(store.get(ids[i]), "message " + i);
+            assertEquals(body(i), store.latest((long) i, SETTINGS).toMail("key").getBody().toUtf8String());
+        }
+        assertEquals(2L, store.getMisses());
+        store.close();
+    }
+
+    @Test
+    void messagesSurviveARestart() throws Exception {
+        final Path file = directory.resolve("sent.bin");
+        SentMessageStore store = new SentMessageStore(file, 4096, 1 << 20);
+        final long[] ids = new long[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            ids[i] = store.put(7L, SETTINGS, "starfire", mail("subject " + i, body(i)));
+        }
+        store.close();
+
+        store = new SentMessageStore(file, 4096, 1 << 20);
+        assertEquals(MESSAGES, store.size());
+        assertEquals("subject 0", store.get(ids[0]).getSubject());
+        assertEquals(ids[MESSAGES - 1], store.latest(7L, SETTINGS).getId());
+        final long next = store.put(7L, SETTINGS, "starfire", mail("after restart", body(0)));
+        assertTrue(next > ids[MESSAGES - 1], "IDs are not reused");
+        assertEquals("subject " + (MESSAGES - 1), store.get(ids[MESSAGES - 1]).getSubject());
+        store.close();
+    }
+
+    @Test
+    void idsCarryTheSlotAndNeverRepeat() throws Exception {
+        final SentMessageStore store = new SentMessageStore(directory, 3, 1 << 20, 0);
+        long previous = 0L;
+        for (int i = 0; i < 100_000; i++) {
+            final long id = store.nextId();
+            assertTrue(id > previous);
+            assertEquals(3, SentMessageStore.slotOf(id));
+            previous = id;
+        }
+        store.close();
+    }
+
+    @Test
+    void replicasResendEachOthersMessages() throws Exception {
+        final SentMessageStore one = new SentMessageStore(directory, 1, 4096, 1 << 20);
+        final SentMessageStore two = new SentMessageStore(directory, 2, 4096, 1 << 20);
+        final long own = one.put(7L, SETTINGS, "starfire", mail("sent by one", body(1)));
+        final long handedOver = one.put(two.nextId(), 8L, SETTINGS, "starfire", mail("queued on two", body(2)));
+        one.flush();
+
+        assertEquals("sent by one", two.get(own).getSubject());
+        assertEquals("queued on two", two.get(handedOver).getSubject(), "found in the replica that sent it");
+        assertEquals(2L, two.getFileHits());
+        assertNull(two.get(one.nextId()));
+        one.close();
+        two.close();
+    }
+
+    @Test
+    void peersAreFollowedAsTheyWriteAndWrap() throws Exception {
+        final SentMessageStore one = new SentMessageStore(directory, 1, 0, 4096);
+        final SentMessageStore two = new SentMessageStore(directory, 2, 0, 4096);
+        final long first = one.put(7L, SETTINGS, "starfire", mail("first", body(0)));
+        one.flush();
+        assertEquals("first", two.get(first).getSubject());
+
+        final List<Long> ids = new ArrayList<>();
+        for (int batch : new int[] {5, 10}) {
+            write(one, ids, batch);
+            for (long id : ids) {
+                final SentMessage own = one.get(id);
+                final SentMessage seen = two.get(id);
+                assertEquals(own == null, seen == null, "message " + ids.indexOf(id));
+                if (own != null) {
+                    assertEquals(own.getSubject(), seen.getSubject());
+                }
+            }
+        }
+        assertNull(two.get(first), "overwritten once the ring wrapped");
+
+        write(one, ids, MESSAGES);
+        assertEquals(one.get(ids.get(ids.size() - 1)).getSubject(), two.get(ids.get(ids.size() - 1)).getSubject(),
+                "newest, after the writer lapped the last look");
+        one.close();
+        two.close();
+    }
+
+    @Test
+    void withoutAFileEvictedMessagesAreGone() throws Exception {
+        final SentMessageStore store = new SentMessageStore(null, 4096, 0);
+        final long first = store.put(1L, SETTINGS, "starfire", mail("first", body(1)));
+        for (int i = 0; i < MESSAGES; i++) {
+            store.put(2L, RSVP, "starfire", mail("filler", body(i)));
+        }
+        assertNull(store.get(first));
+        assertNull(store.latest(1L, SETTINGS));
+        assertNotNull(store.latest(2L, RSVP));
+        store.close();
+    }
+
+    private static void write(final SentMessageStore store, final List<Long> ids, final int count)
+            throws Exception {
+        for (int i = 0; i < count; i++) {
+            ids.add(store.put((long) i, RSVP, "starfire", mail("subject " + ids.size(), body(i))));
+        }
+        store.flush();
+        Thread.sleep(2 * SentMessageStore.PEER_REFRESH_MILLIS);
+    }
+
+    private static String body(final int index) {
+        final StringBuilder html = new StringBuilder("<html><body><p>Message ").append(index).append("</p>");
+        for (int i = 0; i < 20; i++) {
+            html.append("<p>Your settings were changed. If this was not you, contact the school.</p>");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    private static OutboundMail mail(final String subject, final String html, final Attachment... attachments) {
+        final RenderBuffer body = new RenderBuffer(16);
+        body.append(html.getBytes(StandardCharsets.UTF_8));
+        final RenderBuffer text = new RenderBuffer(16);
+        text.append(html.replaceAll("<[^>]+>", "").getBytes(StandardCharsets.UTF_8));
+        List<Attachment> attached = Collections.emptyList();
+        if (attachments.length > 0) {
+            attached = List.of(attachments);
+        }
+        return new OutboundMail("from@example.com", "reply+token@example.com", "to@example.com", subject, body,
+                text, "secret", attached);
+    }
+
+}
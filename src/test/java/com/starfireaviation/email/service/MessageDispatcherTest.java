@@ -0,0 +1,291 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.starfireaviation.email.config.ApplicationProperties;
+import com.starfireaviation.email.exception.TransportException;
+import com.starfireaviation.email.frequency.FrequencyCap;
+import com.starfireaviation.email.frequency.SlidingWindowCounter;
+import com.starfireaviation.email.resolver.ResolvingEntityLookup;
+import com.starfireaviation.email.resolver.UpstreamClient;
+import com.starfireaviation.email.schedule.QuietHours;
+import com.starfireaviation.email.standin.UpstreamStandIn;
+import com.starfireaviation.email.tenant.SendRateLimiter;
+import com.starfireaviation.model.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class MessageDispatcherTest {
+
+    private static final long WAIT_MILLIS = 5_000L;
+
+    private static final long STALL_MILLIS = 200L;
+
+    private static final long UPSTREAM_TIMEOUT_MILLIS = 500L;
+
+    private final MessageService service = mock(MessageService.class);
+
+    private MessageDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    void sendsAcceptedMessages() throws Exception {
+        dispatcher = dispatcher(2, 16);
+        dispatcher.start();
+        final Message message = message(7L);
+
+        assertEquals(SubmitResult.ACCEPTED, dispatcher.submit(MessageType.USER_DELETE, message, "acme"));
+
+        verify(service, timeout(WAIT_MILLIS)).sendUserDeleteMsg(message);
+        verify(service).prefetch(message);
+    }
+
+    @Test
+    void rejectsWhenTheQueueStaysFull() throws Exception {
+        dispatcher = dispatcher(1, 1);
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            sending.countDown();
+            release.await();
+            return null;
+        }).when(service).sendUserDeleteMsg(any());
+        dispatcher.start();
+        try {
+            assertEquals(SubmitResult.ACCEPTED, dispatcher.submit(MessageType.USER_DELETE, message(1L), "acme"));
+            assertTrue(sending.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+            assertEquals(SubmitResult.ACCEPTED, dispatcher.submit(MessageType.USER_DELETE, message(2L), "acme"));
+            assertEquals(SubmitResult.QUEUE_FULL, dispatcher.submit(MessageType.USER_DELETE, message(3L), "acme"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void rejectsOnceStopped() throws Exception {
+        dispatcher = dispatcher(1, 16);
+        assertEquals(SubmitResult.SHUTTING_DOWN, dispatcher.submit(MessageType.USER_DELETE, message(1L), "acme"));
+
+        dispatcher.start();
+        dispatcher.shutdown();
+        assertEquals(SubmitResult.SHUTTING_DOWN, dispatcher.submit(MessageType.USER_DELETE, message(1L), "acme"));
+    }
+
+    @Test
+    void stallGrowsOnlyWhileEveryWorkerIsStuck() throws Exception {
+        dispatcher = dispatcher(1, 16);
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            sending.countDown();
+            release.await();
+            return null;
+        }).when(service).sendUserDeleteMsg(any());
+        dispatcher.start();
+        assertEquals(0L, dispatcher.getStalledMillis(), "idle is not stalled");
+        try {
+            dispatcher.submit(MessageType.USER_DELETE, message(1L), "acme");
+            assertTrue(sending.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+            Thread.sleep(STALL_MILLIS);
+            assertTrue(dispatcher.getStalledMillis() >= STALL_MILLIS);
+        } finally {
+            release.countDown();
+        }
+        verify(service, timeout(WAIT_MILLIS)).sendUserDeleteMsg(any());
+        Thread.sleep(STALL_MILLIS);
+        assertEquals(0L, dispatcher.getStalledMillis());
+    }
+
+    @Test
+    void transientFailureIsRetriedUntilItSends() throws Exception {
+        dispatcher = dispatcher(1, 16);
+        doThrow(new TransportException("all circuits open", false))
+                .doThrow(new TransportException("all circuits open", false))
+                .doNothing()
+                .when(service).sendUserDeleteMsg(any());
+        dispatcher.start();
+
+        dispatcher.submit(MessageType.USER_DELETE, message(1L), "acme");
+
+        verify(service, timeout(WAIT_MILLIS).times(3)).sendUserDeleteMsg(any());
+        assertEquals(2L, dispatcher.getRetried());
+        assertEquals(0L, dispatcher.getRetriesExhausted());
+    }
+
+    @Test
+    void upstreamTimeoutIsRetriedUntilItSends() throws Exception {
+        final UpstreamStandIn upstream = new UpstreamStandIn()
+                .resource("/users", id -> {
+                    awaitRetry();
+                    return String.format("{\"id\":%d,\"email\":\"u%d@example.com\"}", id, id);
+                })
+                .start();
+        final ApplicationProperties props = new ApplicationProperties();
+        props.setUpstreamTimeoutMillis(UPSTREAM_TIMEOUT_MILLIS);
+        final ResolvingEntityLookup lookup = new ResolvingEntityLookup(
+                new UpstreamClient(upstream.getBaseUrl(), WAIT_MILLIS, new ObjectMapper()
+                        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)), props);
+        final List<String> delivered = new CopyOnWriteArrayList<>();
+        try {
+            dispatcher = dispatcher(1, 16);
+            doAnswer(invocation -> {
+                delivered.add(lookup.getUser(invocation.getArgument(0)).getEmail());
+                return null;
+            }).when(service).sendUserDeleteMsg(any());
+            dispatcher.start();
+
+            dispatcher.submit(MessageType.USER_DELETE, message(7L), "acme");
+
+            verify(service, timeout(WAIT_MILLIS).times(2)).sendUserDeleteMsg(any());
+            final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            while (delivered.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertEquals(List.of("u7@example.com"), delivered);
+            assertEquals(1L, dispatcher.getRetried());
+            assertEquals(0L, dispatcher.getRetriesExhausted());
+        } finally {
+            lookup.shutdown();
+            upstream.stop();
+        }
+    }
+
+    @Test
+    void droppedOnlyOnceRetriesAreUsedUp() throws Exception {
+        dispatcher = dispatcher(1, 16);
+        doThrow(new TransportException("all circuits open", false)).when(service).sendUserDeleteMsg(any());
+        dispatcher.start();
+
+        dispatcher.submit(MessageType.USER_DELETE, message(1L), "acme");
+
+        verify(service, timeout(WAIT_MILLIS).times(3)).sendUserDeleteMsg(any());
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (dispatcher.getRetriesExhausted() == 0L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(1L, dispatcher.getRetriesExhausted());
+        assertEquals(2L, dispatcher.getRetried());
+        verify(service, after(STALL_MILLIS).times(3)).sendUserDeleteMsg(any());
+    }
+
+    @Test
+    void exemptTypesAreNeverCapped() throws Exception {
+        dispatcher = dispatcher(1, 16, 1, Set.of(MessageType.PASSWORD_RESET));
+        dispatcher.start();
+
+        dispatcher.submit(MessageType.PASSWORD_RESET, message(7L), "acme");
+        dispatcher.submit(MessageType.PASSWORD_RESET, message(7L), "acme");
+
+        verify(service, timeout(WAIT_MILLIS).times(2)).sendPasswordResetMsg(any());
+        assertEquals(0L, dispatcher.getCapDropped());
+    }
+
+    @Test
+    void capIsOnlyChargedForAcceptedMail() throws Exception {
+        dispatcher = dispatcher(1, 16, 1, Set.of());
+        doNothing()
+                .doAnswer(invocation -> {
+                    DispatchContext.markAccepted();
+                    return null;
+                })
+                .when(service).sendUserDeleteMsg(any());
+        dispatcher.start();
+
+        dispatcher.submit(MessageType.USER_DELETE, message(7L), "acme");
+        verify(service, timeout(WAIT_MILLIS)).sendUserDeleteMsg(any());
+        dispatcher.submit(MessageType.USER_DELETE, message(7L), "acme");
+        verify(service, timeout(WAIT_MILLIS).times(2)).sendUserDeleteMsg(any());
+        dispatcher.submit(MessageType.USER_DELETE, message(7L), "acme");
+
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (dispatcher.getCapDropped() == 0L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(1L, dispatcher.getCapDropped(), "only the accepted send was counted");
+        verify(service, after(STALL_MILLIS).times(2)).sendUserDeleteMsg(any());
+    }
+
+    private MessageDispatcher dispatcher(final int workers, final int capacity) {
+        return dispatcher(workers, capacity, 0, Set.of());
+    }
+
+    private MessageDispatcher dispatcher(final int workers,
+                                         final int capacity,
+                                         final int perUser,
+                                         final Set<MessageType> exempt) {
+        return new MessageDispatcher(
+                service,
+                workers,
+                capacity,
+                0L,
+                new QuietHours(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, Duration.ZERO),
+                new SendRateLimiter(0),
+                new FrequencyCap<>(new SlidingWindowCounter(Duration.ofDays(1), 24), perUser, Map.of(),
+                        MessageType.class, Clock.systemUTC()),
+                exempt,
+                3,
+                0L,
+                null);
+    }
+
+    private void awaitRetry() {
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        try {
+            while (dispatcher.getRetried() == 0L && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Message message(final long userId) {
+        final Message message = new Message();
+        message.setUserId(userId);
+        return message;
+    }
+
+}
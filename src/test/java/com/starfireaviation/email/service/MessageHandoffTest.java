@@ -0,0 +1,238 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.starfireaviation.email.cluster.FileCoordinationStore;
+import com.starfireaviation.email.cluster.PartitionInbox;
+import com.starfireaviation.email.cluster.PartitionManager;
+import com.starfireaviation.email.frequency.FrequencyCap;
+import com.starfireaviation.email.frequency.SlidingWindowCounter;
+import com.starfireaviation.email.schedule.QuietHours;
+import com.starfireaviation.email.tenant.SendRateLimiter;
+import com.starfireaviation.model.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageHandoffTest {
+
+    private static final long LEASE_MILLIS = 3000L;
+
+    private static final long RENEWAL_MILLIS = LEASE_MILLIS / 3;
+
+    private static final int PARTITIONS = 16;
+
+    private static final long WAIT_MILLIS = 5_000L;
+
+    @TempDir
+    Path directory;
+
+    private final MutableClock clock = new MutableClock(1_000_000L);
+
+    private final List<MessageDispatcher> dispatchers = new ArrayList<>();
+
+    private final List<MessageHandoff> handoffs = new ArrayList<>();
+
+    private FileCoordinationStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new FileCoordinationStore(directory.resolve("leases"), LEASE_MILLIS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (MessageDispatcher dispatcher : dispatchers) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    void messageForAUserOwnedElsewhereIsSentByTheOwner() throws Exception {
+        final PartitionManager a = member("a");
+        final PartitionManager b = member("b");
+        settle(a, b);
+        final MessageService serviceA = service();
+        final MessageService serviceB = service();
+        final MessageDispatcher dispatcherA = dispatcher(serviceA, a, 0);
+        dispatcher(serviceB, b, 0);
+        final Message message = message(ownedBy(b));
+
+        assertEquals(SubmitResult.ACCEPTED, dispatcherA.submit(MessageType.USER_DELETE, message, "acme"));
+
+        verify(serviceB, timeout(WAIT_MILLIS)).sendUserDeleteMsg(any());
+        verify(serviceA, never()).sendUserDeleteMsg(any());
+        assertEquals(1L, handoffs.get(0).getHandedOver());
+        waitFor(() -> handoffs.get(1).getTakenOver() == 1L);
+    }
+
+    @Test
+    void heldMessagesMoveToTheNewOwnerAtShutdown() throws Exception {
+        final PartitionManager a = member("a");
+        final PartitionManager b = member("b");
+        settle(a, b);
+        final MessageService serviceA = service();
+        final MessageService serviceB = service();
+        final MessageDispatcher dispatcherA = dispatcher(serviceA, a, 1);
+        final long userId = ownedBy(a);
+
+        dispatcherA.submit(MessageType.EVENT_RSVP, message(userId), "acme");
+        verify(serviceA, timeout(WAIT_MILLIS)).sendEventRSVPMsg(any());
+        dispatcherA.submit(MessageType.EVENT_RSVP, message(userId), "acme");
+        waitFor(() -> dispatcherA.getCapDeferred() == 1L);
+
+        dispatcherA.shutdown();
+        a.shutdown();
+        assertEquals(0, dispatcherA.getQuietHoursScheduler().getHeld(), "handed over, not left behind");
+        dispatcher(serviceB, b, 1);
+        settle(b);
+
+        verify(serviceB, timeout(WAIT_MILLIS)).sendEventRSVPMsg(any());
+        verify(serviceA, after(RENEWAL_MILLIS).times(1)).sendEventRSVPMsg(any());
+    }
+
+    private PartitionManager member(final String id) {
+        return new PartitionManager(id, store, LEASE_MILLIS, PARTITIONS, clock);
+    }
+
+    private void settle(final PartitionManager... members) {
+        for (int i = 0; i < 4; i++) {
+            for (PartitionManager member : members) {
+                member.refresh();
+            }
+            clock.advance(RENEWAL_MILLIS);
+        }
+    }
+
+    private MessageService service() {
+        final MessageService service = mock(MessageService.class);
+        when(service.recipientZone(any())).thenReturn(ZoneOffset.UTC);
+        doAnswer(invocation -> {
+            DispatchContext.markAccepted();
+            return null;
+        }).when(service).sendEventRSVPMsg(any());
+        return service;
+    }
+
+    private MessageDispatcher dispatcher(final MessageService service,
+                                         final PartitionManager member,
+                                         final int perUser) throws Exception {
+        final MessageHandoff handoff = new MessageHandoff(
+                member,
+                new PartitionInbox(directory.resolve("inbox"), member.getMemberId(), LEASE_MILLIS),
+                new ObjectMapper());
+        handoffs.add(handoff);
+        final MessageDispatcher dispatcher = new MessageDispatcher(
+                service,
+                1,
+                16,
+                0L,
+                new QuietHours(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, Duration.ZERO),
+                new SendRateLimiter(0),
+                new FrequencyCap<>(new SlidingWindowCounter(Duration.ofDays(1), 24), perUser, Map.of(),
+                        MessageType.class, Clock.systemUTC()),
+                Set.of(),
+                3,
+                0L,
+                handoff);
+        dispatchers.add(dispatcher);
+        dispatcher.start();
+        return dispatcher;
+    }
+
+    private static long ownedBy(final PartitionManager member) {
+        long userId = 1L;
+        while (!member.owns(userId)) {
+            userId++;
+        }
+        return userId;
+    }
+
+    private static Message message(final long userId) {
+        final Message message = new Message();
+        message.setUserId(userId);
+        return message;
+    }
+
+    private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile long millis;
+
+        MutableClock(final long start) {
+            millis = start;
+        }
+
+        void advance(final long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+
+}
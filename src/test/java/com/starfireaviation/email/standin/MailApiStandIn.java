@@ -0,0 +1,327 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.standin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local stand-in for the SendGrid v3 mail/send endpoint with configurable latency, capacity and error rate.
+ */
+public class MailApiStandIn {
+
+    /**
+     * Path SendGrid clients post to.
+     */
+    public static final String MAIL_SEND_PATH = "/v3/mail/send";
+
+    /**
+     * HTTP Accepted.
+     */
+    private static final int ACCEPTED = 202;
+
+    /**
+     * HTTP Internal Server Error.
+     */
+    private static final int SERVER_ERROR = 500;
+
+    /**
+     * Request handler threads.
+     */
+    private static final int HANDLER_THREADS = 64;
+
+    /**
+     * HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Handler threads.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Requests answered 202.
+     */
+    private final AtomicLong accepted = new AtomicLong();
+
+    /**
+     * Requests answered with the error status.
+     */
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Request body bytes received.
+     */
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /**
+     * Last request body, decompressed.
+     */
+    private volatile byte[] lastBody;
+
+    /**
+     * Content-Encoding of the last request.
+     */
+    private volatile String lastEncoding;
+
+    /**
+     * Fixed latency added to every request.
+     */
+    private volatile long latencyMillis;
+
+    /**
+     * Random latency added on top, up to this many milliseconds.
+     */
+    private volatile long jitterMillis;
+
+    /**
+     * Fraction of requests answered with the error status.
+     */
+    private volatile double errorRate;
+
+    /**
+     * Status failed requests are answered with.
+     */
+    private volatile int errorStatus = SERVER_ERROR;
+
+    /**
+     * Requests worked on at once, null for no limit; the rest queue for a slot.
+     */
+    private volatile Semaphore capacity;
+
+    /**
+     * Requests being worked on.
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Most requests worked on at once.
+     */
+    private final AtomicInteger peakActive = new AtomicInteger();
+
+    /**
+     * MailApiStandIn on an ephemeral port.
+     *
+     * @throws IOException when the server cannot bind
+     */
+    public MailApiStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        executor = Executors.newFixedThreadPool(HANDLER_THREADS);
+        server.setExecutor(executor);
+        server.createContext(MAIL_SEND_PATH, this::handle);
+    }
+
+    /**
+     * Starts serving.
+     *
+     * @return this
+     */
+    public MailApiStandIn start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * Stops serving.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Base URL, e.g. for email.send-grid-base-url.
+     *
+     * @return base URL
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Sets the latency of every request.
+     *
+     * @param fixedMillis  fixed latency
+     * @param randomMillis random latency added on top, up to this value
+     */
+    public void setLatency(final long fixedMillis, final long randomMillis) {
+        latencyMillis = fixedMillis;
+        jitterMillis = randomMillis;
+    }
+
+    /**
+     * Limits how many requests are worked on at once; the rest wait, so latency grows with load.
+     *
+     * @param slots requests worked on at once, zero for no limit
+     */
+    public void setCapacity(final int slots) {
+        if (slots > 0) {
+            capacity = new Semaphore(slots);
+        } else {
+            capacity = null;
+        }
+    }
+
+    /**
+     * Most requests worked on at once since the last reset.
+     *
+     * @return count
+     */
+    public int getPeakActive() {
+        return peakActive.get();
+    }
+
+    /**
+     * Starts measuring the most requests worked on at once afresh.
+     */
+    public void resetPeakActive() {
+        peakActive.set(active.get());
+    }
+
+    /**
+     * Sets the fraction of requests answered with the error status.
+     *
+     * @param rate fraction between 0 and 1
+     */
+    public void setErrorRate(final double rate) {
+        errorRate = rate;
+    }
+
+    /**
+     * Sets the status failed requests are answered with, 500 by default.
+     *
+     * @param status HTTP status
+     */
+    public void setErrorStatus(final int status) {
+        errorStatus = status;
+    }
+
+    /**
+     * Requests answered 202.
+     *
+     * @return count
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * Requests answered with the error status.
+     *
+     * @return count
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Request body bytes received.
+     *
+     * @return bytes
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Last request body, decompressed if it was gzip encoded.
+     *
+     * @return body bytes, null before the first request
+     */
+    public byte[] getLastBody() {
+        return lastBody;
+    }
+
+    /**
+     * Content-Encoding of the last request.
+     *
+     * @return encoding, null when the request was not encoded
+     */
+    public String getLastEncoding() {
+        return lastEncoding;
+    }
+
+    /**
+     * Answers one request.
+     *
+     * @param exchange HttpExchange
+     * @throws IOException when the exchange fails
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        final byte[] received;
+        try (InputStream in = exchange.getRequestBody()) {
+            received = in.readAllBytes();
+        }
+        bytesReceived.addAndGet(received.length);
+        final String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        if ("gzip".equals(encoding)) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(received))) {
+                lastBody = in.readAllBytes();
+            }
+        } else {
+            lastBody = received;
+        }
+        lastEncoding = encoding;
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMillis;
+        if (jitterMillis > 0) {
+            delay += random.nextLong(jitterMillis + 1);
+        }
+        final Semaphore slots = capacity;
+        try {
+            if (slots != null) {
+                slots.acquire();
+            }
+            peakActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                if (delay > 0) {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+                }
+            } finally {
+                active.decrementAndGet();
+                if (slots != null) {
+                    slots.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (random.nextDouble() < errorRate) {
+            failed.incrementAndGet();
+            exchange.sendResponseHeaders(errorStatus, -1);
+        } else {
+            accepted.incrementAndGet();
+            exchange.sendResponseHeaders(ACCEPTED, -1);
+        }
+        exchange.close();
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.standin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal local SMTP relay stand-in with configurable latency and error rate. Enough of RFC 5321 for JavaMail:
+ * EHLO, MAIL, RCPT, DATA, RSET, NOOP and QUIT, no extensions.
+ */
+public class SmtpStandIn {
+
+    /**
+     * Connection handler threads.
+     */
+    private static final int HANDLER_THREADS = 16;
+
+    /**
+     * Server socket.
+     */
+    private final ServerSocket serverSocket;
+
+    /**
+     * Accept loop and connection handlers.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Messages accepted.
+     */
+    private final AtomicLong accepted = new AtomicLong();
+
+    /**
+     * Messages answered 451.
+     */
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Latency added to the end of each DATA.
+     */
+    private volatile long latencyMillis;
+
+    /**
+     * Fraction of messages answered 451.
+     */
+    private volatile double errorRate;
+
+    /**
+     * SmtpStandIn on an ephemeral port.
+     *
+     * @throws IOException when the server cannot bind
+     */
+    public SmtpStandIn() throws IOException {
+        serverSocket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+        executor = Executors.newFixedThreadPool(HANDLER_THREADS);
+    }
+
+    /**
+     * Starts serving.
+     *
+     * @return this
+     */
+    public SmtpStandIn start() {
+        executor.execute(this::acceptLoop);
+        return this;
+    }
+
+    /**
+     * Stops serving.
+     */
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Port.
+     *
+     * @return port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Sets the latency added to the end of each DATA.
+     *
+     * @param millis latency
+     */
+    public void setLatency(final long millis) {
+        latencyMillis = millis;
+    }
+
+    /**
+     * Sets the fraction of messages answered 451.
+     *
+     * @param rate fraction between 0 and 1
+     */
+    public void setErrorRate(final double rate) {
+        errorRate = rate;
+    }
+
+    /**
+     * Messages accepted.
+     *
+     * @return count
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * Messages answered 451.
+     *
+     * @return count
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Accepts connections until stopped.
+     */
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                executor.execute(() -> converse(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Runs one SMTP session.
+     *
+     * @param socket client connection
+     */
+    private void converse(final Socket socket) {
+        try (Socket client = socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+             OutputStream out = client.getOutputStream()) {
+            reply(out, "220 localhost stand-in");
+            String line = in.readLine();
+            while (line != null) {
+                final String command = line.toUpperCase();
+                if (command.startsWith("EHLO") || command.startsWith("HELO")) {
+                    reply(out, "250 localhost");
+                } else if (command.startsWith("DATA")) {
+                    reply(out, "354 end with <CRLF>.<CRLF>");
+                    String data = in.readLine();
+                    while (data != null && !".".equals(data)) {
+                        data = in.readLine();
+                    }
+                    endOfData(out);
+                } else if (command.startsWith("QUIT")) {
+                    reply(out, "221 bye");
+                    return;
+                } else {
+                    reply(out, "250 OK");
+                }
+                line = in.readLine();
+            }
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    /**
+     * Answers the end of a message, after the configured latency.
+     *
+     * @param out client output
+     * @throws IOException when the client went away
+     */
+    private void endOfData(final OutputStream out) throws IOException {
+        if (latencyMillis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+            failed.incrementAndGet();
+            reply(out, "451 try again later");
+        } else {
+            accepted.incrementAndGet();
+            reply(out, "250 queued");
+        }
+    }
+
+    /**
+     * Writes one reply line.
+     *
+     * @param out  client output
+     * @param text reply
+     * @throws IOException when the client went away
+     */
+    private static void reply(final OutputStream out, final String text) throws IOException {
+        out.write((text + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+}
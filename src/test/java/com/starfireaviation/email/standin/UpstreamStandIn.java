@@ -0,0 +1,167 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.standin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * Local stand-in for the upstream user/event/question service. Each resource answers
+ * {@code GET /<resource>?ids=1,2,3} with a JSON array built by a per-resource function; ids the function answers
+ * null for are left out, as the real service does for unknown ids.
+ */
+public class UpstreamStandIn {
+
+    /**
+     * HTTP OK.
+     */
+    private static final int OK = 200;
+
+    /**
+     * HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Handler threads.
+     */
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    /**
+     * Requests per resource path.
+     */
+    private final Map<String, AtomicLong> requests = new ConcurrentHashMap<>();
+
+    /**
+     * Ids requested per resource path.
+     */
+    private final Map<String, AtomicLong> idsRequested = new ConcurrentHashMap<>();
+
+    /**
+     * UpstreamStandIn on an ephemeral port.
+     *
+     * @throws IOException when the server cannot bind
+     */
+    public UpstreamStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Serves a resource.
+     *
+     * @param path   resource path, e.g. /users
+     * @param entity id to JSON object, null for unknown ids
+     * @return this
+     */
+    public UpstreamStandIn resource(final String path, final LongFunction<String> entity) {
+        requests.put(path, new AtomicLong());
+        idsRequested.put(path, new AtomicLong());
+        server.createContext(path, exchange -> handle(exchange, path, entity));
+        return this;
+    }
+
+    /**
+     * Starts serving.
+     *
+     * @return this
+     */
+    public UpstreamStandIn start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * Stops serving.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Base URL.
+     *
+     * @return base URL
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Requests received for a resource.
+     *
+     * @param path resource path
+     * @return count
+     */
+    public long getRequests(final String path) {
+        return requests.get(path).get();
+    }
+
+    /**
+     * Ids requested for a resource.
+     *
+     * @param path resource path
+     * @return count
+     */
+    public long getIdsRequested(final String path) {
+        return idsRequested.get(path).get();
+    }
+
+    /**
+     * Answers one request.
+     *
+     * @param exchange HttpExchange
+     * @param path     resource path
+     * @param entity   id to JSON object
+     * @throws IOException when the exchange fails
+     */
+    private void handle(final HttpExchange exchange, final String path, final LongFunction<String> entity)
+            throws IOException {
+        requests.get(path).incrementAndGet();
+        final String query = exchange.getRequestURI().getQuery();
+        final StringBuilder json = new StringBuilder("[");
+        for (String id : query.substring(query.indexOf('=') + 1).split(",")) {
+            idsRequested.get(path).incrementAndGet();
+            final String object = entity.apply(Long.parseLong(id));
+            if (object != null) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                json.append(object);
+            }
+        }
+        final byte[] body = json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(OK, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+}
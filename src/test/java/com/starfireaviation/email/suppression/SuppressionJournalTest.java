@@ -0,0 +1,90 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.suppression;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SuppressionJournalTest {
+
+    private static final int SLOTS = 16;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void changesReachOtherReplicasOnTheirNextSync() throws Exception {
+        final SuppressionList one = open(1);
+        final SuppressionList two = open(2);
+
+        assertTrue(one.add("Jane <jane@example.com>"));
+        assertFalse(two.contains("jane@example.com"));
+        assertEquals(1, two.sync());
+        assertTrue(two.contains("jane@example.com"));
+
+        assertTrue(two.remove("jane@example.com"));
+        one.sync();
+        assertFalse(one.contains("jane@example.com"));
+        one.close();
+        two.close();
+    }
+
+    @Test
+    void replicaStartingLaterCatchesUpFromEveryJournal() throws Exception {
+        final SuppressionList one = open(1);
+        final SuppressionList two = open(2);
+        one.add("a@example.com");
+        two.add("b@example.com");
+        one.close();
+        two.close();
+
+        final SuppressionList three = open(3);
+        assertTrue(three.contains("a@example.com"));
+        assertTrue(three.contains("b@example.com"));
+        assertEquals(2L, three.size());
+        three.close();
+    }
+
+    @Test
+    void recordStillBeingWrittenIsLeftForTheNextSync() throws Exception {
+        final SuppressionList one = open(1);
+        final SuppressionList two = open(2);
+        one.add("a@example.com");
+        Files.write(directory.resolve("journals").resolve("1.log"), new byte[] {SuppressionJournal.ADD, 1, 2},
+                StandardOpenOption.APPEND);
+
+        assertEquals(1, two.sync());
+        assertEquals(0, two.sync());
+        assertEquals(1L, two.size());
+        one.close();
+        two.close();
+    }
+
+    private SuppressionList open(final int slot) throws Exception {
+        return new SuppressionList(directory.resolve(slot + ".bin"), SLOTS,
+                new SuppressionJournal(directory.resolve("journals"), slot));
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.suppression;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SuppressionListTest {
+
+    private static final int MILLION = 1_000_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void addressesAreNormalized() throws IOException {
+        final SuppressionList list = new SuppressionList(directory.resolve("s.bin"), 16);
+        assertTrue(list.add("Jane Doe <Jane@Example.com>"));
+        assertTrue(list.contains("jane@example.com"));
+        assertTrue(list.contains("  JANE@EXAMPLE.COM "));
+        assertFalse(list.add("jane@example.com"), "already suppressed");
+        assertFalse(list.contains("john@example.com"));
+        assertFalse(list.contains(null));
+        assertEquals(1, list.size());
+        assertEquals(2, list.getHits());
+    }
+
+    @Test
+    void survivesReopen() throws IOException {
+        final Path file = directory.resolve("s.bin");
+        final SuppressionList first = new SuppressionList(file, 16);
+        for (int i = 0; i < 1000; i++) {
+            first.add("user" + i + "@example.com");
+        }
+        first.close();
+        final SuppressionList second = new SuppressionList(file, 16);
+        assertEquals(1000, second.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(second.contains("user" + i + "@example.com"));
+        }
+    }
+
+    @Test
+    void removeLeavesTheRestOfTheProbeRunReachable() throws IOException {
+        final SuppressionList list = new SuppressionList(directory.resolve("s.bin"), 16);
+        for (int i = 0; i < 10; i++) {
+            list.add("user" + i + "@example.com");
+        }
+        assertTrue(list.remove("user3@example.com"));
+        assertFalse(list.remove("user3@example.com"));
+        assertFalse(list.contains("user3@example.com"));
+        for (int i = 0; i < 10; i++) {
+            if (i != 3) {
+                assertTrue(list.contains("user" + i + "@example.com"));
+            }
+        }
+        assertTrue(list.add("user3@example.com"));
+        assertEquals(10, list.size());
+    }
+
+    @Test
+    void millionAddressesInSixteenMegabytes() throws IOException {
+        final Path file = directory.resolve("s.bin");
+        final SuppressionList list = new SuppressionList(file, 1024);
+        for (int i = 0; i < MILLION; i++) {
+            list.add("user" + i + "@example.com");
+        }
+        assertEquals(MILLION, list.size());
+        for (int i = 0; i < MILLION; i += 997) {
+            assertTrue(list.contains("user" + i + "@example.com"));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < MILLION; i++) {
+            if (list.contains("other" + i + "@example.org")) {
+                falsePositives++;
+            }
+        }
+        assertEquals(0, falsePositives, "false positives");
+        assertTrue(Files.size(file) <= 16L * 1024 * 1024 + 64, Files.size(file) + " bytes");
+    }
+
+    @Test
+    void rejectsForeignFile() throws IOException {
+        final Path file = Files.write(directory.resolve("other.bin"), new byte[64]);
+        assertThrows(IOException.class, () -> new SuppressionList(file, 16));
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlainTextWriterTest {
+
+    private static final String QUESTION = "<h2>Which cloud?</h2>\n<p>Answers:</p>\n<ol>\n"
+            + "    <li><a href=\"https://app/q/1?a=A&amp;u=2\">A</a>: Cumulus &amp; friends</li>\n"
+            + "    <li><a href=\"https://app/q/1/skip\">SKIP</a></li>\n</ol>\n<p>See&nbsp;&lt;AIM&gt; &#9992;</p>";
+
+    @Test
+    void convertsMarkupToReadableText() {
+        assertEquals("Which cloud?\n\nAnswers:\n\n- A (https://app/q/1?a=A&u=2): Cumulus & friends\n"
+                + "- SKIP (https://app/q/1/skip)\n\nSee <AIM> ✈\n", convert(null, QUESTION));
+    }
+
+    @Test
+    void skipsHeadStyleScriptAndComments() {
+        assertEquals("Hello\nworld\n", convert(null, "<html><head><title>T</title><style>p {}</style></head>"
+                + "<body><!-- a -- b --><script>x < y</script>Hello<br/>world<!DOCTYPE x></body></html>"));
+    }
+
+    @Test
+    void keepsStrayMarkupCharacters() {
+        assertEquals("1 < 2 & 3 &bogus; done\n", convert(null, "1 < 2 & 3 &bogus; done"));
+    }
+
+    @Test
+    void staticChunksAreConvertedOnce() {
+        final StaticTextCache cache = new StaticTextCache(16);
+        final char[] open = "<p>Hi ".toCharArray();
+        final char[] close = ",</p>\n<p>thanks for registering.</p>".toCharArray();
+        final char[] link = "<a href=\"".toCharArray();
+
+        for (String name : new String[] {"Ann", "Bob"}) {
+            final RenderBuffer text = new RenderBuffer(64);
+            final PlainTextWriter writer = new PlainTextWriter(text, cache);
+            writer.write(open, 0, open.length);
+            writer.write(name, 0, name.length());
+            writer.write(close, 0, close.length);
+            writer.write(link, 0, link.length);
+            writer.write("https://app\">app</a>", 0, "https://app\">app</a>".length());
+            writer.finish();
+            assertEquals("Hi " + name + ",\n\nthanks for registering.\n\napp (https://app)\n", text.toUtf8String());
+        }
+        assertEquals(3, cache.size());
+        assertEquals(StaticTextCache.UNCACHEABLE, cache.get(link, stateAfter(cache, open, close)));
+    }
+
+    @Test
+    void cachedConversionMatchesDirectConversion() {
+        final Random random = new Random(42);
+        final StaticTextCache cache = new StaticTextCache(1024);
+        final List<char[]> chunks = new ArrayList<>();
+        for (int i = 0; i < QUESTION.length(); i += 1 + random.nextInt(12)) {
+            chunks.add(QUESTION.substring(i, Math.min(QUESTION.length(), i + 1 + random.nextInt(12))).toCharArray());
+        }
+        final StringBuilder whole = new StringBuilder();
+        for (char[] chunk : chunks) {
+            whole.append(chunk);
+        }
+        final String expected = convert(null, whole.toString());
+        for (int round = 0; round < 3; round++) {
+            final RenderBuffer text = new RenderBuffer(64);
+            final PlainTextWriter writer = new PlainTextWriter(text, cache);
+            for (char[] chunk : chunks) {
+                writer.write(chunk, 0, chunk.length);
+            }
+            writer.finish();
+            assertEquals(expected, text.toUtf8String());
+        }
+        assertTrue(cache.size() > 0);
+    }
+
+    @Test
+    void fullCacheStartsOver() {
+        final StaticTextCache cache = new StaticTextCache(2);
+        for (int i = 0; i < 5; i++) {
+            final char[] chunk = ("<p>" + i + "</p>").toCharArray();
+            new PlainTextWriter(new RenderBuffer(16), cache).write(chunk, 0, chunk.length);
+        }
+        assertTrue(cache.size() <= 2);
+    }
+
+    private static String convert(final StaticTextCache cache, final String html) {
+        final RenderBuffer text = new RenderBuffer(64);
+        final PlainTextWriter writer = new PlainTextWriter(text, cache);
+        writer.write(html, 0, html.length());
+        writer.finish();
+        return new String(text.array(), 0, text.size(), StandardCharsets.UTF_8);
+    }
+
+    private static int stateAfter(final StaticTextCache cache, final char[] open, final char[] close) {
+        for (int state = 0; state < StaticTextCache.STATES; state++) {
+            final StaticTextCache.Converted converted = cache.get(close, state);
+            if (converted != null && converted != StaticTextCache.UNCACHEABLE) {
+                return converted.getEndState();
+            }
+        }
+        throw new AssertionError("close was not cached after " + new String(open));
+    }
+
+}
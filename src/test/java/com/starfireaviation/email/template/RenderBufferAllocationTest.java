@@ -0,0 +1,135 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import com.starfireaviation.email.config.ApplicationProperties;
+import com.starfireaviation.email.config.CommonConstants;
+import com.starfireaviation.email.template.model.ModelValues;
+import com.starfireaviation.email.template.model.TemplateModels;
+import com.starfireaviation.email.template.model.TypedModel;
+import com.starfireaviation.email.util.FormatterCache;
+import com.starfireaviation.email.util.TemplateUtil;
+import com.starfireaviation.model.Event;
+import com.starfireaviation.model.User;
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.template.Configuration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Allocation benchmark of the renderer with a zero pool budget, which keeps no buffer for reuse, against the default
+ * budget; run with {@code mvn test -Dtemplate.bench=true -Dtest=RenderBufferAllocationTest}, optionally with
+ * {@code -Dtemplate.bench.messages=}.
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "template.bench", matches = "true")
+class RenderBufferAllocationTest {
+
+    private static final int WARMUP = 20_000;
+
+    private static final String BODY = "gs_event_rsvp_body.ftl";
+
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    @Test
+    void pooledBuffersAllocateLess() throws Exception {
+        final int messages = Integer.getInteger("template.bench.messages", 200_000);
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final TypedModel model = model();
+        final RenderBufferPool zeroBudget = pool(0L);
+        final RenderBufferPool defaultBudget = pool(CommonConstants.RENDER_BUFFER_POOL_BYTES);
+        final TemplateRenderer unpooled = renderer(zeroBudget);
+        final TemplateRenderer pooled = renderer(defaultBudget);
+
+        render(unpooled, model, WARMUP);
+        render(pooled, model, WARMUP);
+
+        final long unpooledBytes = bytesPerRender(threads, unpooled, model, messages);
+        final long pooledBytes = bytesPerRender(threads, pooled, model, messages);
+
+        log.info(String.format(
+                "pooledBuffersAllocateLess() gs_event_rsvp body bytes allocated per render over %d messages: "
+                        + "zero pool budget %d, default pool budget %d",
+                messages, unpooledBytes, pooledBytes));
+        assertTrue(pooledBytes < unpooledBytes, "pooled buffers should allocate less");
+        assertEquals(0L, zeroBudget.getOutstanding());
+        assertEquals(0L, defaultBudget.getOutstanding());
+        assertEquals(0L, defaultBudget.getLeaked());
+    }
+
+    private static TypedModel model() {
+        final User user = new User();
+        user.setId(7L);
+        user.setEmail("pat7@example.com");
+        user.setFirstName("Pat");
+        user.setLastName("Student");
+        final Event event = new Event();
+        event.setId(3L);
+        event.setTitle("Ground School: Weather");
+        event.setStartTime(LocalDateTime.of(2026, 7, 4, 18, 0));
+        final ApplicationProperties properties = new ApplicationProperties();
+        properties.setHostApp("https://app.example.com");
+        return TemplateModels.create(TemplateModels.GS_EVENT_RSVP, new ModelValues(user, event, null, properties,
+                new FormatterCache(NEW_YORK, Locale.US, NEW_YORK, TemplateUtil.PATTERNS).defaults()));
+    }
+
+    private static RenderBufferPool pool(final long budget) {
+        return new RenderBufferPool(
+                CommonConstants.RENDER_BUFFER_CAPACITY, CommonConstants.RENDER_BUFFER_MAX_RETAINED, budget, false);
+    }
+
+    private static TemplateRenderer renderer(final RenderBufferPool pool) throws Exception {
+        final Configuration config = new Configuration(Configuration.VERSION_2_3_31);
+        config.setTemplateLoader(new ClassTemplateLoader(RenderBufferAllocationTest.class, "/templates"));
+        config.setDefaultEncoding("UTF-8");
+        final TemplateRegistry registry = new TemplateRegistry(config, null, new SimpleMeterRegistry());
+        registry.start();
+        final TemplateRenderer renderer = new TemplateRenderer(registry, pool, null);
+        renderer.init();
+        return renderer;
+    }
+
+    private static long bytesPerRender(final com.sun.management.ThreadMXBean threads,
+                                       final TemplateRenderer renderer,
+                                       final TypedModel model,
+                                       final int messages) throws Exception {
+        final long thread = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(thread);
+        render(renderer, model, messages);
+        final long after = threads.getThreadAllocatedBytes(thread);
+        return (after - before) / messages;
+    }
+
+    private static void render(final TemplateRenderer renderer, final TypedModel model, final int messages)
+            throws Exception {
+        for (int i = 0; i < messages; i++) {
+            renderer.release(renderer.renderBody(BODY, model));
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenderBufferPoolTest {
+
+    private static final int SMALLEST = 64;
+
+    private static final int LARGEST = 1024;
+
+    private static final int GC_ATTEMPTS = 50;
+
+    @Test
+    void handsOutTheClassThatFits() {
+        final RenderBufferPool pool = new RenderBufferPool(SMALLEST, LARGEST, 1L << 20, false);
+        assertEquals(SMALLEST, pool.acquire().capacity());
+        assertEquals(SMALLEST, pool.acquire(SMALLEST).capacity());
+        assertEquals(2 * SMALLEST, pool.acquire(SMALLEST + 1).capacity());
+        assertEquals(LARGEST, pool.acquire(LARGEST).capacity());
+        assertEquals(LARGEST + 1, pool.acquire(LARGEST + 1).capacity(), "larger than every class");
+    }
+
+    @Test
+    void reusesReleasedBuffersByClass() {
+        final RenderBufferPool pool = new RenderBufferPool(SMALLEST, LARGEST, 1L << 20, false);
+        final RenderBuffer small = pool.acquire();
+        final RenderBuffer large = pool.acquire(LARGEST / 2);
+        large.append("<p>Pat</p>".getBytes(StandardCharsets.UTF_8));
+        pool.release(small);
+        pool.release(large);
+        assertEquals(SMALLEST + LARGEST / 2, pool.getPooledBytes());
+
+        final RenderBuffer again = pool.acquire(LARGEST / 2);
+        assertSame(large, again);
+        assertEquals(0, again.size(), "reset on release");
+        assertSame(small, pool.acquire());
+        assertEquals(0L, pool.getPooledBytes());
+    }
+
+    @Test
+    void grownBufferGoesToTheClassItCovers() {
+        final RenderBufferPool pool = new RenderBufferPool(SMALLEST, LARGEST, 1L << 20, false);
+        final RenderBuffer buffer = pool.acquire();
+        buffer.append(new byte[3 * SMALLEST]);
+        pool.release(buffer);
+        assertEquals(3 * SMALLEST, buffer.capacity());
+        assertNotSame(buffer, pool.acquire(3 * SMALLEST), "only covers the class below its capacity");
+        assertSame(buffer, pool.acquire(2 * SMALLEST));
+    }
+
+    @Test
+    void keepsIdleBuffersWithinBudget() {
+        final RenderBufferPool pool = new RenderBufferPool(SMALLEST, LARGEST, 2L * SMALLEST, false);
+        final RenderBuffer first = pool.acquire();
+        final RenderBuffer second = pool.acquire();
+        final RenderBuffer third = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(2L * SMALLEST, pool.getPooledBytes());
+        assertSame(first, pool.acquire());
+        assertSame(second, pool.acquire());
+        assertNotSame(third, pool.acquire());
+    }
+
+    @Test
+    void doesNotPoolOversizeOrSharedBuffers() {
+        final RenderBufferPool pool = new RenderBufferPool(SMALLEST, LARGEST, 1L << 20, false);
+        final RenderBuffer oversize = pool.acquire();
+        oversize.append(new byte[2 * LARGEST]);
+        pool.release(oversize);
+        pool.release(RenderBuffer.shared(new byte[SMALLEST]));
+        pool.release(null);
+        assertEquals(0L, pool.getPooledBytes());
+        assertEquals(0L, pool.getOutstanding());
+    }
+
+    @Test
+    void countsOutstandingBuffers() {
+        final RenderBufferPool pool = new RenderBufferPool(SMALLEST, LARGEST, 1L << 20, true);
+        final RenderBuffer html = pool.acquire();
+        final RenderBuffer text = pool.acquire();
+        assertEquals(2L, pool.getOutstanding());
+        pool.release(html);
+        pool.release(text);
+        assertEquals(0L, pool.getOutstanding());
+        assertEquals(0L, pool.getLeaked());
+    }
+
+    @Test
+    void reportsBuffersNeverReleased() throws Exception {
+        final RenderBufferPool pool = new RenderBufferPool(SMALLEST, LARGEST, 1L << 20, true);
+        pool.release(pool.acquire());
+        leak(pool);
+        int found = 0;
+        for (int i = 0; i < GC_ATTEMPTS && found == 0; i++) {
+            System.gc();
+            Thread.sleep(10L);
+            found = pool.reportLeaks();
+        }
+        assertEquals(1, found);
+        assertEquals(1L, pool.getLeaked());
+        assertTrue(pool.getOutstanding() > 0L);
+    }
+
+    private static void leak(final RenderBufferPool pool) {
+        pool.acquire().append("dropped".getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenderBufferTest {
+
+    private static final String MIXED = "Wx £5 – 18°C ✈ 🛩 done";
+
+    @Test
+    void encodesLikeTheJdk() throws Exception {
+        final RenderBuffer buffer = new RenderBuffer(64);
+        buffer.asWriter().write(MIXED);
+        buffer.finish();
+        assertArrayEquals(MIXED.getBytes(StandardCharsets.UTF_8), buffer.toByteArray());
+        assertEquals(MIXED, buffer.toUtf8String());
+    }
+
+    @Test
+    void joinsSurrogatePairsSplitAcrossWrites() throws Exception {
+        final String plane = "🛩";
+        final RenderBuffer buffer = new RenderBuffer(64);
+        final Writer writer = buffer.asWriter();
+        writer.write(plane.charAt(0));
+        writer.write(new char[] {plane.charAt(1), '!'}, 0, 2);
+        buffer.finish();
+        assertEquals(plane + "!", buffer.toUtf8String());
+    }
+
+    @Test
+    void writesUnpairedSurrogatesAsReplacementCharacters() throws Exception {
+        final RenderBuffer buffer = new RenderBuffer(64);
+        final Writer writer = buffer.asWriter();
+        writer.write("a\uDC00b");
+        writer.write("\uD83Dc");
+        assertEquals("a�b�c", buffer.toUtf8String());
+    }
+
+    @Test
+    void writesATrailingHighSurrogateOnFinish() throws Exception {
+        final RenderBuffer buffer = new RenderBuffer(64);
+        buffer.asWriter().write("end\uD83D");
+        assertEquals("end", buffer.toUtf8String(), "still waiting for the low half");
+        buffer.finish();
+        assertEquals("end�", buffer.toUtf8String());
+        buffer.finish();
+        assertEquals("end�", buffer.toUtf8String());
+    }
+
+    @Test
+    void rawBytesEndAPendingSurrogate() throws Exception {
+        final RenderBuffer buffer = new RenderBuffer(64);
+        buffer.asWriter().write("<p>\uD83D");
+        buffer.append("</p>".getBytes(StandardCharsets.UTF_8));
+        assertEquals("<p>�</p>", buffer.toUtf8String());
+    }
+
+    @Test
+    void growsAsNeeded() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append(MIXED);
+        }
+        final RenderBuffer buffer = new RenderBuffer(1);
+        buffer.asWriter().write(text.toString());
+        buffer.write('.');
+        buffer.finish();
+
+        final byte[] expected = (text + ".").getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, buffer.size());
+        assertTrue(buffer.capacity() >= buffer.size());
+        assertArrayEquals(expected, buffer.toByteArray());
+    }
+
+    @Test
+    void resetKeepsCapacity() throws Exception {
+        final RenderBuffer buffer = new RenderBuffer(4);
+        buffer.asWriter().write("more than four bytes\uD83D");
+        final int capacity = buffer.capacity();
+        buffer.reset();
+        assertEquals(0, buffer.size());
+        assertEquals(capacity, buffer.capacity());
+        buffer.asWriter().write("x");
+        assertEquals("x", buffer.toUtf8String(), "pending surrogate dropped with the rest");
+    }
+
+    @Test
+    void sharedBufferIsReadOnly() {
+        final byte[] contents = "<p>Pat</p>".getBytes(StandardCharsets.UTF_8);
+        final RenderBuffer shared = RenderBuffer.shared(contents);
+        assertTrue(shared.isShared());
+        assertFalse(new RenderBuffer(1).isShared());
+        assertSame(contents, shared.array());
+        assertEquals(contents.length, shared.size());
+        assertEquals("<p>Pat</p>", shared.toUtf8String());
+
+        assertThrows(IllegalStateException.class, () -> shared.write('x'));
+        assertThrows(IllegalStateException.class, () -> shared.append(contents));
+        assertThrows(IllegalStateException.class, () -> shared.asWriter().write("x"));
+        assertThrows(IllegalStateException.class, shared::reset);
+        assertEquals("<p>Pat</p>", shared.toUtf8String());
+    }
+
+}
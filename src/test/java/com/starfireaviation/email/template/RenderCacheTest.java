@@ -0,0 +1,177 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import com.starfireaviation.email.template.model.TypedModel;
+import freemarker.template.TemplateModel;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenderCacheTest {
+
+    private final Object template = new Object();
+
+    private final Object layout = new Object();
+
+    @Test
+    void keepsRenderOnSecondSighting() {
+        final RenderCache cache = new RenderCache(16, 1L << 20);
+        assertNull(cache.getText(template, new Model("Pat")));
+        cache.putText(template, new Model("Pat"), "Goodbye Pat");
+        assertNull(cache.getText(template, new Model("Pat")), "seen once, not kept");
+        cache.putText(template, new Model("Pat"), "Goodbye Pat");
+
+        final String kept = cache.getText(template, new Model("Pat"));
+        assertEquals("Goodbye Pat", kept);
+        assertSame(kept, cache.getText(template, new Model("Pat")));
+        assertNull(cache.getText(template, new Model("Sam")));
+        assertEquals(2L, cache.getHits());
+        assertEquals(3L, cache.getMisses());
+    }
+
+    @Test
+    void equalBodiesShareOneReadOnlyCopy() {
+        final RenderCache cache = new RenderCache(16, 1L << 20);
+        final RenderBufferPool pool = new RenderBufferPool(64, 1024, 4096L, false);
+        assertNull(cache.putBody(template, layout, new Model("Pat"), body(pool, "<p>Pat</p>", "Pat")));
+
+        final RenderedBody rendered = body(pool, "<p>Pat</p>", "Pat");
+        final RenderedBody shared = cache.putBody(template, layout, new Model("Pat"), rendered);
+        assertNotSame(rendered, shared);
+        assertTrue(shared.getHtml().isShared());
+        assertEquals("<p>Pat</p>", shared.getHtml().toUtf8String());
+        assertEquals("Pat", shared.getText().toUtf8String());
+        assertSame(shared, cache.getBody(template, layout, new Model("Pat")));
+
+        assertThrows(IllegalStateException.class, () -> shared.getHtml().write('x'));
+        pool.release(shared.getHtml());
+        assertNotSame(shared.getHtml(), pool.acquire(), "shared buffers are never pooled");
+    }
+
+    @Test
+    void templatesAndLayoutsAreComparedByIdentity() {
+        final RenderCache cache = new RenderCache(16, 1L << 20);
+        final RenderBufferPool pool = new RenderBufferPool(64, 1024, 4096L, false);
+        cache.putBody(template, layout, new Model("Pat"), body(pool, "a", "a"));
+        cache.putBody(template, layout, new Model("Pat"), body(pool, "a", "a"));
+        assertNull(cache.getBody(new Object(), layout, new Model("Pat")), "reloaded template");
+        assertNull(cache.getBody(template, new Object(), new Model("Pat")), "reloaded layout");
+        assertNull(cache.getText(template, new Model("Pat")), "text and body renders are apart");
+    }
+
+    @Test
+    void boundedByEntriesAndBytes() {
+        final RenderCache byEntries = new RenderCache(4, 1L << 20);
+        for (int i = 0; i < 100; i++) {
+            byEntries.putText(template, new Model("user" + i), "text " + i);
+        }
+        assertEquals(4, byEntries.size());
+
+        final RenderCache byBytes = new RenderCache(1000, 2000L);
+        final String large = "x".repeat(600);
+        for (int i = 0; i < 10; i++) {
+            byBytes.putText(template, new Model("user" + i), large);
+            byBytes.putText(template, new Model("user" + i), large);
+        }
+        assertTrue(byBytes.getBytes() <= 2000L, String.valueOf(byBytes.getBytes()));
+        assertEquals(large, byBytes.getText(template, new Model("user9")));
+        assertNull(byBytes.getText(template, new Model("user0")));
+    }
+
+    @Test
+    void countsEveryLookupFromManyThreadsWithinItsLimits() throws Exception {
+        final RenderCache cache = new RenderCache(64, 1L << 20);
+        final int threads = 8;
+        final int lookups = 5000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int seed = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < lookups; i++) {
+                        final Model model = new Model("user" + (i * seed) % 100);
+                        if (cache.getText(template, model) == null) {
+                            cache.putText(template, model, "text");
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals((long) threads * lookups, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getHits() > 0L);
+        cache.putText(template, new Model("last"), "text");
+        assertTrue(cache.size() <= 64, String.valueOf(cache.size()));
+    }
+
+    private static RenderedBody body(final RenderBufferPool pool, final String html, final String text) {
+        final RenderBuffer htmlBuffer = pool.acquire();
+        htmlBuffer.append(html.getBytes(StandardCharsets.UTF_8));
+        final RenderBuffer textBuffer = pool.acquire();
+        textBuffer.append(text.getBytes(StandardCharsets.UTF_8));
+        return new RenderedBody(htmlBuffer, textBuffer);
+    }
+
+    private static final class Model implements TypedModel {
+
+        private final String firstName;
+
+        Model(final String name) {
+            firstName = name;
+        }
+
+        @Override
+        public TemplateModel get(final String key) {
+            return null;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Model && firstName.equals(((Model) other).firstName);
+        }
+
+        @Override
+        public int hashCode() {
+            return firstName.hashCode();
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template;
+
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.template.Configuration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TemplateRegistryTest {
+
+    private static final long WAIT_MILLIS = 10_000L;
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final FailingConfiguration config = new FailingConfiguration();
+
+    private TemplateRegistry registry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        config.setTemplateLoader(new ClassTemplateLoader(TemplateRegistryTest.class, "/templates"));
+        config.setDefaultEncoding("UTF-8");
+        write("greeting.ftl", "Hello ${name}");
+        registry = new TemplateRegistry(config, directory.toString(), meterRegistry);
+        registry.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test
+    void servesExternalTemplatesFirstAndReloadsThem() throws Exception {
+        assertTrue(registry.isLoaded());
+        assertTrue(registry.isExternal("greeting.ftl"));
+        assertFalse(registry.isExternal("layout.ftl"));
+        assertEquals(1, registry.getExternalTemplateCount());
+        assertEquals("Hello Pat", render("greeting.ftl"));
+
+        write("greeting.ftl", "Goodbye ${name}");
+        await(() -> "Goodbye Pat".equals(renderQuietly("greeting.ftl")));
+    }
+
+    @Test
+    void brokenTemplateKeepsThePreviousVersion() throws Exception {
+        write("greeting.ftl", "Hello <#if>");
+        await(() -> failures() >= 1d);
+        assertEquals("Hello Pat", render("greeting.ftl"));
+
+        write("greeting.ftl", "Hi ${name}");
+        await(() -> "Hi Pat".equals(renderQuietly("greeting.ftl")));
+    }
+
+    @Test
+    void unexpectedFailureDoesNotStopWatching() throws Exception {
+        config.failing = true;
+        write("greeting.ftl", "Goodbye ${name}");
+        await(() -> failures() >= 1d);
+        assertEquals("Hello Pat", render("greeting.ftl"), "previous templates kept");
+
+        config.failing = false;
+        write("greeting.ftl", "Hi ${name}");
+        await(() -> "Hi Pat".equals(renderQuietly("greeting.ftl")));
+    }
+
+    private double failures() {
+        return meterRegistry.get("email.template.reloads").tag("outcome", "failure").counter().count();
+    }
+
+    private void write(final String name, final String contents) throws Exception {
+        Files.write(directory.resolve(name), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String render(final String name) throws Exception {
+        final StringWriter out = new StringWriter();
+        registry.getTemplate(name).process(Map.of("name", "Pat"), out);
+        return out.toString();
+    }
+
+    private String renderQuietly(final String name) {
+        try {
+            return render(name);
+        } catch (Exception e) {
+            return e.toString();
+        }
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    /**
+     * Configuration that can be made to fail template parsing with an unchecked exception.
+     */
+    private static final class FailingConfiguration extends Configuration {
+
+        private volatile boolean failing;
+
+        FailingConfiguration() {
+            super(Configuration.VERSION_2_3_31);
+        }
+
+        @Override
+        public int getTabSize() {
+            if (failing) {
+                throw new IllegalStateException("unexpected");
+            }
+            return super.getTabSize();
+        }
+    }
+
+}
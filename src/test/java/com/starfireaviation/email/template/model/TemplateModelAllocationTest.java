@@ -0,0 +1,117 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template.model;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Allocation benchmark of map and generated models; run with
+ * {@code mvn test -Dtemplate.bench=true -Dtest=TemplateModelAllocationTest}, optionally with
+ * {@code -Dtemplate.bench.messages=}.
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "template.bench", matches = "true")
+class TemplateModelAllocationTest {
+
+    private static final int WARMUP = 20_000;
+
+    @Test
+    void typedModelAllocatesLess() throws Exception {
+        final int messages = Integer.getInteger("template.bench.messages", 200_000);
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final Configuration config = TemplateModelsTest.config();
+        final Template subject = config.getTemplate("gs_event_rsvp_subject.ftl");
+        final Template body = config.getTemplate("gs_event_rsvp_body.ftl");
+        final ModelValues values = TemplateModelsTest.values(
+                TemplateModelsTest.user(7L), TemplateModelsTest.event(3L));
+
+        send(subject, body, values, false, WARMUP);
+        send(subject, body, values, true, WARMUP);
+
+        final long mapModel = bytesPerModel(threads, values, false, messages);
+        final long typedModel = bytesPerModel(threads, values, true, messages);
+        final long mapSend = bytesPerSend(threads, subject, body, values, false, messages);
+        final long typedSend = bytesPerSend(threads, subject, body, values, true, messages);
+
+        log.info(String.format(
+                "typedModelAllocatesLess() gs_event_rsvp bytes per message over %d messages: model map %d, typed %d; "
+                        + "model and render map %d, typed %d",
+                messages, mapModel, typedModel, mapSend, typedSend));
+        assertTrue(typedModel < mapModel, "typed model should allocate less than the map");
+        assertTrue(typedSend < mapSend, "rendering with the typed model should allocate less than with the map");
+    }
+
+    private static long bytesPerModel(final com.sun.management.ThreadMXBean threads,
+                                      final ModelValues values,
+                                      final boolean typed,
+                                      final int messages) {
+        final long thread = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(thread);
+        int live = 0;
+        for (int i = 0; i < messages; i++) {
+            live += model(values, typed).hashCode() & 1;
+        }
+        final long after = threads.getThreadAllocatedBytes(thread);
+        assertTrue(live >= 0);
+        return (after - before) / messages;
+    }
+
+    private static long bytesPerSend(final com.sun.management.ThreadMXBean threads,
+                                     final Template subject,
+                                     final Template body,
+                                     final ModelValues values,
+                                     final boolean typed,
+                                     final int messages) throws IOException, TemplateException {
+        final long thread = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(thread);
+        send(subject, body, values, typed, messages);
+        final long after = threads.getThreadAllocatedBytes(thread);
+        return (after - before) / messages;
+    }
+
+    private static void send(final Template subject,
+                             final Template body,
+                             final ModelValues values,
+                             final boolean typed,
+                             final int messages) throws IOException, TemplateException {
+        for (int i = 0; i < messages; i++) {
+            final Object model = model(values, typed);
+            subject.process(model, new StringWriter());
+            body.process(model, new StringWriter());
+        }
+    }
+
+    private static Object model(final ModelValues values, final boolean typed) {
+        if (typed) {
+            return TemplateModels.create(TemplateModels.GS_EVENT_RSVP, values);
+        }
+        return values.toMap();
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.template.model;
+
+import com.starfireaviation.email.config.ApplicationProperties;
+import com.starfireaviation.email.util.FormatterCache;
+import com.starfireaviation.email.util.RecipientFormats;
+import com.starfireaviation.email.util.TemplateUtil;
+import com.starfireaviation.model.Event;
+import com.starfireaviation.model.User;
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.TemplateHashModel;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TemplateModelsTest {
+
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    @Test
+    void typedModelsRenderLikeTheMap() throws Exception {
+        final Configuration config = config();
+        final ModelValues values = values(user(7L), event(3L));
+        for (String name : TemplateModels.NAMES) {
+            if (TemplateModels.QUESTION.equals(name)) {
+                continue;
+            }
+            final TemplateHashModel typed = TemplateModels.create(name, values);
+            for (String suffix : new String[] {"_subject.ftl", "_body.ftl"}) {
+                assertEquals(render(config, name + suffix, values.toMap()), render(config, name + suffix, typed), name);
+            }
+        }
+    }
+
+    @Test
+    void modelHoldsOnlyWhatItsTemplatesReference() throws Exception {
+        final TemplateHashModel invite = TemplateModels.create(TemplateModels.INVITE, values(user(7L), null));
+        assertTrue(invite instanceof InviteModel);
+        assertEquals("Pat", ((InviteModel) invite).getFirstName());
+        assertNotNull(invite.get("hostui"));
+        assertNull(invite.get("eventtitle"));
+        assertFalse(invite.isEmpty());
+        assertNull(TemplateModels.create("organization_override", values(user(7L), null)));
+    }
+
+    @Test
+    void modelsAreEqualWhenReferencedValuesAre() {
+        final TypedModel first = TemplateModels.create(TemplateModels.USER_DELETE, values(user(7L), null));
+        final TypedModel second = TemplateModels.create(TemplateModels.USER_DELETE, values(user(8L), null));
+        assertEquals(first, second, "user_delete does not reference the user ID");
+        assertEquals(first.hashCode(), second.hashCode());
+        assertNotEquals(
+                TemplateModels.create(TemplateModels.GS_EVENT_RSVP, values(user(7L), event(3L))),
+                TemplateModels.create(TemplateModels.GS_EVENT_RSVP, values(user(8L), event(3L))));
+    }
+
+    @Test
+    void idsAreWrittenWithoutGrouping() throws Exception {
+        final Configuration config = config();
+        final ModelValues values = values(user(1234567L), event(98765L));
+        assertEquals("1234567", values.getUserId());
+        assertEquals("98765", values.getEventId());
+        final String body = render(
+                config, "gs_event_rsvp_body.ftl", TemplateModels.create(TemplateModels.GS_EVENT_RSVP, values));
+        assertTrue(body.contains("/98765/"), body);
+        assertFalse(body.contains("98,765"), body);
+    }
+
+    @Test
+    void missingEventIsEmpty() {
+        final ModelValues values = values(user(7L), null);
+        assertEquals("", values.getEvent());
+        assertEquals("", values.getEventId());
+        assertNull(values.getQuestionText());
+        assertNull(values.getAnswerChoice1());
+    }
+
+    static Configuration config() {
+        final Configuration config = new Configuration(Configuration.VERSION_2_3_31);
+        config.setTemplateLoader(new ClassTemplateLoader(TemplateModelsTest.class, "/templates"));
+        config.setDefaultEncoding("UTF-8");
+        return config;
+    }
+
+    static ModelValues values(final User user, final Event event) {
+        final ApplicationProperties properties = new ApplicationProperties();
+        properties.setHostApp("https://app.example.com");
+        final RecipientFormats formats = new FormatterCache(NEW_YORK, Locale.US, NEW_YORK, TemplateUtil.PATTERNS)
+                .defaults();
+        return new ModelValues(user, event, null, properties, formats);
+    }
+
+    static User user(final long id) {
+        final User user = new User();
+        user.setId(id);
+        user.setEmail("pat" + id + "@example.com");
+        user.setFirstName("Pat");
+        user.setLastName("Student");
+        user.setCode("reset-" + id);
+        return user;
+    }
+
+    static Event event(final long id) {
+        final Event event = new Event();
+        event.setId(id);
+        event.setTitle("Ground School: Weather");
+        event.setStartTime(LocalDateTime.of(2026, 7, 4, 18, 0));
+        return event;
+    }
+
+    static String render(final Configuration config, final String name, final Object model) throws Exception {
+        final StringWriter out = new StringWriter();
+        config.getTemplate(name).process(model, out);
+        return out.toString();
+    }
+
+}
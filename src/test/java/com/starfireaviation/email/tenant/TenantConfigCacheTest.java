@@ -0,0 +1,158 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.tenant;
+
+import com.starfireaviation.email.config.ApplicationProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TenantConfigCacheTest {
+
+    private static final long WAIT_MILLIS = 5_000L;
+
+    @TempDir
+    Path directory;
+
+    private final AtomicReference<Map<String, TenantProperties>> organizations =
+            new AtomicReference<>(new HashMap<>());
+
+    private TenantConfigCache cache;
+
+    @AfterEach
+    void tearDown() {
+        if (cache != null) {
+            cache.shutdown();
+        }
+    }
+
+    @Test
+    void refreshPicksUpChangedOrganizations() {
+        organizations.set(Map.of("acme", tenant("ground@acme.example", 0)));
+        cache = new TenantConfigCache(organizations::get, props(), 60L);
+        cache.refresh();
+        assertEquals("ground@acme.example", cache.get("acme").getFromAddress());
+
+        organizations.set(Map.of("acme", tenant("school@acme.example", 0), "zenith", tenant(null, 0)));
+        cache.refresh();
+        assertEquals("school@acme.example", cache.get("acme").getFromAddress());
+        assertEquals("noreply@example.com", cache.get("zenith").getFromAddress(), "unset values fall back");
+    }
+
+    @Test
+    void unknownOrganizationGetsTheDefault() {
+        cache = new TenantConfigCache(organizations::get, props(), 60L);
+        cache.refresh();
+        assertEquals("default", cache.get("nobody").getOrganization());
+        assertEquals("noreply@example.com", cache.get("nobody").getFromAddress());
+        assertEquals("key", cache.get("nobody").getSendGridApiKey());
+
+        organizations.set(Map.of("default", tenant("default@example.com", 0)));
+        cache.refresh();
+        assertEquals("default@example.com", cache.get("nobody").getFromAddress());
+    }
+
+    @Test
+    void rateLimiterIsCarriedOverUntilTheRateChanges() {
+        organizations.set(Map.of("acme", tenant(null, 5)));
+        cache = new TenantConfigCache(organizations::get, props(), 60L);
+        cache.refresh();
+        final SendRateLimiter limiter = cache.get("acme").getRateLimiter();
+
+        organizations.set(Map.of("acme", tenant("school@acme.example", 5)));
+        cache.refresh();
+        assertSame(limiter, cache.get("acme").getRateLimiter());
+
+        organizations.set(Map.of("acme", tenant("school@acme.example", 10)));
+        cache.refresh();
+        assertNotSame(limiter, cache.get("acme").getRateLimiter());
+        assertEquals(10d, cache.get("acme").getRateLimiter().getPermitsPerSecond());
+    }
+
+    @Test
+    void scheduledRefreshReadsTheEditedFileAndSurvivesABadOne() throws Exception {
+        final Path file = directory.resolve("organizations.yml");
+        write(file, "email:\n  organizations:\n    acme:\n      from-address: ground@acme.example\n");
+        cache = new TenantConfigCache(new FileTenantConfigSource(file), props(), 1L);
+        cache.start();
+        assertEquals("ground@acme.example", cache.get("acme").getFromAddress());
+
+        write(file, "email:\n  organizations:\n    acme:\n      from-address: school@acme.example\n"
+                + "      max-sends-per-second: 3\n");
+        awaitFromAddress("school@acme.example");
+        assertEquals(3d, cache.get("acme").getRateLimiter().getPermitsPerSecond());
+
+        Files.delete(file);
+        Thread.sleep(2_000L);
+        assertEquals("school@acme.example", cache.get("acme").getFromAddress(), "previous snapshot kept");
+    }
+
+    @Test
+    void readsPropertiesFilesAndFailsOnAMissingOne() throws Exception {
+        final Path file = directory.resolve("organizations.properties");
+        write(file, "email.organizations.acme.send-grid-api-key=acme-key\n"
+                + "email.organizations.acme.template-overrides[password_reset_body.ftl]=acme/reset.ftl\n");
+        final Map<String, TenantProperties> loaded = new FileTenantConfigSource(file).load();
+        assertEquals("acme-key", loaded.get("acme").getSendGridApiKey());
+        assertEquals("acme/reset.ftl", loaded.get("acme").getTemplateOverrides().get("password_reset_body.ftl"));
+
+        assertThrows(IllegalStateException.class,
+                () -> new FileTenantConfigSource(directory.resolve("missing.yml")).load());
+    }
+
+    private void awaitFromAddress(final String expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!expected.equals(cache.get("acme").getFromAddress()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+        assertEquals(expected, cache.get("acme").getFromAddress());
+    }
+
+    private static void write(final Path file, final String contents) throws Exception {
+        final Path temp = Files.createTempFile(file.getParent(), "organizations", ".tmp");
+        Files.write(temp, contents.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ApplicationProperties props() {
+        final ApplicationProperties props = new ApplicationProperties();
+        props.setFromAddress("noreply@example.com");
+        props.setSendGridApiKey("key");
+        return props;
+    }
+
+    private static TenantProperties tenant(final String fromAddress, final double rate) {
+        final TenantProperties tenant = new TenantProperties();
+        tenant.setFromAddress(fromAddress);
+        tenant.setMaxSendsPerSecond(rate);
+        return tenant;
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+import com.starfireaviation.email.exception.TransportException;
+import com.starfireaviation.email.standin.MailApiStandIn;
+import com.starfireaviation.email.template.RenderBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long BASE_RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private static final long SLOW_RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(80);
+
+    private static final int ROUNDS = 100;
+
+    private static final int SETTLED_ROUNDS = 10;
+
+    private static final int CLIENTS = 48;
+
+    private static final long TIMEOUT_MILLIS = 5000L;
+
+    private static final long WINDOW_MILLIS = 50L;
+
+    @Test
+    void convergesNearProviderCapacity() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 200, 0L);
+        assertBetween(16, 40, simulate(limiter, 16, BASE_RTT_NANOS));
+        assertEquals(20.0, limiter.getNoLoadRttMillis(), 0.5);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void followsProviderCapacity() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 200, 0L);
+        final int before = simulate(limiter, 32, BASE_RTT_NANOS);
+        assertBetween(32, 80, before);
+        final int squeezed = simulate(limiter, 4, BASE_RTT_NANOS);
+        assertTrue(squeezed < before / 2, before + " -> " + squeezed);
+        assertBetween(32, 80, simulate(limiter, 32, BASE_RTT_NANOS));
+    }
+
+    @Test
+    void relearnsUnloadedLatency() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 200, 0L);
+        simulate(limiter, 16, BASE_RTT_NANOS);
+        final int slow = simulate(limiter, 16, SLOW_RTT_NANOS);
+        assertEquals(80.0, limiter.getNoLoadRttMillis(), 0.5, "slower provider, not queueing");
+        assertBetween(16, 40, slow);
+        final int fast = simulate(limiter, 16, BASE_RTT_NANOS);
+        assertEquals(20.0, limiter.getNoLoadRttMillis(), 0.5);
+        assertBetween(16, 40, fast);
+    }
+
+    @Test
+    void backsOffOnFailures() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(100, 2, 200, 0L);
+        for (int i = 0; i < 100; i++) {
+            limiter.release(limiter.acquire(), BASE_RTT_NANOS, true);
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void leavesUnusedLimitAlone() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 1, 200, 0L);
+        for (int i = 0; i < ROUNDS; i++) {
+            limiter.release(limiter.acquire(), BASE_RTT_NANOS * (1 + i % 5), false);
+        }
+        assertEquals(20, limiter.getLimit());
+    }
+
+    @Test
+    void permanentRefusalIsNotABackoff() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 200, 0L);
+        final LimitedTransport transport = new LimitedTransport(new MailTransport() {
+            @Override
+            public String getName() {
+                return "refusing";
+            }
+
+            @Override
+            public void send(final OutboundMail mail) {
+                throw new TransportException("invalid address", true);
+            }
+        }, limiter);
+        for (int i = 0; i < 20; i++) {
+            try {
+                transport.send(null);
+            } catch (TransportException e) {
+                assertTrue(e.isPermanent());
+            }
+        }
+        assertEquals(10, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void tracksStandInAsItsLatencyChanges() throws Exception {
+        final MailApiStandIn standIn = new MailApiStandIn().start();
+        final ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            standIn.setCapacity(8);
+            standIn.setLatency(10L, 0L);
+            final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, CLIENTS, WINDOW_MILLIS);
+            final LimitedTransport transport = new LimitedTransport(
+                    new SendGridTransport("sendgrid", standIn.getBaseUrl(), TIMEOUT_MILLIS, false),
+                    limiter);
+
+            drive(clients, transport, 3000);
+            final int loaded = limiter.getLimit();
+            assertTrue(loaded < CLIENTS * 3 / 4, "stays below the client count: " + loaded);
+
+            standIn.setLatency(40L, 0L);
+            drive(clients, transport, 400);
+            assertTrue(limiter.getLimit() < loaded, "slowdown: " + loaded + " -> " + limiter.getLimit());
+
+            standIn.setCapacity(0);
+            standIn.setLatency(10L, 0L);
+            drive(clients, transport, 3000);
+            assertTrue(limiter.getLimit() > loaded, "more capacity: " + loaded + " -> " + limiter.getLimit());
+            assertEquals(0, standIn.getFailed());
+        } finally {
+            clients.shutdownNow();
+            standIn.stop();
+        }
+    }
+
+    private static int simulate(final AdaptiveConcurrencyLimiter limiter,
+                                final int capacity,
+                                final long unloadedNanos) throws Exception {
+        int settled = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            final List<Long> tickets = new ArrayList<>();
+            while (limiter.getInFlight() < limiter.getLimit()) {
+                tickets.add(limiter.acquire());
+            }
+            final long rtt = unloadedNanos * Math.max(capacity, tickets.size()) / capacity;
+            for (long ticket : tickets) {
+                limiter.release(ticket, rtt, false);
+            }
+            if (round >= ROUNDS - SETTLED_ROUNDS) {
+                settled = Math.max(settled, tickets.size());
+            }
+        }
+        return settled;
+    }
+
+    private static void assertBetween(final int low, final int high, final int actual) {
+        assertTrue(actual >= low && actual <= high, actual + " not in [" + low + ", " + high + "]");
+    }
+
+    private static void drive(final ExecutorService clients,
+                              final MailTransport transport,
+                              final int mails) throws Exception {
+        final RenderBuffer body = new RenderBuffer(64);
+        body.append("<p>Hello</p>".getBytes(StandardCharsets.UTF_8));
+        final List<Future<?>> sends = new ArrayList<>();
+        for (int i = 0; i < mails; i++) {
+            sends.add(clients.submit(() -> transport.send(
+                    new OutboundMail("from@example.com", "to@example.com", "Subject", body, "key"))));
+        }
+        for (Future<?> send : sends) {
+            send.get();
+        }
+    }
+
+}
@@ -0,0 +1,294 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+import com.starfireaviation.email.exception.TransportException;
+import com.starfireaviation.email.standin.MailApiStandIn;
+import com.starfireaviation.email.standin.SmtpStandIn;
+import com.starfireaviation.email.template.RenderBuffer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MailRouterTest {
+
+    private static final int THRESHOLD = 5;
+
+    private static final long TIMEOUT_MILLIS = 2000L;
+
+    private static final int MAILS = 200;
+
+    private MailApiStandIn primary;
+
+    private MailApiStandIn secondary;
+
+    private SmtpStandIn relay;
+
+    private RenderBuffer body;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        primary = new MailApiStandIn().start();
+        secondary = new MailApiStandIn().start();
+        relay = new SmtpStandIn().start();
+        body = new RenderBuffer(64);
+        body.append("<p>Hello</p>".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void tearDown() {
+        primary.stop();
+        secondary.stop();
+        relay.stop();
+    }
+
+    @Test
+    void breakerOpensThenLetsOneProbeThrough() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(3, 50L);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        TimeUnit.MILLISECONDS.sleep(60L);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire(), "probe");
+        assertFalse(breaker.tryAcquire(), "only one probe at a time");
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(), "failed probe reopens");
+
+        TimeUnit.MILLISECONDS.sleep(60L);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void errorStormFailsOverWithoutLosingMail() {
+        primary.setErrorRate(1.0);
+        final MailRouter router = router(TimeUnit.MINUTES.toMillis(1))
+                .addProvider(sendGrid("primary", primary), 3)
+                .addProvider(sendGrid("secondary", secondary), 1);
+        sendAll(router);
+        assertEquals(MAILS, secondary.getAccepted(), "every mail delivered");
+        assertEquals(THRESHOLD, primary.getFailed(), "breaker stops calls after the threshold");
+        assertEquals(CircuitBreaker.State.OPEN, router.getCircuitStates().get("primary"));
+        assertEquals(TransportHealth.DEGRADED, router.getHealth());
+    }
+
+    @Test
+    void recoveredProviderWinsTrafficBack() throws Exception {
+        primary.setErrorRate(1.0);
+        final MailRouter router = router(100L)
+                .addProvider(sendGrid("primary", primary), 3)
+                .addProvider(sendGrid("secondary", secondary), 1);
+        sendAll(router);
+        primary.setErrorRate(0.0);
+        TimeUnit.MILLISECONDS.sleep(150L);
+        sendAll(router);
+        assertEquals(CircuitBreaker.State.CLOSED, router.getCircuitStates().get("primary"));
+        assertTrue(primary.getAccepted() > MAILS / 4, "primary back in rotation: " + primary.getAccepted());
+        assertEquals(2 * MAILS, primary.getAccepted() + secondary.getAccepted());
+    }
+
+    @Test
+    void slowProviderLosesShare() {
+        primary.setLatency(50L, 0L);
+        final MailRouter router = router(TimeUnit.MINUTES.toMillis(1))
+                .addProvider(sendGrid("primary", primary), 1)
+                .addProvider(sendGrid("secondary", secondary), 1);
+        sendAll(router);
+        assertTrue(secondary.getAccepted() > 2 * primary.getAccepted(),
+                primary.getAccepted() + " slow vs " + secondary.getAccepted() + " fast");
+        assertTrue(router.getShares().get("secondary") > router.getShares().get("primary"));
+    }
+
+    @Test
+    void sendGridStormFailsOverToSmtpRelay() {
+        primary.setErrorRate(1.0);
+        final JavaMailSenderImpl sender = new JavaMailSenderImpl();
+        sender.setHost("localhost");
+        sender.setPort(relay.getPort());
+        final MailRouter router = router(TimeUnit.MINUTES.toMillis(1))
+                .addProvider(sendGrid("sendgrid", primary), 1)
+                .addProvider(new SmtpTransport("relay", sender), 1);
+        sendAll(router);
+        assertEquals(MAILS, relay.getAccepted());
+    }
+
+    @Test
+    void smtpTransientFailuresCountAgainstRelay() {
+        relay.setErrorRate(1.0);
+        final JavaMailSenderImpl sender = new JavaMailSenderImpl();
+        sender.setHost("localhost");
+        sender.setPort(relay.getPort());
+        final SmtpTransport transport = new SmtpTransport("relay", sender);
+        final TransportException e = assertThrows(TransportException.class, () -> transport.send(mail()));
+        assertFalse(e.isPermanent());
+    }
+
+    @Test
+    void permanentFailureIsNotRetriedElsewhere() {
+        final CountingTransport refusing = new CountingTransport("refusing");
+        refusing.failWith(new TransportException("invalid address", true));
+        final CountingTransport other = new CountingTransport("other");
+        final MailRouter router = router(TimeUnit.MINUTES.toMillis(1))
+                .addProvider(refusing, 1000)
+                .addProvider(other, 1);
+        int refused = 0;
+        for (int i = 0; i < MAILS; i++) {
+            try {
+                router.send(mail());
+            } catch (TransportException e) {
+                assertTrue(e.isPermanent());
+                refused++;
+            }
+        }
+        assertEquals(refusing.getCalls(), refused);
+        assertEquals(MAILS, refusing.getCalls() + other.getCalls(), "one attempt per mail");
+        assertEquals(CircuitBreaker.State.CLOSED, router.getCircuitStates().get("refusing"));
+    }
+
+    @Test
+    void permanentFailureDoesNotResetTheBreaker() {
+        final CountingTransport flaky = new CountingTransport("flaky");
+        final MailRouter router = router(TimeUnit.MINUTES.toMillis(1)).addProvider(flaky, 1);
+        flaky.failWith(new TransportException("503", false));
+        for (int i = 1; i < THRESHOLD; i++) {
+            assertFalse(assertThrows(TransportException.class, () -> router.send(mail())).isPermanent());
+        }
+        flaky.failWith(new TransportException("invalid address", true));
+        assertTrue(assertThrows(TransportException.class, () -> router.send(mail())).isPermanent());
+        assertEquals(CircuitBreaker.State.CLOSED, router.getCircuitStates().get("flaky"));
+
+        flaky.failWith(new TransportException("503", false));
+        assertThrows(TransportException.class, () -> router.send(mail()));
+        assertEquals(CircuitBreaker.State.OPEN, router.getCircuitStates().get("flaky"), "refusal is not a success");
+    }
+
+    @Test
+    void providerFaultStatusesFailOver() throws Exception {
+        for (int status : new int[] {401, 403, 404, 413, 429}) {
+            final MailApiStandIn failing = new MailApiStandIn().start();
+            try {
+                failing.setErrorRate(1.0);
+                failing.setErrorStatus(status);
+                final MailRouter router = router(TimeUnit.MINUTES.toMillis(1))
+                        .addProvider(sendGrid("failing", failing), 1000)
+                        .addProvider(sendGrid("secondary", secondary), 1);
+                final long before = secondary.getAccepted();
+                sendAll(router);
+                assertEquals(MAILS, secondary.getAccepted() - before, status + " fails over");
+                assertEquals(THRESHOLD, failing.getFailed(), status + " counts against the provider");
+                assertEquals(CircuitBreaker.State.OPEN, router.getCircuitStates().get("failing"));
+            } finally {
+                failing.stop();
+            }
+        }
+    }
+
+    @Test
+    void badRequestIsPermanent() {
+        primary.setErrorRate(1.0);
+        primary.setErrorStatus(400);
+        final SendGridTransport transport = sendGrid("primary", primary);
+        assertTrue(assertThrows(TransportException.class, () -> transport.send(mail())).isPermanent());
+        assertTrue(SendGridTransport.isPermanent(422));
+        assertFalse(SendGridTransport.isPermanent(500));
+        assertFalse(SendGridTransport.isPermanent(503));
+    }
+
+    @Test
+    void allCircuitsOpenFailsFast() {
+        primary.setErrorRate(1.0);
+        secondary.setErrorRate(1.0);
+        final MailRouter router = router(TimeUnit.MINUTES.toMillis(1))
+                .addProvider(sendGrid("primary", primary), 1)
+                .addProvider(sendGrid("secondary", secondary), 1);
+        for (int i = 0; i < MAILS; i++) {
+            assertThrows(TransportException.class, () -> router.send(mail()));
+        }
+        assertEquals(TransportHealth.DOWN, router.getHealth());
+        assertEquals(2 * THRESHOLD, primary.getFailed() + secondary.getFailed());
+    }
+
+    private MailRouter router(final long openMillis) {
+        return new MailRouter(THRESHOLD, openMillis, new SimpleMeterRegistry());
+    }
+
+    private SendGridTransport sendGrid(final String name, final MailApiStandIn standIn) {
+        return new SendGridTransport(name, standIn.getBaseUrl(), TIMEOUT_MILLIS, false);
+    }
+
+    private OutboundMail mail() {
+        return new OutboundMail("from@example.com", "to@example.com", "Subject", body, "key");
+    }
+
+    private void sendAll(final MailRouter router) {
+        for (int i = 0; i < MAILS; i++) {
+            router.send(mail());
+        }
+    }
+
+    private static final class CountingTransport implements MailTransport {
+
+        private final String name;
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private volatile TransportException failure;
+
+        CountingTransport(final String aName) {
+            name = aName;
+        }
+
+        void failWith(final TransportException e) {
+            failure = e;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void send(final OutboundMail mail) {
+            calls.incrementAndGet();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        int getCalls() {
+            return calls.get();
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.transport;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.starfireaviation.email.standin.MailApiStandIn;
+import com.starfireaviation.email.template.RenderBuffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SendGridTransportTest {
+
+    private static final long TIMEOUT_MILLIS = 2000L;
+
+    private static final String HTML = "<p class=\"greeting\">Hi Zoë — \"quoted\"\n\tback\\slash ✈ \u0001</p>";
+
+    private static final int LARGE_BODY_BYTES = 2 * 1024 * 1024;
+
+    private static final int WARM_UP = 20;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private MailApiStandIn standIn;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        standIn = new MailApiStandIn().start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        standIn.stop();
+    }
+
+    @Test
+    void writesMailSendJson() throws Exception {
+        new SendGridTransport("sendgrid", standIn.getBaseUrl(), TIMEOUT_MILLIS, false).send(mail(HTML));
+
+        assertNull(standIn.getLastEncoding());
+        final JsonNode request = mapper.readTree(standIn.getLastBody());
+        assertRequest(request, HTML);
+        assertTrue(request.at("/reply_to").isMissingNode());
+    }
+
+    @Test
+    void copiesEncodedAttachments() throws Exception {
+        final byte[] ics = "BEGIN:VCALENDAR\r\nEND:VCALENDAR\r\n".getBytes(StandardCharsets.UTF_8);
+        final Attachment invite = new Attachment(
+                "invite.ics",
+                "text/calendar",
+                Base64.getEncoder().encode(ics),
+                Base64.getMimeEncoder().encode(ics));
+        final OutboundMail mail = mail(HTML);
+        new SendGridTransport("sendgrid", standIn.getBaseUrl(), TIMEOUT_MILLIS, false).send(new OutboundMail(
+                mail.getFromAddress(),
+                "reply+token@example.com",
+                mail.getToAddress(),
+                mail.getSubject(),
+                mail.getBody(),
+                null,
+                mail.getApiKey(),
+                List.of(invite)));
+
+        final JsonNode request = mapper.readTree(standIn.getLastBody());
+        assertRequest(request, HTML);
+        assertEquals("reply+token@example.com", request.at("/reply_to/email").asText());
+        assertEquals("invite.ics", request.at("/attachments/0/filename").asText());
+        assertEquals("text/calendar", request.at("/attachments/0/type").asText());
+        assertArrayEquals(ics, Base64.getDecoder().decode(request.at("/attachments/0/content").asText()));
+    }
+
+    @Test
+    void putsPlainTextBeforeHtml() throws Exception {
+        final OutboundMail mail = mail(HTML);
+        final RenderBuffer text = new RenderBuffer(16);
+        text.append("Hi Zoë\n".getBytes(StandardCharsets.UTF_8));
+        new SendGridTransport("sendgrid", standIn.getBaseUrl(), TIMEOUT_MILLIS, false).send(new OutboundMail(
+                mail.getFromAddress(),
+                null,
+                mail.getToAddress(),
+                mail.getSubject(),
+                mail.getBody(),
+                text,
+                mail.getApiKey(),
+                List.of()));
+
+        final JsonNode request = mapper.readTree(standIn.getLastBody());
+        assertEquals("text/plain", request.at("/content/0/type").asText());
+        assertEquals("Hi Zoë\n", request.at("/content/0/value").asText());
+        assertEquals("text/html", request.at("/content/1/type").asText());
+        assertEquals(HTML, request.at("/content/1/value").asText());
+    }
+
+    @Test
+    void gzipCompressesRequest() throws Exception {
+        final String html = HTML.repeat(1000);
+        new SendGridTransport("sendgrid", standIn.getBaseUrl(), TIMEOUT_MILLIS, true).send(mail(html));
+
+        assertEquals("gzip", standIn.getLastEncoding());
+        assertTrue(standIn.getBytesReceived() < standIn.getLastBody().length / 10, "compressed on the wire");
+        assertRequest(mapper.readTree(standIn.getLastBody()), html);
+    }
+
+    @Test
+    void serializingAllocatesLessThanTheBody() throws Exception {
+        final RenderBuffer body = new RenderBuffer(LARGE_BODY_BYTES);
+        final byte[] line = "<tr><td>\"Ground school\" — 18:00</td></tr>\n".getBytes(StandardCharsets.UTF_8);
+        while (body.size() + line.length <= LARGE_BODY_BYTES) {
+            body.append(line);
+        }
+        final OutboundMail mail = new OutboundMail("from@example.com", "to@example.com", "Subject", body, "key");
+        final OutputStream sink = OutputStream.nullOutputStream();
+        for (int i = 0; i < WARM_UP; i++) {
+            SendGridTransport.writeRequest(mail, sink);
+        }
+
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(thread);
+        SendGridTransport.writeRequest(mail, sink);
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(allocated < body.size() / 2, allocated + " bytes allocated for a " + body.size() + " byte body");
+    }
+
+    private OutboundMail mail(final String html) {
+        final byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+        final RenderBuffer body = new RenderBuffer(bytes.length);
+        body.append(bytes);
+        return new OutboundMail("from@example.com", "to@example.com", "Subject \"1\"", body, "key");
+    }
+
+    private static void assertRequest(final JsonNode request, final String html) {
+        assertEquals("to@example.com", request.at("/personalizations/0/to/0/email").asText());
+        assertEquals("from@example.com", request.at("/from/email").asText());
+        assertEquals("Subject \"1\"", request.at("/subject").asText());
+        assertEquals("text/html", request.at("/content/0/type").asText());
+        assertEquals(html, request.at("/content/0/value").asText());
+    }
+
+}
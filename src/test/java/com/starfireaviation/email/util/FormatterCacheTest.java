@@ -0,0 +1,89 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FormatterCacheTest {
+
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 7, 4, 18, 0);
+
+    @Test
+    void convertsEventTimeToRecipientZone() {
+        final RecipientFormats formats = cache().get("America/Los_Angeles", "en-US");
+        final ZonedDateTime start = START.atZone(formats.getEventZone());
+        assertEquals("Sat Jul 04, 2026 03:00 PM PDT", formats.formatter(TemplateUtil.EVENT_TIME_PATTERN).format(start));
+        assertEquals("Saturday", formats.formatter(TemplateUtil.DAY_OF_WEEK_PATTERN).format(start));
+    }
+
+    @Test
+    void formatsInRecipientLocale() {
+        final RecipientFormats formats = cache().get("Europe/Berlin", "de-DE");
+        final ZonedDateTime start = START.atZone(formats.getEventZone());
+        assertEquals("Sonntag", formats.formatter(TemplateUtil.DAY_OF_WEEK_PATTERN).format(start));
+        assertEquals(Locale.GERMANY, formats.getLocale());
+    }
+
+    @Test
+    void unknownZoneAndLocaleFallBackToDefaults() {
+        final FormatterCache cache = cache();
+        assertSame(cache.defaults(), cache.get((String) null, null));
+        assertSame(cache.defaults(), cache.get("Mars/Olympus_Mons", ""));
+        assertEquals(NEW_YORK, cache.zone("not a zone"));
+        assertEquals(Locale.US, cache.locale("12345678901"));
+        assertEquals(Locale.CANADA_FRENCH, cache.locale("fr_CA"));
+    }
+
+    @Test
+    void formattersAreBuiltOnce() {
+        final FormatterCache cache = cache();
+        final RecipientFormats formats = cache.get("Asia/Tokyo", "ja-JP");
+        assertSame(formats, cache.get("Asia/Tokyo", "ja-JP"));
+        assertSame(
+                formats.formatter(TemplateUtil.EVENT_TIME_PATTERN),
+                formats.formatter(TemplateUtil.EVENT_TIME_PATTERN));
+        assertSame(formats.formatter("yyyy-MM-dd"), formats.formatter("yyyy-MM-dd"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void warmCoversEveryZone() {
+        final FormatterCache cache = cache();
+        cache.warm(List.of("en-US", "es-MX"));
+        assertTrue(cache.size() >= ZoneId.getAvailableZoneIds().size() * 2);
+        final int warmed = cache.size();
+        cache.get("Australia/Sydney", "es-MX");
+        assertEquals(warmed, cache.size());
+    }
+
+    private static FormatterCache cache() {
+        return new FormatterCache(NEW_YORK, Locale.US, NEW_YORK, TemplateUtil.PATTERNS);
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright (C) 2022 Starfire Aviation, LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.starfireaviation.email.webhook;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebhookAuthenticatorTest {
+
+    private static final long NOW = 1_700_000_000L;
+
+    private static final byte[] PAYLOAD = "[{\"email\":\"a@example.com\",\"event\":\"bounce\"}]"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private KeyPair keys;
+
+    private WebhookAuthenticator authenticator;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        keys = keyPair();
+        authenticator = new WebhookAuthenticator(
+                Base64.getEncoder().encodeToString(keys.getPublic().getEncoded()),
+                "s3cret",
+                600L,
+                Clock.fixed(Instant.ofEpochSecond(NOW), ZoneOffset.UTC));
+    }
+
+    @Test
+    void acceptsEventsSignedWithTheProvidersKey() throws Exception {
+        final String timestamp = Long.toString(NOW - 60L);
+        assertTrue(authenticator.verifyEvents(sign(keys, timestamp, PAYLOAD), timestamp, PAYLOAD));
+    }
+
+    @Test
+    void rejectsTamperedForgedStaleAndUnsignedEvents() throws Exception {
+        final String timestamp = Long.toString(NOW);
+        final String signature = sign(keys, timestamp, PAYLOAD);
+        final byte[] tampered = "[{\"email\":\"b@example.com\",\"event\":\"bounce\"}]".getBytes(StandardCharsets.UTF_8);
+
+        assertFalse(authenticator.verifyEvents(signature, timestamp, tampered), "tampered body");
+        assertFalse(authenticator.verifyEvents(signature, Long.toString(NOW + 1L), PAYLOAD), "tampered timestamp");
+        assertFalse(authenticator.verifyEvents(sign(keyPair(), timestamp, PAYLOAD), timestamp, PAYLOAD), "other key");
+        final String stale = Long.toString(NOW - 601L);
+        assertFalse(authenticator.verifyEvents(sign(keys, stale, PAYLOAD), stale, PAYLOAD), "replayed");
+        assertFalse(authenticator.verifyEvents(null, timestamp, PAYLOAD), "unsigned");
+        assertFalse(authenticator.verifyEvents("not base64!", timestamp, PAYLOAD), "garbage signature");
+        assertFalse(authenticator.verifyEvents(signature, "yesterday", PAYLOAD), "garbage timestamp");
+    }
+
+    @Test
+    void inboundNeedsTheSharedSecret() {
+        assertTrue(authenticator.verifyInbound(basic("parse", "s3cret")));
+        assertFalse(authenticator.verifyInbound(basic("parse", "guess")));
+        assertFalse(authenticator.verifyInbound(basic("s3cret", "")));
+        assertFalse(authenticator.verifyInbound("Bearer s3cret"));
+        assertFalse(authenticator.verifyInbound("Basic %%%"));
+        assertFalse(authenticator.verifyInbound(null));
+    }
+
+    @Test
+    void rejectsEverythingWhenNotConfigured() throws Exception {
+        final WebhookAuthenticator open = new WebhookAuthenticator(null, null, 600L, Clock.systemUTC());
+        final String timestamp = Long.toString(Instant.now().getEpochSecond());
+        assertFalse(open.verifyEvents(sign(keys, timestamp, PAYLOAD), timestamp, PAYLOAD));
+        assertFalse(open.verifyInbound(basic("parse", "")));
+    }
+
+    @Test
+    void refusesAKeyThatIsNotAnEcPublicKey() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new WebhookAuthenticator("bm90IGEga2V5", null, 600L, Clock.systemUTC()));
+    }
+
+    static KeyPair keyPair() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+    }
+
+    static String sign(final KeyPair pair, final String timestamp, final byte[] payload) throws Exception {
+        final Signature signer = Signature.getInstance("SHA256withECDSA");
+        signer.initSign(pair.getPrivate());
+        signer.update(timestamp.getBytes(StandardCharsets.UTF_8));
+        signer.update(payload);
+        return Base64.getEncoder().encodeToString(signer.sign());
+    }
+
+    static String basic(final String user, final String password) {
+        return "Basic " + Base64.getEncoder()
+                .encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+}